@@ -2,69 +2,203 @@ package eu.nahoj.fusebox.common.api;
 
 import lombok.Builder;
 import lombok.With;
-import org.apache.commons.collections4.SetUtils;
 import org.cryptomator.jfuse.api.FileModes;
+import org.cryptomator.jfuse.api.Stat;
+import org.cryptomator.jfuse.api.TimeSpec;
 import org.springframework.lang.Nullable;
 
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
-import java.util.EnumSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import static java.nio.file.attribute.PosixFilePermission.GROUP_WRITE;
-import static java.nio.file.attribute.PosixFilePermission.OTHERS_WRITE;
-import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE;
-
+/// File attributes, stored as primitives so that they can flow from a backend to the [Stat] without allocation.
+///
+/// - `mode` holds the file type, the suid/sgid/sticky bits and the permissions, as in `st_mode`.
+/// - Times are nanoseconds since the epoch. [#NO_TIME] marks an unknown creation time.
+///
+/// The object accessors ([#type()], [#permissions()], [#lastModifiedTime()]...) and the [FileAttributesBuilder] setters
+/// taking objects are kept for convenience; hot paths should stick to the primitive ones.
 @Builder
 @With
 public record FileAttributes(
-        // Mode
-        FileType type,
-        boolean suid,
-        boolean sgid,
-        boolean sticky,
-        Set<PosixFilePermission> permissions,
-        // Other
+        int mode,
         int uid,
         int gid,
         long size,
-        @Nullable Instant creationTime,
-        Instant lastAccessTime,
-        Instant lastModifiedTime,
-        Instant lastChangeTime
+        long creationNanos,
+        long lastAccessNanos,
+        long lastModifiedNanos,
+        long lastChangeNanos
 ) {
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int SUID = 04000;
+    private static final int SGID = 02000;
+    private static final int STICKY = 01000;
+    private static final int WRITE_BITS = 0222;
+
     public static FileAttributes minimal(FileType type, long size) {
-        Instant now = Instant.now();
-        return FileAttributes.builder()
-                .type(type)
-                .suid(false)
-                .sgid(false)
-                .sticky(false)
-                .permissions(FileModes.toPermissions(0555))
-                .uid(0)
-                .gid(0)
-                .size(size)
-                .lastAccessTime(now)
-                .lastModifiedTime(now)
-                .lastChangeTime(now)
-                .build();
+        long now = nanos(Instant.now());
+        return new FileAttributes(type.mask() | 0555, 0, 0, size, NO_TIME, now, now, now);
+    }
+
+    /// Attributes to pass to [java.nio.file.Files#readAttributes(java.nio.file.Path, String, java.nio.file.LinkOption...)]
+    /// for [#ofUnixAttributes(Map)]
+    public static final String UNIX_ATTRIBUTE_KEYS = "unix:mode,uid,gid,size," +
+            "creationTime,lastAccessTime,lastModifiedTime,ctime";
+
+    public static FileAttributes ofUnixAttributes(Map<String, Object> attrs) {
+        FileTime creationTime = (FileTime) attrs.get("creationTime");
+        return new FileAttributes(
+                (Integer) attrs.get("mode"),
+                (Integer) attrs.get("uid"),
+                (Integer) attrs.get("gid"),
+                (Long) attrs.get("size"),
+                creationTime == null ? NO_TIME : nanos(creationTime),
+                nanos((FileTime) attrs.get("lastAccessTime")),
+                nanos((FileTime) attrs.get("lastModifiedTime")),
+                nanos((FileTime) attrs.get("ctime"))
+        );
+    }
+
+    // ---------- Mode ----------
+
+    public FileType type() {
+        return FileType.fromMode(mode);
     }
 
     public boolean isDirectory() {
-        return type == FileType.DIRECTORY;
+        return (mode & FileType.S_IFMT) == FileType.DIRECTORY.mask();
+    }
+
+    public boolean suid() {
+        return (mode & SUID) != 0;
+    }
+
+    public boolean sgid() {
+        return (mode & SGID) != 0;
+    }
+
+    public boolean sticky() {
+        return (mode & STICKY) != 0;
+    }
+
+    /// Permission bits only, i.e. `mode & 0777`
+    public int permissionBits() {
+        return mode & 0777;
+    }
+
+    public Set<PosixFilePermission> permissions() {
+        return FileModes.toPermissions(mode);
+    }
+
+    public FileAttributes withPermissions(Set<PosixFilePermission> permissions) {
+        return withPermissionBits(FileModes.fromPermissions(permissions));
+    }
+
+    public FileAttributes withPermissionBits(int bits) {
+        return withMode((mode & ~0777) | (bits & 0777));
+    }
+
+    /// Whether any of the write bits is set
+    public boolean writable() {
+        return (mode & WRITE_BITS) != 0;
     }
 
     public FileAttributes readOnly() {
-        return this.withPermissions(
-                SetUtils.difference(permissions, EnumSet.of(OWNER_WRITE, GROUP_WRITE, OTHERS_WRITE))
-        );
+        return (mode & WRITE_BITS) == 0 ? this : withMode(mode & ~WRITE_BITS);
     }
 
-    public int mode() {
-        return type.mask()
-                | (suid ? 04000 : 0)
-                | (sgid ? 02000 : 0)
-                | (sticky ? 01000 : 0)
-                | FileModes.fromPermissions(permissions);
+    // ---------- Times ----------
+
+    @Nullable
+    public Instant creationTime() {
+        return creationNanos == NO_TIME ? null : instant(creationNanos);
+    }
+
+    public Instant lastAccessTime() {
+        return instant(lastAccessNanos);
+    }
+
+    public Instant lastModifiedTime() {
+        return instant(lastModifiedNanos);
+    }
+
+    public Instant lastChangeTime() {
+        return instant(lastChangeNanos);
+    }
+
+    public static long nanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    public static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    private static Instant instant(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+    }
+
+    // ---------- Stat ----------
+
+    /// Fills `stat`. [TimeSpec] only takes [Instant]s, so this is the one place where times are boxed.
+    public void copyTo(Stat stat) {
+        stat.setMode(mode);
+        stat.setUid(uid);
+        stat.setGid(gid);
+        stat.setSize(size);
+        stat.aTime().set(instant(lastAccessNanos));
+        stat.cTime().set(instant(lastChangeNanos));
+        stat.mTime().set(instant(lastModifiedNanos));
+        if (creationNanos != NO_TIME) stat.birthTime().set(instant(creationNanos));
+    }
+
+    /// Completes the Lombok builder with setters for the parts of `mode` and for object times
+    public static class FileAttributesBuilder {
+        private long creationNanos = NO_TIME;
+
+        public FileAttributesBuilder type(FileType type) {
+            return setModeBits(FileType.S_IFMT, type.mask());
+        }
+
+        public FileAttributesBuilder suid(boolean suid) {
+            return setModeBits(SUID, suid ? SUID : 0);
+        }
+
+        public FileAttributesBuilder sgid(boolean sgid) {
+            return setModeBits(SGID, sgid ? SGID : 0);
+        }
+
+        public FileAttributesBuilder sticky(boolean sticky) {
+            return setModeBits(STICKY, sticky ? STICKY : 0);
+        }
+
+        public FileAttributesBuilder permissions(Set<PosixFilePermission> permissions) {
+            return setModeBits(0777, FileModes.fromPermissions(permissions));
+        }
+
+        private FileAttributesBuilder setModeBits(int mask, int bits) {
+            return mode((mode & ~mask) | (bits & mask));
+        }
+
+        public FileAttributesBuilder creationTime(@Nullable Instant time) {
+            return creationNanos(time == null ? NO_TIME : nanos(time));
+        }
+
+        public FileAttributesBuilder lastAccessTime(Instant time) {
+            return lastAccessNanos(nanos(time));
+        }
+
+        public FileAttributesBuilder lastModifiedTime(Instant time) {
+            return lastModifiedNanos(nanos(time));
+        }
+
+        public FileAttributesBuilder lastChangeTime(Instant time) {
+            return lastChangeNanos(nanos(time));
+        }
     }
 }
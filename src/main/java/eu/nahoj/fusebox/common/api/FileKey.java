@@ -0,0 +1,28 @@
+package eu.nahoj.fusebox.common.api;
+
+import java.util.Map;
+
+/// Identity of a file on a local file system, as `st_dev` and `st_ino`.
+///
+/// It survives renames and is shared by hard links and by every mount of the same directory, whichever backend reads
+/// it. An inode number may be reused once its file is deleted, so it identifies content only together with the size
+/// and modification time.
+public record FileKey(long device, long inode) {
+
+    /// Attributes to pass to [java.nio.file.Files#readAttributes(java.nio.file.Path, String, java.nio.file.LinkOption...)]
+    /// for [#ofUnixAttributes(Map)]
+    public static final String UNIX_ATTRIBUTE_KEYS = "unix:dev,ino";
+
+    public static FileKey ofUnixAttributes(Map<String, Object> attrs) {
+        return new FileKey((Long) attrs.get("dev"), (Long) attrs.get("ino"));
+    }
+
+    /// From the split device number of `statx`, encoded as glibc's `makedev` does for `st_dev`
+    public static FileKey ofStatx(int devMajor, int devMinor, long inode) {
+        long major = Integer.toUnsignedLong(devMajor);
+        long minor = Integer.toUnsignedLong(devMinor);
+        long device = ((major & 0xfffff000L) << 32) | ((major & 0x00000fffL) << 8)
+                | ((minor & 0xffffff00L) << 12) | (minor & 0x000000ffL);
+        return new FileKey(device, inode);
+    }
+}
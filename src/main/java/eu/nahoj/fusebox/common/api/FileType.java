@@ -23,15 +23,23 @@ public enum FileType {
     /// File type mask to extract file type from mode
     public static final int S_IFMT = 0170000;
 
+    /// Indexed by `(mode & S_IFMT) >>> 12`
+    private static final FileType[] BY_TYPE_BITS = new FileType[16];
+
+    static {
+        for (FileType type : values()) {
+            BY_TYPE_BITS[type.mask >>> 12] = type;
+        }
+    }
+
     private final int mask;
 
     public static FileType fromMode(int mode) {
         int fileType = mode & S_IFMT;
-        for (FileType type : values()) {
-            if (type.mask == fileType) {
-                return type;
-            }
+        FileType type = BY_TYPE_BITS[fileType >>> 12];
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown file type: " + fileType);
         }
-        throw new IllegalArgumentException("Unknown file type: " + fileType);
+        return type;
     }
 }
@@ -0,0 +1,757 @@
+package eu.nahoj.fusebox.common.archive;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.api.IsDirectoryException;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/// Read-only index of a ZIP, 7z or TAR archive, possibly a gzip or xz compressed TAR, shared by the nio and vfs2
+/// archive file systems.
+///
+/// - The central directory (or the entry headers) is parsed once into a tree of [Node]s, so that `getattr` and
+///   `readdir` never touch the archive.
+/// - Entries stored without compression are read at their offset in the archive with positional reads, which take
+///   no lock.
+/// - Other entries are decompressed sequentially by each [EntryReader], and the decompressed blocks go to a
+///   [BlockCache]: a random read only decompresses the entry again from its start when its block was evicted.
+/// - A compressed TAR has no index of its own, so it takes one pass over the whole archive to list it. That pass
+///   also records restart points in the compressed stream: checkpoints every [#DEFAULT_CHECKPOINT_SPACING] bytes for
+///   gzip (see [GzipCheckpoints]), and the xz blocks for xz. Reads then decompress from the restart point before
+///   them rather than from the start of the archive. The tree and the checkpoints are persisted in an index file,
+///   which is reused as long as the archive's size and modification time do not change.
+///
+/// Permissions are the ones recorded in the archive (`r-x` or `r--` by default) without the write bits. Owner and
+/// group are the archive file's.
+public final class ArchiveIndex implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveIndex.class);
+
+    public static final long DEFAULT_CACHE_BYTES = 32L * 1024 * 1024;
+    /// Reading from a gzip checkpoint decompresses half of this on average
+    public static final long DEFAULT_CHECKPOINT_SPACING = 8L * 1024 * 1024;
+
+    private static final int INDEX_MAGIC = 0x46424149; // "FBAI"
+    private static final int INDEX_VERSION = 1;
+    private static final String INDEX_SUFFIX = ".fbidx";
+
+    /// Keeps suid/sgid/sticky and the read and execute bits
+    private static final int PERMISSION_BITS = 07555;
+    /// 7z: the high 16 bits of the attributes hold a Unix mode
+    private static final int SEVEN_Z_UNIX_EXTENSION = 0x8000;
+
+    public enum Format {
+        ZIP, SEVEN_Z, TAR, TAR_GZIP, TAR_XZ
+    }
+
+    /// A file or directory of the archive. Directories that only appear as path prefixes get the archive's
+    /// modification time.
+    @Accessors(fluent = true)
+    public static final class Node {
+        @Getter
+        private final String name;
+        @Getter
+        private int mode;
+        @Getter
+        private long size;
+        @Getter
+        private long lastModifiedNanos;
+        /// Target of a symbolic link
+        @Getter
+        private @Nullable String linkTarget;
+        /// Offset of the content in the archive if stored uncompressed, else -1
+        long dataOffset = -1;
+        /// Position of the entry in the archive, to open a decompressing stream on its content
+        int entryIndex = -1;
+        /// Compressed TARs: offset of the content in the decompressed TAR
+        long streamOffset = -1;
+        /// Sorted by name; null unless a directory
+        private final @Nullable Map<String, Node> children;
+
+        private Node(String name, FileType type, int permissions, long lastModifiedNanos) {
+            this.name = name;
+            this.mode = type.mask() | (permissions & PERMISSION_BITS);
+            this.lastModifiedNanos = lastModifiedNanos;
+            this.children = type == FileType.DIRECTORY ? new TreeMap<>() : null;
+        }
+
+        public FileType type() {
+            return FileType.fromMode(mode);
+        }
+
+        public boolean isDirectory() {
+            return children != null;
+        }
+
+        public Collection<String> childNames() {
+            return children == null ? List.of() : Collections.unmodifiableSet(children.keySet());
+        }
+
+        public @Nullable Node child(String name) {
+            return children == null ? null : children.get(name);
+        }
+    }
+
+    /// Decompressing streams on the content of entries
+    @FunctionalInterface
+    private interface ContentStreams {
+
+        /// Opens a stream on the content of `node` from `from`, one of its [#restartPoint]s
+        InputStream open(Node node, long from) throws IOException;
+
+        /// The last offset at or before `offset` from which a stream on `node` can start without decompressing
+        /// the content before it
+        default long restartPoint(Node node, long offset) {
+            return 0;
+        }
+    }
+
+    @Getter
+    @Accessors(fluent = true)
+    private final Path archive;
+    @Getter
+    @Accessors(fluent = true)
+    private final Format format;
+    private final FileChannel channel;
+    private final BlockCache cache;
+    private final boolean ownsCache;
+    private final int uid;
+    private final int gid;
+    private final long archiveModifiedNanos;
+    private final Node root;
+    private final List<Closeable> resources = new ArrayList<>();
+    private final ContentStreams streams;
+
+    public static ArchiveIndex open(Path archive) throws IOException {
+        return open(archive, null);
+    }
+
+    /// Like [#open(Path, BlockCache, Path)], persisting the index of a compressed TAR next to it
+    public static ArchiveIndex open(Path archive, @Nullable BlockCache cache) throws IOException {
+        return open(archive, cache, null);
+    }
+
+    /// @param cache    cache for decompressed blocks, possibly shared with other indexes; if null, the index allocates
+    ///                 one of [#DEFAULT_CACHE_BYTES]
+    /// @param indexDir where to persist the index of a compressed TAR; if null, it goes next to the archive. If the
+    ///                 directory is not writable, the index lasts until this is closed.
+    public static ArchiveIndex open(Path archive, @Nullable BlockCache cache, @Nullable Path indexDir)
+            throws IOException {
+        return open(archive, cache, indexDir, DEFAULT_CHECKPOINT_SPACING);
+    }
+
+    static ArchiveIndex open(Path archive, @Nullable BlockCache cache, @Nullable Path indexDir, long spacing)
+            throws IOException {
+        return new ArchiveIndex(archive, detect(archive), cache, indexDir, spacing);
+    }
+
+    public static Format detect(Path archive) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive))) {
+            String name = ArchiveStreamFactory.detect(in);
+            return switch (name) {
+                case ArchiveStreamFactory.ZIP, ArchiveStreamFactory.JAR -> Format.ZIP;
+                case ArchiveStreamFactory.SEVEN_Z -> Format.SEVEN_Z;
+                case ArchiveStreamFactory.TAR -> Format.TAR;
+                default -> throw new FileSystemException(archive.toString(), null, "Unsupported archive: " + name);
+            };
+        } catch (ArchiveException e) {
+            // Assume a compressed TAR, which the indexing pass checks
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(archive))) {
+                String name = CompressorStreamFactory.detect(in);
+                return switch (name) {
+                    case CompressorStreamFactory.GZIP -> Format.TAR_GZIP;
+                    case CompressorStreamFactory.XZ -> Format.TAR_XZ;
+                    default -> throw new FileSystemException(archive.toString(), null,
+                            "Unsupported compression: " + name);
+                };
+            } catch (CompressorException ce) {
+                throw new FileSystemException(archive.toString(), null, "Not an archive: " + e.getMessage());
+            }
+        }
+    }
+
+    private ArchiveIndex(Path archive, Format format, @Nullable BlockCache cache, @Nullable Path indexDir,
+                         long spacing) throws IOException {
+        this.archive = archive;
+        this.format = format;
+        this.archiveModifiedNanos = Files.getLastModifiedTime(archive).to(TimeUnit.NANOSECONDS);
+        int uid = 0, gid = 0;
+        try {
+            uid = (int) Files.getAttribute(archive, "unix:uid");
+            gid = (int) Files.getAttribute(archive, "unix:gid");
+        } catch (UnsupportedOperationException e) {
+            LOG.debug("No Unix owner for {}", archive);
+        }
+        this.uid = uid;
+        this.gid = gid;
+        this.root = new Node("", FileType.DIRECTORY, 0555, archiveModifiedNanos);
+        this.channel = FileChannel.open(archive, READ);
+        resources.add(channel);
+        try {
+            this.streams = switch (format) {
+                case ZIP -> indexZip();
+                case SEVEN_Z -> indexSevenZ();
+                case TAR -> indexTar();
+                case TAR_GZIP, TAR_XZ -> indexCompressedTar(indexDir, spacing);
+            };
+        } catch (IOException | RuntimeException e) {
+            closeResources();
+            throw e;
+        }
+        this.ownsCache = cache == null;
+        this.cache = cache != null ? cache : new BlockCache(DEFAULT_CACHE_BYTES);
+    }
+
+    // ---------- Indexing ----------
+
+    private ContentStreams indexZip() throws IOException {
+        ZipFile zip = ZipFile.builder().setPath(archive).get();
+        resources.add(zip);
+        List<ZipArchiveEntry> entries = Collections.list(zip.getEntriesInPhysicalOrder());
+        for (int i = 0; i < entries.size(); i++) {
+            ZipArchiveEntry e = entries.get(i);
+            FileType type = e.isDirectory() ? FileType.DIRECTORY
+                    : e.isUnixSymlink() ? FileType.SYMBOLIC_LINK
+                    : FileType.REGULAR_FILE;
+            // getUnixMode() is 0 when the entry was not made on Unix
+            Node node = put(e.getName(), type, e.getUnixMode(), e.getTime() < 0 ? archiveModifiedNanos
+                    : TimeUnit.MILLISECONDS.toNanos(e.getTime()));
+            if (node == null) continue;
+            switch (type) {
+                case SYMBOLIC_LINK -> setLinkTarget(node, zip.getUnixSymlink(e));
+                case REGULAR_FILE -> {
+                    node.size = e.getSize();
+                    node.entryIndex = i;
+                    if (e.getMethod() == ZipEntry.STORED && e.getDataOffset() >= 0 && zip.canReadEntryData(e)) {
+                        node.dataOffset = e.getDataOffset();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return (node, from) -> zip.getInputStream(entries.get(node.entryIndex));
+    }
+
+    private ContentStreams indexTar() throws IOException {
+        TarFile tar = new TarFile(archive);
+        resources.add(tar);
+        List<TarArchiveEntry> entries = tar.getEntries();
+        Map<Node, String> hardLinks = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            TarArchiveEntry e = entries.get(i);
+            Node node = putTarEntry(e, hardLinks);
+            if (node == null || node.type() != FileType.REGULAR_FILE || e.isLink()) continue;
+            node.size = e.isSparse() ? e.getRealSize() : e.getSize();
+            node.entryIndex = i;
+            if (!e.isSparse()) node.dataOffset = e.getDataOffset();
+        }
+        resolveHardLinks(hardLinks);
+        return (node, from) -> tar.getInputStream(entries.get(node.entryIndex));
+    }
+
+    /// Adds the node of a TAR entry, except for its content
+    ///
+    /// @return null if the entry was skipped
+    private @Nullable Node putTarEntry(TarArchiveEntry e, Map<Node, String> hardLinks) {
+        FileType type;
+        if (e.isDirectory()) type = FileType.DIRECTORY;
+        else if (e.isSymbolicLink()) type = FileType.SYMBOLIC_LINK;
+        else if (e.isCharacterDevice() || e.isBlockDevice() || e.isFIFO()) {
+            LOG.debug("Skipping special file {} in {}", e.getName(), archive);
+            return null;
+        } else type = FileType.REGULAR_FILE;
+        Node node = put(e.getName(), type, e.getMode(), e.getLastModifiedTime().to(TimeUnit.NANOSECONDS));
+        if (node == null) return null;
+        if (type == FileType.SYMBOLIC_LINK) {
+            setLinkTarget(node, e.getLinkName());
+        } else if (e.isLink()) {
+            hardLinks.put(node, e.getLinkName());
+        }
+        return node;
+    }
+
+    private void resolveHardLinks(Map<Node, String> hardLinks) {
+        hardLinks.forEach((node, targetPath) -> {
+            Node target = lookup(targetPath);
+            if (target != null && target.type() == FileType.REGULAR_FILE) {
+                node.size = target.size;
+                node.dataOffset = target.dataOffset;
+                node.entryIndex = target.entryIndex;
+                node.streamOffset = target.streamOffset;
+            } else {
+                LOG.warn("Dangling hard link {} -> {} in {}", node.name, targetPath, archive);
+            }
+        });
+    }
+
+    private ContentStreams indexSevenZ() throws IOException {
+        List<SevenZArchiveEntry> entries = new ArrayList<>();
+        try (SevenZFile sevenZ = SevenZFile.builder().setPath(archive).get()) {
+            sevenZ.getEntries().forEach(entries::add);
+        }
+        // A SevenZFile decodes one entry at a time: each stream gets its own
+        ContentStreams streams = (node, from) -> {
+            SevenZFile sevenZ = SevenZFile.builder().setPath(archive).get();
+            try {
+                SevenZArchiveEntry entry = null;
+                int j = 0;
+                for (SevenZArchiveEntry e : sevenZ.getEntries()) {
+                    if (j++ == node.entryIndex) entry = e;
+                }
+                if (entry == null) throw new FileSystemException(archive.toString(), null, "Archive changed");
+                return new FilterInputStream(sevenZ.getInputStream(entry)) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            sevenZ.close();
+                        }
+                    }
+                };
+            } catch (IOException | RuntimeException e) {
+                sevenZ.close();
+                throw e;
+            }
+        };
+        List<Node> symlinks = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            SevenZArchiveEntry e = entries.get(i);
+            if (e.isAntiItem()) continue;
+            int attributes = e.getHasWindowsAttributes() ? e.getWindowsAttributes() : 0;
+            int unixMode = (attributes & SEVEN_Z_UNIX_EXTENSION) != 0 ? attributes >>> 16 : 0;
+            FileType type = e.isDirectory() ? FileType.DIRECTORY
+                    : (unixMode & FileType.S_IFMT) == FileType.SYMBOLIC_LINK.mask() ? FileType.SYMBOLIC_LINK
+                    : FileType.REGULAR_FILE;
+            Node node = put(e.getName(), type, unixMode, e.getHasLastModifiedDate()
+                    ? e.getLastModifiedTime().to(TimeUnit.NANOSECONDS) : archiveModifiedNanos);
+            if (node == null || type == FileType.DIRECTORY) continue;
+            node.entryIndex = i;
+            node.size = e.hasStream() ? e.getSize() : 0;
+            if (type == FileType.SYMBOLIC_LINK) symlinks.add(node);
+        }
+        // The target of a link is its content
+        for (Node link : symlinks) {
+            try (InputStream in = streams.open(link, 0)) {
+                setLinkTarget(link, new String(in.readAllBytes(), UTF_8));
+            }
+        }
+        return streams;
+    }
+
+    private ContentStreams indexCompressedTar(@Nullable Path indexDir, long spacing) throws IOException {
+        Path file = indexDir != null
+                ? indexDir.resolve(sha256(archive.toAbsolutePath().toString()) + INDEX_SUFFIX)
+                : archive.resolveSibling(archive.getFileName() + INDEX_SUFFIX);
+        List<GzipCheckpoints.Checkpoint> checkpoints = new ArrayList<>();
+        FileChannel indexChannel = Files.exists(file) ? loadIndexFile(file, checkpoints) : null;
+        if (indexChannel == null) indexChannel = buildIndexFile(file, spacing, checkpoints);
+        resources.add(indexChannel);
+
+        if (format == Format.TAR_XZ) {
+            SeekableXZInputStream blocks = openXz();
+            resources.add(blocks);
+            if (blocks.getBlockCount() <= 1) {
+                LOG.info("{} is a single xz block: reads decompress it from its start. "
+                        + "Compress with `xz -T0` or `xz --block-size=...` for random access.", archive);
+            }
+            return new ContentStreams() {
+                @Override
+                public InputStream open(Node node, long from) throws IOException {
+                    SeekableXZInputStream in = openXz();
+                    try {
+                        in.seek(node.streamOffset + from);
+                    } catch (IOException | RuntimeException e) {
+                        in.close();
+                        throw e;
+                    }
+                    return in;
+                }
+
+                @Override
+                public long restartPoint(Node node, long offset) {
+                    long blockStart;
+                    // Block lookups share state
+                    synchronized (blocks) {
+                        blockStart = blocks.getBlockPos(blocks.getBlockNumber(node.streamOffset + offset));
+                    }
+                    return Math.max(0, blockStart - node.streamOffset);
+                }
+            };
+        }
+        GzipCheckpoints gzip = new GzipCheckpoints(checkpoints, channel, indexChannel);
+        return new ContentStreams() {
+            @Override
+            public InputStream open(Node node, long from) throws IOException {
+                return gzip.openAt(node.streamOffset + from);
+            }
+
+            @Override
+            public long restartPoint(Node node, long offset) {
+                return Math.max(0, gzip.restartPoint(node.streamOffset + offset) - node.streamOffset);
+            }
+        };
+    }
+
+    private SeekableXZInputStream openXz() throws IOException {
+        SeekableFileInputStream file = new SeekableFileInputStream(archive.toFile());
+        try {
+            return new SeekableXZInputStream(file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // ---------- Index file ----------
+    //
+    // [gzip windows][table][long: table offset]
+    //
+    // The windows are written during the indexing pass; the table holds the nodes and the checkpoints.
+
+    /// Loads the tree and the checkpoints from `file`
+    ///
+    /// @return the open index file, or null if it is not valid for the archive
+    private @Nullable FileChannel loadIndexFile(Path file, List<GzipCheckpoints.Checkpoint> checkpoints) {
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(file, READ);
+            ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES);
+            ch.read(trailer, ch.size() - Long.BYTES);
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch.position(trailer.getLong(0)))));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readInt() != format.ordinal()
+                    || in.readLong() != Files.size(archive) || in.readLong() != archiveModifiedNanos) {
+                LOG.info("Archive index {} is stale, rebuilding it", file);
+                ch.close();
+                return null;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                int mode = in.readInt();
+                Node node = requireNonNull(put(path, FileType.fromMode(mode), mode, in.readLong()));
+                node.size = in.readLong();
+                node.entryIndex = in.readInt();
+                node.streamOffset = in.readLong();
+                if (in.readBoolean()) node.linkTarget = in.readUTF();
+            }
+            checkpoints.addAll(GzipCheckpoints.read(in));
+            return ch;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot load archive index {}, rebuilding it", file, e);
+            root.children.clear();
+            checkpoints.clear();
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    /// Lists the archive in one pass, recording checkpoints, and writes the index to `file`, or to a temporary file
+    /// if `file` cannot be written
+    ///
+    /// @return the open index file
+    private FileChannel buildIndexFile(Path file, long spacing, List<GzipCheckpoints.Checkpoint> checkpoints)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel ch;
+        boolean persisted = true;
+        try {
+            Files.createDirectories(file.getParent());
+            ch = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        } catch (IOException e) {
+            LOG.info("Cannot write archive index {} ({}), keeping it until unmount", file, e.toString());
+            persisted = false;
+            tmp = Files.createTempFile("fusebox-archive", INDEX_SUFFIX);
+            ch = FileChannel.open(tmp, READ, WRITE, DELETE_ON_CLOSE);
+        }
+        try (var windows = new GzipCheckpoints.Writer(ch)) {
+            LOG.info("Indexing {}...", archive);
+            InputStream compressed = Channels.newInputStream(FileChannel.open(archive, READ));
+            Map<Node, String> hardLinks = new LinkedHashMap<>();
+            try (var data = new CountingInputStream(format == Format.TAR_GZIP
+                    ? new GzipIndexer(compressed, spacing, windows)
+                    : new XZInputStream(new BufferedInputStream(compressed)));
+                 var tar = new TarArchiveInputStream(data)) {
+                TarArchiveEntry e;
+                for (int i = 0; (e = tar.getNextEntry()) != null; i++) {
+                    Node node = putTarEntry(e, hardLinks);
+                    if (node == null || node.type() != FileType.REGULAR_FILE || e.isLink()) continue;
+                    if (e.isSparse()) {
+                        LOG.warn("Skipping content of sparse file {} in {}", e.getName(), archive);
+                        continue;
+                    }
+                    node.size = e.getSize();
+                    node.entryIndex = i;
+                    node.streamOffset = data.count;
+                }
+            }
+            resolveHardLinks(hardLinks);
+            checkpoints.addAll(windows.checkpoints());
+
+            long tableOffset = windows.end();
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch.position(tableOffset))));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(format.ordinal());
+            out.writeLong(Files.size(archive));
+            out.writeLong(archiveModifiedNanos);
+            List<Map.Entry<String, Node>> nodes = new ArrayList<>();
+            collect("", root, nodes);
+            out.writeInt(nodes.size());
+            for (var entry : nodes) {
+                Node node = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(node.mode);
+                out.writeLong(node.lastModifiedNanos);
+                out.writeLong(node.size);
+                out.writeInt(node.entryIndex);
+                out.writeLong(node.streamOffset);
+                out.writeBoolean(node.linkTarget != null);
+                if (node.linkTarget != null) out.writeUTF(node.linkTarget);
+            }
+            GzipCheckpoints.write(out, checkpoints);
+            out.writeLong(tableOffset);
+            out.flush();
+            LOG.info("Indexed {}: {} entries, {} checkpoints", archive, nodes.size(), checkpoints.size());
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            if (persisted) Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (!persisted) return ch;
+        ch.force(true);
+        ch.close();
+        Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        return FileChannel.open(file, READ);
+    }
+
+    /// Depth-first, parents before children
+    private static void collect(String dirPath, Node dir, List<Map.Entry<String, Node>> out) {
+        for (Node child : requireNonNull(dir.children).values()) {
+            String path = dirPath.isEmpty() ? child.name : dirPath + "/" + child.name;
+            out.add(Map.entry(path, child));
+            if (child.isDirectory()) collect(path, child, out);
+        }
+    }
+
+    private static String sha256(String s) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /// Counts the bytes read, to locate entries in the decompressed TAR
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static void setLinkTarget(Node link, String target) {
+        link.linkTarget = target;
+        link.size = target.getBytes(UTF_8).length;
+    }
+
+    /// Adds the node at `path`, or replaces the one there, creating missing parent directories
+    ///
+    /// @param permissions as recorded in the archive, or 0 for the defaults
+    /// @return null if the path escapes the archive root, or is the root but not a directory
+    private @Nullable Node put(String path, FileType type, int permissions, long lastModifiedNanos) {
+        List<String> names = split(path);
+        if (names.isEmpty()) {
+            return type == FileType.DIRECTORY ? root : null;
+        }
+        if (names.contains("..")) {
+            LOG.warn("Skipping entry {} of {}: outside of the archive root", path, archive);
+            return null;
+        }
+        if ((permissions & 07777) == 0) {
+            permissions = switch (type) {
+                case DIRECTORY -> 0555;
+                case SYMBOLIC_LINK -> 0777;
+                default -> 0444;
+            };
+        }
+        Node dir = root;
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            Node child = dir.children.get(name);
+            boolean last = i == names.size() - 1;
+            if (last && type != FileType.DIRECTORY || child == null || !child.isDirectory()) {
+                FileType childType = last ? type : FileType.DIRECTORY;
+                child = new Node(name, childType, last ? permissions : 0555, archiveModifiedNanos);
+                dir.children.put(name, child);
+            }
+            dir = child;
+        }
+        dir.mode = type.mask() | (permissions & PERMISSION_BITS);
+        dir.lastModifiedNanos = lastModifiedNanos;
+        return dir;
+    }
+
+    private static List<String> split(String path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty() && !name.equals(".")) names.add(name);
+        }
+        return names;
+    }
+
+    // ---------- Lookups ----------
+
+    /// @param path relative to the archive root, with or without leading slash
+    public @Nullable Node lookup(String path) {
+        Node node = root;
+        for (String name : split(path)) {
+            if (node.children == null) return null;
+            node = node.children.get(name);
+            if (node == null) return null;
+        }
+        return node;
+    }
+
+    public FileAttributes attributes(Node node) {
+        long mtime = node.lastModifiedNanos;
+        return new FileAttributes(node.mode, uid, gid, node.size, FileAttributes.NO_TIME, mtime, mtime, mtime);
+    }
+
+    // ---------- Content ----------
+
+    public EntryReader openReader(Node node) throws IOException {
+        if (node.isDirectory()) throw new IsDirectoryException();
+        if (node.type() != FileType.REGULAR_FILE) {
+            throw new FileSystemException(node.name, null, "Not a regular file");
+        }
+        return new EntryReader(this, node,
+                new BlockCache.FileVersion(archive, String.valueOf(node.entryIndex), node.size, archiveModifiedNanos));
+    }
+
+    BlockCache cache() {
+        return cache;
+    }
+
+    /// Reads `dst` full from `position` in the archive, or up to its end
+    int readStored(ByteBuffer dst, long position) throws IOException {
+        int n = 0;
+        while (dst.hasRemaining()) {
+            int r = channel.read(dst, position + n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+
+    long restartPoint(Node node, long offset) {
+        return streams.restartPoint(node, offset);
+    }
+
+    /// @param from a [#restartPoint] of `node`
+    InputStream openStream(Node node, long from) throws IOException {
+        return streams.open(node, from);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeResources();
+        if (ownsCache) cache.close();
+    }
+
+    private void closeResources() throws IOException {
+        IOException failure = null;
+        for (Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,95 @@
+package eu.nahoj.fusebox.common.archive;
+
+import eu.nahoj.fusebox.common.archive.ArchiveIndex.Node;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import eu.nahoj.fusebox.common.cache.BlockCache.FileVersion;
+import eu.nahoj.fusebox.common.util.ReadAhead.PositionalReader;
+import org.springframework.lang.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/// Reads the content of an archive entry, for one open file.
+///
+/// Stored entries are read straight from the archive. Compressed entries go through the index's [BlockCache]: on a
+/// miss, this reader's stream decompresses up to the missing block, offering the whole blocks it goes through to the
+/// cache, and is reopened from the closest restart point when the miss is behind it or past a restart point.
+public final class EntryReader implements PositionalReader, Closeable {
+
+    private final ArchiveIndex index;
+    private final Node node;
+    private final FileVersion version;
+
+    // Guarded by this
+    private @Nullable InputStream stream;
+    private long position;
+    private @Nullable byte[] scratch;
+
+    EntryReader(ArchiveIndex index, Node node, FileVersion version) {
+        this.index = index;
+        this.node = node;
+        this.version = version;
+    }
+
+    public long size() {
+        return node.size();
+    }
+
+    /// Positional read, safe to call concurrently
+    ///
+    /// @return number of bytes read, or -1 at end of entry
+    @Override
+    public int read(ByteBuffer dst, long offset) throws IOException {
+        long remaining = node.size() - offset;
+        if (remaining <= 0) return -1;
+        ByteBuffer target = dst.remaining() > remaining ? dst.slice(dst.position(), (int) remaining) : dst.slice();
+        int n = node.dataOffset >= 0
+                ? index.readStored(target, node.dataOffset + offset)
+                : index.cache().read(version, this::decompress, target, offset);
+        dst.position(dst.position() + n);
+        return n;
+    }
+
+    /// Cache loader, called at a block start or where a short read of the block stopped
+    private synchronized int decompress(ByteBuffer dst, long offset) throws IOException {
+        long restart = index.restartPoint(node, offset);
+        if (stream == null || offset < position || restart > position) {
+            closeStream();
+            stream = index.openStream(node, restart);
+            position = restart;
+        }
+        BlockCache cache = index.cache();
+        int blockSize = cache.blockSize();
+        if (scratch == null) scratch = new byte[blockSize];
+        while (position < offset) {
+            int want = (int) Math.min(blockSize - position % blockSize, offset - position);
+            int n = stream.readNBytes(scratch, 0, want);
+            if (n == 0) return -1;
+            if (position % blockSize == 0) cache.offer(version, position, ByteBuffer.wrap(scratch, 0, n));
+            position += n;
+        }
+        int n = 0;
+        while (dst.hasRemaining()) {
+            int r = stream.readNBytes(scratch, 0, Math.min(dst.remaining(), blockSize));
+            if (r == 0) break;
+            dst.put(scratch, 0, r);
+            n += r;
+        }
+        position += n;
+        return n == 0 ? -1 : n;
+    }
+
+    private void closeStream() throws IOException {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeStream();
+    }
+}
@@ -0,0 +1,255 @@
+package eu.nahoj.fusebox.common.archive;
+
+import org.springframework.lang.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/// Checkpoints of a gzip file, recorded by [GzipIndexer], and streams resuming from them, like zlib's `zran`.
+///
+/// A checkpoint is at a deflate block boundary, which is seldom on a byte boundary: a resumed stream feeds [Inflater]
+/// the compressed bytes shifted by the checkpoint's bit offset, after setting the 32 KiB of output before the
+/// checkpoint as dictionary. Dictionaries are stored compressed in the index file and read when a stream starts.
+final class GzipCheckpoints {
+
+    /// @param out         offset in the uncompressed content
+    /// @param in          offset of the byte holding the first bit of the next block in the gzip file
+    /// @param bits        offset of that bit in the byte
+    /// @param memberStart whether this is the start of a gzip member, where no dictionary is needed
+    record Checkpoint(long out, long in, int bits, boolean memberStart, long windowOffset, int windowLength) {
+    }
+
+    private final List<Checkpoint> checkpoints;
+    private final long[] outs;
+    private final FileChannel archive;
+    private final FileChannel windows;
+
+    GzipCheckpoints(List<Checkpoint> checkpoints, FileChannel archive, FileChannel windows) {
+        if (checkpoints.isEmpty() || checkpoints.getFirst().out() != 0) {
+            throw new IllegalArgumentException("No checkpoint at the start of the content");
+        }
+        this.checkpoints = List.copyOf(checkpoints);
+        this.outs = checkpoints.stream().mapToLong(Checkpoint::out).toArray();
+        this.archive = archive;
+        this.windows = windows;
+    }
+
+    int size() {
+        return checkpoints.size();
+    }
+
+    /// The offset of the last checkpoint at or before `position`
+    long restartPoint(long position) {
+        return outs[floor(position)];
+    }
+
+    /// A stream on the uncompressed content from `position`, resumed from the last checkpoint before it
+    InputStream openAt(long position) throws IOException {
+        int i = floor(position);
+        Resumed stream = new Resumed(checkpoints.get(i));
+        try {
+            stream.skipNBytes(position - outs[i]);
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        return stream;
+    }
+
+    /// Index of the last checkpoint at or before `position`
+    private int floor(long position) {
+        int i = Arrays.binarySearch(outs, position);
+        if (i < 0) return -i - 2;
+        while (i + 1 < outs.length && outs[i + 1] == position) i++;
+        return i;
+    }
+
+    private @Nullable Checkpoint memberStartAt(long position) {
+        for (int i = floor(position); i >= 0 && outs[i] == position; i--) {
+            if (checkpoints.get(i).memberStart()) return checkpoints.get(i);
+        }
+        return null;
+    }
+
+    private byte[] window(Checkpoint c) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(c.windowLength());
+        while (compressed.hasRemaining()) {
+            if (windows.read(compressed, c.windowOffset() + compressed.position()) < 0) {
+                throw new EOFException("Truncated archive index");
+            }
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            byte[] window = new byte[GzipIndexer.WINDOW_SIZE];
+            int n = inflater.inflate(window);
+            return Arrays.copyOf(window, n);
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt archive index: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private final class Resumed extends InputStream {
+
+        private static final int CHUNK = 64 * 1024;
+
+        private final Inflater inflater = new Inflater(true);
+        /// One byte more than a chunk, whose low bits complete the last shifted byte
+        private final ByteBuffer raw = ByteBuffer.allocate(CHUNK + 1);
+        private final byte[] input = new byte[CHUNK];
+        private long inPos;
+        private int bits;
+        private long position;
+
+        Resumed(Checkpoint start) throws IOException {
+            start(start);
+        }
+
+        private void start(Checkpoint c) throws IOException {
+            inflater.reset();
+            if (c.windowLength() > 0) inflater.setDictionary(window(c));
+            inPos = c.in();
+            bits = c.bits();
+            position = c.out();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (true) {
+                int n;
+                try {
+                    n = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new ZipException(e.getMessage());
+                }
+                if (n > 0) {
+                    position += n;
+                    return n;
+                }
+                if (inflater.finished()) {
+                    // The next member, if any, has its own checkpoint
+                    Checkpoint next = memberStartAt(position);
+                    if (next == null) return -1;
+                    start(next);
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Unexpected preset dictionary");
+                } else if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+            raw.clear();
+            while (raw.hasRemaining()) {
+                if (archive.read(raw, inPos + raw.position()) < 0) break;
+            }
+            int r = raw.position();
+            if (r == 0) throw new EOFException("Unexpected end of gzip stream");
+            int k = r == raw.capacity() ? CHUNK : r;
+            byte[] a = raw.array();
+            for (int i = 0; i < k; i++) {
+                int next = i + 1 < r ? a[i + 1] & 0xFF : 0;
+                input[i] = (byte) (((a[i] & 0xFF) >>> bits) | (next << (8 - bits)));
+            }
+            inPos += k;
+            inflater.setInput(input, 0, k);
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+
+    // ---------- Index file ----------
+
+    static void write(DataOutput out, List<Checkpoint> checkpoints) throws IOException {
+        out.writeInt(checkpoints.size());
+        for (Checkpoint c : checkpoints) {
+            out.writeLong(c.out());
+            out.writeLong(c.in());
+            out.writeByte(c.bits());
+            out.writeBoolean(c.memberStart());
+            out.writeLong(c.windowOffset());
+            out.writeInt(c.windowLength());
+        }
+    }
+
+    static List<Checkpoint> read(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<Checkpoint> checkpoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            checkpoints.add(new Checkpoint(in.readLong(), in.readLong(), in.readByte(), in.readBoolean(),
+                    in.readLong(), in.readInt()));
+        }
+        return checkpoints;
+    }
+
+    /// Writes the compressed windows of new checkpoints to the start of an index file being built
+    static final class Writer implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] buf = new byte[2 * GzipIndexer.WINDOW_SIZE];
+        private final List<Checkpoint> checkpoints = new ArrayList<>();
+        private long position;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(long out, long in, int bits, boolean memberStart, byte[] window) throws IOException {
+            int length = 0;
+            if (window.length > 0) {
+                deflater.reset();
+                deflater.setInput(window);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    length += deflater.deflate(buf, length, buf.length - length);
+                }
+                ByteBuffer data = ByteBuffer.wrap(buf, 0, length);
+                while (data.hasRemaining()) {
+                    channel.write(data, position + data.position());
+                }
+            }
+            checkpoints.add(new Checkpoint(out, in, bits, memberStart, position, length));
+            position += length;
+        }
+
+        List<Checkpoint> checkpoints() {
+            return checkpoints;
+        }
+
+        /// End of the windows, where the rest of the index file goes
+        long end() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package eu.nahoj.fusebox.common.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/// One streaming pass over a gzip file, yielding its uncompressed content while recording checkpoints to a
+/// [GzipCheckpoints.Writer]: one at the start of each gzip member and, within a member, one at the first deflate block
+/// boundary after every `spacing` bytes of output.
+///
+/// [java.util.zip.Inflater] does not tell where deflate blocks start, so this pass uses its own decoder (RFC 1951).
+/// Only the indexing pass pays for it: reads resume from checkpoints with the native inflater.
+final class GzipIndexer extends InputStream {
+
+    static final int WINDOW_SIZE = 32 * 1024;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+            227, 258};
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073,
+            4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    /// Order of the code length code lengths in a dynamic block header
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        byte[] lengths = new byte[288];
+        for (int i = 0; i < 288; i++) lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+        byte[] distances = new byte[30];
+        Arrays.fill(distances, (byte) 5);
+        try {
+            FIXED_LITERALS = Huffman.of(lengths, 0, 288);
+            FIXED_DISTANCES = Huffman.of(distances, 0, 30);
+        } catch (ZipException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private enum State {MEMBER_HEADER, BLOCK_HEADER, STORED, HUFFMAN, MEMBER_TRAILER, DONE}
+
+    private final InputStream in;
+    private final long spacing;
+    private final GzipCheckpoints.Writer checkpoints;
+
+    // Input, read through our own buffer: bytes are fetched one at a time
+    private final byte[] inBuf = new byte[64 * 1024];
+    private int inBufPos;
+    private int inBufLen;
+    /// Bytes taken from `in`
+    private long inPos;
+    private long bitBuf;
+    private int bitCount;
+
+    // Output
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long out;
+    private long memberOut;
+    private long lastCheckpoint;
+
+    private State state = State.MEMBER_HEADER;
+    private boolean lastBlock;
+    private int storedRemaining;
+    private Huffman literals = FIXED_LITERALS;
+    private Huffman distances = FIXED_DISTANCES;
+    private int copyLength;
+    private int copyDistance;
+
+    GzipIndexer(InputStream in, long spacing, GzipCheckpoints.Writer checkpoints) {
+        this.in = in;
+        this.spacing = spacing;
+        this.checkpoints = checkpoints;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            switch (state) {
+                case MEMBER_HEADER -> {
+                    if (!readMemberHeader()) {
+                        state = State.DONE;
+                        continue;
+                    }
+                    memberOut = 0;
+                    lastBlock = false;
+                    checkpoint(true);
+                    state = State.BLOCK_HEADER;
+                }
+                case BLOCK_HEADER -> {
+                    if (lastBlock) {
+                        state = State.MEMBER_TRAILER;
+                        continue;
+                    }
+                    if (out - lastCheckpoint >= spacing) checkpoint(false);
+                    readBlockHeader();
+                }
+                case STORED -> {
+                    int k = Math.min(len - n, storedRemaining);
+                    for (int i = 0; i < k; i++) emit(b, off + n + i, (byte) bits(8));
+                    n += k;
+                    storedRemaining -= k;
+                    if (storedRemaining == 0) state = State.BLOCK_HEADER;
+                }
+                case HUFFMAN -> {
+                    if (copyLength > 0) {
+                        int k = Math.min(len - n, copyLength);
+                        for (int i = 0; i < k; i++) {
+                            emit(b, off + n + i, window[(int) (memberOut - copyDistance) & WINDOW_MASK]);
+                        }
+                        n += k;
+                        copyLength -= k;
+                        continue;
+                    }
+                    int symbol = decode(literals);
+                    if (symbol < 256) {
+                        emit(b, off + n++, (byte) symbol);
+                    } else if (symbol == 256) {
+                        state = State.BLOCK_HEADER;
+                    } else {
+                        symbol -= 257;
+                        if (symbol >= 29) throw new ZipException("Invalid length symbol");
+                        copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                        int d = decode(distances);
+                        if (d >= 30) throw new ZipException("Invalid distance symbol");
+                        copyDistance = DISTANCE_BASE[d] + bits(DISTANCE_EXTRA[d]);
+                        if (copyDistance > memberOut) throw new ZipException("Distance too far back");
+                    }
+                }
+                case MEMBER_TRAILER -> {
+                    alignToByte();
+                    bits(32); // CRC32, left to the checks of the tar headers
+                    long size = bits(16) | (long) bits(16) << 16;
+                    if (size != (memberOut & 0xFFFFFFFFL)) throw new ZipException("Corrupt gzip member: wrong size");
+                    state = State.MEMBER_HEADER;
+                }
+                case DONE -> {
+                    return n == 0 ? -1 : n;
+                }
+            }
+        }
+        return n;
+    }
+
+    private void emit(byte[] b, int index, byte value) {
+        b[index] = value;
+        window[(int) memberOut & WINDOW_MASK] = value;
+        memberOut++;
+        out++;
+    }
+
+    private void checkpoint(boolean memberStart) throws IOException {
+        long bitPos = inPos * 8 - bitCount;
+        int length = (int) Math.min(WINDOW_SIZE, memberOut);
+        byte[] history = new byte[length];
+        for (int i = 0; i < length; i++) {
+            history[i] = window[(int) (memberOut - length + i) & WINDOW_MASK];
+        }
+        checkpoints.add(out, bitPos >>> 3, (int) (bitPos & 7), memberStart, history);
+        lastCheckpoint = out;
+    }
+
+    // ---------- Headers ----------
+
+    /// @return false at end of input, or on trailing bytes that are not a gzip member
+    private boolean readMemberHeader() throws IOException {
+        alignToByte();
+        if (bitCount == 0 && !fetch()) return false;
+        if (bits(8) != 0x1F) return false;
+        if (bitCount == 0 && !fetch() || bits(8) != 0x8B) return false;
+        if (bits(8) != 8) throw new ZipException("Unsupported gzip compression method");
+        int flags = bits(8);
+        bits(32); // mtime
+        bits(16); // extra flags, OS
+        if ((flags & 4) != 0) { // FEXTRA
+            int length = bits(16);
+            for (int i = 0; i < length; i++) bits(8);
+        }
+        if ((flags & 8) != 0) while (bits(8) != 0) ; // FNAME
+        if ((flags & 16) != 0) while (bits(8) != 0) ; // FCOMMENT
+        if ((flags & 2) != 0) bits(16); // FHCRC
+        return true;
+    }
+
+    private void readBlockHeader() throws IOException {
+        lastBlock = bits(1) == 1;
+        switch (bits(2)) {
+            case 0 -> {
+                alignToByte();
+                int length = bits(16);
+                if ((length ^ 0xFFFF) != bits(16)) throw new ZipException("Corrupt stored block length");
+                storedRemaining = length;
+                state = length == 0 ? State.BLOCK_HEADER : State.STORED;
+            }
+            case 1 -> {
+                literals = FIXED_LITERALS;
+                distances = FIXED_DISTANCES;
+                state = State.HUFFMAN;
+            }
+            case 2 -> {
+                readDynamicTables();
+                state = State.HUFFMAN;
+            }
+            default -> throw new ZipException("Invalid block type");
+        }
+    }
+
+    private void readDynamicTables() throws IOException {
+        int literalCount = bits(5) + 257;
+        int distanceCount = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+        byte[] codeLengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; i++) codeLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        Huffman codeLengthCode = Huffman.of(codeLengths, 0, 19);
+
+        byte[] lengths = new byte[literalCount + distanceCount];
+        for (int i = 0; i < lengths.length; ) {
+            int symbol = decode(codeLengthCode);
+            if (symbol < 16) {
+                lengths[i++] = (byte) symbol;
+                continue;
+            }
+            byte value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) throw new ZipException("Repeat with no previous length");
+                value = lengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > lengths.length) throw new ZipException("Too many code lengths");
+            while (repeat-- > 0) lengths[i++] = value;
+        }
+        if (lengths[256] == 0) throw new ZipException("No end-of-block code");
+        literals = Huffman.of(lengths, 0, literalCount);
+        distances = Huffman.of(lengths, literalCount, distanceCount);
+    }
+
+    // ---------- Bits ----------
+
+    private boolean fetch() throws IOException {
+        if (inBufPos == inBufLen) {
+            inBufLen = in.read(inBuf);
+            inBufPos = 0;
+            if (inBufLen <= 0) {
+                inBufLen = 0;
+                return false;
+            }
+        }
+        bitBuf |= (long) (inBuf[inBufPos++] & 0xFF) << bitCount;
+        bitCount += 8;
+        inPos++;
+        return true;
+    }
+
+    private void need(int count) throws IOException {
+        while (bitCount < count) {
+            if (!fetch()) throw new EOFException("Unexpected end of gzip stream");
+        }
+    }
+
+    private int bits(int count) throws IOException {
+        if (count == 0) return 0;
+        need(count);
+        int value = (int) (bitBuf & ((1L << count) - 1));
+        bitBuf >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private void alignToByte() {
+        int drop = bitCount & 7;
+        bitBuf >>>= drop;
+        bitCount -= drop;
+    }
+
+    private int decode(Huffman code) throws IOException {
+        // A valid stream always has its trailer after the last code, so peeking ahead cannot hit the end of input
+        need(code.bits);
+        int entry = code.table[(int) (bitBuf & ((1L << code.bits) - 1))];
+        int length = entry & 0xF;
+        if (length == 0) throw new ZipException("Invalid Huffman code");
+        bitBuf >>>= length;
+        bitCount -= length;
+        return entry >>> 4;
+    }
+
+    /// Canonical Huffman code, decoded with a single table indexed by the next `bits` input bits
+    private record Huffman(int[] table, int bits) {
+
+        /// Entries are `symbol << 4 | code length`; 0 marks an unused code
+        static Huffman of(byte[] lengths, int offset, int count) throws ZipException {
+            int maxBits = 0;
+            int[] lengthCounts = new int[16];
+            for (int i = 0; i < count; i++) {
+                int length = lengths[offset + i];
+                lengthCounts[length]++;
+                maxBits = Math.max(maxBits, length);
+            }
+            lengthCounts[0] = 0;
+            int[] nextCode = new int[16];
+            int left = 1;
+            for (int length = 1; length <= 15; length++) {
+                left = (left << 1) - lengthCounts[length];
+                if (left < 0) throw new ZipException("Over-subscribed Huffman code");
+                if (length < 15) nextCode[length + 1] = (nextCode[length] + lengthCounts[length]) << 1;
+            }
+            int[] table = new int[1 << maxBits];
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[offset + symbol];
+                if (length == 0) continue;
+                int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                for (int i = reversed; i < table.length; i += 1 << length) {
+                    table[i] = symbol << 4 | length;
+                }
+            }
+            return new Huffman(table, maxBits);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,3 @@
+@org.springframework.lang.NonNullApi
+@org.springframework.lang.NonNullFields
+package eu.nahoj.fusebox.common.archive;
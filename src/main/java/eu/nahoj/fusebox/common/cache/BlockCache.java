@@ -0,0 +1,257 @@
+package eu.nahoj.fusebox.common.cache;
+
+import eu.nahoj.fusebox.common.util.ReadAhead.PositionalReader;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/// Fixed-size block cache in off-heap memory, shared by all the handles (and so all the processes) reading a file
+/// through a mount, or through several mounts sharing the instance.
+///
+/// - Blocks are keyed by [FileVersion]: a file whose size or modification time changes gets new keys, and its old
+///   blocks age out.
+/// - Memory is allocated once for the whole budget and split into slots. Eviction is CLOCK (second chance) with a
+///   TinyLFU admission filter: a loaded block only replaces the CLOCK victim if it is accessed at least as often.
+/// - Concurrent misses on the same block share one backend read.
+/// - A slot is pinned while a reader copies from it and is never evicted meanwhile.
+/// - Hits take no lock: a pinned slot's key cannot change, and setting its CLOCK reference bit is a plain atomic
+///   write. Only admissions, which sweep the CLOCK, synchronize with each other.
+public final class BlockCache implements AutoCloseable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /// Identifies a version of a file's content.
+    ///
+    /// `source` distinguishes file systems sharing the cache, or is the file's own identity (e.g. a
+    /// [eu.nahoj.fusebox.common.api.FileKey], with an empty `path`) so that its hard links, renames and other mounts
+    /// share its blocks.
+    public record FileVersion(Object source, String path, long size, long lastModifiedNanos) {
+    }
+
+    private record BlockKey(FileVersion file, long index) {
+    }
+
+    private static final int WRITING = -1;
+
+    private final int blockSize;
+    private final int slotCount;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment storage;
+
+    private final ConcurrentMap<BlockKey, Integer> slotsByKey = new ConcurrentHashMap<>();
+    private final ConcurrentMap<BlockKey, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+    /// Per slot: number of readers copying from it, or [#WRITING] while it is being replaced
+    private final AtomicIntegerArray pins;
+    /// Per slot, written only while the slot is [#WRITING]: `lengths` before `keys`, which publishes them
+    private final AtomicReferenceArray<BlockKey> keys;
+    private final int[] lengths;
+    /// CLOCK reference bits, 1 when the slot was hit since the hand last passed
+    private final AtomicIntegerArray referenced;
+    private final FrequencySketch sketch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Guarded by this
+    private int hand;
+    private int used;
+
+    public BlockCache(long capacityBytes) {
+        this(DEFAULT_BLOCK_SIZE, capacityBytes);
+    }
+
+    public BlockCache(int blockSize, long capacityBytes) {
+        if (blockSize <= 0 || capacityBytes / blockSize < 1 || capacityBytes / blockSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid block cache geometry: " + blockSize + "/" + capacityBytes);
+        }
+        this.blockSize = blockSize;
+        this.slotCount = (int) (capacityBytes / blockSize);
+        this.storage = arena.allocate((long) slotCount * blockSize, 64);
+        this.pins = new AtomicIntegerArray(slotCount);
+        this.sketch = new FrequencySketch(slotCount);
+        this.keys = new AtomicReferenceArray<>(slotCount);
+        this.lengths = new int[slotCount];
+        this.referenced = new AtomicIntegerArray(slotCount);
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /// Fills `dst` with the content of `file` from `offset`, loading missing blocks with `loader`
+    ///
+    /// @return number of bytes read, 0 at end of file
+    public int read(FileVersion file, PositionalReader loader, ByteBuffer dst, long offset) throws IOException {
+        int n = 0;
+        while (dst.hasRemaining() && offset + n < file.size()) {
+            long pos = offset + n;
+            BlockKey key = new BlockKey(file, pos / blockSize);
+            int from = (int) (pos % blockSize);
+            int copied = copyCached(key, dst, from);
+            if (copied < 0) {
+                copied = copyLoaded(key, loader, dst, from);
+            }
+            if (copied <= 0) break;
+            n += copied;
+        }
+        return n;
+    }
+
+    /// Offers a whole block of `file` that a loader produced anyway, e.g. while decompressing its way to another
+    /// block. It is admitted like a loaded block.
+    ///
+    /// @param offset start of the block, a multiple of the block size
+    /// @param block the block content, from its position to its limit
+    public void offer(FileVersion file, long offset, ByteBuffer block) {
+        if (offset % blockSize != 0) {
+            throw new IllegalArgumentException("Not a block start: " + offset);
+        }
+        BlockKey key = new BlockKey(file, offset / blockSize);
+        if (block.remaining() != Math.min(blockSize, file.size() - offset) || loading.containsKey(key)) return;
+        admit(key, block.slice());
+    }
+
+    /// @return bytes copied, or -1 on a miss
+    private int copyCached(BlockKey key, ByteBuffer dst, int from) {
+        sketch.increment(key);
+        Integer slot = slotsByKey.get(key);
+        if (slot == null || !pin(slot)) {
+            misses.increment();
+            return -1;
+        }
+        try {
+            // Stable while pinned
+            if (!key.equals(keys.get(slot))) {
+                misses.increment();
+                return -1;
+            }
+            int length = lengths[slot];
+            if (referenced.get(slot) == 0) referenced.set(slot, 1);
+            hits.increment();
+            int count = Math.max(0, Math.min(dst.remaining(), length - from));
+            MemorySegment.copy(storage, (long) slot * blockSize + from, MemorySegment.ofBuffer(dst), 0, count);
+            dst.position(dst.position() + count);
+            return count;
+        } finally {
+            pins.decrementAndGet(slot);
+        }
+    }
+
+    private boolean pin(int slot) {
+        while (true) {
+            int p = pins.get(slot);
+            if (p == WRITING) return false;
+            if (pins.compareAndSet(slot, p, p + 1)) return true;
+        }
+    }
+
+    private int copyLoaded(BlockKey key, PositionalReader loader, ByteBuffer dst, int from) throws IOException {
+        CompletableFuture<ByteBuffer> mine = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> theirs = loading.putIfAbsent(key, mine);
+        ByteBuffer block;
+        if (theirs != null) {
+            try {
+                block = theirs.join();
+            } catch (CompletionException e) {
+                // Report our own error rather than theirs
+                block = load(key, loader);
+            }
+        } else {
+            try {
+                block = load(key, loader);
+                mine.complete(block);
+                admit(key, block);
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                loading.remove(key, mine);
+            }
+        }
+        int count = Math.max(0, Math.min(dst.remaining(), block.limit() - from));
+        dst.put(dst.position(), block, from, count);
+        dst.position(dst.position() + count);
+        return count;
+    }
+
+    private ByteBuffer load(BlockKey key, PositionalReader loader) throws IOException {
+        long offset = key.index * blockSize;
+        int length = (int) Math.min(blockSize, key.file.size() - offset);
+        ByteBuffer block = ByteBuffer.allocate(length);
+        while (block.hasRemaining()) {
+            if (loader.read(block, offset + block.position()) <= 0) break;
+        }
+        return block.flip();
+    }
+
+    private void admit(BlockKey key, ByteBuffer block) {
+        int slot;
+        synchronized (this) {
+            if (slotsByKey.containsKey(key)) return;
+            if (used < slotCount) {
+                slot = used++;
+                pins.set(slot, WRITING);
+            } else {
+                slot = victim(key);
+                if (slot < 0) return;
+            }
+            BlockKey old = keys.getAndSet(slot, null);
+            if (old != null) slotsByKey.remove(old, slot);
+        }
+        // Exclusive: pinned readers are done and new ones fail to pin
+        MemorySegment.copy(MemorySegment.ofBuffer(block), 0, storage, (long) slot * blockSize, block.limit());
+        lengths[slot] = block.limit();
+        referenced.set(slot, 0);
+        keys.set(slot, key);
+        slotsByKey.put(key, slot);
+        pins.set(slot, 0);
+    }
+
+    /// CLOCK sweep; the returned slot is marked [#WRITING]
+    ///
+    /// @return -1 if the candidate is not worth evicting or every slot is pinned
+    private int victim(BlockKey candidate) {
+        for (int i = 0; i < 2 * slotCount; i++) {
+            int slot = hand;
+            hand = (hand + 1) % slotCount;
+            if (referenced.get(slot) != 0) {
+                referenced.set(slot, 0);
+                continue;
+            }
+            if (pins.get(slot) != 0) continue;
+            BlockKey current = keys.get(slot);
+            if (current != null && sketch.frequency(candidate) < sketch.frequency(current)) {
+                return -1;
+            }
+            if (pins.compareAndSet(slot, 0, WRITING)) return slot;
+        }
+        return -1;
+    }
+
+    /// Drops the cached blocks of `path` from `source`, whatever their version
+    public void invalidate(Object source, String path) {
+        slotsByKey.keySet().removeIf(k -> k.file.source().equals(source) && k.file.path().equals(path));
+    }
+
+    @Override
+    public void close() {
+        slotsByKey.clear();
+        arena.close();
+    }
+}
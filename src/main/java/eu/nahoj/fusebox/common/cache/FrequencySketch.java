@@ -0,0 +1,67 @@
+package eu.nahoj.fusebox.common.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Approximate access counts for TinyLFU admission: a count-min sketch of 4-bit counters, halved periodically so that
+/// old popularity fades.
+///
+/// Counters are updated without locking, since every cache hit increments them: concurrent increments of a counter
+/// may be lost, which only undercounts, as halving does anyway.
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0x97cb3127L, 0xc2b2ae35L, 0x85ebca6bL, 0x27d4eb2fL};
+
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(16, expectedEntries * 4 - 1)) << 1;
+        this.counters = new byte[width * DEPTH];
+        this.mask = width - 1;
+        this.sampleSize = 10 * Math.max(1, expectedEntries);
+    }
+
+    void increment(Object key) {
+        int h = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(h, i);
+            byte count = counters[index];
+            if (count < MAX_COUNT) {
+                counters[index] = (byte) (count + 1);
+                added = true;
+            }
+        }
+        // Exactly one increment reaches the sample size, and halves
+        if (added && additions.incrementAndGet() == sampleSize) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+            additions.addAndGet(-(sampleSize - sampleSize / 2));
+        }
+    }
+
+    int frequency(Object key) {
+        int h = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters[index(h, i)]);
+        }
+        return min;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return row * (mask + 1) + ((int) h & mask);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,103 @@
+package eu.nahoj.fusebox.common.cache;
+
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.util.ExceptionUtils.ThrowingSupplier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/// Directory listings by path, as produced by a chain of layers, for the listing caches of both FS APIs.
+///
+/// - At most `maxEntries` listings are kept, least recently used first out, each for at most `ttl`.
+/// - A listing that was being computed when an invalidation happened is returned but not kept, since it may predate
+///   the change.
+/// - Paths are opaque, except for [#invalidateTree], which takes `/` as the separator.
+public final class ListingCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private record Entry(List<DirEntry> entries, long expiresAt) {
+    }
+
+    // Guarded by itself
+    private final LinkedHashMap<String, Entry> listings;
+    /// Incremented by each invalidation; guarded by `listings`
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ListingCache(int maxEntries, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.listings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ListingCache.this.maxEntries;
+            }
+        };
+    }
+
+    /// The cached listing of `dir`, or the one `lister` returns
+    public List<DirEntry> get(String dir, ThrowingSupplier<List<DirEntry>> lister) throws IOException {
+        long now = System.nanoTime();
+        long startGeneration;
+        synchronized (listings) {
+            Entry e = listings.get(dir);
+            if (e != null && now - e.expiresAt < 0) {
+                hits.increment();
+                return e.entries;
+            }
+            startGeneration = generation;
+        }
+        misses.increment();
+        List<DirEntry> entries = List.copyOf(lister.get());
+        synchronized (listings) {
+            if (generation == startGeneration) listings.put(dir, new Entry(entries, now + ttlNanos));
+        }
+        return entries;
+    }
+
+    /// Drops the listing of `dir`, e.g. after a child was created or deleted
+    public void invalidate(String dir) {
+        synchronized (listings) {
+            generation++;
+            listings.remove(dir);
+        }
+    }
+
+    /// Drops the listings of `path` and of the directories below it, e.g. after it was moved or deleted
+    public void invalidateTree(String path) {
+        String prefix = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+        synchronized (listings) {
+            generation++;
+            listings.keySet().removeIf(p -> p.equals(path) || p.startsWith(prefix));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (listings) {
+            generation++;
+            listings.clear();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (listings) {
+            return listings.size();
+        }
+    }
+}
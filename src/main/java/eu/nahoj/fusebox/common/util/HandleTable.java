@@ -0,0 +1,150 @@
+package eu.nahoj.fusebox.common.util;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/// Array-backed table of open file handles.
+///
+/// Handles (the `fh` given to FUSE) encode `table id | generation | slot`:
+/// - lookups are a bounds check and an array read, without boxing, hashing or locking;
+/// - slots are reused once released, and their generation is bumped, so a stale handle does not
+///   resolve to whatever was opened later in the same slot;
+/// - each table has its own id, so a layer can tell its own handles from the ones set by the layer below it.
+///
+/// [#add] and [#remove] are serialized; [#get] is lock-free.
+public final class HandleTable<T> {
+
+    private static final int SLOT_BITS = 32;
+    private static final int GENERATION_BITS = 16;
+    private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+    private static final int TABLE_ID_MASK = 0x7FFF; // 15 bits, keeps handles positive
+
+    private static final AtomicInteger TABLE_IDS = new AtomicInteger();
+
+    private record Slot<T>(long fh, T value) {
+    }
+
+    private final long tableId;
+
+    /// Replaced (under lock) when growing
+    private volatile AtomicReferenceArray<Slot<T>> slots;
+
+    // Guarded by this
+    private int[] generations;
+    private int[] freeSlots;
+    private int freeCount;
+    private int used;
+    private int size;
+
+    public HandleTable() {
+        this(16);
+    }
+
+    public HandleTable(int initialCapacity) {
+        // Table id 0 is skipped so that a handle is never 0
+        this.tableId = (TABLE_IDS.getAndIncrement() % TABLE_ID_MASK) + 1;
+        int capacity = Math.max(1, initialCapacity);
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.generations = new int[capacity];
+        this.freeSlots = new int[capacity];
+    }
+
+    /// Stores `value` in a free slot and returns its handle
+    public synchronized long add(T value) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (used == slots.length()) grow();
+            slot = used++;
+        }
+        long fh = (tableId << (SLOT_BITS + GENERATION_BITS))
+                | ((long) generations[slot] << SLOT_BITS)
+                | slot;
+        slots.set(slot, new Slot<>(fh, value));
+        size++;
+        return fh;
+    }
+
+    private void grow() {
+        int oldCapacity = slots.length();
+        if (oldCapacity == Integer.MAX_VALUE) throw new IllegalStateException("Handle table is full");
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE, oldCapacity * 2L);
+        AtomicReferenceArray<Slot<T>> newSlots = new AtomicReferenceArray<>(newCapacity);
+        for (int i = 0; i < oldCapacity; i++) {
+            newSlots.set(i, slots.get(i));
+        }
+        generations = Arrays.copyOf(generations, newCapacity);
+        freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+        slots = newSlots;
+    }
+
+    /// @return the value for `fh`, or null if `fh` is stale, released or was not issued by this table
+    @Nullable
+    public T get(long fh) {
+        if ((fh >>> (SLOT_BITS + GENERATION_BITS)) != tableId) return null;
+        long slot = fh & SLOT_MASK;
+        AtomicReferenceArray<Slot<T>> s = slots;
+        if (slot >= s.length()) return null;
+        Slot<T> entry = s.get((int) slot);
+        return entry != null && entry.fh == fh ? entry.value : null;
+    }
+
+    public boolean contains(long fh) {
+        return get(fh) != null;
+    }
+
+    /// Releases `fh`
+    ///
+    /// @return the value it held, or null if it was not a live handle of this table
+    @Nullable
+    public synchronized T remove(long fh) {
+        T value = get(fh);
+        if (value == null) return null;
+        int slot = (int) (fh & SLOT_MASK);
+        slots.set(slot, null);
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        freeSlots[freeCount++] = slot;
+        size--;
+        return value;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /// Snapshot of the live values
+    public synchronized List<T> values() {
+        List<T> values = new ArrayList<>(size);
+        for (int i = 0; i < used; i++) {
+            Slot<T> entry = slots.get(i);
+            if (entry != null) values.add(entry.value);
+        }
+        return values;
+    }
+
+    /// Releases all handles
+    ///
+    /// @return the values they held
+    public synchronized List<T> clear() {
+        List<T> values = new ArrayList<>(size);
+        for (int i = 0; i < used; i++) {
+            Slot<T> entry = slots.get(i);
+            if (entry != null) {
+                remove(entry.fh);
+                values.add(entry.value);
+            }
+        }
+        return values;
+    }
+}
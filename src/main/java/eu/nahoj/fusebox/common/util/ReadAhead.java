@@ -0,0 +1,198 @@
+package eu.nahoj.fusebox.common.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/// Adaptive sequential read-ahead for one open file, on top of a positional reader.
+///
+/// - Once a read starts where the previous one ended (or at offset 0), the next window is fetched on a virtual thread
+///   while the caller consumes the current one. The window doubles, from `minWindow` up to `maxWindow`, each time a
+///   prefetched chunk is used up.
+/// - At most two chunks are held, so a handle buffers at most `2 * maxWindow` bytes.
+/// - A read that is neither at the expected offset nor inside a prefetched chunk drops the chunks and resets the
+///   window.
+/// - Reads inside a prefetched chunk do not call the reader. A failed prefetch is dropped and the read is retried on
+///   the reader, which reports the error.
+/// - Concurrent reads of the handle wait for data, prefetched or from the reader, without holding the lock.
+///
+/// Prefetched data is not invalidated by writes: callers must [#invalidate()] when the file changes.
+public final class ReadAhead implements AutoCloseable {
+
+    /// Reads into `dst` from `offset`, like [java.nio.channels.FileChannel#read(ByteBuffer, long)] but returning 0
+    /// or -1 at end of file
+    @FunctionalInterface
+    public interface PositionalReader {
+        int read(ByteBuffer dst, long offset) throws IOException;
+    }
+
+    private static final ExecutorService PREFETCHER = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("fusebox-readahead-", 0).factory());
+
+    /// `data` is flipped; a short chunk ends at end of file
+    private record Chunk(long offset, int length, CompletableFuture<ByteBuffer> data) {
+        long end() {
+            return offset + length;
+        }
+    }
+
+    private final PositionalReader reader;
+    private final int minWindow;
+    private final int maxWindow;
+
+    // Guarded by this
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>(2);
+    /// Including dropped chunks, which may still be reading
+    private final List<CompletableFuture<ByteBuffer>> inFlight = new ArrayList<>();
+    private long expectedOffset = 0;
+    private int sequentialReads;
+    private int window;
+    private long eofOffset = Long.MAX_VALUE;
+    private boolean closed;
+
+    public ReadAhead(PositionalReader reader, int minWindow, int maxWindow) {
+        if (minWindow <= 0 || maxWindow < minWindow) {
+            throw new IllegalArgumentException("Invalid read-ahead window: " + minWindow + ".." + maxWindow);
+        }
+        this.reader = reader;
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.window = minWindow;
+    }
+
+    /// Fills `dst` from `offset`, as much as available
+    ///
+    /// @return number of bytes read, possibly 0 at end of file
+    public int read(ByteBuffer dst, long offset) throws IOException {
+        int n = 0;
+        boolean hit = false;
+        boolean eof = false;
+        while (dst.hasRemaining()) {
+            long pos = offset + n;
+            Chunk c;
+            synchronized (this) {
+                while (!chunks.isEmpty() && chunks.peekFirst().end() <= pos) {
+                    chunks.removeFirst();
+                }
+                c = chunks.peekFirst();
+            }
+            if (c == null || pos < c.offset) break;
+            ByteBuffer data;
+            try {
+                data = c.data.join();
+            } catch (CompletionException e) {
+                synchronized (this) {
+                    chunks.clear();
+                }
+                break;
+            }
+            hit = true;
+            // Absolute get: other readers of the chunk are not affected
+            int from = (int) (pos - c.offset);
+            int count = Math.min(dst.remaining(), data.limit() - from);
+            if (count > 0) {
+                dst.put(dst.position(), data, from, count);
+                dst.position(dst.position() + count);
+                n += count;
+            }
+            if (data.limit() < c.length) {
+                synchronized (this) {
+                    eofOffset = c.offset + data.limit();
+                }
+                if (from + count >= data.limit()) {
+                    eof = true;
+                    break;
+                }
+            } else if (from + count == c.length) {
+                synchronized (this) {
+                    // Unless another read used it up or dropped it meanwhile
+                    if (chunks.peekFirst() == c) {
+                        chunks.removeFirst();
+                        window = Math.min(window * 2, maxWindow);
+                    }
+                }
+            }
+        }
+        if (dst.hasRemaining() && !eof) {
+            int r = reader.read(dst, offset + n);
+            if (r > 0) {
+                n += r;
+            } else {
+                synchronized (this) {
+                    eofOffset = offset + n;
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (hit || offset == expectedOffset) {
+                sequentialReads++;
+            } else {
+                invalidate();
+            }
+            expectedOffset = offset + n;
+            if (sequentialReads > 0) prefetch();
+        }
+        return n;
+    }
+
+    private void prefetch() {
+        inFlight.removeIf(CompletableFuture::isDone);
+        long end = chunks.isEmpty() ? expectedOffset : chunks.peekLast().end();
+        while (!closed && chunks.size() < 2 && end < eofOffset) {
+            long chunkOffset = end;
+            int length = window;
+            CompletableFuture<ByteBuffer> data = CompletableFuture.supplyAsync(
+                    () -> fetch(chunkOffset, length), PREFETCHER);
+            chunks.addLast(new Chunk(chunkOffset, length, data));
+            inFlight.add(data);
+            end += length;
+        }
+    }
+
+    private ByteBuffer fetch(long offset, int length) {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try {
+            while (buf.hasRemaining()) {
+                int r = reader.read(buf, offset + buf.position());
+                if (r <= 0) break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buf.flip();
+    }
+
+    /// Drops prefetched data, e.g. after the file was written to
+    public synchronized void invalidate() {
+        chunks.clear();
+        sequentialReads = 0;
+        window = minWindow;
+        eofOffset = Long.MAX_VALUE;
+    }
+
+    /// Waits for in-flight prefetches, so that the underlying handle can be closed right after
+    @Override
+    public void close() {
+        List<CompletableFuture<ByteBuffer>> pending;
+        synchronized (this) {
+            closed = true;
+            chunks.clear();
+            pending = List.copyOf(inFlight);
+            inFlight.clear();
+        }
+        for (CompletableFuture<ByteBuffer> data : pending) {
+            try {
+                data.join();
+            } catch (CompletionException ignore) {
+            }
+        }
+    }
+}
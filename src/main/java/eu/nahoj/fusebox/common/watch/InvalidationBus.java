@@ -0,0 +1,43 @@
+package eu.nahoj.fusebox.common.watch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/// Publishes invalidations to every registered listener, e.g. the caching layers of a chain.
+///
+/// A failing listener is logged and does not keep the others from being notified.
+public final class InvalidationBus implements InvalidationListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationBus.class);
+
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void register(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void invalidate(String path) {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.invalidate(path);
+            } catch (RuntimeException e) {
+                LOG.warn("Error invalidating {}", path, e);
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.invalidateAll();
+            } catch (RuntimeException e) {
+                LOG.warn("Error invalidating everything", e);
+            }
+        }
+    }
+}
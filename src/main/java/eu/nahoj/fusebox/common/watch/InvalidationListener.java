@@ -0,0 +1,36 @@
+package eu.nahoj.fusebox.common.watch;
+
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/// Receives changes made behind a file system's back, to drop what was cached about them.
+///
+/// Paths are given as the file system that the listener is registered with shows them.
+public interface InvalidationListener {
+
+    /// The file at `path` was created, deleted or modified: its attributes, its content, anything under it and the
+    /// listing of its parent may be stale
+    void invalidate(String path);
+
+    /// Anything may be stale, e.g. after change events were lost
+    void invalidateAll();
+
+    static InvalidationListener of(Consumer<String> invalidate, Runnable invalidateAll) {
+        return new InvalidationListener() {
+            @Override
+            public void invalidate(String path) {
+                invalidate.accept(path);
+            }
+
+            @Override
+            public void invalidateAll() {
+                invalidateAll.run();
+            }
+        };
+    }
+
+    /// This listener, receiving paths translated by `mapping`
+    default InvalidationListener mapPaths(UnaryOperator<String> mapping) {
+        return of(path -> invalidate(mapping.apply(path)), this::invalidateAll);
+    }
+}
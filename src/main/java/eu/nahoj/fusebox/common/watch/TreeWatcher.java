@@ -0,0 +1,130 @@
+package eu.nahoj.fusebox.common.watch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/// Watches a whole directory tree with a [WatchService], which only watches single directories.
+///
+/// Every directory is registered at start, and directories created later are registered, with their content, as
+/// their creation is reported. Changes are published on a daemon thread, as paths relative to the root with `/`
+/// separators, `""` being the root itself. When events were lost, or a directory could not be registered (the
+/// inotify watch limit may be reached on large trees), the listener is told to invalidate everything.
+public final class TreeWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TreeWatcher.class);
+
+    private final Path root;
+    private final InvalidationListener listener;
+    private final WatchService service;
+    private final Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    private TreeWatcher(Path root, InvalidationListener listener) throws IOException {
+        this.root = root;
+        this.listener = listener;
+        this.service = root.getFileSystem().newWatchService();
+        this.thread = new Thread(this::run, "fusebox-watch");
+        thread.setDaemon(true);
+    }
+
+    public static TreeWatcher start(Path root, InvalidationListener listener) throws IOException {
+        TreeWatcher watcher = new TreeWatcher(root, listener);
+        try {
+            if (!watcher.registerTree(root)) throw new IOException("Cannot watch " + root);
+        } catch (IOException | RuntimeException e) {
+            watcher.close();
+            throw e;
+        }
+        watcher.thread.start();
+        return watcher;
+    }
+
+    /// @return whether every directory of the tree could be registered
+    private boolean registerTree(Path top) throws IOException {
+        boolean[] complete = {true};
+        Files.walkFileTree(top, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                try {
+                    dirs.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    return FileVisitResult.CONTINUE;
+                } catch (IOException e) {
+                    LOG.warn("Cannot watch {}: {}", dir, e.toString());
+                    complete[0] = false;
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted since listed, or unreadable: nothing to watch
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return complete[0];
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path dir = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        handle(dir, event);
+                    } catch (IOException | RuntimeException e) {
+                        LOG.warn("Error handling watch event {} in {}", event.kind(), dir, e);
+                    }
+                }
+                if (!key.reset()) dirs.remove(key);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void handle(@Nullable Path dir, WatchEvent<?> event) throws IOException {
+        if (event.kind() == OVERFLOW || dir == null) {
+            listener.invalidateAll();
+            return;
+        }
+        Path child = dir.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, NOFOLLOW_LINKS) && !registerTree(child)) {
+            listener.invalidateAll();
+        }
+        listener.invalidate(relative(child));
+    }
+
+    private String relative(Path path) {
+        String rel = root.relativize(path).toString();
+        return File.separatorChar == '/' ? rel : rel.replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        service.close();
+    }
+}
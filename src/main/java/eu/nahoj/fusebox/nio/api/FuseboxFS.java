@@ -2,6 +2,8 @@ package eu.nahoj.fusebox.nio.api;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import org.cryptomator.jfuse.api.FileInfo;
 import org.cryptomator.jfuse.api.FuseConfig;
 import org.cryptomator.jfuse.api.FuseConnInfo;
@@ -13,7 +15,9 @@ import org.springframework.lang.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /// Like [FuseOperations], but methods that would normally return an errno
@@ -27,6 +31,14 @@ public interface FuseboxFS {
         // no-op
     }
 
+    /// Registers `listener` for changes made behind this FS's back, with paths as this FS shows them.
+    ///
+    /// Caching layers register from their factory, once built; layers that change paths translate them. The default
+    /// ignores the listener: the FS cannot see such changes.
+    default void addInvalidationListener(InvalidationListener listener) {
+        // no-op
+    }
+
     default Statvfs statfs(String path) throws IOException {
         throw new UnsupportedOperationException("statfs");
     }
@@ -36,6 +48,32 @@ public interface FuseboxFS {
         throw new UnsupportedOperationException("getattr");
     }
 
+    /// Attributes of the children `names` of `dir`, e.g. for a `readdir` that also returns attributes.
+    ///
+    /// Names whose attributes cannot be read are left out of the result: callers fall back to [#getattr], which
+    /// reports why. The default calls [#getattr] for each name; layers override it to translate or filter the names
+    /// once per directory, and drivers to stat the whole directory at once.
+    default Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            try {
+                attrs.put(name, getattr(childPath(dir, name), null));
+            } catch (IOException e) {
+                // Left out
+            }
+        }
+        return attrs;
+    }
+
+    /// Identity of the file at `path` on the disk, e.g. to share cached content between its hard links, renames and
+    /// other mounts of it, or null if the FS cannot tell.
+    ///
+    /// Layers that show other content than the delegate's at `path` must return null.
+    @Nullable
+    default FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return null;
+    }
+
     default String getxattr(String path, String name) throws IOException {
         throw new UnsupportedOperationException("getxattr");
     }
@@ -149,4 +187,15 @@ public interface FuseboxFS {
     default void fsyncdir(@Nullable String path, int datasync, FileInfo fi) throws IOException {
         throw new UnsupportedOperationException("fsyncdir");
     }
+
+    /// Path of the child `name` of the directory `dir`
+    static String childPath(String dir, String name) {
+        return "/".equals(dir) ? "/" + name : dir + "/" + name;
+    }
+
+    /// Path of the directory containing `path`; the root is its own parent
+    static String parentPath(String path) {
+        int i = path.lastIndexOf('/');
+        return i <= 0 ? "/" : path.substring(0, i);
+    }
 }
@@ -0,0 +1,176 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex.Node;
+import eu.nahoj.fusebox.common.archive.EntryReader;
+import eu.nahoj.fusebox.common.util.HandleTable;
+import eu.nahoj.fusebox.nio.transform.ChainingFS;
+import org.apache.commons.collections4.SetUtils;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/// Read-only [eu.nahoj.fusebox.nio.api.FuseboxFS] over a ZIP, 7z or TAR archive; the TAR may be gzip or xz compressed.
+///
+/// Metadata is served from the in-memory tree of an [ArchiveIndex]; each open file gets an [EntryReader].
+/// The index is closed when the FS is destroyed.
+public class ArchiveFS implements ChainingFS {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveFS.class);
+
+    private static final Set<StandardOpenOption> WRITE_INTENT = EnumSet.of(
+            StandardOpenOption.APPEND,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+    );
+
+    private final ArchiveIndex index;
+    private final HandleTable<EntryReader> openFiles = new HandleTable<>();
+
+    public ArchiveFS(ArchiveIndex index) {
+        this.index = index;
+    }
+
+    public static ArchiveFS open(Path archive) throws IOException {
+        return new ArchiveFS(ArchiveIndex.open(archive));
+    }
+
+    @Override
+    public Set<Operation> supportedOperations() {
+        return EnumSet.of(
+                Operation.DESTROY,
+                Operation.GET_ATTR,
+                Operation.OPEN,
+                Operation.OPEN_DIR,
+                Operation.READ,
+                Operation.READ_DIR,
+                Operation.READLINK,
+                Operation.RELEASE,
+                Operation.RELEASE_DIR
+        );
+    }
+
+    private Node getNode(String path) throws NoSuchFileException {
+        Node node = index.lookup(path);
+        if (node == null) throw new NoSuchFileException(path);
+        return node;
+    }
+
+    // ---------- Metadata ----------
+
+    @Override
+    public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("getattr {}", path);
+        return index.attributes(getNode(path));
+    }
+
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        Node node = getNode(dir);
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            Node child = node.child(name);
+            if (child != null) attrs.put(name, index.attributes(child));
+        }
+        return attrs;
+    }
+
+    @Override
+    public String readlink(String path) throws IOException {
+        String target = getNode(path).linkTarget();
+        if (target == null) throw new NotLinkException(path);
+        return target;
+    }
+
+    // ---------- Directories ----------
+
+    @Override
+    public void opendir(String path, FileInfo fi) throws IOException {
+        LOG.trace("opendir {}", path);
+        if (!getNode(path).isDirectory()) throw new NotDirectoryException(path);
+    }
+
+    @Override
+    public List<DirEntry> readdir(String path) throws IOException {
+        LOG.trace("readdir {}", path);
+        Node dir = getNode(path);
+        if (!dir.isDirectory()) throw new NotDirectoryException(path);
+        List<DirEntry> entries = new ArrayList<>(dir.childNames().size());
+        for (String name : dir.childNames()) {
+            entries.add(new DirEntry(name));
+        }
+        return entries;
+    }
+
+    @Override
+    public void releasedir(@Nullable String path, FileInfo fi) {
+        // no-op
+    }
+
+    // ---------- Files ----------
+
+    @Override
+    public void open(String path, FileInfo fi) throws IOException {
+        LOG.trace("open {}", path);
+        if (!SetUtils.intersection(fi.getOpenFlags(), WRITE_INTENT).isEmpty()) {
+            throw new ReadOnlyFileSystemException();
+        }
+        fi.setFh(openFiles.add(index.openReader(getNode(path))));
+    }
+
+    @Override
+    public int read(String path, ByteBuffer buf, long count, long offset, FileInfo fi) throws IOException {
+        LOG.trace("read {} at pos {}", path, offset);
+        EntryReader reader = openFiles.get(fi.getFh());
+        if (reader == null) throw new BadFileDescriptorException(path);
+        ByteBuffer slice = buf.slice(buf.position(), (int) Math.min(count, buf.remaining()));
+        int n = Math.max(0, reader.read(slice, offset));
+        buf.position(buf.position() + n);
+        return n;
+    }
+
+    @Override
+    public void release(String path, FileInfo fi) throws IOException {
+        LOG.trace("release {}", path);
+        EntryReader reader = openFiles.remove(fi.getFh());
+        if (reader != null) reader.close();
+    }
+
+    // ---------- Finish ----------
+
+    @Override
+    public void destroy() {
+        for (EntryReader reader : openFiles.clear()) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing archive entry", e);
+            }
+        }
+        try {
+            index.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing archive {}", index.archive(), e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/// Bounded LRU of open directory descriptors, keyed by FUSE path, so that an operation on `/a/b/.../f` only makes
+/// the kernel resolve `f` relative to the descriptor of its parent.
+///
+/// - Descriptors are reference-counted: an evicted or invalidated one is closed once its last user is done.
+/// - A descriptor follows its directory when it moves, so [#invalidate(String)] must be called for the old and
+///   new paths of a renamed directory and for a removed one. Changes made in the backing directory without going
+///   through the mount are not seen until the entry is evicted.
+final class DirFdCache {
+
+    @FunctionalInterface
+    interface Opener {
+        int open(String dirPath) throws IOException;
+    }
+
+    private static final class Entry {
+        final int fd;
+        int refs;
+        boolean closed;
+
+        Entry(int fd) {
+            this.fd = fd;
+        }
+    }
+
+    /// Descriptor lease, to be closed after use
+    final class Ref implements AutoCloseable {
+        private final Entry entry;
+
+        private Ref(Entry entry) {
+            this.entry = entry;
+        }
+
+        int fd() {
+            return entry.fd;
+        }
+
+        @Override
+        public void close() {
+            release(entry);
+        }
+    }
+
+    private final int capacity;
+    private final Opener opener;
+    private final IntConsumer closer;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long invalidations;
+    private long hits;
+    private long misses;
+
+    DirFdCache(int capacity, Opener opener, IntConsumer closer) {
+        this.capacity = capacity;
+        this.opener = opener;
+        this.closer = closer;
+    }
+
+    Ref acquire(String dirPath) throws IOException {
+        long seenInvalidations;
+        synchronized (this) {
+            Entry e = entries.get(dirPath);
+            if (e != null) {
+                hits++;
+                e.refs++;
+                return new Ref(e);
+            }
+            misses++;
+            seenInvalidations = invalidations;
+        }
+        // Open outside the lock
+        Entry opened = new Entry(opener.open(dirPath));
+        opened.refs = 1;
+        List<Entry> toClose = new ArrayList<>(1);
+        Ref ref;
+        synchronized (this) {
+            Entry raced = entries.get(dirPath);
+            if (raced != null) {
+                // Another thread cached it meanwhile
+                raced.refs++;
+                opened.refs = 0;
+                opened.closed = true;
+                toClose.add(opened);
+                ref = new Ref(raced);
+            } else {
+                if (seenInvalidations == invalidations) {
+                    entries.put(dirPath, opened);
+                    evictOverflow(toClose);
+                } else {
+                    // A rename/rmdir ran while opening: the fd may be for the wrong directory, don't keep it
+                    opened.closed = true;
+                }
+                ref = new Ref(opened);
+            }
+        }
+        toClose.forEach(e -> closer.accept(e.fd));
+        return ref;
+    }
+
+    private void evictOverflow(List<Entry> toClose) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry e = it.next();
+            it.remove();
+            markClosed(e, toClose);
+        }
+    }
+
+    private void markClosed(Entry e, List<Entry> toClose) {
+        e.closed = true;
+        if (e.refs == 0) toClose.add(e);
+    }
+
+    private void release(Entry e) {
+        boolean close;
+        synchronized (this) {
+            close = --e.refs == 0 && e.closed;
+        }
+        if (close) closer.accept(e.fd);
+    }
+
+    /// Drops `path` and everything below it
+    void invalidate(String path) {
+        List<Entry> toClose = new ArrayList<>();
+        synchronized (this) {
+            invalidations++;
+            String prefix = "/".equals(path) ? "/" : path + "/";
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> me = it.next();
+                if (me.getKey().equals(path) || me.getKey().startsWith(prefix)) {
+                    it.remove();
+                    markClosed(me.getValue(), toClose);
+                }
+            }
+        }
+        toClose.forEach(e -> closer.accept(e.fd));
+    }
+
+    /// Closes all idle descriptors; leased ones are closed on release
+    void clear() {
+        invalidate("/");
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+}
@@ -0,0 +1,11 @@
+package eu.nahoj.fusebox.nio.driven;
+
+/// What `fsync` and `fsyncdir` do in [LocalFS] and [NativeLocalFS]
+public enum FsyncMode {
+    /// Return without forcing anything to disk
+    NONE,
+    /// One `fsync`, or `fdatasync` for `datasync`, per call
+    PER_CALL,
+    /// Concurrent calls are batched and forced by a single thread: see [GroupCommitSyncer]
+    GROUPED,
+}
@@ -0,0 +1,159 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/// Group commit for `fsync`: callers queue a request and wait while a single thread forces the files.
+///
+/// Files are [FileChannel]s for [LocalFS] and descriptors for [NativeLocalFS], told apart by `equals`. Requests that
+/// arrive while a batch is being forced form the next batch, so each file is forced at most once per batch however
+/// many callers asked for it. Each caller waits for a force that started after its request, and hence
+/// covers the writes it made before calling. A non-zero window makes the thread wait that long after the first
+/// request of a batch to gather more, at the cost of latency for a lone caller.
+final class GroupCommitSyncer<F> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitSyncer.class);
+
+    @FunctionalInterface
+    interface Force<F> {
+        void force(F file, boolean metaData) throws IOException;
+    }
+
+    private record Request<F>(F file, boolean metaData, CompletableFuture<Void> done) {
+    }
+
+    private final Request<F> stop = new Request<>(null, false, null);
+
+    private final long windowNanos;
+    private final Force<F> force;
+    private final LinkedBlockingQueue<Request<F>> queue = new LinkedBlockingQueue<>();
+
+    // Guarded by this
+    @Nullable
+    private Thread thread;
+    private boolean closed;
+
+    GroupCommitSyncer(Duration window, Force<F> force) {
+        this.windowNanos = window.toNanos();
+        this.force = force;
+    }
+
+    static GroupCommitSyncer<FileChannel> ofChannels(Duration window) {
+        return new GroupCommitSyncer<>(window, FileChannel::force);
+    }
+
+    /// Like [FileChannel#force(boolean)], batched with concurrent callers
+    void sync(F file, boolean metaData) throws IOException {
+        Request<F> request = new Request<>(file, metaData, new CompletableFuture<>());
+        synchronized (this) {
+            if (closed) {
+                force.force(file, metaData);
+                return;
+            }
+            if (thread == null) {
+                thread = new Thread(this::run, "fusebox-fsync");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            queue.add(request);
+        }
+        try {
+            request.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for fsync");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        List<Request<F>> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+                    Request<F> r = queue.poll(left, NANOSECONDS);
+                    if (r == null) break;
+                    batch.add(r);
+                }
+            } catch (InterruptedException e) {
+                // Not interrupted by close(), which would make FileChannel.force close the channels
+                LOG.warn("fsync thread interrupted, stopping");
+                stopping = true;
+            }
+            queue.drainTo(batch);
+            stopping |= batch.remove(stop);
+            forceAll(batch);
+            batch.clear();
+        }
+        // Requests queued before callers see closed
+        synchronized (this) {
+            closed = true;
+        }
+        queue.drainTo(batch);
+        batch.remove(stop);
+        forceAll(batch);
+    }
+
+    private void forceAll(List<Request<F>> batch) {
+        if (batch.isEmpty()) return;
+        Map<F, Boolean> metaDataByFile = new HashMap<>();
+        for (Request<F> r : batch) {
+            metaDataByFile.merge(r.file, r.metaData, Boolean::logicalOr);
+        }
+        Map<F, Throwable> errors = new HashMap<>();
+        metaDataByFile.forEach((file, metaData) -> {
+            try {
+                force.force(file, metaData);
+            } catch (IOException | RuntimeException e) {
+                errors.put(file, e);
+            }
+        });
+        LOG.trace("forced {} files for {} requests", metaDataByFile.size(), batch.size());
+        for (Request<F> r : batch) {
+            Throwable error = errors.get(r.file);
+            if (error == null) {
+                r.done.complete(null);
+            } else {
+                r.done.completeExceptionally(error);
+            }
+        }
+    }
+
+    /// Forces what is queued and stops the thread; later calls force directly
+    @Override
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            t = thread;
+        }
+        if (t == null) return;
+        queue.add(stop);
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
+import eu.nahoj.fusebox.common.api.IsDirectoryException;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/// Downcalls to the Linux C library used by [NativeLocalFS].
+///
+/// Each method takes an allocator for its temporary arguments (C strings, captured errno), returns the C result
+/// when it is not an error, and otherwise throws the [IOException] matching `errno`, so that
+/// [eu.nahoj.fusebox.common.ExceptionHandler] maps it back to the same errno.
+///
+/// Sizes are for 64-bit Linux: `size_t`, `ssize_t` and `off_t` are `long`; `mode_t`, `uid_t` and `gid_t` are `int`.
+final class LibC {
+
+    private LibC() {}
+
+    // ---------- Constants ----------
+
+    static final int O_RDONLY = 0;
+    static final int O_WRONLY = 01;
+    static final int O_RDWR = 02;
+    static final int O_ACCMODE = 03;
+    static final int O_CREAT = 0100;
+    static final int O_EXCL = 0200;
+    static final int O_TRUNC = 01000;
+    static final int O_APPEND = 02000;
+    static final int O_CLOEXEC = 02000000;
+    static final int O_PATH = 010000000;
+    /// Differs between architectures
+    static final int O_DIRECTORY = isAarch64() ? 040000 : 0200000;
+    static final int O_NOFOLLOW = isAarch64() ? 0100000 : 0400000;
+
+    static final int AT_FDCWD = -100;
+    static final int AT_SYMLINK_NOFOLLOW = 0x100;
+    static final int AT_REMOVEDIR = 0x200;
+    static final int AT_EMPTY_PATH = 0x1000;
+
+    static final int RENAME_NOREPLACE = 1;
+    static final int RENAME_EXCHANGE = 2;
+
+    static final long UTIME_NOW = (1L << 30) - 1;
+    static final long UTIME_OMIT = (1L << 30) - 2;
+
+    static final int STATX_BASIC_STATS = 0x7ff;
+    static final int STATX_BTIME = 0x800;
+
+    // errno values (same on all Linux architectures supported by jfuse)
+    static final int EPERM = 1;
+    static final int ENOENT = 2;
+    static final int EINTR = 4;
+    static final int EIO = 5;
+    static final int E2BIG = 7;
+    static final int EBADF = 9;
+    static final int EACCES = 13;
+    static final int EEXIST = 17;
+    static final int EXDEV = 18;
+    static final int ENOTDIR = 20;
+    static final int EISDIR = 21;
+    static final int EINVAL = 22;
+    static final int ENOSPC = 28;
+    static final int EROFS = 30;
+    static final int ERANGE = 34;
+    static final int ENAMETOOLONG = 36;
+    static final int ENOSYS = 38;
+    static final int ENOTEMPTY = 39;
+    static final int ELOOP = 40;
+    static final int ENODATA = 61;
+    static final int EOPNOTSUPP = 95;
+
+    private static boolean isAarch64() {
+        return "aarch64".equals(System.getProperty("os.arch"));
+    }
+
+    // ---------- Layouts ----------
+
+    /// `struct statx`, 256 bytes; only the fields we read are named
+    static final long STATX_SIZE = 256;
+    static final long STX_MASK = 0;
+    static final long STX_NLINK = 16;
+    static final long STX_UID = 20;
+    static final long STX_GID = 24;
+    static final long STX_MODE = 28; // __u16
+    static final long STX_INO = 32;
+    static final long STX_SIZE = 40;
+    static final long STX_ATIME = 64; // struct statx_timestamp { __s64 tv_sec; __u32 tv_nsec; __s32 reserved; }
+    static final long STX_BTIME = 80;
+    static final long STX_CTIME = 96;
+    static final long STX_MTIME = 112;
+    static final long STX_DEV_MAJOR = 136;
+    static final long STX_DEV_MINOR = 140;
+
+    /// `struct statvfs` on LP64: eleven `unsigned long`s then `int __f_spare[6]`
+    static final long STATVFS_SIZE = 112;
+    static final long F_BSIZE = 0;
+    static final long F_FRSIZE = 8;
+    static final long F_BLOCKS = 16;
+    static final long F_BFREE = 24;
+    static final long F_BAVAIL = 32;
+    static final long F_NAMEMAX = 80;
+
+    /// `struct linux_dirent64 { u64 d_ino; s64 d_off; u16 d_reclen; u8 d_type; char d_name[]; }`
+    static final long D_RECLEN = 16;
+    static final long D_TYPE = 18;
+    static final long D_NAME = 19;
+
+    // ---------- Linking ----------
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final StructLayout CAPTURE_LAYOUT = Linker.Option.captureStateLayout();
+    private static final long ERRNO_OFFSET = CAPTURE_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static MethodHandle function(String name, FunctionDescriptor descriptor, Linker.Option... options) {
+        MemorySegment symbol = LINKER.defaultLookup().find(name)
+                .orElseThrow(() -> new UnsatisfiedLinkError("Symbol not found: " + name));
+        Linker.Option[] all = new Linker.Option[options.length + 1];
+        all[0] = Linker.Option.captureCallState("errno");
+        System.arraycopy(options, 0, all, 1, options.length);
+        return LINKER.downcallHandle(symbol, descriptor, all);
+    }
+
+    private static final MethodHandle OPENAT = function("openat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+            Linker.Option.firstVariadicArg(3));
+    private static final MethodHandle CLOSE = function("close",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle STATX = function("statx",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle PREAD = function("pread",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_LONG));
+    private static final MethodHandle PWRITE = function("pwrite",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_LONG));
+    private static final MethodHandle FTRUNCATE = function("ftruncate",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG));
+    private static final MethodHandle FSYNC = function("fsync",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle FDATASYNC = function("fdatasync",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle GETDENTS64 = function("getdents64",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+    private static final MethodHandle RENAMEAT2 = function("renameat2",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle MKDIRAT = function("mkdirat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle UNLINKAT = function("unlinkat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle SYMLINKAT = function("symlinkat",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, ADDRESS));
+    private static final MethodHandle READLINKAT = function("readlinkat",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, ADDRESS, JAVA_LONG));
+    private static final MethodHandle FCHMODAT = function("fchmodat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+    private static final MethodHandle FCHOWNAT = function("fchownat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT));
+    private static final MethodHandle UTIMENSAT = function("utimensat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+    private static final MethodHandle FACCESSAT = function("faccessat",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+    private static final MethodHandle FSTATVFS = function("fstatvfs",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle LGETXATTR = function("lgetxattr",
+            FunctionDescriptor.of(JAVA_LONG, ADDRESS, ADDRESS, ADDRESS, JAVA_LONG));
+    private static final MethodHandle LSETXATTR = function("lsetxattr",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, JAVA_LONG, JAVA_INT));
+    private static final MethodHandle LLISTXATTR = function("llistxattr",
+            FunctionDescriptor.of(JAVA_LONG, ADDRESS, ADDRESS, JAVA_LONG));
+    private static final MethodHandle LREMOVEXATTR = function("lremovexattr",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+
+    // ---------- Calls ----------
+
+    private static MemorySegment captureState(SegmentAllocator allocator) {
+        return allocator.allocate(CAPTURE_LAYOUT);
+    }
+
+    private static int errno(MemorySegment captureState) {
+        return captureState.get(JAVA_INT, ERRNO_OFFSET);
+    }
+
+    static MemorySegment cString(SegmentAllocator allocator, String s) {
+        return allocator.allocateFrom(s);
+    }
+
+    private static int check(int result, MemorySegment cs, String path, @Nullable String other) throws IOException {
+        if (result < 0) throw exception(errno(cs), path, other);
+        return result;
+    }
+
+    private static long check(long result, MemorySegment cs, String path, @Nullable String other)
+            throws IOException {
+        if (result < 0) throw exception(errno(cs), path, other);
+        return result;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException e) return e;
+        if (t instanceof Error e) throw e;
+        return new IllegalStateException(t);
+    }
+
+    static int openat(SegmentAllocator a, int dirfd, String path, int flags, int mode) throws IOException {
+        MemorySegment cs = captureState(a);
+        MemorySegment cPath = cString(a, path);
+        while (true) {
+            int r;
+            try {
+                r = (int) OPENAT.invokeExact(cs, dirfd, cPath, flags, mode);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            if (r >= 0 || errno(cs) != EINTR) return check(r, cs, path, null);
+        }
+    }
+
+    /// Errors are ignored: the descriptor is released by the kernel even when close reports one
+    static void close(int fd) {
+        try (Arena a = Arena.ofConfined()) {
+            int _ = (int) CLOSE.invokeExact(captureState(a), fd);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /// @param statx a segment of at least [#STATX_SIZE] bytes
+    static void statx(SegmentAllocator a, int dirfd, String path, int flags, MemorySegment statx) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) STATX.invokeExact(cs, dirfd, cString(a, path), flags, STATX_BASIC_STATS | STATX_BTIME, statx);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// @param buf native memory
+    /// @return bytes read, 0 at end of file
+    static long pread(SegmentAllocator a, int fd, MemorySegment buf, long count, long offset, String path)
+            throws IOException {
+        MemorySegment cs = captureState(a);
+        while (true) {
+            long r;
+            try {
+                r = (long) PREAD.invokeExact(cs, fd, buf, count, offset);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            if (r >= 0 || errno(cs) != EINTR) return check(r, cs, path, null);
+        }
+    }
+
+    /// @param buf native memory
+    static long pwrite(SegmentAllocator a, int fd, MemorySegment buf, long count, long offset, String path)
+            throws IOException {
+        MemorySegment cs = captureState(a);
+        while (true) {
+            long r;
+            try {
+                r = (long) PWRITE.invokeExact(cs, fd, buf, count, offset);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            if (r >= 0 || errno(cs) != EINTR) return check(r, cs, path, null);
+        }
+    }
+
+    static void ftruncate(SegmentAllocator a, int fd, long length, String path) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) FTRUNCATE.invokeExact(cs, fd, length);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// `fsync`, or `fdatasync` unless `metaData`
+    static void fsync(SegmentAllocator a, int fd, boolean metaData, String path) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = metaData ? (int) FSYNC.invokeExact(cs, fd) : (int) FDATASYNC.invokeExact(cs, fd);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// @return bytes filled in `buf`, 0 at end of directory
+    static long getdents64(SegmentAllocator a, int fd, MemorySegment buf, String path) throws IOException {
+        MemorySegment cs = captureState(a);
+        long r;
+        try {
+            r = (long) GETDENTS64.invokeExact(cs, fd, buf, buf.byteSize());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return check(r, cs, path, null);
+    }
+
+    /// @return the errno, or 0 on success, so that callers can handle `EXDEV`
+    static int renameat2(SegmentAllocator a, int olddirfd, String oldpath, int newdirfd, String newpath, int flags) {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) RENAMEAT2.invokeExact(cs, olddirfd, cString(a, oldpath), newdirfd, cString(a, newpath), flags);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return r < 0 ? errno(cs) : 0;
+    }
+
+    static void mkdirat(SegmentAllocator a, int dirfd, String path, int mode) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) MKDIRAT.invokeExact(cs, dirfd, cString(a, path), mode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    static void unlinkat(SegmentAllocator a, int dirfd, String path, int flags) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) UNLINKAT.invokeExact(cs, dirfd, cString(a, path), flags);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    static void symlinkat(SegmentAllocator a, String target, int newdirfd, String linkpath) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) SYMLINKAT.invokeExact(cs, cString(a, target), newdirfd, cString(a, linkpath));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, linkpath, null);
+    }
+
+    /// @return bytes written in `buf`, without a trailing NUL
+    static long readlinkat(SegmentAllocator a, int dirfd, String path, MemorySegment buf) throws IOException {
+        MemorySegment cs = captureState(a);
+        long r;
+        try {
+            r = (long) READLINKAT.invokeExact(cs, dirfd, cString(a, path), buf, buf.byteSize());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return check(r, cs, path, null);
+    }
+
+    static void fchmodat(SegmentAllocator a, int dirfd, String path, int mode) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            // AT_SYMLINK_NOFOLLOW is not supported by Linux fchmodat
+            r = (int) FCHMODAT.invokeExact(cs, dirfd, cString(a, path), mode, 0);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    static void fchownat(SegmentAllocator a, int dirfd, String path, int uid, int gid, int flags) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) FCHOWNAT.invokeExact(cs, dirfd, cString(a, path), uid, gid, flags);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// @param times `struct timespec[2]` (atime, mtime), each `{ long tv_sec; long tv_nsec; }`
+    static void utimensat(SegmentAllocator a, int dirfd, String path, MemorySegment times, int flags)
+            throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) UTIMENSAT.invokeExact(cs, dirfd, cString(a, path), times, flags);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    static void faccessat(SegmentAllocator a, int dirfd, String path, int mode) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) FACCESSAT.invokeExact(cs, dirfd, cString(a, path), mode, 0);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// @param statvfs a segment of at least [#STATVFS_SIZE] bytes
+    static void fstatvfs(SegmentAllocator a, int fd, MemorySegment statvfs, String path) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) FSTATVFS.invokeExact(cs, fd, statvfs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// @param value NULL to query the size
+    /// @return the size of the value
+    static long lgetxattr(SegmentAllocator a, String absPath, String name, MemorySegment value, String path)
+            throws IOException {
+        MemorySegment cs = captureState(a);
+        long r;
+        try {
+            r = (long) LGETXATTR.invokeExact(cs, cString(a, absPath), cString(a, name), value, value.byteSize());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return check(r, cs, path, null);
+    }
+
+    static void lsetxattr(SegmentAllocator a, String absPath, String name, MemorySegment value, String path)
+            throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) LSETXATTR.invokeExact(cs, cString(a, absPath), cString(a, name), value, value.byteSize(), 0);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    /// @param list NULL to query the size
+    /// @return the size of the NUL-separated list
+    static long llistxattr(SegmentAllocator a, String absPath, MemorySegment list, String path) throws IOException {
+        MemorySegment cs = captureState(a);
+        long r;
+        try {
+            r = (long) LLISTXATTR.invokeExact(cs, cString(a, absPath), list, list.byteSize());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return check(r, cs, path, null);
+    }
+
+    static void lremovexattr(SegmentAllocator a, String absPath, String name, String path) throws IOException {
+        MemorySegment cs = captureState(a);
+        int r;
+        try {
+            r = (int) LREMOVEXATTR.invokeExact(cs, cString(a, absPath), cString(a, name));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        check(r, cs, path, null);
+    }
+
+    // ---------- Errors ----------
+
+    /// Maps `errno` to the exception that [eu.nahoj.fusebox.common.ExceptionHandler] maps back to it,
+    /// or as close as [org.cryptomator.jfuse.api.Errno] allows.
+    static IOException exception(int errno, String path, @Nullable String other) {
+        return switch (errno) {
+            case ENOENT -> new NoSuchFileException(path, other, null);
+            case EACCES -> new AccessDeniedException(path, other, "Permission denied");
+            case EPERM -> new AccessDeniedException(path, other, "Operation not permitted");
+            case EEXIST -> new FileAlreadyExistsException(path, other, null);
+            case ENOTDIR -> new NotDirectoryException(path);
+            case EISDIR -> new IsDirectoryException();
+            case ENOTEMPTY -> new DirectoryNotEmptyException(path);
+            case ELOOP -> new FileSystemLoopException(path);
+            case EBADF -> new BadFileDescriptorException(path);
+            case EXDEV -> new AtomicMoveNotSupportedException(path, other, "Invalid cross-device link");
+            default -> new FileSystemException(path, other, reason(errno));
+        };
+    }
+
+    /// Wording matched by `ExceptionHandler.translateText`
+    private static String reason(int errno) {
+        return switch (errno) {
+            case E2BIG -> "Argument list too long";
+            case EINVAL -> "Invalid argument";
+            case ENAMETOOLONG -> "File name too long";
+            case ENODATA -> "No data available";
+            case ENOSYS -> "Function not implemented";
+            case EOPNOTSUPP -> "Operation not supported";
+            case ERANGE -> "Result too large";
+            case EROFS -> "Read-only file system";
+            case ENOSPC -> "No space left on device";
+            case EIO -> "Input/output error";
+            default -> "errno " + errno;
+        };
+    }
+}
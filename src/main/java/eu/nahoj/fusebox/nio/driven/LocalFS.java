@@ -3,9 +3,15 @@ package eu.nahoj.fusebox.nio.driven;
 import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
-import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.api.FileKey;
 import eu.nahoj.fusebox.common.api.IsDirectoryException;
 import eu.nahoj.fusebox.common.api.StatvfsData;
+import eu.nahoj.fusebox.common.util.HandleTable;
+import eu.nahoj.fusebox.common.watch.InvalidationBus;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.common.watch.TreeWatcher;
+import eu.nahoj.fusebox.nio.driven.MappedFiles.IORunnable;
+import eu.nahoj.fusebox.nio.driven.MappedFiles.MappedFile;
 import eu.nahoj.fusebox.nio.transform.ChainingFS;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
@@ -30,23 +36,23 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicLong;
 
+import static eu.nahoj.fusebox.common.api.FileAttributes.UNIX_ATTRIBUTE_KEYS;
 import static eu.nahoj.fusebox.common.util.ExceptionUtils.uncheckedIO;
-import static eu.nahoj.fusebox.common.util.NullUtils.mapOrNull;
 import static eu.nahoj.fusebox.common.util.SetUtils.enumSetCopy;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
@@ -60,15 +66,30 @@ public class LocalFS implements ChainingFS {
     private static final Logger LOG = LoggerFactory.getLogger(LocalFS.class);
 
     private final Path root;
+    private final LocalFSOptions options;
 
-    private record OpenHandle(Path path, FileChannel fc) {
+    /// @param mapped non-null if reads are served from a memory mapping
+    /// @param writeBack non-null if writes are buffered
+    private record OpenHandle(Path path, FileChannel fc, @Nullable MappedFile mapped,
+                              @Nullable WriteBackBuffers.Buffer writeBack) {
     }
 
-    private final ConcurrentMap<Long, OpenHandle> openFiles = new ConcurrentHashMap<>();
-    private final AtomicLong fileHandleGen = new AtomicLong(1L);
+    private final HandleTable<OpenHandle> openFiles = new HandleTable<>();
+    private final MappedFiles mappedFiles = new MappedFiles();
+    private final WriteBackBuffers writeBackBuffers;
+    private final GroupCommitSyncer<FileChannel> syncer;
+    private final InvalidationBus invalidations = new InvalidationBus();
+    private @Nullable TreeWatcher watcher;
 
     public LocalFS(Path root) {
+        this(root, LocalFSOptions.DEFAULTS);
+    }
+
+    public LocalFS(Path root, LocalFSOptions options) {
         this.root = root.toAbsolutePath().normalize();
+        this.options = options;
+        this.writeBackBuffers = new WriteBackBuffers(options.getWriteBackExtentSize(), options.getMaxDirtyBytes());
+        this.syncer = GroupCommitSyncer.ofChannels(options.getGroupCommitWindow());
     }
 
     public static LocalFS at(String rootPath) {
@@ -117,7 +138,8 @@ public class LocalFS implements ChainingFS {
 
     private Path resolve(String fusePath, @Nullable FileInfo fi) {
         return Optional.ofNullable(fi)
-                .map(fi_ -> openFiles.get(fi_.getFh()).path())
+                .map(fi_ -> openFiles.get(fi_.getFh()))
+                .map(OpenHandle::path)
                 .orElseGet(uncheckedIO(() -> root.resolve(StringUtils.stripStart(fusePath, "/"))));
     }
 
@@ -127,6 +149,17 @@ public class LocalFS implements ChainingFS {
         conn.setWant(conn.want() | (conn.capable() & FuseConnInfo.FUSE_CAP_BIG_WRITES));
         conn.setMaxBackground(16);
         conn.setCongestionThreshold(4);
+        if (options.isWatchChanges()) {
+            try {
+                watcher = TreeWatcher.start(root, invalidations.mapPaths(p -> "/" + p));
+            } catch (IOException e) {
+                LOG.warn("Cannot watch {} for changes", root, e);
+            }
+        }
+    }
+
+    public void addInvalidationListener(InvalidationListener listener) {
+        invalidations.register(listener);
     }
 
     public Statvfs statfs(String path) throws IOException {
@@ -145,27 +178,37 @@ public class LocalFS implements ChainingFS {
     }
 
     // Attributes
-    private static final String ATTRIBUTE_KEYS = "unix:mode,uid,gid,size," +
-            "creationTime,lastAccessTime,lastModifiedTime,ctime";
     public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
         LOG.trace("getattr {}", path);
         Path p = resolve(path, fi);
-        Map<String, Object> attrs = Files.readAttributes(p, ATTRIBUTE_KEYS, NOFOLLOW_LINKS); // Throws enotsup
-        int mode = (Integer) attrs.get("mode");
-        return FileAttributes.builder()
-                .type(FileType.fromMode(mode))
-                .suid((mode & 04000) != 0)
-                .sgid((mode & 02000) != 0)
-                .sticky((mode & 01000) != 0)
-                .permissions(FileModes.toPermissions(mode))
-                .uid((Integer) attrs.get("uid"))
-                .gid((Integer) attrs.get("gid"))
-                .size((Long) attrs.get("size"))
-                .creationTime(mapOrNull((FileTime) attrs.get("creationTime"), FileTime::toInstant))
-                .lastAccessTime(((FileTime) attrs.get("lastAccessTime")).toInstant())
-                .lastModifiedTime(((FileTime) attrs.get("lastModifiedTime")).toInstant())
-                .lastChangeTime(((FileTime) attrs.get("ctime")).toInstant())
-                .build();
+        flushWriteBack(p, null);
+        Map<String, Object> attrs = Files.readAttributes(p, UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS); // Throws enotsup
+        return FileAttributes.ofUnixAttributes(attrs);
+    }
+
+    @Override
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("fileKey {}", path);
+        Path p = resolve(path, fi);
+        return FileKey.ofUnixAttributes(Files.readAttributes(p, FileKey.UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS));
+    }
+
+    /// Resolves `dir` once; each name still costs a stat
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        LOG.trace("getattrBatch {} ({} names)", dir, names.size());
+        Path d = resolve(dir);
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            Path p = d.resolve(name);
+            try {
+                flushWriteBack(p, null);
+                attrs.put(name, FileAttributes.ofUnixAttributes(
+                        Files.readAttributes(p, UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS)));
+            } catch (IOException e) {
+                // Left out, see FuseboxFS.getattrBatch
+            }
+        }
+        return attrs;
     }
 
     public String getxattr(String path, String name) throws IOException {
@@ -318,12 +361,23 @@ public class LocalFS implements ChainingFS {
                     path, p, flags, writable, createIfMissing);
         }
         FileChannel fc = null;
+        MappedFile mapped = null;
         boolean success = false;
         try {
-            fc = FileChannel.open(p, flags);
-            long fh = fileHandleGen.incrementAndGet();
+            if (flags.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+                FileChannel[] opened = new FileChannel[1];
+                truncating(p, () -> opened[0] = FileChannel.open(p, flags));
+                fc = opened[0];
+            } else {
+                fc = FileChannel.open(p, flags);
+            }
+            mapped = mapIfEligible(p, flags);
+            WriteBackBuffers.Buffer writeBack = options.getWriteBackExtentSize() > 0
+                    && flags.contains(StandardOpenOption.WRITE) && !flags.contains(StandardOpenOption.APPEND)
+                    ? writeBackBuffers.newBuffer(p, fc)
+                    : null;
+            long fh = openFiles.add(new OpenHandle(p, fc, mapped, writeBack));
             fi.setFh(fh);
-            openFiles.put(fh, new OpenHandle(p, fc));
             LOG.trace("open ok {} fh={}", path, fh);
             success = true;
         } catch (IOException e) {
@@ -331,6 +385,7 @@ public class LocalFS implements ChainingFS {
             throw e;
         } finally {
             if (!success) {
+                if (mapped != null) mappedFiles.release(mapped);
                 if (fc != null) {
                     try { fc.close(); } catch (IOException ignore) {}
                 }
@@ -338,13 +393,52 @@ public class LocalFS implements ChainingFS {
         }
     }
 
+    @Nullable
+    private MappedFile mapIfEligible(Path p, Set<StandardOpenOption> flags) throws IOException {
+        if (!options.isMmapReads()
+                || flags.contains(StandardOpenOption.WRITE)
+                || flags.contains(StandardOpenOption.APPEND)) {
+            return null;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        if (!attrs.isRegularFile() || attrs.size() < options.getMmapMinSize() || attrs.fileKey() == null) {
+            return null;
+        }
+        return mappedFiles.acquire(attrs.fileKey());
+    }
+
+    /// Runs `truncation`, making sure no read touches a mapping of the file meanwhile
+    private void truncating(Path p, IORunnable truncation) throws IOException {
+        MappedFile mf = null;
+        if (!mappedFiles.isEmpty()) {
+            try {
+                Object fileKey = Files.readAttributes(p, BasicFileAttributes.class).fileKey();
+                mf = fileKey != null ? mappedFiles.get(fileKey) : null;
+            } catch (NoSuchFileException e) {
+                // Being created
+            }
+        }
+        if (mf != null) {
+            mf.truncating(truncation);
+        } else {
+            truncation.run();
+        }
+    }
+
     @Override
     public int read(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
         LOG.trace("read {} at pos {}", path, offset);
         val h = openFiles.get(fi.getFh());
         if (h == null) throw new BadFileDescriptorException(path);
-        int read = 0;
         int toRead = (int) Math.min(size, buf.remaining());
+        if (h.writeBack != null && h.writeBack.overlaps(offset, toRead)) {
+            h.writeBack.writeOut();
+        }
+        flushWriteBack(h.path, h);
+        if (h.mapped != null) {
+            return h.mapped.read(h.fc, buf, offset, toRead);
+        }
+        int read = 0;
         while (read < toRead) {
             int r = h.fc.read(buf, offset + read);
             if (r == -1) break;
@@ -359,6 +453,11 @@ public class LocalFS implements ChainingFS {
         val h = openFiles.get(fi.getFh());
         if (h == null) throw new BadFileDescriptorException(path);
         int toWrite = (int) Math.min(size, buf.remaining());
+        // Older extents buffered by other handles must not be written out later over this write
+        flushWriteBack(h.path, h);
+        if (h.writeBack != null) {
+            return h.writeBack.write(buf, offset, toWrite);
+        }
         // Write only the requested amount without consuming more from the buffer
         ByteBuffer slice = buf.slice();
         slice.limit(toWrite);
@@ -378,21 +477,37 @@ public class LocalFS implements ChainingFS {
         // `FuseOperations` says "This method doubles as ftruncate in libfuse2".
         // Is this correct in libfuse3?
         val h = fi != null ? openFiles.get(fi.getFh()) : null;
+        flushWriteBack(h != null ? h.path : resolve(path), null);
         if (h != null) {
-            h.fc.truncate(size);
+            truncating(h.path, () -> h.fc.truncate(size));
         } else {
             Path p = resolve(path);
             try (var fc = FileChannel.open(p, EnumSet.of(StandardOpenOption.WRITE))) {
-                fc.truncate(size);
+                truncating(p, () -> fc.truncate(size));
             }
         }
     }
 
-    public void release(String path, FileInfo fi) {
+    public void release(String path, FileInfo fi) throws IOException {
         LOG.trace("release {}", path);
         val h = openFiles.remove(fi.getFh());
         if (h == null) return; // nothing to do
-        try { h.fc.close(); } catch (IOException ignore) {}
+        close(h);
+    }
+
+    private void close(OpenHandle h) throws IOException {
+        try {
+            if (h.writeBack != null) h.writeBack.close();
+        } finally {
+            if (h.mapped != null) mappedFiles.release(h.mapped);
+            try { h.fc.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    /// Writes out the buffers of other handles on `p` (all of them if `except` is null), so that reads and
+    /// attributes reflect writes made through the mount. Failures are reported to the handles that own the buffers.
+    private void flushWriteBack(Path p, @Nullable OpenHandle except) {
+        writeBackBuffers.writeOut(p, except != null ? except.writeBack : null);
     }
 
     public void unlink(String path) throws IOException {
@@ -438,24 +553,58 @@ public class LocalFS implements ChainingFS {
     // Finish
     @Override
     public void destroy() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing watcher of {}", root, e);
+            }
+        }
+        syncer.close();
         if (!openFiles.isEmpty()) {
             LOG.warn("Found unclosed files when unmounting...");
         }
-        openFiles.values().forEach(h -> {
-            try { h.fc.close(); } catch (IOException ignore) {}
-        });
+        for (OpenHandle h : openFiles.clear()) {
+            try {
+                close(h);
+            } catch (IOException e) {
+                LOG.warn("Failed to write back {}", h.path, e);
+            }
+        }
     }
 
-    public void flush(String path, FileInfo fi) {
+    public void flush(String path, FileInfo fi) throws IOException {
         LOG.trace("flush {}", path);
-        // No-op; kernel may call close+fsync on its own
+        // Kernel may call close+fsync on its own; only write back what we hold
+        writeBack(fi);
     }
 
-    public void fsync(String path, int datasync, FileInfo fi) {
+    public void fsync(String path, int datasync, FileInfo fi) throws IOException {
         LOG.trace("fsync {}", path);
+        writeBack(fi);
+        val h = openFiles.get(fi.getFh());
+        if (h == null) throw new BadFileDescriptorException(path);
+        force(h.fc, datasync == 0);
+    }
+
+    private void writeBack(FileInfo fi) throws IOException {
+        val h = openFiles.get(fi.getFh());
+        if (h != null && h.writeBack != null) h.writeBack.flush();
     }
 
-    public void fsyncdir(@Nullable String path, int datasync, FileInfo fi) {
+    public void fsyncdir(@Nullable String path, int datasync, FileInfo fi) throws IOException {
         LOG.trace("fsyncdir {}", path);
+        if (path == null || options.getFsyncMode() == FsyncMode.NONE) return;
+        try (var dc = FileChannel.open(resolve(path), StandardOpenOption.READ)) {
+            force(dc, datasync == 0);
+        }
+    }
+
+    private void force(FileChannel fc, boolean metaData) throws IOException {
+        switch (options.getFsyncMode()) {
+            case NONE -> {}
+            case PER_CALL -> fc.force(metaData);
+            case GROUPED -> syncer.sync(fc, metaData);
+        }
     }
 }
@@ -0,0 +1,52 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.With;
+
+import java.time.Duration;
+
+/// Tuning knobs for [LocalFS]. The defaults behave like a plain mirror of the backing directory.
+@Value
+@Builder(toBuilder = true)
+@With
+public class LocalFSOptions {
+
+    public static final LocalFSOptions DEFAULTS = LocalFSOptions.builder().build();
+
+    /// Serve reads of read-only handles from a memory mapping of the file instead of `pread` calls.
+    ///
+    /// Files must not be truncated behind the mount's back while mapped: accessing a page past the new end of file
+    /// fails.
+    @Builder.Default
+    boolean mmapReads = false;
+
+    /// Smaller files are read with `pread` even when [#mmapReads] is set
+    @Builder.Default
+    long mmapMinSize = 1024 * 1024;
+
+    /// Size of the per-handle buffer merging adjacent writes into one extent; 0 writes every call through.
+    ///
+    /// Buffered data is written on `flush`, `fsync`, `release`, overlapping reads, `getattr` and `truncate`, or when
+    /// a write does not extend the extent. Write errors are then reported by the call that triggered the write.
+    @Builder.Default
+    int writeBackExtentSize = 0;
+
+    /// Max buffered bytes over all handles of the mount, past which writes flush their buffer or go through
+    @Builder.Default
+    long maxDirtyBytes = 64L * 1024 * 1024;
+
+    /// How `fsync` and `fsyncdir` reach the disk. `datasync` maps to `force(false)`.
+    @Builder.Default
+    FsyncMode fsyncMode = FsyncMode.GROUPED;
+
+    /// With [FsyncMode#GROUPED], how long to wait for more callers before forcing. Zero still batches the calls
+    /// that arrive while a force is running.
+    @Builder.Default
+    Duration groupCommitWindow = Duration.ZERO;
+
+    /// Watch the root directory, from `init` on, and publish changes made behind the mount to the listeners registered
+    /// with [LocalFS#addInvalidationListener]
+    @Builder.Default
+    boolean watchChanges = false;
+}
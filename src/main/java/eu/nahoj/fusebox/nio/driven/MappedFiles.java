@@ -0,0 +1,137 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/// Read-only memory mappings shared by all the handles of a file, keyed by file identity
+/// ([java.nio.file.attribute.BasicFileAttributes#fileKey()]).
+///
+/// A mapping covers the file size seen when it was made. Reads past its end check the current size and remap if the
+/// file has grown. Shrinking a file must go through [MappedFile#truncating], which drops the mapping first so that
+/// no read touches pages past the new end of file.
+final class MappedFiles {
+
+    @FunctionalInterface
+    interface IORunnable {
+        void run() throws IOException;
+    }
+
+    final class MappedFile {
+        private final Object key;
+        private int handles; // guarded by MappedFiles.this
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        // Guarded by lock
+        @Nullable
+        private Arena arena;
+        private MemorySegment segment = MemorySegment.NULL;
+
+        private MappedFile(Object key) {
+            this.key = key;
+        }
+
+        /// Reads into `dst` like [FileChannel#read(ByteBuffer, long)], but without a system call when the range is
+        /// mapped
+        int read(FileChannel fc, ByteBuffer dst, long offset, int length) throws IOException {
+            int n = copy(dst, offset, length, false);
+            if (n >= 0) return n;
+            long size = fc.size();
+            if (offset >= size) return 0;
+            lock.writeLock().lock();
+            try {
+                if (size > segment.byteSize()) remap(fc, size);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return copy(dst, offset, length, true);
+        }
+
+        /// @return bytes copied, or -1 if the range is not entirely mapped and `partial` is false
+        private int copy(ByteBuffer dst, long offset, int length, boolean partial) {
+            lock.readLock().lock();
+            try {
+                long available = segment.byteSize() - offset;
+                if (available < length && !partial) return -1;
+                int n = (int) Math.max(0, Math.min(length, available));
+                if (n > 0) {
+                    MemorySegment.copy(segment, offset, MemorySegment.ofBuffer(dst), 0, n);
+                    dst.position(dst.position() + n);
+                }
+                return n;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void remap(FileChannel fc, long size) throws IOException {
+            Arena newArena = Arena.ofShared();
+            try {
+                MemorySegment newSegment = fc.map(FileChannel.MapMode.READ_ONLY, 0, size, newArena);
+                unmap();
+                arena = newArena;
+                segment = newSegment;
+            } catch (IOException | RuntimeException e) {
+                newArena.close();
+                throw e;
+            }
+        }
+
+        private void unmap() {
+            if (arena != null) {
+                arena.close();
+                arena = null;
+            }
+            segment = MemorySegment.NULL;
+        }
+
+        /// Runs `truncation` with no read in progress and the mapping dropped
+        void truncating(IORunnable truncation) throws IOException {
+            lock.writeLock().lock();
+            try {
+                unmap();
+                truncation.run();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private final Map<Object, MappedFile> files = new HashMap<>();
+
+    synchronized MappedFile acquire(Object fileKey) {
+        MappedFile mf = files.computeIfAbsent(fileKey, MappedFile::new);
+        mf.handles++;
+        return mf;
+    }
+
+    /// Unmaps the file when its last handle is released
+    void release(MappedFile mf) {
+        synchronized (this) {
+            if (--mf.handles > 0) return;
+            files.remove(mf.key);
+        }
+        mf.lock.writeLock().lock();
+        try {
+            mf.unmap();
+        } finally {
+            mf.lock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    synchronized MappedFile get(Object fileKey) {
+        return files.get(fileKey);
+    }
+
+    synchronized boolean isEmpty() {
+        return files.isEmpty();
+    }
+}
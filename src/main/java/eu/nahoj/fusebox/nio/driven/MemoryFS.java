@@ -0,0 +1,766 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.api.IsDirectoryException;
+import eu.nahoj.fusebox.common.api.StatvfsData;
+import eu.nahoj.fusebox.common.util.HandleTable;
+import eu.nahoj.fusebox.nio.transform.ChainingFS;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.cryptomator.jfuse.api.Statvfs;
+import org.cryptomator.jfuse.api.TimeSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.NotLinkException;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/// In-memory [eu.nahoj.fusebox.nio.api.FuseboxFS], similar to a tmpfs.
+///
+/// - The directory tree is guarded by a single read-write lock: lookups share it, namespace changes
+///   (create, mkdir, rename...) take it exclusively.
+/// - File data lives in fixed-size off-heap blocks allocated from a shared [Arena]. Blocks that were never
+///   written are not allocated (sparse files), and blocks freed by truncate/unlink are recycled.
+/// - Each file has its own read-write lock, so readers of a file run concurrently with each other and with
+///   writers of other files.
+///
+/// Memory is released when the FS is destroyed.
+public class MemoryFS implements ChainingFS {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryFS.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int RENAME_NOREPLACE = 1;
+    private static final int RENAME_EXCHANGE = 2;
+
+    private final int blockSize;
+    /// Upper bound on allocated data, reported by statfs
+    private final long capacity;
+
+    private final Arena arena = Arena.ofShared();
+    private final ConcurrentLinkedDeque<MemorySegment> freeBlocks = new ConcurrentLinkedDeque<>();
+    private final AtomicLong allocatedBlocks = new AtomicLong();
+
+    private final ReadWriteLock treeLock = new ReentrantReadWriteLock();
+    private final Dir root = new Dir(FileType.DIRECTORY.mask() | 0755);
+
+    private record OpenFile(RegularFile file, boolean append) {
+    }
+
+    private final HandleTable<OpenFile> openFiles = new HandleTable<>();
+
+    public MemoryFS() {
+        this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().maxMemory());
+    }
+
+    public MemoryFS(int blockSize, long capacity) {
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public Set<Operation> supportedOperations() {
+        return EnumSet.of(
+                Operation.ACCESS,
+                Operation.CHMOD,
+                Operation.CHOWN,
+                Operation.CREATE,
+                Operation.DESTROY,
+                Operation.FLUSH,
+                Operation.FSYNC,
+                Operation.FSYNCDIR,
+                Operation.GET_ATTR,
+                Operation.GET_XATTR,
+                Operation.INIT,
+                Operation.LIST_XATTR,
+                Operation.MKDIR,
+                Operation.OPEN_DIR,
+                Operation.READ_DIR,
+                Operation.RELEASE_DIR,
+                Operation.RENAME,
+                Operation.RMDIR,
+                Operation.OPEN,
+                Operation.READ,
+                Operation.READLINK,
+                Operation.RELEASE,
+                Operation.REMOVE_XATTR,
+                Operation.SET_XATTR,
+                Operation.STATFS,
+                Operation.SYMLINK,
+                Operation.TRUNCATE,
+                Operation.UNLINK,
+                Operation.UTIMENS,
+                Operation.WRITE
+        );
+    }
+
+    // ---------- Nodes ----------
+
+    private abstract static sealed class Node permits Dir, RegularFile, Symlink {
+        volatile int mode;
+        volatile int uid;
+        volatile int gid;
+        /// Nanoseconds since the epoch, as in [FileAttributes]
+        volatile long creationTime;
+        volatile long lastAccessTime;
+        volatile long lastModifiedTime;
+        volatile long lastChangeTime;
+        final ConcurrentMap<String, byte[]> xattrs = new ConcurrentHashMap<>();
+
+        Node(int mode) {
+            long now = now();
+            this.mode = mode;
+            this.creationTime = now;
+            this.lastAccessTime = now;
+            this.lastModifiedTime = now;
+            this.lastChangeTime = now;
+        }
+
+        abstract long size();
+
+        void touchModified() {
+            long now = now();
+            lastModifiedTime = now;
+            lastChangeTime = now;
+        }
+    }
+
+    private static final class Dir extends Node {
+        /// Guarded by [#treeLock]
+        final Map<String, Node> children = new TreeMap<>();
+
+        Dir(int mode) {
+            super(mode);
+        }
+
+        @Override
+        long size() {
+            return 0;
+        }
+    }
+
+    private static final class Symlink extends Node {
+        final String target;
+
+        Symlink(String target) {
+            super(FileType.SYMBOLIC_LINK.mask() | 0777);
+            this.target = target;
+        }
+
+        @Override
+        long size() {
+            return target.length();
+        }
+    }
+
+    private final class RegularFile extends Node {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        /// Guarded by [#lock]. A null block reads as zeros.
+        MemorySegment[] blocks = new MemorySegment[0];
+        volatile long size;
+        /// Guarded by [#treeLock] (write) — an unlinked file keeps its data until its last handle is released
+        int openCount;
+        boolean unlinked;
+
+        RegularFile(int mode) {
+            super(mode);
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+
+        int read(ByteBuffer dst, int count, long offset) {
+            lock.readLock().lock();
+            try {
+                long end = Math.min(size, offset + count);
+                int total = 0;
+                for (long pos = offset; pos < end; ) {
+                    int blockIndex = (int) (pos / blockSize);
+                    int inBlock = (int) (pos % blockSize);
+                    int n = (int) Math.min(blockSize - inBlock, end - pos);
+                    MemorySegment block = blockIndex < blocks.length ? blocks[blockIndex] : null;
+                    MemorySegment target = MemorySegment.ofBuffer(dst);
+                    if (block == null) {
+                        target.asSlice(0, n).fill((byte) 0);
+                    } else {
+                        MemorySegment.copy(block, inBlock, target, 0, n);
+                    }
+                    dst.position(dst.position() + n);
+                    pos += n;
+                    total += n;
+                }
+                return total;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /// Writes at `offset`, or at the end of the file if `append`: the end is read under the lock so that
+        /// concurrent appends don't overwrite each other
+        int write(ByteBuffer src, int count, long offset, boolean append) throws IOException {
+            lock.writeLock().lock();
+            try {
+                if (append) offset = size;
+                long end = offset + count;
+                ensureBlockCapacity(end);
+                for (long pos = offset; pos < end; ) {
+                    int blockIndex = (int) (pos / blockSize);
+                    int inBlock = (int) (pos % blockSize);
+                    int n = (int) Math.min(blockSize - inBlock, end - pos);
+                    if (blocks[blockIndex] == null) {
+                        blocks[blockIndex] = allocateBlock();
+                    }
+                    MemorySegment.copy(MemorySegment.ofBuffer(src), 0, blocks[blockIndex], inBlock, n);
+                    src.position(src.position() + n);
+                    pos += n;
+                }
+                if (end > size) size = end;
+                touchModified();
+                return count;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void truncate(long newSize) throws IOException {
+            lock.writeLock().lock();
+            try {
+                if (newSize < size) {
+                    int keptBlocks = (int) ((newSize + blockSize - 1) / blockSize);
+                    for (int i = keptBlocks; i < blocks.length; i++) {
+                        if (blocks[i] != null) {
+                            releaseBlock(blocks[i]);
+                            blocks[i] = null;
+                        }
+                    }
+                    // Zero the tail of the last kept block so that a later extension reads zeros
+                    int inBlock = (int) (newSize % blockSize);
+                    if (inBlock != 0 && keptBlocks > 0 && blocks[keptBlocks - 1] != null) {
+                        blocks[keptBlocks - 1].asSlice(inBlock).fill((byte) 0);
+                    }
+                    blocks = Arrays.copyOf(blocks, keptBlocks);
+                } else {
+                    ensureBlockCapacity(newSize);
+                }
+                size = newSize;
+                touchModified();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void freeAllBlocks() {
+            lock.writeLock().lock();
+            try {
+                for (MemorySegment block : blocks) {
+                    if (block != null) releaseBlock(block);
+                }
+                blocks = new MemorySegment[0];
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void ensureBlockCapacity(long end) throws FileSystemException {
+            long needed = (end + blockSize - 1) / blockSize;
+            if (needed > Integer.MAX_VALUE) throw new FileSystemException(null, null, "File too large");
+            if (needed > blocks.length) {
+                blocks = Arrays.copyOf(blocks, (int) Math.max(needed, blocks.length * 2L));
+            }
+        }
+    }
+
+    private MemorySegment allocateBlock() throws IOException {
+        MemorySegment block = freeBlocks.poll();
+        if (block != null) {
+            block.fill((byte) 0);
+            return block;
+        }
+        if ((allocatedBlocks.get() + 1) * blockSize > capacity) {
+            throw new FileSystemException(null, null, "No space left on device");
+        }
+        allocatedBlocks.incrementAndGet();
+        return arena.allocate(blockSize, 64);
+    }
+
+    private void releaseBlock(MemorySegment block) {
+        freeBlocks.push(block);
+    }
+
+    private static long now() {
+        return FileAttributes.nanos(Instant.now());
+    }
+
+    // ---------- Path helpers ----------
+
+    private static String[] split(String path) {
+        return "/".equals(path) ? new String[0] : path.substring(1).split("/");
+    }
+
+    private static String parentOf(String path) {
+        int i = path.lastIndexOf('/');
+        return i == 0 ? "/" : path.substring(0, i);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /// Must be called with [#treeLock] held
+    private Node lookup(String path) throws IOException {
+        Node node = root;
+        for (String part : split(path)) {
+            if (!(node instanceof Dir dir)) throw new NotDirectoryException(path);
+            node = dir.children.get(part);
+            if (node == null) throw new NoSuchFileException(path);
+        }
+        return node;
+    }
+
+    /// Must be called with [#treeLock] held
+    private Dir lookupParent(String path) throws IOException {
+        if ("/".equals(path)) throw new FileSystemException(path, null, "Invalid argument");
+        Node parent = lookup(parentOf(path));
+        if (!(parent instanceof Dir dir)) throw new NotDirectoryException(parentOf(path));
+        return dir;
+    }
+
+    private Node getNode(String path) throws IOException {
+        treeLock.readLock().lock();
+        try {
+            return lookup(path);
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    private Node getNode(String path, @Nullable FileInfo fi) throws IOException {
+        if (fi != null) {
+            OpenFile h = openFiles.get(fi.getFh());
+            if (h != null) return h.file;
+        }
+        return getNode(path);
+    }
+
+    private OpenFile getOpenFile(String path, FileInfo fi) throws BadFileDescriptorException {
+        OpenFile h = openFiles.get(fi.getFh());
+        if (h == null) throw new BadFileDescriptorException(path);
+        return h;
+    }
+
+    // ---------- Start ----------
+
+    @Override
+    public Statvfs statfs(String path) {
+        LOG.trace("statfs");
+        long totalBlocks = capacity / blockSize;
+        long freeBlocks = Math.max(0, totalBlocks - allocatedBlocks.get()) + this.freeBlocks.size();
+        return StatvfsData.builder()
+                .bsize(blockSize)
+                .frsize(blockSize)
+                .blocks(totalBlocks)
+                .bfree(freeBlocks)
+                .bavail(freeBlocks)
+                .nameMax(255L)
+                .build();
+    }
+
+    // ---------- Attributes ----------
+
+    @Override
+    public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("getattr {}", path);
+        Node node = getNode(path, fi);
+        return new FileAttributes(node.mode, node.uid, node.gid, node.size(),
+                node.creationTime, node.lastAccessTime, node.lastModifiedTime, node.lastChangeTime);
+    }
+
+    @Override
+    public String getxattr(String path, String name) throws IOException {
+        LOG.trace("getxattr {} {}", path, name);
+        byte[] value = getNode(path).xattrs.get(name);
+        if (value == null) throw new FileSystemException(path, null, "No data available");
+        return new String(value, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void setxattr(String path, String name, ByteBuffer value) throws IOException {
+        LOG.trace("setxattr {} {}", path, name);
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        Node node = getNode(path);
+        node.xattrs.put(name, bytes);
+        node.lastChangeTime = now();
+    }
+
+    @Override
+    public List<String> listxattr(String path) throws IOException {
+        LOG.trace("listxattr {}", path);
+        return List.copyOf(getNode(path).xattrs.keySet());
+    }
+
+    @Override
+    public void removexattr(String path, String name) throws IOException {
+        LOG.trace("removexattr {} {}", path, name);
+        Node node = getNode(path);
+        if (node.xattrs.remove(name) == null) throw new FileSystemException(path, null, "No data available");
+        node.lastChangeTime = now();
+    }
+
+    /// All files belong to the mounting user, so only owner bits are checked
+    @Override
+    public void access(String path, int mask) throws IOException {
+        LOG.trace("access {}", path);
+        int ownerBits = (getNode(path).mode >> 6) & 07;
+        if ((ownerBits & mask) != (mask & 07)) {
+            throw new AccessDeniedException(path);
+        }
+    }
+
+    @Override
+    public void chmod(String path, int mode, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("chmod {}", path);
+        Node node = getNode(path, fi);
+        node.mode = (node.mode & FileType.S_IFMT) | (mode & 07777);
+        node.lastChangeTime = now();
+    }
+
+    @Override
+    public void chown(String path, int uid, int gid, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("chown {} uid={} gid={}", path, uid, gid);
+        Node node = getNode(path, fi);
+        // -1 means "unchanged"
+        if (uid != -1) node.uid = uid;
+        if (gid != -1) node.gid = gid;
+        node.lastChangeTime = now();
+    }
+
+    @Override
+    public void utimens(String path, TimeSpec atime, TimeSpec mtime, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("utimens {}", path);
+        Node node = getNode(path, fi);
+        atime.getOptional().ifPresent(t -> node.lastAccessTime = FileAttributes.nanos(t));
+        mtime.getOptional().ifPresent(t -> node.lastModifiedTime = FileAttributes.nanos(t));
+        node.lastChangeTime = now();
+    }
+
+    // ---------- Links ----------
+
+    @Override
+    public String readlink(String path) throws IOException {
+        LOG.trace("readlink {}", path);
+        if (!(getNode(path) instanceof Symlink link)) throw new NotLinkException(path);
+        return link.target;
+    }
+
+    @Override
+    public void symlink(String target, String linkname) throws IOException {
+        LOG.trace("symlink {} -> {}", linkname, target);
+        addNode(linkname, new Symlink(target));
+    }
+
+    // ---------- Directories ----------
+
+    @Override
+    public void mkdir(String path, int mode) throws IOException {
+        LOG.trace("mkdir {}", path);
+        addNode(path, new Dir(FileType.DIRECTORY.mask() | (mode & 07777)));
+    }
+
+    private void addNode(String path, Node node) throws IOException {
+        treeLock.writeLock().lock();
+        try {
+            Dir parent = lookupParent(path);
+            String name = nameOf(path);
+            if (parent.children.containsKey(name)) throw new FileAlreadyExistsException(path);
+            parent.children.put(name, node);
+            parent.touchModified();
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void opendir(String path, FileInfo fi) throws IOException {
+        LOG.trace("opendir {}", path);
+        if (!(getNode(path) instanceof Dir)) throw new NotDirectoryException(path);
+    }
+
+    @Override
+    public List<DirEntry> readdir(String path) throws IOException {
+        LOG.trace("readdir {}", path);
+        treeLock.readLock().lock();
+        try {
+            if (!(lookup(path) instanceof Dir dir)) throw new NotDirectoryException(path);
+            List<DirEntry> entries = new ArrayList<>(dir.children.size());
+            for (String name : dir.children.keySet()) {
+                entries.add(new DirEntry(name));
+            }
+            return entries;
+        } finally {
+            treeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void releasedir(@Nullable String path, FileInfo fi) {
+        // no-op
+    }
+
+    @Override
+    public void rmdir(String path) throws IOException {
+        LOG.trace("rmdir {}", path);
+        treeLock.writeLock().lock();
+        try {
+            Dir parent = lookupParent(path);
+            Node node = parent.children.get(nameOf(path));
+            if (node == null) throw new NoSuchFileException(path);
+            if (!(node instanceof Dir dir)) throw new NotDirectoryException(path);
+            if (!dir.children.isEmpty()) throw new DirectoryNotEmptyException(path);
+            parent.children.remove(nameOf(path));
+            parent.touchModified();
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    // ---------- Files ----------
+
+    @Override
+    public void create(String path, int mode, FileInfo fi) throws IOException {
+        LOG.trace("create {}", path);
+        RegularFile file;
+        treeLock.writeLock().lock();
+        try {
+            Dir parent = lookupParent(path);
+            String name = nameOf(path);
+            Node existing = parent.children.get(name);
+            if (existing != null) {
+                if (fi.getOpenFlags().contains(StandardOpenOption.CREATE_NEW)) {
+                    throw new FileAlreadyExistsException(path);
+                }
+                if (!(existing instanceof RegularFile f)) throw new IsDirectoryException();
+                file = f;
+            } else {
+                file = new RegularFile(FileType.REGULAR_FILE.mask() | (mode & 07777));
+                parent.children.put(name, file);
+                parent.touchModified();
+            }
+            file.openCount++;
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+        registerHandle(path, file, fi);
+    }
+
+    @Override
+    public void open(String path, FileInfo fi) throws IOException {
+        LOG.trace("open {}", path);
+        RegularFile file;
+        treeLock.writeLock().lock();
+        try {
+            Node node = lookup(path);
+            if (node instanceof Dir) throw new IsDirectoryException();
+            if (!(node instanceof RegularFile f)) throw new FileSystemException(path, null, "Invalid argument");
+            file = f;
+            file.openCount++;
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+        registerHandle(path, file, fi);
+    }
+
+    private void registerHandle(String path, RegularFile file, FileInfo fi) throws IOException {
+        Set<StandardOpenOption> flags = fi.getOpenFlags();
+        if (flags.contains(StandardOpenOption.TRUNCATE_EXISTING) && flags.contains(StandardOpenOption.WRITE)) {
+            file.truncate(0);
+        }
+        long fh = openFiles.add(new OpenFile(file, flags.contains(StandardOpenOption.APPEND)));
+        fi.setFh(fh);
+        LOG.trace("open ok {} fh={}", path, fh);
+    }
+
+    @Override
+    public int read(String path, ByteBuffer buf, long count, long offset, FileInfo fi) throws IOException {
+        LOG.trace("read {} at pos {}", path, offset);
+        OpenFile h = getOpenFile(path, fi);
+        return h.file.read(buf, (int) Math.min(count, buf.remaining()), offset);
+    }
+
+    @Override
+    public int write(String path, ByteBuffer buf, long count, long offset, FileInfo fi) throws IOException {
+        LOG.trace("write {} at pos {}", path, offset);
+        OpenFile h = getOpenFile(path, fi);
+        int toWrite = (int) Math.min(count, buf.remaining());
+        // Write only the requested amount without consuming more from the buffer
+        ByteBuffer slice = buf.slice(buf.position(), toWrite);
+        int written = h.file.write(slice, toWrite, offset, h.append);
+        buf.position(buf.position() + written);
+        return written;
+    }
+
+    @Override
+    public void truncate(String path, long size, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("truncate {} to size {}", path, size);
+        Node node = getNode(path, fi);
+        if (node instanceof Dir) throw new IsDirectoryException();
+        if (!(node instanceof RegularFile file)) throw new FileSystemException(path, null, "Invalid argument");
+        file.truncate(size);
+    }
+
+    @Override
+    public void release(String path, FileInfo fi) {
+        LOG.trace("release {}", path);
+        OpenFile h = openFiles.remove(fi.getFh());
+        if (h == null) return; // nothing to do
+        boolean free;
+        treeLock.writeLock().lock();
+        try {
+            free = --h.file.openCount == 0 && h.file.unlinked;
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+        if (free) h.file.freeAllBlocks();
+    }
+
+    @Override
+    public void unlink(String path) throws IOException {
+        LOG.trace("unlink {}", path);
+        Node removed;
+        treeLock.writeLock().lock();
+        try {
+            Dir parent = lookupParent(path);
+            Node node = parent.children.get(nameOf(path));
+            if (node == null) throw new NoSuchFileException(path);
+            if (node instanceof Dir) throw new IsDirectoryException();
+            parent.children.remove(nameOf(path));
+            parent.touchModified();
+            removed = node;
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+        freeIfUnreferenced(removed);
+    }
+
+    @Override
+    public void rename(String oldPath, String newPath, int flags) throws IOException {
+        LOG.trace("rename {} -> {} flags=0x{}", oldPath, newPath, Integer.toHexString(flags));
+        boolean noReplace = (flags & RENAME_NOREPLACE) != 0;
+        boolean exchange = (flags & RENAME_EXCHANGE) != 0;
+        if ((noReplace && exchange) || (flags & ~(RENAME_NOREPLACE | RENAME_EXCHANGE)) != 0) {
+            throw new FileSystemException(oldPath, newPath, "Invalid argument");
+        }
+        if (oldPath.equals(newPath)) return;
+        Node replaced = null;
+        treeLock.writeLock().lock();
+        try {
+            Dir srcParent = lookupParent(oldPath);
+            Dir dstParent = lookupParent(newPath);
+            String srcName = nameOf(oldPath);
+            String dstName = nameOf(newPath);
+            Node src = srcParent.children.get(srcName);
+            if (src == null) throw new NoSuchFileException(oldPath);
+            Node dst = dstParent.children.get(dstName);
+            // A directory cannot be moved into its own subtree (nor can it receive its own ancestor)
+            if (src instanceof Dir && newPath.startsWith(oldPath + "/")
+                    || exchange && dst instanceof Dir && oldPath.startsWith(newPath + "/")) {
+                throw new FileSystemException(oldPath, newPath, "Invalid argument");
+            }
+            if (exchange) {
+                if (dst == null) throw new NoSuchFileException(newPath);
+                srcParent.children.put(srcName, dst);
+                dstParent.children.put(dstName, src);
+            } else {
+                if (dst != null) {
+                    if (noReplace) throw new FileAlreadyExistsException(newPath);
+                    if (src instanceof Dir && !(dst instanceof Dir)) throw new NotDirectoryException(newPath);
+                    if (!(src instanceof Dir) && dst instanceof Dir) throw new IsDirectoryException();
+                    if (dst instanceof Dir d && !d.children.isEmpty()) throw new DirectoryNotEmptyException(newPath);
+                    replaced = dst;
+                }
+                srcParent.children.remove(srcName);
+                dstParent.children.put(dstName, src);
+            }
+            srcParent.touchModified();
+            dstParent.touchModified();
+            src.lastChangeTime = now();
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+        if (replaced != null) freeIfUnreferenced(replaced);
+    }
+
+    private void freeIfUnreferenced(Node node) {
+        if (!(node instanceof RegularFile file)) return;
+        boolean free;
+        treeLock.writeLock().lock();
+        try {
+            file.unlinked = true;
+            free = file.openCount == 0;
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+        if (free) file.freeAllBlocks();
+    }
+
+    // ---------- Finish ----------
+
+    @Override
+    public void destroy() {
+        if (!openFiles.isEmpty()) {
+            LOG.warn("Found unclosed files when unmounting...");
+        }
+        openFiles.clear();
+        arena.close();
+    }
+
+    @Override
+    public void flush(String path, FileInfo fi) {
+        LOG.trace("flush {}", path);
+        // Nothing to flush
+    }
+
+    @Override
+    public void fsync(String path, int datasync, FileInfo fi) {
+        LOG.trace("fsync {}", path);
+    }
+
+    @Override
+    public void fsyncdir(@Nullable String path, int datasync, FileInfo fi) {
+        LOG.trace("fsyncdir {}", path);
+    }
+}
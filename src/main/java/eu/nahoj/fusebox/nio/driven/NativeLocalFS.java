@@ -0,0 +1,682 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.api.StatvfsData;
+import eu.nahoj.fusebox.common.util.HandleTable;
+import eu.nahoj.fusebox.nio.transform.ChainingFS;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.FuseConfig;
+import org.cryptomator.jfuse.api.FuseConnInfo;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.cryptomator.jfuse.api.Statvfs;
+import org.cryptomator.jfuse.api.TimeSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static eu.nahoj.fusebox.nio.driven.LibC.*;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/// Variant of [LocalFS] that calls the C library directly through the FFM API instead of going through
+/// `java.nio.file`.
+///
+/// - Paths are resolved by the kernel relative to a descriptor of the root directory (`openat`, `statx`...),
+///   without building [Path]s or attribute maps.
+/// - Open files are plain file descriptors, read and written with `pread`/`pwrite` straight into the FUSE buffer.
+/// - `rename` supports `RENAME_EXCHANGE` in addition to `RENAME_NOREPLACE`.
+/// - Writes are not buffered, so `flush` has nothing to do. `fsync` and `fsyncdir` call `fsync`/`fdatasync` as set by
+///   the [FsyncMode], grouped by default as in [LocalFS].
+/// - Descriptors of recently used parent directories are kept in a [DirFdCache], so that deep paths cost the kernel
+///   a single component lookup. Directories renamed or removed in the backing directory without going through the
+///   mount can remain visible under their old path until evicted; use a capacity of 0 if that matters.
+///
+/// Linux only. Extended attributes go through the `l*xattr` calls on absolute paths, as there are no `*at` variants
+/// in the C library.
+public class NativeLocalFS implements ChainingFS {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NativeLocalFS.class);
+
+    private static final long DIRENT_BUFFER_SIZE = 32 * 1024;
+    private static final long PATH_MAX = 4096;
+    public static final int DEFAULT_DIR_CACHE_CAPACITY = 256;
+
+    private final String root;
+    private final int rootFd;
+
+    private record OpenFile(int fd, String path) {
+    }
+
+    private final HandleTable<OpenFile> openFiles = new HandleTable<>();
+
+    @Nullable
+    private final DirFdCache dirFds;
+
+    private final FsyncMode fsyncMode;
+    private final GroupCommitSyncer<OpenFile> syncer;
+
+    @FunctionalInterface
+    private interface AtCall<T> {
+        T call(int dirFd, String name) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface AtRun {
+        void run(int dirFd, String name) throws IOException;
+    }
+
+    public NativeLocalFS(Path root) throws IOException {
+        this(root, DEFAULT_DIR_CACHE_CAPACITY);
+    }
+
+    /// @param dirCacheCapacity max number of parent directory descriptors kept open; 0 to resolve every path from
+    ///                         the root
+    public NativeLocalFS(Path root, int dirCacheCapacity) throws IOException {
+        this(root, dirCacheCapacity, LocalFSOptions.DEFAULTS.getFsyncMode(),
+                LocalFSOptions.DEFAULTS.getGroupCommitWindow());
+    }
+
+    /// @param fsyncMode         how `fsync` and `fsyncdir` reach the disk, as in [LocalFSOptions#fsyncMode]
+    /// @param groupCommitWindow as in [LocalFSOptions#groupCommitWindow]
+    public NativeLocalFS(Path root, int dirCacheCapacity, FsyncMode fsyncMode, Duration groupCommitWindow)
+            throws IOException {
+        this.fsyncMode = fsyncMode;
+        this.syncer = new GroupCommitSyncer<>(groupCommitWindow, NativeLocalFS::forceNow);
+        this.root = root.toAbsolutePath().normalize().toString();
+        try (Arena arena = Arena.ofConfined()) {
+            this.rootFd = openat(arena, AT_FDCWD, this.root, O_RDONLY | O_DIRECTORY | O_CLOEXEC, 0);
+        }
+        this.dirFds = dirCacheCapacity > 0
+                ? new DirFdCache(dirCacheCapacity, this::openDirFd, LibC::close)
+                : null;
+    }
+
+    public static NativeLocalFS at(String rootPath) throws IOException {
+        return new NativeLocalFS(Path.of(rootPath));
+    }
+
+    @Override
+    public Set<Operation> supportedOperations() {
+        return EnumSet.of(
+                Operation.ACCESS,
+                Operation.CHMOD,
+                Operation.CHOWN,
+                Operation.CREATE,
+                Operation.DESTROY,
+                Operation.FLUSH,
+                Operation.FSYNC,
+                Operation.FSYNCDIR,
+                Operation.GET_ATTR,
+                Operation.GET_XATTR,
+                Operation.INIT,
+                Operation.LIST_XATTR,
+                Operation.MKDIR,
+                Operation.OPEN_DIR,
+                Operation.READ_DIR,
+                Operation.RELEASE_DIR,
+                Operation.RENAME,
+                Operation.RMDIR,
+                Operation.OPEN,
+                Operation.READ,
+                Operation.READLINK,
+                Operation.RELEASE,
+                Operation.REMOVE_XATTR,
+                Operation.SET_XATTR,
+                Operation.STATFS,
+                Operation.SYMLINK,
+                Operation.TRUNCATE,
+                Operation.UNLINK,
+                Operation.UTIMENS,
+                Operation.WRITE
+        );
+    }
+
+    /// Path relative to the root fd
+    private static String rel(String fusePath) {
+        return "/".equals(fusePath) ? "." : fusePath.substring(1);
+    }
+
+    private String abs(String fusePath) {
+        return "/".equals(fusePath) ? root : root + fusePath;
+    }
+
+    private int openDirFd(String dirPath) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            return openat(arena, rootFd, rel(dirPath), O_PATH | O_DIRECTORY | O_CLOEXEC, 0);
+        }
+    }
+
+    /// Calls `call` with a descriptor of the parent directory of `path` and its last component
+    private <T> T at(String path, AtCall<T> call) throws IOException {
+        int slash = path.lastIndexOf('/');
+        if (dirFds == null || slash <= 0) {
+            return call.call(rootFd, rel(path));
+        }
+        try (DirFdCache.Ref dir = dirFds.acquire(path.substring(0, slash))) {
+            return call.call(dir.fd(), path.substring(slash + 1));
+        }
+    }
+
+    private void atRun(String path, AtRun run) throws IOException {
+        at(path, (dirFd, name) -> {
+            run.run(dirFd, name);
+            return null;
+        });
+    }
+
+    /// After `path` was removed or replaced
+    private void invalidate(String path) {
+        if (dirFds != null) dirFds.invalidate(path);
+    }
+
+    private OpenFile getOpenFile(String path, FileInfo fi) throws BadFileDescriptorException {
+        OpenFile h = openFiles.get(fi.getFh());
+        if (h == null) throw new BadFileDescriptorException(path);
+        return h;
+    }
+
+    // Start
+    @Override
+    public void init(FuseConnInfo conn, @Nullable FuseConfig cfg) {
+        conn.setWant(conn.want() | (conn.capable() & FuseConnInfo.FUSE_CAP_BIG_WRITES));
+        conn.setMaxBackground(16);
+        conn.setCongestionThreshold(4);
+    }
+
+    @Override
+    public Statvfs statfs(String path) throws IOException {
+        LOG.trace("statfs");
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment st = arena.allocate(STATVFS_SIZE, 8);
+            fstatvfs(arena, rootFd, st, path);
+            return StatvfsData.builder()
+                    .bsize(st.get(JAVA_LONG, F_BSIZE))
+                    .frsize(st.get(JAVA_LONG, F_FRSIZE))
+                    .blocks(st.get(JAVA_LONG, F_BLOCKS))
+                    .bfree(st.get(JAVA_LONG, F_BFREE))
+                    .bavail(st.get(JAVA_LONG, F_BAVAIL))
+                    .nameMax(st.get(JAVA_LONG, F_NAMEMAX))
+                    .build();
+        }
+    }
+
+    // Attributes
+    @Override
+    public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("getattr {}", path);
+        OpenFile h = fi != null ? openFiles.get(fi.getFh()) : null;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment st = arena.allocate(STATX_SIZE, 8);
+            if (h != null) {
+                statx(arena, h.fd, "", AT_EMPTY_PATH | AT_SYMLINK_NOFOLLOW, st);
+            } else {
+                atRun(path, (dirFd, name) -> statx(arena, dirFd, name, AT_SYMLINK_NOFOLLOW, st));
+            }
+            return attributes(st);
+        }
+    }
+
+    @Override
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("fileKey {}", path);
+        OpenFile h = fi != null ? openFiles.get(fi.getFh()) : null;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment st = arena.allocate(STATX_SIZE, 8);
+            if (h != null) {
+                statx(arena, h.fd, "", AT_EMPTY_PATH | AT_SYMLINK_NOFOLLOW, st);
+            } else {
+                atRun(path, (dirFd, name) -> statx(arena, dirFd, name, AT_SYMLINK_NOFOLLOW, st));
+            }
+            return FileKey.ofStatx(st.get(JAVA_INT, STX_DEV_MAJOR), st.get(JAVA_INT, STX_DEV_MINOR),
+                    st.get(JAVA_LONG, STX_INO));
+        }
+    }
+
+    /// One descriptor of `dir` for all the `statx` calls
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        LOG.trace("getattrBatch {} ({} names)", dir, names.size());
+        if ("/".equals(dir)) return statxAll(rootFd, names);
+        if (dirFds != null) {
+            try (DirFdCache.Ref ref = dirFds.acquire(dir)) {
+                return statxAll(ref.fd(), names);
+            }
+        }
+        int fd = openDirFd(dir);
+        try {
+            return statxAll(fd, names);
+        } finally {
+            close(fd);
+        }
+    }
+
+    private static Map<String, FileAttributes> statxAll(int dirFd, List<String> names) {
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment st = arena.allocate(STATX_SIZE, 8);
+            for (String name : names) {
+                try {
+                    statx(arena, dirFd, name, AT_SYMLINK_NOFOLLOW, st);
+                    attrs.put(name, attributes(st));
+                } catch (IOException e) {
+                    // Left out, see FuseboxFS.getattrBatch
+                }
+            }
+        }
+        return attrs;
+    }
+
+    static FileAttributes attributes(MemorySegment statx) {
+        boolean hasBirthTime = (statx.get(JAVA_INT, STX_MASK) & STATX_BTIME) != 0;
+        return new FileAttributes(
+                statx.get(JAVA_SHORT, STX_MODE) & 0xFFFF,
+                statx.get(JAVA_INT, STX_UID),
+                statx.get(JAVA_INT, STX_GID),
+                statx.get(JAVA_LONG, STX_SIZE),
+                hasBirthTime ? timestamp(statx, STX_BTIME) : FileAttributes.NO_TIME,
+                timestamp(statx, STX_ATIME),
+                timestamp(statx, STX_MTIME),
+                timestamp(statx, STX_CTIME)
+        );
+    }
+
+    private static long timestamp(MemorySegment statx, long offset) {
+        return statx.get(JAVA_LONG, offset) * 1_000_000_000L + Integer.toUnsignedLong(statx.get(JAVA_INT, offset + 8));
+    }
+
+    @Override
+    public String getxattr(String path, String name) throws IOException {
+        LOG.trace("getxattr {} {}", path, name);
+        try (Arena arena = Arena.ofConfined()) {
+            long size = lgetxattr(arena, abs(path), name, MemorySegment.NULL, path);
+            MemorySegment value = arena.allocate(Math.max(1, size));
+            long n = lgetxattr(arena, abs(path), name, value, path);
+            return new String(value.asSlice(0, n).toArray(JAVA_BYTE), UTF_8);
+        }
+    }
+
+    @Override
+    public void setxattr(String path, String name, ByteBuffer value) throws IOException {
+        LOG.trace("setxattr {} {}", path, name);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment v = arena.allocate(value.remaining());
+            v.copyFrom(MemorySegment.ofBuffer(value));
+            lsetxattr(arena, abs(path), name, v, path);
+            value.position(value.limit());
+        }
+    }
+
+    @Override
+    public List<String> listxattr(String path) throws IOException {
+        LOG.trace("listxattr {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            long size = llistxattr(arena, abs(path), MemorySegment.NULL, path);
+            if (size == 0) return List.of();
+            MemorySegment list = arena.allocate(size);
+            long n = llistxattr(arena, abs(path), list, path);
+            List<String> names = new ArrayList<>();
+            for (long off = 0; off < n; ) {
+                String name = list.getString(off);
+                names.add(name);
+                off += name.getBytes(UTF_8).length + 1;
+            }
+            return names;
+        }
+    }
+
+    @Override
+    public void removexattr(String path, String name) throws IOException {
+        LOG.trace("removexattr {} {}", path, name);
+        try (Arena arena = Arena.ofConfined()) {
+            lremovexattr(arena, abs(path), name, path);
+        }
+    }
+
+    /// Single `faccessat` instead of one check per bit
+    @Override
+    public void access(String path, int mask) throws IOException {
+        LOG.trace("access {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            atRun(path, (dirFd, name) -> faccessat(arena, dirFd, name, mask & 07));
+        }
+    }
+
+    @Override
+    public void chmod(String path, int mode, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("chmod {}", path);
+        String p = fi != null && openFiles.get(fi.getFh()) instanceof OpenFile h ? h.path : path;
+        try (Arena arena = Arena.ofConfined()) {
+            atRun(p, (dirFd, name) -> fchmodat(arena, dirFd, name, mode & 07777));
+        }
+    }
+
+    @Override
+    public void chown(String path, int uid, int gid, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("chown {} uid={} gid={}", path, uid, gid);
+        OpenFile h = fi != null ? openFiles.get(fi.getFh()) : null;
+        try (Arena arena = Arena.ofConfined()) {
+            if (h != null) {
+                fchownat(arena, h.fd, "", uid, gid, AT_EMPTY_PATH);
+            } else {
+                atRun(path, (dirFd, name) -> fchownat(arena, dirFd, name, uid, gid, AT_SYMLINK_NOFOLLOW));
+            }
+        }
+    }
+
+    @Override
+    public void utimens(String path, TimeSpec atime, TimeSpec mtime, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("utimens {}", path);
+        String p = fi != null && openFiles.get(fi.getFh()) instanceof OpenFile h ? h.path : path;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment times = arena.allocate(32, 8);
+            setTimespec(times, 0, atime);
+            setTimespec(times, 16, mtime);
+            atRun(p, (dirFd, name) -> utimensat(arena, dirFd, name, times, AT_SYMLINK_NOFOLLOW));
+        }
+    }
+
+    private static void setTimespec(MemorySegment times, long offset, TimeSpec spec) {
+        if (spec.isUtimeOmit() || spec.isUtimeNow()) {
+            times.set(JAVA_LONG, offset, 0L);
+            times.set(JAVA_LONG, offset + 8, spec.isUtimeOmit() ? UTIME_OMIT : UTIME_NOW);
+        } else {
+            Instant t = spec.get();
+            times.set(JAVA_LONG, offset, t.getEpochSecond());
+            times.set(JAVA_LONG, offset + 8, t.getNano());
+        }
+    }
+
+    // Links
+    @Override
+    public String readlink(String path) throws IOException {
+        LOG.trace("readlink {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buf = arena.allocate(PATH_MAX);
+            long n = at(path, (dirFd, name) -> readlinkat(arena, dirFd, name, buf));
+            return new String(buf.asSlice(0, n).toArray(JAVA_BYTE), UTF_8);
+        }
+    }
+
+    @Override
+    public void symlink(String target, String linkname) throws IOException {
+        LOG.trace("symlink {} -> {}", linkname, target);
+        try (Arena arena = Arena.ofConfined()) {
+            atRun(linkname, (dirFd, name) -> symlinkat(arena, target, dirFd, name));
+        }
+    }
+
+    // Directories
+    @Override
+    public void mkdir(String path, int mode) throws IOException {
+        LOG.trace("mkdir {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            atRun(path, (dirFd, name) -> {
+                mkdirat(arena, dirFd, name, mode & 07777);
+                // Like LocalFS, apply the requested mode regardless of this process' umask
+                fchmodat(arena, dirFd, name, mode & 07777);
+            });
+        }
+    }
+
+    @Override
+    public void opendir(String path, FileInfo fi) throws IOException {
+        LOG.trace("opendir {}", path);
+        if (!getattr(path, null).isDirectory()) throw new NotDirectoryException(path);
+    }
+
+    @Override
+    public List<DirEntry> readdir(String path) throws IOException {
+        LOG.trace("readdir {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            int fd = at(path, (dirFd, name) -> openat(arena, dirFd, name, O_RDONLY | O_DIRECTORY | O_CLOEXEC, 0));
+            try {
+                MemorySegment buf = arena.allocate(DIRENT_BUFFER_SIZE, 8);
+                List<DirEntry> entries = new ArrayList<>();
+                long n;
+                while ((n = getdents64(arena, fd, buf, path)) > 0) {
+                    for (long off = 0; off < n; off += buf.get(JAVA_SHORT, off + D_RECLEN) & 0xFFFF) {
+                        String name = buf.getString(off + D_NAME);
+                        if (!".".equals(name) && !"..".equals(name)) {
+                            entries.add(new DirEntry(name));
+                        }
+                    }
+                }
+                return entries;
+            } finally {
+                close(fd);
+            }
+        }
+    }
+
+    @Override
+    public void releasedir(@Nullable String path, FileInfo fi) {
+        // no-op
+    }
+
+    @Override
+    public void rmdir(String path) throws IOException {
+        LOG.trace("rmdir {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            atRun(path, (dirFd, name) -> unlinkat(arena, dirFd, name, AT_REMOVEDIR));
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    // Files
+    @Override
+    public void create(String path, int mode, FileInfo fi) throws IOException {
+        LOG.trace("create {}", path);
+        openHandle(path, fi, fi.getFlags() | O_CREAT, mode & 07777);
+    }
+
+    @Override
+    public void open(String path, FileInfo fi) throws IOException {
+        LOG.trace("open {}", path);
+        openHandle(path, fi, fi.getFlags() & ~(O_CREAT | O_EXCL), 0);
+    }
+
+    private void openHandle(String path, FileInfo fi, int flags, int mode) throws IOException {
+        if (fi.getFh() != 0) {
+            LOG.warn("create() or open() called with FileInfo that already has fh={}", fi.getFh());
+        }
+        int fd;
+        try (Arena arena = Arena.ofConfined()) {
+            fd = at(path, (dirFd, name) -> openat(arena, dirFd, name, flags | O_CLOEXEC, mode));
+        }
+        long fh = openFiles.add(new OpenFile(fd, path));
+        fi.setFh(fh);
+        LOG.trace("open ok {} fh={} fd={}", path, fh, fd);
+    }
+
+    @Override
+    public int read(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
+        LOG.trace("read {} at pos {}", path, offset);
+        OpenFile h = getOpenFile(path, fi);
+        int toRead = (int) Math.min(size, buf.remaining());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment dst = nativeView(arena, buf, toRead);
+            long read = 0;
+            while (read < toRead) {
+                long r = pread(arena, h.fd, dst.asSlice(read), toRead - read, offset + read, path);
+                if (r == 0) break;
+                read += r;
+            }
+            if (!buf.isDirect()) {
+                MemorySegment.copy(dst, 0, MemorySegment.ofBuffer(buf), 0, read);
+            }
+            buf.position(buf.position() + (int) read);
+            return (int) read;
+        }
+    }
+
+    @Override
+    public int write(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
+        LOG.trace("write {} at pos {}", path, offset);
+        OpenFile h = getOpenFile(path, fi);
+        int toWrite = (int) Math.min(size, buf.remaining());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment src = nativeView(arena, buf, toWrite);
+            if (!buf.isDirect()) {
+                MemorySegment.copy(MemorySegment.ofBuffer(buf), 0, src, 0, toWrite);
+            }
+            long written = 0;
+            while (written < toWrite) {
+                written += pwrite(arena, h.fd, src.asSlice(written), toWrite - written, offset + written, path);
+            }
+            buf.position(buf.position() + toWrite);
+            return toWrite;
+        }
+    }
+
+    /// The FUSE buffer is native memory; heap buffers (in tests) go through a temporary native copy
+    private static MemorySegment nativeView(Arena arena, ByteBuffer buf, int length) {
+        return buf.isDirect()
+                ? MemorySegment.ofBuffer(buf).asSlice(0, length)
+                : arena.allocate(Math.max(1, length));
+    }
+
+    @Override
+    public void truncate(String path, long size, @Nullable FileInfo fi) throws IOException {
+        LOG.trace("truncate {} to size {}", path, size);
+        OpenFile h = fi != null ? openFiles.get(fi.getFh()) : null;
+        try (Arena arena = Arena.ofConfined()) {
+            if (h != null) {
+                ftruncate(arena, h.fd, size, path);
+            } else {
+                int fd = at(path, (dirFd, name) -> openat(arena, dirFd, name, O_WRONLY | O_CLOEXEC, 0));
+                try {
+                    ftruncate(arena, fd, size, path);
+                } finally {
+                    close(fd);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release(String path, FileInfo fi) {
+        LOG.trace("release {}", path);
+        OpenFile h = openFiles.remove(fi.getFh());
+        if (h == null) return; // nothing to do
+        close(h.fd);
+    }
+
+    @Override
+    public void unlink(String path) throws IOException {
+        LOG.trace("unlink {}", path);
+        try (Arena arena = Arena.ofConfined()) {
+            atRun(path, (dirFd, name) -> unlinkat(arena, dirFd, name, 0));
+        } finally {
+            // May have been a symlink used as a parent directory
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public void rename(String oldpath, String newpath, int flags) throws IOException {
+        LOG.trace("rename {} -> {} flags=0x{}", oldpath, newpath, Integer.toHexString(flags));
+        int unsupported = flags & ~(RENAME_NOREPLACE | RENAME_EXCHANGE);
+        if (unsupported != 0) {
+            throw new UnsupportedOperationException("rename flags not supported: 0x" + Integer.toHexString(unsupported));
+        }
+        int errno;
+        try (Arena arena = Arena.ofConfined()) {
+            errno = at(oldpath, (oldDirFd, oldName) ->
+                    at(newpath, (newDirFd, newName) -> renameat2(arena, oldDirFd, oldName, newDirFd, newName, flags)));
+        } finally {
+            invalidate(oldpath);
+            invalidate(newpath);
+        }
+        if (errno == 0) return;
+        if (errno == EXDEV && (flags & RENAME_EXCHANGE) == 0) {
+            // Another file system is mounted under the root: fall back to copy + delete, as LocalFS does
+            Path src = Path.of(abs(oldpath));
+            Path dst = Path.of(abs(newpath));
+            if ((flags & RENAME_NOREPLACE) != 0) {
+                Files.move(src, dst);
+            } else {
+                Files.move(src, dst, REPLACE_EXISTING);
+            }
+            return;
+        }
+        throw exception(errno, oldpath, newpath);
+    }
+
+    // Finish
+    @Override
+    public void destroy() {
+        List<OpenFile> leaked = openFiles.clear();
+        if (!leaked.isEmpty()) {
+            LOG.warn("Found unclosed files when unmounting...");
+        }
+        leaked.forEach(h -> close(h.fd));
+        if (dirFds != null) dirFds.clear();
+        syncer.close();
+        close(rootFd);
+    }
+
+    @Override
+    public void flush(String path, FileInfo fi) {
+        LOG.trace("flush {}", path);
+        // No-op: writes are not buffered, they reach the kernel with each pwrite
+    }
+
+    @Override
+    public void fsync(String path, int datasync, FileInfo fi) throws IOException {
+        LOG.trace("fsync {}", path);
+        force(getOpenFile(path, fi), datasync == 0);
+    }
+
+    @Override
+    public void fsyncdir(@Nullable String path, int datasync, FileInfo fi) throws IOException {
+        LOG.trace("fsyncdir {}", path);
+        if (path == null || fsyncMode == FsyncMode.NONE) return;
+        int fd;
+        try (Arena arena = Arena.ofConfined()) {
+            fd = openat(arena, rootFd, rel(path), O_RDONLY | O_DIRECTORY | O_CLOEXEC, 0);
+        }
+        try {
+            force(new OpenFile(fd, path), datasync == 0);
+        } finally {
+            close(fd);
+        }
+    }
+
+    private void force(OpenFile file, boolean metaData) throws IOException {
+        switch (fsyncMode) {
+            case NONE -> {}
+            case PER_CALL -> forceNow(file, metaData);
+            case GROUPED -> syncer.sync(file, metaData);
+        }
+    }
+
+    private static void forceNow(OpenFile file, boolean metaData) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            LibC.fsync(arena, file.fd, metaData, file.path);
+        }
+    }
+}
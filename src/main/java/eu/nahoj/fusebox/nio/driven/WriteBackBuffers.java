@@ -0,0 +1,188 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Per-handle write-back buffers sharing a per-mount budget of dirty bytes.
+///
+/// Each [Buffer] holds a single extent: writes that land inside it or right after its end are merged into it, any
+/// other write flushes it first. When the budget is exhausted, a buffer flushes its own extent and, if that is not
+/// enough, writes through.
+///
+/// A failed write-out keeps the extent, to be retried, and is recorded on the buffer: the next [Buffer#flush] by
+/// its handle reports it, even when it was another handle's operation that triggered the write-out.
+final class WriteBackBuffers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBackBuffers.class);
+
+    private final int extentSize;
+    private final long maxDirtyBytes;
+    private final AtomicLong dirtyBytes = new AtomicLong();
+    /// Buffers holding an extent, by path
+    private final ConcurrentMap<Path, Set<Buffer>> dirtyByPath = new ConcurrentHashMap<>();
+
+    WriteBackBuffers(int extentSize, long maxDirtyBytes) {
+        this.extentSize = extentSize;
+        this.maxDirtyBytes = maxDirtyBytes;
+    }
+
+    Buffer newBuffer(Path path, FileChannel fc) {
+        return new Buffer(path, fc);
+    }
+
+    /// Buffered bytes not yet written, over all handles
+    long dirtyBytes() {
+        return dirtyBytes.get();
+    }
+
+    /// Writes out the extents buffered for `path` by handles other than `except`. Failures are left to the owning
+    /// handles.
+    void writeOut(Path path, @Nullable Buffer except) {
+        if (dirtyByPath.isEmpty()) return;
+        Set<Buffer> buffers = dirtyByPath.get(path);
+        if (buffers == null) return;
+        for (Buffer b : buffers) {
+            if (b != except) b.writeOutForOthers();
+        }
+    }
+
+    private boolean reserve(int n) {
+        if (n == 0) return true;
+        long current;
+        do {
+            current = dirtyBytes.get();
+            if (current + n > maxDirtyBytes) return false;
+        } while (!dirtyBytes.compareAndSet(current, current + n));
+        return true;
+    }
+
+    final class Buffer {
+        private final Path path;
+        private final FileChannel fc;
+
+        // Guarded by this
+        @Nullable
+        private ByteBuffer extent;
+        private long start;
+        private int length;
+        /// Failure of a write-out not reported to this handle yet
+        @Nullable
+        private IOException error;
+
+        private Buffer(Path path, FileChannel fc) {
+            this.path = path;
+            this.fc = fc;
+        }
+
+        /// Consumes `n` bytes from `src` and returns `n`
+        synchronized int write(ByteBuffer src, long offset, int n) throws IOException {
+            if (n > extentSize) {
+                writeOut();
+                return writeThrough(src, offset, n);
+            }
+            if (length > 0 && (offset < start || offset > start + length || offset + n > start + extentSize)) {
+                writeOut();
+            }
+            if (length == 0) start = offset;
+            int pos = (int) (offset - start);
+            int grow = Math.max(0, pos + n - length);
+            if (!reserve(grow)) {
+                // Memory pressure: write out this extent and retry with an empty one
+                writeOut();
+                start = offset;
+                pos = 0;
+                grow = n;
+                if (!reserve(n)) return writeThrough(src, offset, n);
+            }
+            if (extent == null) extent = ByteBuffer.allocate(extentSize);
+            extent.put(pos, src, src.position(), n);
+            src.position(src.position() + n);
+            if (length == 0 && grow > 0) {
+                dirtyByPath.compute(path, (p, buffers) -> {
+                    Set<Buffer> set = buffers != null ? buffers : ConcurrentHashMap.newKeySet();
+                    set.add(this);
+                    return set;
+                });
+            }
+            length += grow;
+            return n;
+        }
+
+        private int writeThrough(ByteBuffer src, long offset, int n) throws IOException {
+            ByteBuffer slice = src.slice(src.position(), n);
+            int written = 0;
+            while (written < n) {
+                written += fc.write(slice, offset + written);
+            }
+            src.position(src.position() + n);
+            return n;
+        }
+
+        synchronized boolean overlaps(long offset, long size) {
+            return length > 0 && offset < start + length && start < offset + size;
+        }
+
+        /// Writes the buffered extent out. On failure the extent is kept and the error is thrown.
+        synchronized void writeOut() throws IOException {
+            if (length == 0) return;
+            ByteBuffer data = extent.slice(0, length);
+            while (data.hasRemaining()) {
+                fc.write(data, start + data.position());
+            }
+            discard();
+        }
+
+        /// Writes the buffered extent out for another handle's operation, recording a failure for this one
+        private synchronized void writeOutForOthers() {
+            try {
+                writeOut();
+            } catch (IOException e) {
+                LOG.debug("Write-back of {} failed, keeping the extent", path, e);
+                if (error == null) error = e;
+            }
+        }
+
+        /// Writes the buffered extent out, and throws the failure of this or of an earlier write-out not reported yet
+        synchronized void flush() throws IOException {
+            IOException earlier = error;
+            error = null;
+            try {
+                writeOut();
+            } catch (IOException e) {
+                if (earlier != null) e.addSuppressed(earlier);
+                throw e;
+            }
+            if (earlier != null) throw earlier;
+        }
+
+        /// Flushes and frees the extent, which is dropped if it cannot be written
+        synchronized void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                discard();
+                extent = null;
+            }
+        }
+
+        private void discard() {
+            if (length == 0) return;
+            dirtyBytes.addAndGet(-length);
+            length = 0;
+            dirtyByPath.computeIfPresent(path, (p, buffers) -> {
+                buffers.remove(this);
+                return buffers.isEmpty() ? null : buffers;
+            });
+        }
+    }
+}
@@ -21,10 +21,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.lang.Nullable;
 
+import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static eu.nahoj.fusebox.common.ExceptionHandler.catchErrno;
@@ -76,21 +78,17 @@ public class FuseboxFSOperations implements FuseOperations {
     // Attributes
     public int getattr(String path, Stat stat, @Nullable FileInfo fi) {
         return catchErrno(errno, () -> {
-            FileAttributes attr = delegate.getattr(normalizePath(path), fi);
-            stat.aTime().set(attr.lastAccessTime());
-            stat.cTime().set(attr.lastChangeTime());
-            stat.mTime().set(attr.lastModifiedTime());
-            if (attr.creationTime() != null) stat.birthTime().set(attr.creationTime());
-            stat.setMode(attr.mode());
-            stat.setUid(attr.uid());
-            stat.setGid(attr.gid());
-            // Should be 2 + subdir count for dirs, but it is probably not worth computing
-            stat.setNLink((short) (attr.isDirectory() ? 2 : 1));
-            stat.setSize(attr.size());
+            copyStat(delegate.getattr(normalizePath(path), fi), stat);
             return 0;
         });
     }
 
+    private static void copyStat(FileAttributes attr, Stat stat) {
+        attr.copyTo(stat);
+        // Should be 2 + subdir count for dirs, but it is probably not worth computing
+        stat.setNLink((short) (attr.isDirectory() ? 2 : 1));
+    }
+
     public int getxattr(String path, String name, ByteBuffer value) {
         return catchErrno(errno, () -> {
             String s = delegate.getxattr(normalizePath(path), name);
@@ -211,6 +209,8 @@ public class FuseboxFSOperations implements FuseOperations {
         });
     }
 
+    /// With [FuseOperations#FUSE_READDIR_PLUS], entries come with their attributes, from one
+    /// [FuseboxFS#getattrBatch] for the directory; those it leaves out are looked up by the kernel as usual.
     public int readdir(String path, DirFiller filler, long offset, FileInfo fi, int flags) {
         LOG.trace("readdir({})", path);
         return catchErrno(errno, () -> {
@@ -220,14 +220,31 @@ public class FuseboxFSOperations implements FuseOperations {
             rc = filler.fill("..", Consumers.nop(), 0, 0);
             if (rc != 0) return -errno.eio();
 
-            for (DirEntry e : delegate.readdir(normalizePath(path))) {
-                rc = filler.fill(e.name(), Consumers.nop(), 0, 0);
+            String dir = normalizePath(path);
+            List<DirEntry> entries = delegate.readdir(dir);
+            Map<String, FileAttributes> attrs = (flags & FUSE_READDIR_PLUS) != 0
+                    ? attributesOrNone(dir, entries)
+                    : Map.of();
+            for (DirEntry e : entries) {
+                FileAttributes attr = attrs.get(e.name());
+                rc = attr != null
+                        ? filler.fill(e.name(), stat -> copyStat(attr, stat), 0, DirFiller.FUSE_FILL_DIR_PLUS)
+                        : filler.fill(e.name(), Consumers.nop(), 0, 0);
                 if (rc != 0) return -errno.eio();
             }
             return 0;
         });
     }
 
+    private Map<String, FileAttributes> attributesOrNone(String dir, List<DirEntry> entries) {
+        try {
+            return delegate.getattrBatch(dir, entries.stream().map(DirEntry::name).toList());
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("getattrBatch({}) failed, listing without attributes", dir, e);
+            return Map.of();
+        }
+    }
+
     public int releasedir(@Nullable String path, FileInfo fi) {
         return catchErrno(errno, () -> {
             delegate.releasedir(path == null ? null : normalizePath(path), fi);
@@ -1,5 +1,6 @@
 package eu.nahoj.fusebox.nio.transform;
 
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import org.cryptomator.jfuse.api.FuseConfig;
 import org.cryptomator.jfuse.api.FuseConnInfo;
@@ -18,4 +19,10 @@ public abstract class BaseFS implements ChainingFS {
         delegate().init(conn, cfg);
         LOG.info("Initializing {}.", this.getClass().getSimpleName());
     }
+
+    /// Subclasses that change or hide paths must translate or drop them
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate().addInvalidationListener(listener);
+    }
 }
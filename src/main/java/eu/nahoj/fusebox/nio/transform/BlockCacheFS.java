@@ -0,0 +1,245 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import eu.nahoj.fusebox.common.cache.BlockCache.FileVersion;
+import eu.nahoj.fusebox.common.util.HandleTable;
+import eu.nahoj.fusebox.common.util.SimpleFileInfo;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.nio.api.FuseboxFS;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import org.apache.commons.collections4.SetUtils;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.TimeSpec;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/// Serves reads of read-only handles from a [BlockCache], which may be shared with other file systems.
+///
+/// Blocks are keyed by the size and modification time seen at `open`, so a file changed behind the mount is read
+/// afresh by handles opened afterwards, and:
+/// - by the file's [FileKey] where the delegate exposes one, so that hard links, renamed files and other mounts of the
+///   same files share them;
+/// - by this FS and the path otherwise. Renames and unlinks then drop the blocks of the paths involved, which could
+///   later be taken by another file of the same size and modification time.
+///
+/// Writes and truncations through this layer drop the cached blocks of the file and make its open handles read
+/// through, as do changes reported by the delegate.
+@Accessors(fluent = true)
+public class BlockCacheFS extends BaseFS implements DecoratedFS {
+
+    @Getter
+    private final FuseboxFS delegate;
+
+    private final BlockCache cache;
+
+    @RequiredArgsConstructor
+    private static final class CachedHandle {
+        private final FileVersion version;
+        private final FileInfo delegateInfo;
+        /// Set when the file changes: its blocks are no longer cached, reads go to the delegate
+        private volatile boolean readThrough;
+    }
+
+    /// Where the blocks of a path are cached
+    private record BlockSource(Object source, String path) {
+
+        boolean matches(FileVersion version) {
+            return version.source().equals(source) && version.path().equals(path);
+        }
+
+        boolean isFileKey() {
+            return source instanceof FileKey;
+        }
+    }
+
+    /// Read-only handles, given to FUSE instead of the delegate's; other handles are the delegate's and never match
+    private final HandleTable<CachedHandle> cachedHandles = new HandleTable<>();
+    /// Paths that may have blocks in the cache, so that writes to other files skip invalidation
+    private final ConcurrentMap<String, BlockSource> sourcesByPath = new ConcurrentHashMap<>();
+
+    public static BlockCacheFS create(FuseboxFS delegate, BlockCache cache) {
+        BlockCacheFS fs = new BlockCacheFS(delegate, cache);
+        delegate.addInvalidationListener(InvalidationListener.of(fs::invalidateTree, fs::invalidateAll));
+        return fs;
+    }
+
+    private BlockCacheFS(FuseboxFS delegate, BlockCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    private static final Set<StandardOpenOption> WRITE_INTENT = EnumSet.of(
+            StandardOpenOption.APPEND,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+    );
+
+    /// The delegate's handle behind `fi`
+    @Nullable
+    private FileInfo delegateInfo(@Nullable FileInfo fi) {
+        if (fi == null) return null;
+        CachedHandle h = cachedHandles.get(fi.getFh());
+        return h != null ? h.delegateInfo : fi;
+    }
+
+    @Override
+    public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().getattr(path, delegateInfo(fi));
+    }
+
+    @Override
+    @Nullable
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().fileKey(path, delegateInfo(fi));
+    }
+
+    @Override
+    public void chmod(String path, int mode, @Nullable FileInfo fi) throws IOException {
+        delegate().chmod(path, mode, delegateInfo(fi));
+    }
+
+    @Override
+    public void chown(String path, int uid, int gid, @Nullable FileInfo fi) throws IOException {
+        delegate().chown(path, uid, gid, delegateInfo(fi));
+    }
+
+    @Override
+    public void utimens(String path, TimeSpec atime, TimeSpec mtime, @Nullable FileInfo fi) throws IOException {
+        delegate().utimens(path, atime, mtime, delegateInfo(fi));
+    }
+
+    @Override
+    public void open(String path, FileInfo fi) throws IOException {
+        delegate().open(path, fi);
+        if (!SetUtils.intersection(fi.getOpenFlags(), WRITE_INTENT).isEmpty()) return;
+        // The FileInfo passed by FUSE is only valid during the call
+        SimpleFileInfo delegateInfo = new SimpleFileInfo();
+        delegateInfo.setFh(fi.getFh());
+        delegateInfo.setFlags(fi.getFlags());
+        delegateInfo.setOpenFlags(fi.getOpenFlags());
+        FileVersion version;
+        try {
+            FileAttributes attrs = delegate().getattr(path, delegateInfo);
+            FileKey key = delegate().fileKey(path, delegateInfo);
+            BlockSource source = key != null ? new BlockSource(key, "") : new BlockSource(this, path);
+            version = new FileVersion(source.source, source.path, attrs.size(), attrs.lastModifiedNanos());
+            sourcesByPath.put(path, source);
+        } catch (IOException | RuntimeException e) {
+            delegate().release(path, delegateInfo);
+            throw e;
+        }
+        fi.setFh(cachedHandles.add(new CachedHandle(version, delegateInfo)));
+    }
+
+    @Override
+    public int read(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
+        CachedHandle h = cachedHandles.get(fi.getFh());
+        if (h == null) {
+            return delegate().read(path, buf, size, offset, fi);
+        }
+        if (h.readThrough) {
+            return delegate().read(path, buf, size, offset, h.delegateInfo);
+        }
+        ByteBuffer dst = buf.slice(buf.position(), (int) Math.min(size, buf.remaining()));
+        int n = cache.read(h.version,
+                (d, o) -> delegate().read(path, d, d.remaining(), o, h.delegateInfo),
+                dst, offset);
+        buf.position(buf.position() + n);
+        return n;
+    }
+
+    @Override
+    public int write(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
+        int n = delegate().write(path, buf, size, offset, delegateInfo(fi));
+        invalidate(path);
+        return n;
+    }
+
+    @Override
+    public void truncate(String path, long size, @Nullable FileInfo fi) throws IOException {
+        delegate().truncate(path, size, delegateInfo(fi));
+        invalidate(path);
+    }
+
+    @Override
+    public void unlink(String path) throws IOException {
+        delegate().unlink(path);
+        forget(path);
+    }
+
+    @Override
+    public void rename(String oldPath, String newPath, int flags) throws IOException {
+        delegate().rename(oldPath, newPath, flags);
+        forgetTree(oldPath);
+        forgetTree(newPath);
+    }
+
+    /// Drops the blocks of `path` and makes the handles reading them read through
+    private void invalidate(String path) {
+        BlockSource source = sourcesByPath.remove(path);
+        if (source == null) return;
+        for (CachedHandle h : cachedHandles.values()) {
+            if (source.matches(h.version)) h.readThrough = true;
+        }
+        cache.invalidate(source.source, source.path);
+    }
+
+    /// After `path` is gone or replaced: blocks keyed by [FileKey] follow their file, and the others are dropped
+    private void forget(String path) {
+        BlockSource source = sourcesByPath.get(path);
+        if (source == null) return;
+        if (source.isFileKey()) {
+            sourcesByPath.remove(path, source);
+        } else {
+            invalidate(path);
+        }
+    }
+
+    private void forgetTree(String path) {
+        forEachUnder(path, this::forget);
+    }
+
+    /// `path` and the files under it
+    private void invalidateTree(String path) {
+        forEachUnder(path, this::invalidate);
+    }
+
+    private void forEachUnder(String path, Consumer<String> action) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        for (String p : sourcesByPath.keySet()) {
+            if (p.equals(path) || p.startsWith(prefix)) action.accept(p);
+        }
+    }
+
+    private void invalidateAll() {
+        sourcesByPath.keySet().forEach(this::invalidate);
+    }
+
+    @Override
+    public void flush(String path, FileInfo fi) throws IOException {
+        delegate().flush(path, delegateInfo(fi));
+    }
+
+    @Override
+    public void fsync(String path, int datasync, FileInfo fi) throws IOException {
+        delegate().fsync(path, datasync, delegateInfo(fi));
+    }
+
+    @Override
+    public void release(String path, FileInfo fi) throws IOException {
+        CachedHandle h = cachedHandles.remove(fi.getFh());
+        delegate().release(path, h != null ? h.delegateInfo : fi);
+    }
+}
@@ -0,0 +1,116 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.cache.ListingCache;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.nio.api.FuseboxFS;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import org.cryptomator.jfuse.api.FileInfo;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static eu.nahoj.fusebox.nio.api.FuseboxFS.parentPath;
+
+/// Memoizes `readdir` results as the layers below produce them, so that renaming, filtering and duplicate checks run
+/// once per directory rather than once per listing.
+///
+/// Creating, linking, deleting or moving a file through this layer drops the listing of its directory, and that of
+/// the directories it removes or moves; so do changes reported by the delegate. Changes made behind the mount and not
+/// reported are seen once the listing expires.
+@Accessors(fluent = true)
+public class CachedListingsFS extends BaseFS implements DecoratedFS {
+
+    @Getter
+    private final FuseboxFS delegate;
+
+    private final ListingCache listings;
+
+    public static CachedListingsFS create(FuseboxFS delegate, int maxEntries, Duration ttl) {
+        CachedListingsFS fs = new CachedListingsFS(delegate, maxEntries, ttl);
+        delegate.addInvalidationListener(InvalidationListener.of(fs::changed, fs.listings::invalidateAll));
+        return fs;
+    }
+
+    private CachedListingsFS(FuseboxFS delegate, int maxEntries, Duration ttl) {
+        this.delegate = delegate;
+        this.listings = new ListingCache(maxEntries, ttl);
+    }
+
+    private void changed(String path) {
+        listings.invalidate(parentPath(path));
+        listings.invalidateTree(path);
+    }
+
+    @Override
+    public List<DirEntry> readdir(String path) throws IOException {
+        return listings.get(path, () -> delegate.readdir(path));
+    }
+
+    // Changes to listings
+
+    @Override
+    public void symlink(String target, String linkname) throws IOException {
+        try {
+            delegate.symlink(target, linkname);
+        } finally {
+            listings.invalidate(parentPath(linkname));
+        }
+    }
+
+    @Override
+    public void mkdir(String path, int mode) throws IOException {
+        try {
+            delegate.mkdir(path, mode);
+        } finally {
+            listings.invalidate(parentPath(path));
+        }
+    }
+
+    @Override
+    public void rmdir(String path) throws IOException {
+        try {
+            delegate.rmdir(path);
+        } finally {
+            changed(path);
+        }
+    }
+
+    @Override
+    public void create(String path, int mode, FileInfo fi) throws IOException {
+        try {
+            delegate.create(path, mode, fi);
+        } finally {
+            listings.invalidate(parentPath(path));
+        }
+    }
+
+    @Override
+    public void unlink(String path) throws IOException {
+        try {
+            delegate.unlink(path);
+        } finally {
+            listings.invalidate(parentPath(path));
+        }
+    }
+
+    @Override
+    public void rename(String oldPath, String newPath, int flags) throws IOException {
+        try {
+            delegate.rename(oldPath, newPath, flags);
+        } finally {
+            changed(oldPath);
+            changed(newPath);
+        }
+    }
+
+    public long hits() {
+        return listings.hits();
+    }
+
+    public long misses() {
+        return listings.misses();
+    }
+}
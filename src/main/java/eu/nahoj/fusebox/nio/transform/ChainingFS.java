@@ -1,7 +1,9 @@
 package eu.nahoj.fusebox.nio.transform;
 
+import eu.nahoj.fusebox.common.cache.BlockCache;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 
+import java.time.Duration;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
@@ -12,7 +14,7 @@ public interface ChainingFS extends FuseboxFS {
     }
 
     default ChainingFS mapFileContents(Predicate<String> pathSelector, ContentGenerator generator) {
-        return new ContentViewFS(this, pathSelector, generator);
+        return ContentViewFS.create(this, pathSelector, generator);
     }
 
     default ChainingFS mapFileNames(
@@ -24,6 +26,26 @@ public interface ChainingFS extends FuseboxFS {
         return new RenamedFS(this, origPathSelector, mountPathSelector, fileNameToMount, fileNameToOrig);
     }
 
+    /// @see ReadAheadFS
+    default ChainingFS withReadAhead(int minWindow, int maxWindow) {
+        return new ReadAheadFS(this, minWindow, maxWindow);
+    }
+
+    /// @see BlockCacheFS
+    default ChainingFS withBlockCache(BlockCache cache) {
+        return BlockCacheFS.create(this, cache);
+    }
+
+    /// @see CachedListingsFS
+    default ChainingFS cachedListings(int maxEntries, Duration ttl) {
+        return CachedListingsFS.create(this, maxEntries, ttl);
+    }
+
+    /// @see MetadataIndexFS
+    default ChainingFS withMetadataIndex(Duration rescanInterval) {
+        return MetadataIndexFS.create(this, rescanInterval);
+    }
+
     default ChainingFS readOnly() {
         return new ReadOnlyFS(this);
     }
@@ -1,10 +1,12 @@
 package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.util.HandleTable;
 import eu.nahoj.fusebox.common.util.SimpleFileInfo;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 import org.apache.commons.collections4.SetUtils;
 import org.cryptomator.jfuse.api.FileInfo;
@@ -17,12 +19,16 @@ import java.nio.ByteBuffer;
 import java.nio.file.ReadOnlyFileSystemException;
 import java.nio.file.StandardOpenOption;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
+import static eu.nahoj.fusebox.nio.api.FuseboxFS.childPath;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.GET_ATTR;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.OPEN;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.READ;
@@ -33,9 +39,10 @@ import static org.cryptomator.jfuse.api.FuseOperations.Operation.RELEASE;
  *
  * This layer does not rename files. Compose with {@link RenamedFS} if you want
  * different names/extensions on top of the transformed content.
+ *
+ * Rendered sizes are dropped when the delegate reports a change to the file or a parent.
  */
 @Accessors(fluent = true)
-@RequiredArgsConstructor
 public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     @Getter
@@ -46,12 +53,32 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     private final EnumSet<Operation> supportedOps = EnumSet.of(GET_ATTR, OPEN, READ, RELEASE);
 
-    private final AtomicLong fhGen = new AtomicLong(1L);
-    private final ConcurrentMap<Long, byte[]> openContent = new ConcurrentHashMap<>();
+    private record OpenView(String path, byte[] content) {
+    }
+
+    /// Handles of transformed views; handles of pass-through opens are set by the delegate and never match
+    private final HandleTable<OpenView> openViews = new HandleTable<>();
     private final ConcurrentMap<String, Long> renderedSizeByPath = new ConcurrentHashMap<>();
-    private final ConcurrentMap<Long, String> fhToPath = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, AtomicLong> openCountByPath = new ConcurrentHashMap<>();
 
+    public static ContentViewFS create(FuseboxFS delegate, Predicate<String> pathSelector,
+                                       ContentGenerator generator) {
+        ContentViewFS fs = new ContentViewFS(delegate, pathSelector, generator);
+        delegate.addInvalidationListener(InvalidationListener.of(fs::invalidate, fs.renderedSizeByPath::clear));
+        return fs;
+    }
+
+    private ContentViewFS(FuseboxFS delegate, Predicate<String> pathSelector, ContentGenerator generator) {
+        this.delegate = delegate;
+        this.pathSelector = pathSelector;
+        this.generator = generator;
+    }
+
+    private void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        renderedSizeByPath.keySet().removeIf(p -> p.equals(path) || p.startsWith(prefix));
+    }
+
     @Override
     public Set<Operation> supportedOperations() {
         // Ensure core ops are declared supported
@@ -66,7 +93,26 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     @Override
     public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
-        FileAttributes base = delegate().getattr(path, fi);
+        return viewAttributes(path, delegate().getattr(path, fi));
+    }
+
+    /// Transformed views are not the file on disk
+    @Override
+    @Nullable
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return matches(path) ? null : delegate().fileKey(path, fi);
+    }
+
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        Map<String, FileAttributes> attrs = new LinkedHashMap<>(delegate().getattrBatch(dir, names));
+        for (Map.Entry<String, FileAttributes> e : attrs.entrySet()) {
+            e.setValue(viewAttributes(childPath(dir, e.getKey()), e.getValue()));
+        }
+        return attrs;
+    }
+
+    private FileAttributes viewAttributes(String path, FileAttributes base) throws IOException {
         // For matching files, ensure size reflects transformed content early to avoid truncation.
         if (!base.isDirectory() && matches(path)) {
             Long cached = renderedSizeByPath.get(path);
@@ -120,10 +166,7 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
         byte[] source = readAllBytesFromDelegate(path);
         byte[] out = generator.generate(path, source);
 
-        long fh = fhGen.incrementAndGet();
-        fi.setFh(fh);
-        openContent.put(fh, out);
-        fhToPath.put(fh, path);
+        fi.setFh(openViews.add(new OpenView(path, out)));
         renderedSizeByPath.put(path, (long) out.length);
         openCountByPath.compute(path, (p, c) -> {
             if (c == null) c = new AtomicLong(0);
@@ -154,10 +197,11 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     @Override
     public int read(String path, ByteBuffer dst, long count, long offset, FileInfo fi) throws IOException {
-        byte[] data = openContent.get(fi.getFh());
-        if (data == null) {
+        OpenView view = openViews.get(fi.getFh());
+        if (view == null) {
             return delegate().read(path, dst, count, offset, fi);
         }
+        byte[] data = view.content;
         if (offset >= data.length) return 0;
         int toCopy = (int) Math.min(Math.min(count, dst.remaining()), data.length - offset);
         dst.put(data, (int) offset, toCopy);
@@ -166,7 +210,7 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     @Override
     public int write(String path, ByteBuffer buf, long count, long offset, FileInfo fi) throws IOException {
-        if (openContent.containsKey(fi.getFh())) {
+        if (openViews.contains(fi.getFh())) {
             throw new ReadOnlyFileSystemException();
         }
         // Invalidate any cached transformed size as source may change
@@ -178,7 +222,7 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     @Override
     public void truncate(String path, long size, @Nullable FileInfo fi) throws IOException {
-        if (fi != null && openContent.containsKey(fi.getFh())) {
+        if (fi != null && openViews.contains(fi.getFh())) {
             throw new ReadOnlyFileSystemException();
         }
         if (matches(path)) {
@@ -189,15 +233,12 @@ public class ContentViewFS extends BaseFS implements DecoratedFS {
 
     @Override
     public void release(String path, FileInfo fi) throws IOException {
-        byte[] removed = openContent.remove(fi.getFh());
+        OpenView removed = openViews.remove(fi.getFh());
         if (removed != null) {
-            String p = fhToPath.remove(fi.getFh());
-            if (p != null) {
-                AtomicLong cnt = openCountByPath.get(p);
-                if (cnt != null && cnt.decrementAndGet() <= 0) {
-                    openCountByPath.remove(p, cnt);
-                    renderedSizeByPath.remove(p);
-                }
+            AtomicLong cnt = openCountByPath.get(removed.path);
+            if (cnt != null && cnt.decrementAndGet() <= 0) {
+                openCountByPath.remove(removed.path, cnt);
+                renderedSizeByPath.remove(removed.path);
             }
             // Nothing else to do; we closed the temporary handle earlier
             return;
@@ -2,6 +2,8 @@ package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import org.cryptomator.jfuse.api.FileInfo;
 import org.cryptomator.jfuse.api.FuseConfig;
@@ -14,6 +16,7 @@ import org.springframework.lang.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /// Convenience interface to make decorating [FuseboxFS] easier.
@@ -32,6 +35,12 @@ public interface DecoratedFS extends ChainingFS {
         delegate().init(conn, cfg);
     }
 
+    /// Implementations that change paths must translate them
+    @Override
+    default void addInvalidationListener(InvalidationListener listener) {
+        delegate().addInvalidationListener(listener);
+    }
+
     @Override
     default Statvfs statfs(String path) throws IOException {
         return delegate().statfs(path);
@@ -43,6 +52,19 @@ public interface DecoratedFS extends ChainingFS {
         return delegate().getattr(path, fi);
     }
 
+    /// Implementations that change [#getattr] must override this too
+    @Override
+    default Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        return delegate().getattrBatch(dir, names);
+    }
+
+    /// Implementations that change the content of files must override this too
+    @Override
+    @Nullable
+    default FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().fileKey(path, fi);
+    }
+
     @Override
     default String getxattr(String path, String name) throws IOException {
         return delegate().getxattr(path, name);
@@ -2,6 +2,8 @@ package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -18,9 +20,11 @@ import java.nio.ByteBuffer;
 import java.nio.file.NoSuchFileException;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
+import static eu.nahoj.fusebox.nio.api.FuseboxFS.childPath;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.ACCESS;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.CHMOD;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.CHOWN;
@@ -83,6 +87,14 @@ public class FilteredFS extends BaseFS {
     // Start
     { supportedOps.add(INIT); }
 
+    /// Changes to hidden paths are not passed on
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate().addInvalidationListener(InvalidationListener.of(path -> {
+            if ("/".equals(path) || pathFilter.test(path.substring(1))) listener.invalidate(path);
+        }, listener::invalidateAll));
+    }
+
     { supportedOps.add(STATFS); }
     @Override
     public Statvfs statfs(String path) throws IOException {
@@ -98,6 +110,22 @@ public class FilteredFS extends BaseFS {
         return delegate().getattr(path, fi);
     }
 
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        checkPath(dir);
+        List<String> visible = names.stream()
+                .filter(name -> pathFilter.test(childPath(dir, name).substring(1)))
+                .toList();
+        return delegate().getattrBatch(dir, visible);
+    }
+
+    @Override
+    @Nullable
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        checkPath(path);
+        return delegate().fileKey(path, fi);
+    }
+
     { supportedOps.add(GET_XATTR); }
     @Override
     public String getxattr(String path, String name) throws IOException {
@@ -0,0 +1,196 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileType;
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/// Immutable snapshot of the metadata of a whole tree, in a few arrays rather than an object per file.
+///
+/// - Nodes are numbered breadth-first from the root, `0`, so the children of a directory are consecutive nodes,
+///   kept sorted by name bytes for binary search.
+/// - Names are UTF-8 in a single byte arena, where each distinct name is stored once.
+/// - A directory that could not be listed has no children range: lookups below it are [#UNKNOWN].
+final class MetadataIndex {
+
+    static final int MISSING = -1;
+    static final int NOT_DIRECTORY = -2;
+    static final int UNKNOWN = -3;
+
+    private static final Comparator<Entry> BY_NAME = (a, b) -> Arrays.compareUnsigned(a.name, b.name);
+
+    private final byte[] names;
+    private final int[] nameOffset;
+    private final short[] nameLength;
+
+    private final int[] mode;
+    private final int[] uid;
+    private final int[] gid;
+    private final long[] size;
+    private final long[] creation;
+    private final long[] lastAccess;
+    private final long[] lastModified;
+    private final long[] lastChange;
+
+    /// First child of each directory, or -1 for files and unlisted directories
+    private final int[] firstChild;
+    private final int[] childCount;
+
+    /// A node of a tree being built, before layout
+    static final class Entry {
+        final byte[] name;
+        final FileAttributes attrs;
+        /// Null for files and unlisted directories
+        @Nullable Entry[] children;
+
+        Entry(byte[] name, FileAttributes attrs) {
+            this.name = name;
+            this.attrs = attrs;
+        }
+    }
+
+    /// Lays out the tree under `root`, sorting children in place
+    MetadataIndex(Entry root) {
+        int count = 0;
+        ArrayDeque<Entry> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Entry e = queue.poll();
+            count++;
+            if (e.children != null) {
+                Arrays.sort(e.children, BY_NAME);
+                queue.addAll(Arrays.asList(e.children));
+            }
+        }
+        nameOffset = new int[count];
+        nameLength = new short[count];
+        mode = new int[count];
+        uid = new int[count];
+        gid = new int[count];
+        size = new long[count];
+        creation = new long[count];
+        lastAccess = new long[count];
+        lastModified = new long[count];
+        lastChange = new long[count];
+        firstChild = new int[count];
+        childCount = new int[count];
+
+        Map<ByteBuffer, Integer> interned = new HashMap<>();
+        byte[] arena = new byte[Math.max(64, count * 8)];
+        int arenaSize = 0;
+        int next = 1;
+        queue.add(root);
+        for (int node = 0; node < count; node++) {
+            Entry e = queue.poll();
+            Integer offset = interned.get(ByteBuffer.wrap(e.name));
+            if (offset == null) {
+                if (arenaSize + e.name.length > arena.length) {
+                    arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + e.name.length));
+                }
+                System.arraycopy(e.name, 0, arena, arenaSize, e.name.length);
+                offset = arenaSize;
+                arenaSize += e.name.length;
+                interned.put(ByteBuffer.wrap(e.name), offset);
+            }
+            nameOffset[node] = offset;
+            nameLength[node] = (short) e.name.length;
+            FileAttributes a = e.attrs;
+            mode[node] = a.mode();
+            uid[node] = a.uid();
+            gid[node] = a.gid();
+            size[node] = a.size();
+            creation[node] = a.creationNanos();
+            lastAccess[node] = a.lastAccessNanos();
+            lastModified[node] = a.lastModifiedNanos();
+            lastChange[node] = a.lastChangeNanos();
+            if (e.children == null) {
+                firstChild[node] = -1;
+            } else {
+                firstChild[node] = next;
+                childCount[node] = e.children.length;
+                next += e.children.length;
+                queue.addAll(Arrays.asList(e.children));
+            }
+        }
+        names = Arrays.copyOf(arena, arenaSize);
+    }
+
+    int size() {
+        return mode.length;
+    }
+
+    /// @return the node at `path`, or [#MISSING], [#NOT_DIRECTORY] when a parent is a file, [#UNKNOWN] when a parent
+    ///         could not be listed
+    int lookup(String path) {
+        int node = 0;
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) end = path.length();
+            if (end > start) {
+                if (!isDirectory(node)) return NOT_DIRECTORY;
+                if (!isListed(node)) return UNKNOWN;
+                node = child(node, path.substring(start, end).getBytes(UTF_8));
+                if (node < 0) return MISSING;
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /// @return the child named `name` of the listed directory `dir`, or [#MISSING]
+    int child(int dir, byte[] name) {
+        int lo = firstChild[dir];
+        int hi = lo + childCount[dir] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int off = nameOffset[mid];
+            int c = Arrays.compareUnsigned(names, off, off + nameLength[mid], name, 0, name.length);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return MISSING;
+    }
+
+    boolean isDirectory(int node) {
+        return (mode[node] & FileType.S_IFMT) == FileType.DIRECTORY.mask();
+    }
+
+    boolean isListed(int node) {
+        return firstChild[node] >= 0;
+    }
+
+    int firstChild(int dir) {
+        return firstChild[dir];
+    }
+
+    int childCount(int dir) {
+        return childCount[dir];
+    }
+
+    int mode(int node) {
+        return mode[node];
+    }
+
+    String name(int node) {
+        return new String(names, nameOffset[node], nameLength[node], UTF_8);
+    }
+
+    byte[] nameBytes(int node) {
+        return Arrays.copyOfRange(names, nameOffset[node], nameOffset[node] + nameLength[node]);
+    }
+
+    FileAttributes attributes(int node) {
+        return new FileAttributes(mode[node], uid[node], gid[node], size[node],
+                creation[node], lastAccess[node], lastModified[node], lastChange[node]);
+    }
+}
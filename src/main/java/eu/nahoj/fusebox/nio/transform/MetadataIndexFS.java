@@ -0,0 +1,547 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import com.sun.security.auth.module.UnixSystem;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.nio.api.FuseboxFS;
+import eu.nahoj.fusebox.nio.transform.MetadataIndex.Entry;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.FuseConfig;
+import org.cryptomator.jfuse.api.FuseConnInfo;
+import org.cryptomator.jfuse.api.TimeSpec;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static eu.nahoj.fusebox.nio.api.FuseboxFS.childPath;
+import static eu.nahoj.fusebox.nio.api.FuseboxFS.parentPath;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/// Answers `getattr`, `readdir`, `access` and `opendir`, including for missing files, from a [MetadataIndex] of the
+/// whole tree, for read-mostly mounts over large trees.
+///
+/// The tree is walked in parallel, through the delegate, when the FS is initialized; until then everything is passed
+/// through. The index is then kept current by:
+/// - changes made through this FS, and those the delegate reports to its invalidation listeners (see
+///   [eu.nahoj.fusebox.nio.driven.LocalFSOptions#watchChanges]), which mark their directory as dirty: paths under a
+///   dirty directory are passed through until a refresh, shortly after, re-lists the dirty directories and reuses the
+///   rest of the previous index. Writes and other changes to attributes only mark the file, which is stat'ed again;
+/// - a full rescan every `rescanInterval`, if positive, for changes nothing reported. Invalidating everything, e.g. on
+///   lost watch events, causes a full rescan too, and everything is passed through until it ends.
+///
+/// `access` is checked against the indexed mode for the user and groups of this process, as local backends do.
+/// Directories opened from the index are not opened in the delegate, whose `opendir` must not allocate handles.
+@Accessors(fluent = true)
+public class MetadataIndexFS extends BaseFS implements DecoratedFS {
+
+    private static final long SETTLE_MILLIS = 100;
+    private static final int PARALLELISM = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    @Getter
+    private final FuseboxFS delegate;
+
+    private final Duration rescanInterval;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile @Nullable MetadataIndex index;
+    /// Directories changed since the index was built, for the next refresh
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    /// Directories being re-listed by the current refresh, still dirty for readers until it ends
+    private volatile Set<String> refreshing = Set.of();
+
+    /// Set when everything is invalidated, until the full rescan this causes
+    private volatile boolean allDirty;
+    // Guarded by this
+    private boolean refreshScheduled;
+    private boolean allInvalidated;
+
+    private final Object refreshLock = new Object();
+
+    /// @param rescanInterval interval between full rescans, or zero for none
+    public static MetadataIndexFS create(FuseboxFS delegate, Duration rescanInterval) {
+        MetadataIndexFS fs = new MetadataIndexFS(delegate, rescanInterval);
+        delegate.addInvalidationListener(InvalidationListener.of(fs::markDirty, fs::invalidateAll));
+        return fs;
+    }
+
+    private MetadataIndexFS(FuseboxFS delegate, Duration rescanInterval) {
+        this.delegate = delegate;
+        this.rescanInterval = rescanInterval;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "fusebox-metadata-index");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    @Override
+    public void init(FuseConnInfo conn, @Nullable FuseConfig cfg) {
+        super.init(conn, cfg);
+        scheduler.execute(() -> refresh(true));
+        if (rescanInterval.isPositive()) {
+            long millis = rescanInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(() -> refresh(true), millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ---------- Index maintenance ----------
+
+    /// Rebuilds the index: the whole tree if `full`, else the dirty directories
+    void refresh(boolean full) {
+        synchronized (refreshLock) {
+            synchronized (this) {
+                refreshScheduled = false;
+                full |= allInvalidated;
+                allInvalidated = false;
+            }
+            // Readers see the batch as dirty until the new index is published
+            Set<String> batch = Set.copyOf(dirty);
+            refreshing = batch;
+            dirty.removeAll(batch);
+            try {
+                long start = System.nanoTime();
+                MetadataIndex next = build(full ? null : index, batch);
+                index = next;
+                LOG.debug("Indexed {} files in {} ms", next.size(), (System.nanoTime() - start) / 1_000_000);
+                synchronized (this) {
+                    if (!allInvalidated) allDirty = false;
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Cannot index {}, passing through", delegate, e);
+                dirty.addAll(batch);
+            } finally {
+                refreshing = Set.of();
+            }
+        }
+    }
+
+    private MetadataIndex build(@Nullable MetadataIndex previous, Set<String> changed) throws IOException {
+        Entry root = new Entry(new byte[0], delegate.getattr("/", null));
+        Set<String> changedParents = new HashSet<>();
+        for (String p : changed) {
+            if (!p.equals("/")) changedParents.add(parentPath(p));
+        }
+        try (ForkJoinPool pool = new ForkJoinPool(PARALLELISM)) {
+            pool.invoke(new Scan(previous, changed, changedParents, "/", root,
+                    previous == null ? MetadataIndex.UNKNOWN : 0));
+        }
+        return new MetadataIndex(root);
+    }
+
+    /// Fills the children of a directory entry, then of its subdirectories in parallel.
+    /// A directory is listed through the delegate unless it is in the previous index and unchanged; changed children
+    /// of an unchanged directory are only stat'ed again. Below a listed directory, a subdirectory is matched to the
+    /// previous index only if its change and modification times are the same, so that a directory replaced by another
+    /// one of the same name is walked again.
+    private final class Scan extends RecursiveAction {
+
+        private final @Nullable MetadataIndex previous;
+        private final Set<String> changed;
+        private final Set<String> changedParents;
+        private final String path;
+        private final Entry entry;
+        private final int previousNode;
+
+        Scan(@Nullable MetadataIndex previous, Set<String> changed, Set<String> changedParents, String path,
+             Entry entry, int previousNode) {
+            this.previous = previous;
+            this.changed = changed;
+            this.changedParents = changedParents;
+            this.path = path;
+            this.entry = entry;
+            this.previousNode = previousNode;
+        }
+
+        @Override
+        protected void compute() {
+            int[] previousChildren = null;
+            if (previous != null && previousNode >= 0 && previous.isListed(previousNode) && !changed.contains(path)) {
+                previousChildren = copyFromPrevious(previous);
+            }
+            if (previousChildren == null) {
+                if (!list()) return;
+                previousChildren = matchPrevious();
+            }
+            List<Scan> subdirs = new ArrayList<>();
+            for (int i = 0; i < entry.children.length; i++) {
+                Entry child = entry.children[i];
+                if (child.attrs.isDirectory()) {
+                    subdirs.add(new Scan(previous, changed, changedParents,
+                            childPath(path, new String(child.name, UTF_8)), child, previousChildren[i]));
+                }
+            }
+            invokeAll(subdirs);
+        }
+
+        /// @return the previous nodes of the children, or null if a changed child could not be stat'ed
+        private @Nullable int[] copyFromPrevious(MetadataIndex previous) {
+            int first = previous.firstChild(previousNode);
+            int count = previous.childCount(previousNode);
+            boolean hasChangedChildren = changedParents.contains(path);
+            Entry[] children = new Entry[count];
+            int[] nodes = new int[count];
+            for (int i = 0; i < count; i++) {
+                byte[] name = previous.nameBytes(first + i);
+                FileAttributes attrs = previous.attributes(first + i);
+                if (hasChangedChildren) {
+                    String child = childPath(path, new String(name, UTF_8));
+                    if (changed.contains(child)) {
+                        try {
+                            attrs = delegate.getattr(child, null);
+                        } catch (IOException | RuntimeException e) {
+                            return null;
+                        }
+                    }
+                }
+                children[i] = new Entry(name, attrs);
+                nodes[i] = first + i;
+            }
+            entry.children = children;
+            return nodes;
+        }
+
+        /// @return whether the directory could be listed
+        private boolean list() {
+            try {
+                List<String> names = new ArrayList<>();
+                for (DirEntry e : delegate.readdir(path)) {
+                    if (!".".equals(e.name()) && !"..".equals(e.name())) names.add(e.name());
+                }
+                Map<String, FileAttributes> attrs = delegate.getattrBatch(path, names);
+                List<Entry> children = new ArrayList<>(attrs.size());
+                attrs.forEach((name, a) -> children.add(new Entry(name.getBytes(UTF_8), a)));
+                entry.children = children.toArray(Entry[]::new);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                LOG.debug("Cannot list {}, leaving it out of the index: {}", path, e.toString());
+                return false;
+            }
+        }
+
+        private int[] matchPrevious() {
+            int[] nodes = new int[entry.children.length];
+            for (int i = 0; i < nodes.length; i++) {
+                Entry child = entry.children[i];
+                int node = previous != null && previousNode >= 0 && previous.isListed(previousNode)
+                        ? previous.child(previousNode, child.name)
+                        : MetadataIndex.UNKNOWN;
+                nodes[i] = node >= 0 && child.attrs.isDirectory() && !sameVersion(previous.attributes(node), child.attrs)
+                        ? MetadataIndex.UNKNOWN
+                        : node;
+            }
+            return nodes;
+        }
+    }
+
+    private static boolean sameVersion(FileAttributes previous, FileAttributes current) {
+        return previous.lastChangeNanos() == current.lastChangeNanos()
+                && previous.lastModifiedNanos() == current.lastModifiedNanos();
+    }
+
+    /// Marks `path` and its parent as changed, and schedules a refresh
+    private void markDirty(String path) {
+        dirty.add(path);
+        dirty.add(parentPath(path));
+        scheduleRefresh();
+    }
+
+    /// Marks the attributes of `path` as changed, but not the listing of its parent
+    private void markAttributesDirty(String path) {
+        // A refresh is pending while the path is dirty: skip the monitor, e.g. on every written chunk
+        if (dirty.add(path)) scheduleRefresh();
+    }
+
+    private void invalidateAll() {
+        synchronized (this) {
+            allInvalidated = true;
+            allDirty = true;
+        }
+        scheduleRefresh();
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (refreshScheduled || scheduler.isShutdown()) return;
+        refreshScheduled = true;
+        scheduler.schedule(() -> refresh(false), SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /// The index, if `path` and its ancestors are unchanged since it was built
+    private @Nullable MetadataIndex indexFor(String path) {
+        MetadataIndex current = index;
+        if (current == null || allDirty) return null;
+        Set<String> inFlight = refreshing;
+        if (dirty.isEmpty() && inFlight.isEmpty()) return current;
+        for (String p = path; ; p = parentPath(p)) {
+            if (dirty.contains(p) || inFlight.contains(p)) return null;
+            if (p.equals("/")) return current;
+        }
+    }
+
+    // ---------- Served from the index ----------
+
+    @Override
+    public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+        MetadataIndex current = fi == null ? indexFor(path) : null;
+        if (current == null) return delegate.getattr(path, fi);
+        int node = current.lookup(path);
+        return switch (node) {
+            case MetadataIndex.MISSING -> throw new NoSuchFileException(path);
+            case MetadataIndex.NOT_DIRECTORY -> throw new NotDirectoryException(path);
+            case MetadataIndex.UNKNOWN -> delegate.getattr(path, null);
+            default -> current.attributes(node);
+        };
+    }
+
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        MetadataIndex current = indexFor(dir);
+        int node = current == null ? MetadataIndex.UNKNOWN : current.lookup(dir);
+        if (node < 0 || !current.isListed(node)) return delegate.getattrBatch(dir, names);
+        // Written files are dirty without their directory
+        boolean anyDirty = !dirty.isEmpty() || !refreshing.isEmpty();
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            int child = current.child(node, name.getBytes(UTF_8));
+            if (child < 0) continue;
+            if (anyDirty) {
+                String path = childPath(dir, name);
+                if (dirty.contains(path) || refreshing.contains(path)) {
+                    try {
+                        attrs.put(name, delegate.getattr(path, null));
+                    } catch (IOException e) {
+                        LOG.debug("Cannot stat {}, leaving it out: {}", path, e.toString());
+                    }
+                    continue;
+                }
+            }
+            attrs.put(name, current.attributes(child));
+        }
+        return attrs;
+    }
+
+    @Override
+    public void access(String path, int mask) throws IOException {
+        MetadataIndex current = indexFor(path);
+        int node = current == null ? MetadataIndex.UNKNOWN : current.lookup(path);
+        switch (node) {
+            case MetadataIndex.MISSING -> throw new NoSuchFileException(path);
+            case MetadataIndex.NOT_DIRECTORY -> throw new NotDirectoryException(path);
+            case MetadataIndex.UNKNOWN -> delegate.access(path, mask);
+            default -> {
+                if (!Permissions.allows(current.attributes(node), mask & 07)) {
+                    throw new AccessDeniedException(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void opendir(String path, FileInfo fi) throws IOException {
+        MetadataIndex current = indexFor(path);
+        int node = current == null ? MetadataIndex.UNKNOWN : current.lookup(path);
+        switch (node) {
+            case MetadataIndex.MISSING -> throw new NoSuchFileException(path);
+            case MetadataIndex.NOT_DIRECTORY -> throw new NotDirectoryException(path);
+            case MetadataIndex.UNKNOWN -> delegate.opendir(path, fi);
+            default -> {
+                if (!current.isDirectory(node)) throw new NotDirectoryException(path);
+            }
+        }
+    }
+
+    @Override
+    public List<DirEntry> readdir(String path) throws IOException {
+        MetadataIndex current = indexFor(path);
+        int node = current == null ? MetadataIndex.UNKNOWN : current.lookup(path);
+        switch (node) {
+            case MetadataIndex.MISSING -> throw new NoSuchFileException(path);
+            case MetadataIndex.NOT_DIRECTORY -> throw new NotDirectoryException(path);
+            case MetadataIndex.UNKNOWN -> {
+                return delegate.readdir(path);
+            }
+            default -> {
+                if (!current.isDirectory(node)) throw new NotDirectoryException(path);
+                if (!current.isListed(node)) return delegate.readdir(path);
+                int first = current.firstChild(node);
+                List<DirEntry> entries = new ArrayList<>(current.childCount(node));
+                for (int i = first; i < first + current.childCount(node); i++) {
+                    entries.add(new DirEntry(current.name(i)));
+                }
+                return entries;
+            }
+        }
+    }
+
+    /// Permission bits of a file for the user running this process
+    private static final class Permissions {
+
+        private static final UnixSystem USER = new UnixSystem();
+        private static final Set<Long> GROUPS = groups();
+
+        private static Set<Long> groups() {
+            Set<Long> groups = new HashSet<>();
+            groups.add(USER.getGid());
+            for (long g : USER.getGroups()) groups.add(g);
+            return groups;
+        }
+
+        static boolean allows(FileAttributes attrs, int mask) {
+            int mode = attrs.mode();
+            if (USER.getUid() == 0) {
+                // root may read and write anything, and execute what anyone may
+                return (mask & 01) == 0 || attrs.isDirectory() || (mode & 0111) != 0;
+            }
+            int bits = USER.getUid() == attrs.uid() ? mode >> 6
+                    : GROUPS.contains((long) attrs.gid()) ? mode >> 3
+                    : mode;
+            return (bits & mask) == mask;
+        }
+    }
+
+    // ---------- Changes through this FS ----------
+
+    @Override
+    public void chmod(String path, int mode, @Nullable FileInfo fi) throws IOException {
+        try {
+            delegate.chmod(path, mode, fi);
+        } finally {
+            markAttributesDirty(path);
+        }
+    }
+
+    @Override
+    public void chown(String path, int uid, int gid, @Nullable FileInfo fi) throws IOException {
+        try {
+            delegate.chown(path, uid, gid, fi);
+        } finally {
+            markAttributesDirty(path);
+        }
+    }
+
+    @Override
+    public void utimens(String path, TimeSpec atime, TimeSpec mtime, @Nullable FileInfo fi) throws IOException {
+        try {
+            delegate.utimens(path, atime, mtime, fi);
+        } finally {
+            markAttributesDirty(path);
+        }
+    }
+
+    @Override
+    public void symlink(String target, String linkname) throws IOException {
+        try {
+            delegate.symlink(target, linkname);
+        } finally {
+            markDirty(linkname);
+        }
+    }
+
+    @Override
+    public void mkdir(String path, int mode) throws IOException {
+        try {
+            delegate.mkdir(path, mode);
+        } finally {
+            markDirty(path);
+        }
+    }
+
+    @Override
+    public void rmdir(String path) throws IOException {
+        try {
+            delegate.rmdir(path);
+        } finally {
+            markDirty(path);
+        }
+    }
+
+    @Override
+    public void create(String path, int mode, FileInfo fi) throws IOException {
+        try {
+            delegate.create(path, mode, fi);
+        } finally {
+            markDirty(path);
+        }
+    }
+
+    @Override
+    public void open(String path, FileInfo fi) throws IOException {
+        if (!fi.getOpenFlags().contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+            delegate.open(path, fi);
+            return;
+        }
+        try {
+            delegate.open(path, fi);
+        } finally {
+            markAttributesDirty(path);
+        }
+    }
+
+    @Override
+    public int write(String path, ByteBuffer buf, long count, long offset, FileInfo fi) throws IOException {
+        try {
+            return delegate.write(path, buf, count, offset, fi);
+        } finally {
+            markAttributesDirty(path);
+        }
+    }
+
+    @Override
+    public void truncate(String path, long size, @Nullable FileInfo fi) throws IOException {
+        try {
+            delegate.truncate(path, size, fi);
+        } finally {
+            markAttributesDirty(path);
+        }
+    }
+
+    @Override
+    public void unlink(String path) throws IOException {
+        try {
+            delegate.unlink(path);
+        } finally {
+            markDirty(path);
+        }
+    }
+
+    @Override
+    public void rename(String oldPath, String newPath, int flags) throws IOException {
+        try {
+            delegate.rename(oldPath, newPath, flags);
+        } finally {
+            markDirty(oldPath);
+            markDirty(newPath);
+        }
+    }
+
+    // ---------- Finish ----------
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        delegate.destroy();
+    }
+}
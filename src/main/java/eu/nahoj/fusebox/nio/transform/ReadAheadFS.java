@@ -0,0 +1,152 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.util.HandleTable;
+import eu.nahoj.fusebox.common.util.ReadAhead;
+import eu.nahoj.fusebox.common.util.SimpleFileInfo;
+import eu.nahoj.fusebox.nio.api.FuseboxFS;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import org.apache.commons.collections4.SetUtils;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.TimeSpec;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/// Sequential read-ahead for read-only handles, for backends where each read is expensive.
+///
+/// Prefetched data of other handles on the same path is dropped when the file is written or truncated through this
+/// layer. Changes made behind the mount are only seen once the reader seeks elsewhere or reopens the file.
+@Accessors(fluent = true)
+@RequiredArgsConstructor
+public class ReadAheadFS extends BaseFS implements DecoratedFS {
+
+    @Getter
+    private final FuseboxFS delegate;
+
+    private final int minWindow;
+    private final int maxWindow;
+
+    private record ReadAheadHandle(String path, FileInfo delegateInfo, ReadAhead readAhead) {
+    }
+
+    /// Read-only handles, given to FUSE instead of the delegate's; other handles are the delegate's and never match
+    private final HandleTable<ReadAheadHandle> readAheads = new HandleTable<>();
+
+    private static final Set<StandardOpenOption> WRITE_INTENT = EnumSet.of(
+            StandardOpenOption.APPEND,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+    );
+
+    /// The delegate's handle behind `fi`
+    @Nullable
+    private FileInfo delegateInfo(@Nullable FileInfo fi) {
+        if (fi == null) return null;
+        ReadAheadHandle h = readAheads.get(fi.getFh());
+        return h != null ? h.delegateInfo : fi;
+    }
+
+    @Override
+    public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().getattr(path, delegateInfo(fi));
+    }
+
+    @Override
+    @Nullable
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().fileKey(path, delegateInfo(fi));
+    }
+
+    @Override
+    public void chmod(String path, int mode, @Nullable FileInfo fi) throws IOException {
+        delegate().chmod(path, mode, delegateInfo(fi));
+    }
+
+    @Override
+    public void chown(String path, int uid, int gid, @Nullable FileInfo fi) throws IOException {
+        delegate().chown(path, uid, gid, delegateInfo(fi));
+    }
+
+    @Override
+    public void utimens(String path, TimeSpec atime, TimeSpec mtime, @Nullable FileInfo fi) throws IOException {
+        delegate().utimens(path, atime, mtime, delegateInfo(fi));
+    }
+
+    @Override
+    public void open(String path, FileInfo fi) throws IOException {
+        delegate().open(path, fi);
+        if (!SetUtils.intersection(fi.getOpenFlags(), WRITE_INTENT).isEmpty()) return;
+        // The FileInfo passed by FUSE is only valid during the call
+        SimpleFileInfo delegateInfo = new SimpleFileInfo();
+        delegateInfo.setFh(fi.getFh());
+        delegateInfo.setFlags(fi.getFlags());
+        delegateInfo.setOpenFlags(fi.getOpenFlags());
+        ReadAhead readAhead = new ReadAhead(
+                (dst, offset) -> delegate().read(path, dst, dst.remaining(), offset, delegateInfo),
+                minWindow, maxWindow);
+        fi.setFh(readAheads.add(new ReadAheadHandle(path, delegateInfo, readAhead)));
+    }
+
+    @Override
+    public int read(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
+        ReadAheadHandle h = readAheads.get(fi.getFh());
+        if (h == null) {
+            return delegate().read(path, buf, size, offset, fi);
+        }
+        ByteBuffer dst = buf.slice(buf.position(), (int) Math.min(size, buf.remaining()));
+        int n = h.readAhead.read(dst, offset);
+        buf.position(buf.position() + n);
+        return n;
+    }
+
+    @Override
+    public int write(String path, ByteBuffer buf, long size, long offset, FileInfo fi) throws IOException {
+        int n = delegate().write(path, buf, size, offset, delegateInfo(fi));
+        invalidate(path);
+        return n;
+    }
+
+    @Override
+    public void truncate(String path, long size, @Nullable FileInfo fi) throws IOException {
+        delegate().truncate(path, size, delegateInfo(fi));
+        invalidate(path);
+    }
+
+    private void invalidate(String path) {
+        if (readAheads.isEmpty()) return;
+        readAheads.values().forEach(h -> {
+            if (h.path.equals(path)) h.readAhead.invalidate();
+        });
+    }
+
+    @Override
+    public void flush(String path, FileInfo fi) throws IOException {
+        delegate().flush(path, delegateInfo(fi));
+    }
+
+    @Override
+    public void fsync(String path, int datasync, FileInfo fi) throws IOException {
+        delegate().fsync(path, datasync, delegateInfo(fi));
+    }
+
+    @Override
+    public void release(String path, FileInfo fi) throws IOException {
+        ReadAheadHandle h = readAheads.remove(fi.getFh());
+        if (h != null) h.readAhead.close();
+        delegate().release(path, h != null ? h.delegateInfo : fi);
+    }
+
+    @Override
+    public void destroy() {
+        readAheads.clear().forEach(h -> h.readAhead.close());
+        delegate().destroy();
+    }
+}
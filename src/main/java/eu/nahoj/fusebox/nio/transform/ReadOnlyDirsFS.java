@@ -1,26 +1,22 @@
 package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.FileAttributes;
-import eu.nahoj.fusebox.common.api.FileType;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
-import org.apache.commons.collections4.SetUtils;
 import org.cryptomator.jfuse.api.FileInfo;
 import org.springframework.lang.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.AccessDeniedException;
-import java.nio.file.attribute.PosixFilePermission;
-import java.util.EnumSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 
-import static java.nio.file.attribute.PosixFilePermission.GROUP_WRITE;
-import static java.nio.file.attribute.PosixFilePermission.OTHERS_WRITE;
-import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE;
+import static eu.nahoj.fusebox.nio.api.FuseboxFS.childPath;
 
 @Accessors(fluent = true)
 @RequiredArgsConstructor
@@ -34,7 +30,7 @@ public class ReadOnlyDirsFS extends BaseFS implements SelectivelyDecoratedFS {
 
     private boolean isSelectedDir(String path) throws IOException {
         return pathSelector.test(path.substring(1))
-                && delegate().getattr(path, null).type() == FileType.DIRECTORY;
+                && delegate().getattr(path, null).isDirectory();
     }
 
     /// Use decorated methods for children of selected directories
@@ -46,16 +42,24 @@ public class ReadOnlyDirsFS extends BaseFS implements SelectivelyDecoratedFS {
     }
 
     // Attributes
-    private static final Set<PosixFilePermission> WRITE_PERMISSIONS =
-            EnumSet.of(OWNER_WRITE, GROUP_WRITE, OTHERS_WRITE);
     @Override
     public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
         FileAttributes origAttr = delegate().getattr(path, fi);
-        return isSelectedDir(path)
-                ? origAttr.withPermissions(SetUtils.difference(origAttr.permissions(), WRITE_PERMISSIONS))
+        // Same test as isSelectedDir(), without a second getattr
+        return origAttr.isDirectory() && pathSelector.test(path.substring(1))
+                ? origAttr.readOnly()
                 : origAttr;
     }
 
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        Map<String, FileAttributes> attrs = new LinkedHashMap<>(delegate().getattrBatch(dir, names));
+        attrs.replaceAll((name, a) -> a.isDirectory() && pathSelector.test(childPath(dir, name).substring(1))
+                ? a.readOnly()
+                : a);
+        return attrs;
+    }
+
     @Override
     public void setxattr(String path, String name, ByteBuffer value) throws IOException {
         if (isSelectedDir(path)) {
@@ -15,13 +15,12 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.ReadOnlyFileSystemException;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.PosixFilePermission;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import static java.nio.file.attribute.PosixFilePermission.GROUP_WRITE;
-import static java.nio.file.attribute.PosixFilePermission.OTHERS_WRITE;
-import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.CHMOD;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.CHOWN;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.CREATE;
@@ -50,13 +49,16 @@ public class ReadOnlyFS extends BaseFS implements DecoratedFS {
         return SetUtils.difference(delegate.supportedOperations(), blockedOperations);
     }
 
-    private static final Set<PosixFilePermission> WRITE_PERMISSIONS =
-            EnumSet.of(OWNER_WRITE, GROUP_WRITE, OTHERS_WRITE);
-
     @Override
     public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
-        FileAttributes origAttr = delegate().getattr(path, fi);
-        return origAttr.withPermissions(SetUtils.difference(origAttr.permissions(), WRITE_PERMISSIONS));
+        return delegate().getattr(path, fi).readOnly();
+    }
+
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        Map<String, FileAttributes> attrs = new LinkedHashMap<>(delegate().getattrBatch(dir, names));
+        attrs.replaceAll((name, a) -> a.readOnly());
+        return attrs;
     }
 
     @Override
@@ -2,6 +2,8 @@ package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -15,6 +17,7 @@ import org.springframework.lang.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,7 +74,24 @@ public class RenamedFS extends BaseFS implements DecoratedFS {
                 : origFileName;
     }
 
+    private String origPathToMount(String origPath) {
+        Path relOrigPrefix = Path.of("");
+        Path absMountPrefix = ROOT_PATH;
+
+        for (Path part : Path.of(origPath).normalize()) {
+            String name = part.toString();
+            absMountPrefix = absMountPrefix.resolve(childFileNameToMount(relOrigPrefix, name));
+            relOrigPrefix = relOrigPrefix.resolve(name);
+        }
+        return absMountPrefix.toString();
+    }
+
     // Start
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate().addInvalidationListener(listener.mapPaths(this::origPathToMount));
+    }
+
     @Override
     public Statvfs statfs(String path) throws IOException {
         return delegate().statfs(mountPathToOrig(path));
@@ -84,6 +104,29 @@ public class RenamedFS extends BaseFS implements DecoratedFS {
         return delegate().getattr(mountPathToOrig(path), fi);
     }
 
+    @Override
+    @Nullable
+    public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().fileKey(mountPathToOrig(path), fi);
+    }
+
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) throws IOException {
+        Path origDir = mountPathToOrigPath(dir);
+        String relMountDir = dir.substring(1);
+        // Orig name -> mount name, translated once for the directory
+        Map<String, String> mountNames = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            String relMountPath = relMountDir.isEmpty() ? name : relMountDir + "/" + name;
+            mountNames.put(mountPathSelector.test(relMountPath) ? fileNameToOrig.apply(name) : name, name);
+        }
+        Map<String, FileAttributes> origAttrs =
+                delegate().getattrBatch(origDir.toString(), List.copyOf(mountNames.keySet()));
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(origAttrs.size());
+        origAttrs.forEach((origName, a) -> attrs.put(mountNames.get(origName), a));
+        return attrs;
+    }
+
     @Override
     public String getxattr(String path, String name) throws IOException {
         return delegate().getxattr(mountPathToOrig(path), name);
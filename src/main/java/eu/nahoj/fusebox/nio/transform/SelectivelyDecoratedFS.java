@@ -2,6 +2,8 @@ package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import org.cryptomator.jfuse.api.FileInfo;
 import org.cryptomator.jfuse.api.FuseConfig;
@@ -39,6 +41,12 @@ public interface SelectivelyDecoratedFS extends ChainingFS {
         delegate().init(conn, cfg);
     }
 
+    /// Implementations that change paths must translate them
+    @Override
+    default void addInvalidationListener(InvalidationListener listener) {
+        delegate().addInvalidationListener(listener);
+    }
+
     @Override
     default Statvfs statfs(String path) throws IOException {
         return shouldDecorate(path) ? decoratedStatfs(path) : delegate().statfs(path);
@@ -58,6 +66,12 @@ public interface SelectivelyDecoratedFS extends ChainingFS {
         return delegate().getattr(path, fi);
     }
 
+    @Override
+    @Nullable
+    default FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+        return delegate().fileKey(path, fi);
+    }
+
     @Override
     default String getxattr(String path, String name) throws IOException {
         return shouldDecorate(path) ? decoratedGetxattr(path, name) : delegate().getxattr(path, name);
@@ -1,11 +1,15 @@
 package eu.nahoj.fusebox.vfs2.api;
 
 import eu.nahoj.fusebox.common.util.ExceptionUtils.ThrowingFunction;
+import eu.nahoj.fusebox.vfs2.transform.BytesContent;
+import eu.nahoj.fusebox.vfs2.transform.StreamedContent;
 import eu.nahoj.fusebox.vfs2.transform.StringContent;
 import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -27,6 +31,20 @@ public interface FuseboxContent extends AutoCloseable {
         }
     }
 
+    /**
+     * Reads into {@code dst} from the absolute {@code offset}, as {@link ThreadSafeSeekableByteChannel#readAt}.
+     * This backs the {@code read} operation; implementations that can read without the channel's lock override it.
+     *
+     * @return number of bytes read, or -1 at end of content
+     */
+    default int readAt(ByteBuffer dst, long offset) throws IOException {
+        try {
+            return withByteChannelUncheckedIO(channel -> channel.readAt(dst, offset));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
     /** Always close resources. */
     @Override
     void close() throws IOException;
@@ -42,7 +60,28 @@ public interface FuseboxContent extends AutoCloseable {
         return withByteChannelUncheckedIO(ThreadSafeSeekableByteChannel::contentAsString);
     }
 
+    default byte[] asBytes() {
+        return withByteChannelUncheckedIO(ThreadSafeSeekableByteChannel::contentAsBytes);
+    }
+
     default FuseboxContent mapAsString(UnaryOperator<String> mapper) {
         return new StringContent(mapper.apply(asString()));
     }
+
+    default FuseboxContent mapAsBytes(UnaryOperator<byte[]> mapper) {
+        return new BytesContent(mapper.apply(asBytes()));
+    }
+
+    /** The mapper gets a read-only buffer over the whole content and must not modify the buffer it returns. */
+    default FuseboxContent mapAsBuffer(UnaryOperator<ByteBuffer> mapper) {
+        return new BytesContent(mapper.apply(ByteBuffer.wrap(asBytes()).asReadOnlyBuffer()));
+    }
+
+    /**
+     * Maps this content lazily through a stream transform, with bounded memory whatever the content size.
+     * The returned content takes ownership of this one. See {@link StreamedContent}.
+     */
+    default FuseboxContent mapAsStream(Function<InputStream, InputStream> mapper) {
+        return new StreamedContent(this, mapper);
+    }
 }
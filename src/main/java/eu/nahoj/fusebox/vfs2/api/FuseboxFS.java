@@ -1,12 +1,23 @@
 package eu.nahoj.fusebox.vfs2.api;
 
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.vfs2.transform.BlockCachedFile;
+import eu.nahoj.fusebox.vfs2.transform.CachedListingsFS;
+import eu.nahoj.fusebox.vfs2.transform.CachedResolutionFS;
 import eu.nahoj.fusebox.vfs2.transform.MappedFilesFS;
 import eu.nahoj.fusebox.vfs2.transform.MappedNamesFS;
+import eu.nahoj.fusebox.vfs2.transform.ReadAheadFile;
 import org.apache.commons.lang3.NotImplementedException;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
 import org.cryptomator.jfuse.api.Statvfs;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
@@ -33,12 +44,70 @@ public interface FuseboxFS {
         throw new NotImplementedException();
     }
 
+    /// Registers `listener` for changes made behind this FS's back, with paths as given to [#resolveFile].
+    ///
+    /// Caching layers register from their factory, once built; layers that change paths translate them. The default
+    /// ignores the listener: the FS cannot see such changes.
+    default void addInvalidationListener(InvalidationListener listener) {
+        // no-op
+    }
+
+    /// Attributes of the children `names` of the directory `dirPath`, e.g. for a `readdir` that also returns
+    /// attributes.
+    ///
+    /// Names whose attributes cannot be read are left out of the result. The default resolves each child; layers
+    /// override it to translate the names once per directory, and drivers to list or stat the directory once.
+    /// This is an FS operation rather than a [FuseboxFile] one because a directory resolved by a layer may come
+    /// from the layer below, whose children would miss the upper layers.
+    default Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) throws IOException {
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            try {
+                attrs.put(name, resolveFile(childPath(dirPath, name)).getAttributes());
+            } catch (IOException e) {
+                // Left out
+            }
+        }
+        return attrs;
+    }
+
+    /// Path of the child `name` of the directory `dirPath`, both as given to [#resolveFile]
+    static String childPath(String dirPath, String name) {
+        return dirPath.isEmpty() ? name : dirPath + "/" + name;
+    }
+
+    /// Path of the directory containing `path`, as given to [#resolveFile]; the root is its own parent
+    static String parentPath(String path) {
+        int i = path.lastIndexOf('/');
+        return i < 0 ? "" : path.substring(0, i);
+    }
+
     // //////////////////////
     // Transformations
     // //////////////////////
 
     default FuseboxFS mapFiles(Predicate<String> pathSelector, UnaryOperator<FuseboxFile> mapper) {
-        return new MappedFilesFS(this, pathSelector, mapper);
+        return MappedFilesFS.create(this, pathSelector, mapper);
+    }
+
+    /// Sequential read-ahead for the selected files, for backends where each read is expensive
+    default FuseboxFS withReadAhead(Predicate<String> pathSelector, int minWindow, int maxWindow) {
+        return mapFiles(pathSelector, file -> new ReadAheadFile(file, minWindow, maxWindow));
+    }
+
+    /// Reads of the selected files go through `cache`, which can be shared with other file systems
+    default FuseboxFS withBlockCache(Predicate<String> pathSelector, BlockCache cache) {
+        return mapFiles(pathSelector, file -> new BlockCachedFile(file, cache));
+    }
+
+    /// Reuses resolved files for repeated operations on the same path: see [CachedResolutionFS]
+    default CachedResolutionFS withCachedResolution(int maxEntries, Duration ttl) {
+        return CachedResolutionFS.create(this, maxEntries, ttl);
+    }
+
+    /// Reuses directory listings until a change to the directory: see [CachedListingsFS]
+    default CachedListingsFS cachedListings(int maxEntries, Duration ttl) {
+        return CachedListingsFS.create(this, maxEntries, ttl);
     }
 
     default FuseboxFS mapNames(Predicate<String> origPathSelector, Predicate<String> mountPathSelector,
@@ -2,8 +2,10 @@ package eu.nahoj.fusebox.vfs2.api;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
 import eu.nahoj.fusebox.vfs2.transform.MappedContentFile;
 import org.apache.commons.lang3.NotImplementedException;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -34,6 +36,15 @@ public interface FuseboxFile {
         throw new NotImplementedException();
     }
 
+    /**
+     * Identity of this file on the disk, shared by its hard links, renames and other mounts of it, or null if unknown.
+     * Wrappers that show other content than their delegate's must return null.
+     */
+    @Nullable
+    default FileKey fileKey() throws IOException {
+        return null;
+    }
+
     // Links
 
     default String getTargetPath() throws IOException {
@@ -44,6 +55,11 @@ public interface FuseboxFile {
 //        throw new NotImplementedException();
 //    }
 
+    /** Creates this file as a symbolic link to {@code target}. */
+    default void createSymbolicLink(String target) throws IOException {
+        throw new NotImplementedException();
+    }
+
     // Directories
 
     default void createDirectory(Set<PosixFilePermission> permissions) throws IOException {
@@ -66,6 +82,16 @@ public interface FuseboxFile {
         throw new NotImplementedException();
     }
 
+    /** Creates this file, empty. */
+    default void createFile(Set<PosixFilePermission> permissions) throws IOException {
+        throw new NotImplementedException();
+    }
+
+    /** Replaces the contents of this file with those of the local file {@code source}. */
+    default void writeContent(Path source) throws IOException {
+        throw new NotImplementedException();
+    }
+
     /** Returns a view of this file with contents mapped by the provided mapper. */
     default FuseboxFile mapContent(UnaryOperator<FuseboxContent> mapper) {
         return new MappedContentFile(this, mapper);
@@ -74,4 +100,9 @@ public interface FuseboxFile {
     default void delete() throws IOException {
         throw new NotImplementedException();
     }
+
+    /** Moves this file to {@code target}, a file resolved by the same FS. */
+    default void moveTo(FuseboxFile target) throws IOException {
+        throw new NotImplementedException();
+    }
 }
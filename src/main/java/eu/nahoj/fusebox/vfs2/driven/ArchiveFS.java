@@ -0,0 +1,67 @@
+package eu.nahoj.fusebox.vfs2.driven;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex.Node;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.GET_ATTR;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.OPEN;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.OPEN_DIR;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.READ;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.READLINK;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.READ_DIR;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.RELEASE;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.RELEASE_DIR;
+
+/// Read-only FS over a ZIP, 7z or TAR archive, served from an [ArchiveIndex] rather than through commons-vfs's
+/// archive providers: metadata comes from the in-memory tree, and stored entries are read in place.
+public class ArchiveFS implements FuseboxFS, AutoCloseable {
+
+    final ArchiveIndex index;
+
+    public ArchiveFS(ArchiveIndex index) {
+        this.index = index;
+    }
+
+    public static ArchiveFS open(Path archive) throws IOException {
+        return new ArchiveFS(ArchiveIndex.open(archive));
+    }
+
+    @Override
+    public Set<Operation> supportedOperations() {
+        return EnumSet.of(GET_ATTR, READLINK, OPEN_DIR, READ_DIR, RELEASE_DIR, OPEN, READ, RELEASE);
+    }
+
+    @Override
+    public FuseboxFile resolveFile(String path) {
+        return new ArchiveFile(this, Path.of(path), index.lookup(path));
+    }
+
+    @Override
+    public Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) {
+        Node dir = index.lookup(dirPath);
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        if (dir == null) return attrs;
+        for (String name : names) {
+            Node child = dir.child(name);
+            if (child != null) attrs.put(name, index.attributes(child));
+        }
+        return attrs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
@@ -0,0 +1,84 @@
+package eu.nahoj.fusebox.vfs2.driven;
+
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex.Node;
+import eu.nahoj.fusebox.common.archive.EntryReader;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadable;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.util.List;
+
+/// File of an [ArchiveFS], resolved once against the archive's tree
+@Accessors(fluent = true)
+@RequiredArgsConstructor
+final class ArchiveFile implements FuseboxFile {
+
+    @Getter
+    private final ArchiveFS fs;
+    @Getter
+    private final Path path;
+    /// Null if there is no such entry
+    private final @Nullable Node node;
+
+    private Node node() throws NoSuchFileException {
+        if (node == null) throw new NoSuchFileException(path.toString());
+        return node;
+    }
+
+    @Override
+    public FileAttributes getAttributes() throws IOException {
+        return fs.index.attributes(node());
+    }
+
+    @Override
+    public String getTargetPath() throws IOException {
+        String target = node().linkTarget();
+        if (target == null) throw new NotLinkException(path.toString());
+        return target;
+    }
+
+    @Override
+    public boolean existsAndIsDirectory() {
+        return node != null && node.isDirectory();
+    }
+
+    @Override
+    public List<DirEntry> getEntries() throws IOException {
+        Node dir = node();
+        if (!dir.isDirectory()) throw new NotDirectoryException(path.toString());
+        return dir.childNames().stream().map(DirEntry::new).toList();
+    }
+
+    @Override
+    public FuseboxContent openReadable() throws IOException {
+        EntryReader reader = fs.index.openReader(node());
+        return new PositionalContent(new PositionalReadable() {
+            @Override
+            public int readAt(ByteBuffer dst, long offset) throws IOException {
+                return reader.read(dst, offset);
+            }
+
+            @Override
+            public long size() {
+                return reader.size();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,530 @@
+package eu.nahoj.fusebox.vfs2.driven;
+
+import eu.nahoj.fusebox.vfs2.util.PositionalReadable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/// Persistent local cache of remote file contents, for [VfsFS] over network providers.
+///
+/// - Each remote file is cached in a sparse local file, in chunks fetched on demand. An index file next to it records
+///   the remote size and modification time and which chunks are present; it is written when the last handle on the
+///   file is closed and when the cache is closed, so the cache survives remounts.
+/// - A cached file whose remote size or modification time changed is dropped and fetched again. Files whose
+///   modification time is unknown are not cached, as such a change could go unnoticed.
+/// - The cached bytes are bounded by `maxBytes`: least recently opened files that are not open are deleted first.
+/// - A read needing several missing chunks fetches them in parallel, each on its own remote instance (see
+///   [eu.nahoj.fusebox.vfs2.util.RandomAccessContentPool]). Concurrent reads of a missing chunk share one fetch.
+/// - At most [#MAX_CONCURRENT_FETCHES] chunks are fetched at a time, and a chunk's buffer is only allocated once its
+///   fetch may start, so prefetching a large file does not hold it in memory.
+/// - With `prefetchOnOpen`, opening a file that fits in `maxBytes` fetches all its missing chunks in the background.
+public final class DiskCache implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskCache.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    /// Twice the remote instances of a [eu.nahoj.fusebox.vfs2.util.RandomAccessContentPool], so that each has its
+    /// next chunk ready
+    static final int MAX_CONCURRENT_FETCHES = 8;
+
+    private static final int INDEX_MAGIC = 0x46424443; // "FBDC"
+    private static final int INDEX_VERSION = 1;
+
+    private static final ExecutorService FETCHER = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("fusebox-diskcache-", 0).factory());
+
+    private final Path dir;
+    private final long maxBytes;
+    private final int chunkSize;
+    private final boolean prefetchOnOpen;
+    private final Semaphore fetchPermits = new Semaphore(MAX_CONCURRENT_FETCHES);
+
+    /// Everything below is guarded by this; the data and index files are read and written outside the lock
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private boolean closed;
+
+    private final class Entry {
+        final String key;
+        final String name;
+        long size;
+        long lastModified;
+        BitSet present = new BitSet();
+        long bytes;
+        boolean dirty;
+        /// Incremented when the remote file changes, so that fetches of the previous version are discarded
+        int generation;
+        /// Open handles, which keep the entry from being evicted
+        int refs;
+        @Nullable FileChannel data;
+        /// Keyed by chunk index
+        final Map<Integer, CompletableFuture<Void>> fetching = new HashMap<>();
+        /// Held for reading to read or write chunks, and for writing to reset, persist or close the files, so that
+        /// handles of a previous version cannot read or overwrite a reset file. Taken before the cache's lock, never
+        /// while holding it.
+        final ReadWriteLock io = new ReentrantReadWriteLock();
+
+        Entry(String key, long size, long lastModified) {
+            this.key = key;
+            this.name = hash(key);
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        Path dataFile() {
+            return dir.resolve(name + ".data");
+        }
+
+        Path indexFile() {
+            return dir.resolve(name + ".idx");
+        }
+
+        int chunkCount() {
+            return (int) ((size + chunkSize - 1) / chunkSize);
+        }
+
+        int chunkLength(int chunk) {
+            return (int) Math.min(chunkSize, size - (long) chunk * chunkSize);
+        }
+    }
+
+    public DiskCache(Path dir, long maxBytes, boolean prefetchOnOpen) throws IOException {
+        this(dir, maxBytes, DEFAULT_CHUNK_SIZE, prefetchOnOpen);
+    }
+
+    public DiskCache(Path dir, long maxBytes, int chunkSize, boolean prefetchOnOpen) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+        this.chunkSize = chunkSize;
+        this.prefetchOnOpen = prefetchOnOpen;
+        loadIndexes();
+    }
+
+    /// Least recently written first, so that LRU order roughly survives restarts
+    private void loadIndexes() throws IOException {
+        List<Path> indexes;
+        try (Stream<Path> files = Files.list(dir)) {
+            indexes = files.filter(p -> p.getFileName().toString().endsWith(".idx"))
+                    .sorted(Comparator.comparing(p -> {
+                        try {
+                            return Files.getLastModifiedTime(p);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }))
+                    .toList();
+        }
+        for (Path index : indexes) {
+            try (var in = new DataInputStream(Files.newInputStream(index))) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readInt() != chunkSize) {
+                    throw new IOException("Incompatible index");
+                }
+                Entry e = new Entry(in.readUTF(), in.readLong(), in.readLong());
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+                e.present = BitSet.valueOf(words);
+                e.bytes = e.present.stream().mapToLong(e::chunkLength).sum();
+                entries.put(e.key, e);
+                usedBytes += e.bytes;
+            } catch (IOException e) {
+                LOG.warn("Dropping unreadable cache index {}", index, e);
+                String name = index.getFileName().toString().replaceFirst("\\.idx$", "");
+                Files.deleteIfExists(index);
+                Files.deleteIfExists(dir.resolve(name + ".data"));
+            }
+        }
+        evict();
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /// Cached view of `remote`, which becomes owned by the returned readable
+    ///
+    /// @param key identifies the remote file; it is hashed into the local file names
+    /// @param lastModified 0 if unknown, in which case `remote` is returned as is
+    public PositionalReadable open(String key, long size, long lastModified, PositionalReadable remote)
+            throws IOException {
+        if (lastModified == 0) {
+            LOG.debug("Unknown modification time, not caching: {}", key);
+            return remote;
+        }
+        Entry e;
+        synchronized (this) {
+            if (closed) throw new IOException("Disk cache closed");
+            e = entries.computeIfAbsent(key, k -> new Entry(k, size, lastModified));
+            e.refs++;
+        }
+        try {
+            openData(e, size, lastModified);
+        } catch (IOException | RuntimeException ex) {
+            synchronized (this) {
+                e.refs--;
+            }
+            throw ex;
+        }
+        Handle h = new Handle(e, remote);
+        if (prefetchOnOpen && size <= maxBytes) {
+            for (int chunk = 0; chunk < e.chunkCount(); chunk++) {
+                h.chunk(chunk);
+            }
+        }
+        return h;
+    }
+
+    /// Drops the cached copy if the remote file changed, and opens the data file if no other handle has
+    private void openData(Entry e, long size, long lastModified) throws IOException {
+        e.io.writeLock().lock();
+        try {
+            boolean changed;
+            FileChannel data;
+            synchronized (this) {
+                changed = e.size != size || e.lastModified != lastModified;
+                if (changed) {
+                    LOG.debug("Remote file changed, dropping cached copy: {}", e.key);
+                    resetLocked(e, size, lastModified);
+                }
+                data = e.data;
+            }
+            if (data != null) {
+                if (changed) data.truncate(0);
+                return;
+            }
+            if (changed) Files.deleteIfExists(e.dataFile());
+            data = FileChannel.open(e.dataFile(), CREATE, READ, WRITE);
+            synchronized (this) {
+                e.data = data;
+            }
+        } finally {
+            e.io.writeLock().unlock();
+        }
+    }
+
+    private void resetLocked(Entry e, long size, long lastModified) {
+        usedBytes -= e.bytes;
+        e.bytes = 0;
+        e.present.clear();
+        e.size = size;
+        e.lastModified = lastModified;
+        e.dirty = true;
+        e.generation++;
+        e.fetching.clear();
+    }
+
+    private final class Handle implements PositionalReadable {
+
+        private final Entry e;
+        private final PositionalReadable remote;
+        private boolean handleClosed;
+
+        Handle(Entry e, PositionalReadable remote) {
+            this.e = e;
+            this.remote = remote;
+        }
+
+        @Override
+        public int readAt(ByteBuffer dst, long offset) throws IOException {
+            if (offset >= e.size) return -1;
+            int length = (int) Math.min(dst.remaining(), e.size - offset);
+            if (length == 0) return 0;
+            int first = (int) (offset / chunkSize);
+            int last = (int) ((offset + length - 1) / chunkSize);
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+            for (int chunk = first; chunk <= last; chunk++) {
+                CompletableFuture<Void> f = chunk(chunk);
+                if (f != null) pending.add(f);
+            }
+            for (CompletableFuture<Void> f : pending) await(f);
+
+            // Keeps another version's open from resetting the file while we read it
+            e.io.readLock().lock();
+            try {
+                FileChannel data;
+                synchronized (DiskCache.this) {
+                    data = e.data;
+                    // Another handle's fetch may have failed, or the entry been reset under us
+                    for (int chunk = first; chunk <= last; chunk++) {
+                        if (!e.present.get(chunk)) data = null;
+                    }
+                }
+                if (data != null) {
+                    ByteBuffer slice = dst.slice(dst.position(), length);
+                    int n = 0;
+                    while (slice.hasRemaining()) {
+                        int r = data.read(slice, offset + n);
+                        if (r < 0) break;
+                        n += r;
+                    }
+                    dst.position(dst.position() + n);
+                    return n;
+                }
+            } finally {
+                e.io.readLock().unlock();
+            }
+            return remote.readAt(dst, offset);
+        }
+
+        /// @return the fetch to wait for, or null if the chunk is present
+        @Nullable
+        CompletableFuture<Void> chunk(int chunk) {
+            CompletableFuture<Void> f;
+            int generation;
+            synchronized (DiskCache.this) {
+                if (e.present.get(chunk)) return null;
+                f = e.fetching.get(chunk);
+                if (f != null) return f;
+                f = new CompletableFuture<>();
+                e.fetching.put(chunk, f);
+                generation = e.generation;
+            }
+            CompletableFuture<Void> mine = f;
+            FETCHER.execute(() -> fetch(chunk, generation, mine));
+            return f;
+        }
+
+        private void fetch(int chunk, int generation, CompletableFuture<Void> done) {
+            long offset = (long) chunk * chunkSize;
+            try {
+                fetchPermits.acquire();
+            } catch (InterruptedException ex) {
+                synchronized (DiskCache.this) {
+                    e.fetching.remove(chunk, done);
+                }
+                done.completeExceptionally(new InterruptedIOException());
+                return;
+            }
+            try {
+                ByteBuffer buf;
+                synchronized (DiskCache.this) {
+                    // Reset meanwhile: the chunk may not even exist anymore
+                    buf = e.generation == generation ? ByteBuffer.allocate(e.chunkLength(chunk)) : null;
+                }
+                if (buf != null) {
+                    while (buf.hasRemaining()) {
+                        if (remote.readAt(buf, offset + buf.position()) <= 0) {
+                            throw new IOException("Remote file shorter than expected: " + e.key);
+                        }
+                    }
+                    buf.flip();
+                    store(chunk, generation, buf);
+                }
+                synchronized (DiskCache.this) {
+                    e.fetching.remove(chunk, done);
+                }
+                done.complete(null);
+            } catch (IOException | RuntimeException ex) {
+                synchronized (DiskCache.this) {
+                    e.fetching.remove(chunk, done);
+                }
+                done.completeExceptionally(ex);
+            } finally {
+                fetchPermits.release();
+            }
+        }
+
+        /// Writes a fetched chunk, unless the entry was reset meanwhile
+        private void store(int chunk, int generation, ByteBuffer buf) throws IOException {
+            e.io.readLock().lock();
+            try {
+                FileChannel data;
+                synchronized (DiskCache.this) {
+                    if (e.generation != generation || e.present.get(chunk)) return;
+                    data = e.data;
+                }
+                if (data == null) throw new IOException("Cached file closed: " + e.key);
+                long offset = (long) chunk * chunkSize;
+                while (buf.hasRemaining()) {
+                    data.write(buf, offset + buf.position());
+                }
+                // Resets and closes wait for the read lock: the entry is still as checked above
+                synchronized (DiskCache.this) {
+                    e.present.set(chunk);
+                    e.bytes += buf.limit();
+                    usedBytes += buf.limit();
+                    e.dirty = true;
+                    evict();
+                }
+            } finally {
+                e.io.readLock().unlock();
+            }
+        }
+
+        private static void await(CompletableFuture<Void> f) throws IOException {
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException ignored) {
+                // Read through below: our own remote reports the error, if any
+            }
+        }
+
+        @Override
+        public long size() {
+            return e.size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            e.io.writeLock().lock();
+            try {
+                boolean last;
+                synchronized (DiskCache.this) {
+                    if (handleClosed) return;
+                    handleClosed = true;
+                    last = e.refs == 1;
+                }
+                try {
+                    // Still referenced, so not evicted meanwhile; opens wait for the lock
+                    if (last) closeData(e);
+                } finally {
+                    synchronized (DiskCache.this) {
+                        e.refs--;
+                        evict();
+                    }
+                }
+            } finally {
+                e.io.writeLock().unlock();
+                remote.close();
+            }
+        }
+    }
+
+    /// Persists and closes the data file of `e`, whose `io` write lock is held by the caller
+    private void closeData(Entry e) throws IOException {
+        FileChannel data;
+        try {
+            persist(e);
+        } finally {
+            synchronized (this) {
+                data = e.data;
+                e.data = null;
+            }
+            if (data != null) data.close();
+        }
+    }
+
+    /// Writes the index of `e`, whose `io` write lock is held by the caller and which is open, so not evicted
+    private void persist(Entry e) throws IOException {
+        String key;
+        long size;
+        long lastModified;
+        long[] words;
+        FileChannel data;
+        synchronized (this) {
+            if (!e.dirty || !entries.containsKey(e.key)) return;
+            key = e.key;
+            size = e.size;
+            lastModified = e.lastModified;
+            words = e.present.toLongArray();
+            data = e.data;
+        }
+        if (data != null) data.force(false);
+        Path tmp = dir.resolve(e.name + ".idx.tmp");
+        try (var out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(chunkSize);
+            out.writeUTF(key);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(words.length);
+            for (long w : words) out.writeLong(w);
+        }
+        Files.move(tmp, e.indexFile(), ATOMIC_MOVE, REPLACE_EXISTING);
+        synchronized (this) {
+            e.dirty = false;
+        }
+    }
+
+    /// Deletes the least recently opened files that are not open until the cache fits its budget
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Entry e = it.next();
+            if (e.refs > 0) continue;
+            it.remove();
+            usedBytes -= e.bytes;
+            try {
+                Files.deleteIfExists(e.indexFile());
+                Files.deleteIfExists(e.dataFile());
+            } catch (IOException ex) {
+                LOG.warn("Error deleting cached file {}", e.key, ex);
+            }
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /// Writes the indexes of the files still open, whose handles keep working. Opening files is no longer possible.
+    @Override
+    public void close() {
+        List<Entry> snapshot;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            snapshot = List.copyOf(entries.values());
+        }
+        for (Entry e : snapshot) {
+            e.io.writeLock().lock();
+            try {
+                boolean open;
+                synchronized (this) {
+                    // Closed files were persisted by their last handle, and may be evicted meanwhile
+                    open = e.refs > 0;
+                }
+                if (open) persist(e);
+            } catch (IOException ex) {
+                LOG.warn("Error writing cache index of {}", e.key, ex);
+            } finally {
+                e.io.writeLock().unlock();
+            }
+        }
+    }
+}
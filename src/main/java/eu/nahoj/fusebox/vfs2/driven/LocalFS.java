@@ -1,37 +1,139 @@
 package eu.nahoj.fusebox.vfs2.driven;
 
+import eu.nahoj.fusebox.common.api.FileAttributes;
 import eu.nahoj.fusebox.common.api.StatvfsData;
+import eu.nahoj.fusebox.common.watch.InvalidationBus;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.common.watch.TreeWatcher;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
 import one.util.streamex.StreamEx;
 import org.apache.commons.vfs2.FileObject;
-import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
 import org.cryptomator.jfuse.api.Statvfs;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static eu.nahoj.fusebox.common.api.FileAttributes.UNIX_ATTRIBUTE_KEYS;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.util.stream.Collectors.toCollection;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.STATFS;
 
 public class LocalFS extends VfsFS {
 
+    private final InvalidationBus invalidations = new InvalidationBus();
+    // Guarded by this
+    private @Nullable TreeWatcher watcher;
+
     public LocalFS(FileObject root) {
         super(root);
+        // First, so that the layers above resolve refreshed file objects
+        invalidations.register(InvalidationListener.of(this::refresh, this::refreshAll));
     }
 
     public static LocalFS at(String path) throws IOException {
-        return new LocalFS(VFS.getManager().resolveFile(Path.of(path).toUri()));
+        return new LocalFS(manager().resolveFile(Path.of(path).toUri()));
+    }
+
+    /// A manager with only the `file` provider, created on first use.
+    ///
+    /// [org.apache.commons.vfs2.VFS#getManager] instantiates every provider listed in commons-vfs's configuration,
+    /// most of them unused by a local mount, which makes up much of the startup time of a script.
+    public static FileSystemManager manager() {
+        return LocalManager.INSTANCE;
+    }
+
+    private static final class LocalManager {
+        static final FileSystemManager INSTANCE = create();
+
+        private static FileSystemManager create() {
+            var manager = new DefaultFileSystemManager();
+            try {
+                manager.addProvider("file", new DefaultLocalFileProvider());
+                manager.init();
+            } catch (FileSystemException e) {
+                throw new UncheckedIOException(e);
+            }
+            return manager;
+        }
+    }
+
+    /// Watches the root directory and publishes changes made behind the mount to the listeners registered with
+    /// [#addInvalidationListener], until [#stopWatching]
+    public synchronized LocalFS watchChanges() throws IOException {
+        if (watcher == null) watcher = TreeWatcher.start(root.getPath(), invalidations);
+        return this;
+    }
+
+    public synchronized void stopWatching() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        invalidations.register(listener);
+    }
+
+    /// Drops the type and children that commons-vfs keeps in the file objects of `path` and its parent
+    private void refresh(String path) {
+        try {
+            fileObject(path).refresh();
+            fileObject(FuseboxFS.parentPath(path)).refresh();
+        } catch (FileSystemException e) {
+            refreshAll();
+        }
+    }
+
+    private FileObject fileObject(String path) throws FileSystemException {
+        return path.isEmpty() ? root : root.resolveFile(path);
+    }
+
+    private void refreshAll() {
+        root.getFileSystem().getFileSystemManager().getFilesCache().clear(root.getFileSystem());
+        try {
+            root.refresh();
+        } catch (FileSystemException e) {
+            // Resolved afresh anyway
+        }
     }
 
     public FuseboxFile resolveFile(String path) throws IOException {
         return new LocalFuseboxFile(this, Path.of(path), root.resolveFile(path));
     }
 
+    /// Stats the children directly, without listing the directory
+    @Override
+    public Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) {
+        Path dir = root.getPath().resolve(dirPath);
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            try {
+                attrs.put(name, FileAttributes.ofUnixAttributes(
+                        Files.readAttributes(dir.resolve(name), UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS)));
+            } catch (IOException e) {
+                // Left out, see FuseboxFS.getAttributesBatch
+            }
+        }
+        return attrs;
+    }
+
     public Set<Operation> supportedOperations() {
         return StreamEx.of(LocalFuseboxFile.IMPLEMENTED_OPERATIONS)
                 .filter(this::backingFsSupportsOperation)
@@ -1,33 +1,39 @@
 package eu.nahoj.fusebox.vfs2.driven;
 
 import eu.nahoj.fusebox.common.api.FileAttributes;
-import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import eu.nahoj.fusebox.vfs2.util.FileChannelReadable;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.vfs2.FileObject;
-import org.cryptomator.jfuse.api.FileModes;
+import org.apache.commons.vfs2.FileTypeHasNoContentException;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
 
-import static eu.nahoj.fusebox.common.util.NullUtils.mapOrNull;
+import static eu.nahoj.fusebox.common.api.FileAttributes.UNIX_ATTRIBUTE_KEYS;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.READLINK;
+import static org.cryptomator.jfuse.api.FuseOperations.Operation.SYMLINK;
 
 /// Not named `LocalFile` to avoid confusion with vfs2's `LocalFile`.
 @Accessors(fluent = true)
 public class LocalFuseboxFile extends VfsFile {
 
     public static final Set<Operation> IMPLEMENTED_OPERATIONS =
-            SetUtils.union(VfsFile.IMPLEMENTED_OPERATIONS, EnumSet.of(READLINK));
+            SetUtils.union(VfsFile.IMPLEMENTED_OPERATIONS, EnumSet.of(READLINK, SYMLINK));
 
     @Getter
     private final LocalFS fs;
@@ -43,27 +49,16 @@ public class LocalFuseboxFile extends VfsFile {
 
     // Attributes
 
-    private static final String ATTRIBUTE_KEYS = "unix:mode,uid,gid,size," +
-            "creationTime,lastAccessTime,lastModifiedTime,ctime";
-
     @Override
     public FileAttributes getAttributes() throws IOException {
-        Map<String, Object> attrs = Files.readAttributes(getAbsolutePath(), ATTRIBUTE_KEYS, NOFOLLOW_LINKS);
-        int mode = (Integer) attrs.get("mode");
-        return FileAttributes.builder()
-                .type(FileType.fromMode(mode))
-                .suid((mode & 04000) != 0)
-                .sgid((mode & 02000) != 0)
-                .sticky((mode & 01000) != 0)
-                .permissions(FileModes.toPermissions(mode))
-                .uid((Integer) attrs.get("uid"))
-                .gid((Integer) attrs.get("gid"))
-                .size((Long) attrs.get("size"))
-                .creationTime(mapOrNull((FileTime) attrs.get("creationTime"), FileTime::toInstant))
-                .lastAccessTime(((FileTime) attrs.get("lastAccessTime")).toInstant())
-                .lastModifiedTime(((FileTime) attrs.get("lastModifiedTime")).toInstant())
-                .lastChangeTime(((FileTime) attrs.get("ctime")).toInstant())
-                .build();
+        Map<String, Object> attrs = Files.readAttributes(getAbsolutePath(), UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS);
+        return FileAttributes.ofUnixAttributes(attrs);
+    }
+
+    @Override
+    public FileKey fileKey() throws IOException {
+        return FileKey.ofUnixAttributes(
+                Files.readAttributes(getAbsolutePath(), FileKey.UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS));
     }
 
     @Override
@@ -79,4 +74,38 @@ public class LocalFuseboxFile extends VfsFile {
     public String getTargetPath() throws IOException {
         return Files.readSymbolicLink(getAbsolutePath()).toString();
     }
+
+    @Override
+    public void createSymbolicLink(String target) throws IOException {
+        Files.createSymbolicLink(getAbsolutePath(), Path.of(target));
+    }
+
+    // Moves
+
+    /// With rename(2), which is atomic and enforces the POSIX rules itself
+    @Override
+    public void moveTo(FuseboxFile target) throws IOException {
+        if (!(target instanceof LocalFuseboxFile t)) {
+            super.moveTo(target);
+            return;
+        }
+        Files.move(getAbsolutePath(), t.getAbsolutePath(), ATOMIC_MOVE);
+        // commons-vfs caches types and children
+        for (FileObject moved : new FileObject[]{fo, t.fo}) {
+            moved.refresh();
+            FileObject parent = moved.getParent();
+            if (parent != null) parent.refresh();
+        }
+    }
+
+    // Files
+
+    /// Reads with pread(2), so that concurrent reads of a handle run in parallel.
+    @Override
+    public FuseboxContent openReadable() throws IOException {
+        if (!Files.isRegularFile(getAbsolutePath(), NOFOLLOW_LINKS)) {
+            throw new FileTypeHasNoContentException("Not a regular file: " + fo.getName());
+        }
+        return new PositionalContent(new FileChannelReadable(FileChannel.open(getAbsolutePath(), READ)));
+    }
 }
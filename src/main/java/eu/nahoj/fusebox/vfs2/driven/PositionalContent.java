@@ -0,0 +1,64 @@
+package eu.nahoj.fusebox.vfs2.driven;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadChannel;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadable;
+import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Content over a {@link PositionalReadable}. {@link #readAt} goes straight to the readable, so concurrent reads of
+ * one handle are not serialized; only {@link #withByteChannel} callers share a locked channel.
+ */
+final class PositionalContent implements FuseboxContent {
+
+    private final PositionalReadable readable;
+    private final ThreadSafeSeekableByteChannel channel;
+    private volatile boolean closed = false;
+
+    PositionalContent(PositionalReadable readable) {
+        this.readable = readable;
+        this.channel = new ThreadSafeSeekableByteChannel(new PositionalReadChannel(readable::readAt, () -> {
+            try {
+                return readable.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    @Override
+    public int readAt(ByteBuffer dst, long offset) throws IOException {
+        return readable.readAt(dst, offset);
+    }
+
+    @Override
+    public long size() {
+        try {
+            return readable.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                readable.close();
+            }
+        }
+    }
+
+    @Override
+    public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) {
+        return function.apply(channel);
+    }
+}
@@ -1,28 +1,64 @@
 package eu.nahoj.fusebox.vfs2.driven;
 
+import eu.nahoj.fusebox.common.api.FileAttributes;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
-import lombok.RequiredArgsConstructor;
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.stream.Collectors.toCollection;
 
-@RequiredArgsConstructor
 public class VfsFS implements FuseboxFS {
 
     protected final FileObject root;
+    /// Local cache of file contents, for remote providers
+    protected final @Nullable DiskCache diskCache;
+
+    public VfsFS(FileObject root) {
+        this(root, null);
+    }
+
+    public VfsFS(FileObject root, @Nullable DiskCache diskCache) {
+        this.root = root;
+        this.diskCache = diskCache;
+    }
 
     public FuseboxFile resolveFile(String path) throws IOException {
         return new VfsFile(this, Path.of(path), root.resolveFile(path));
     }
 
+    /// One listing of the directory: providers such as SFTP fetch the children's attributes along with it
+    @Override
+    public Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) throws IOException {
+        Map<String, FileObject> children = new HashMap<>();
+        for (FileObject child : root.resolveFile(dirPath).getChildren()) {
+            children.put(child.getName().getBaseName(), child);
+        }
+        Path dir = Path.of(dirPath);
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            FileObject child = children.get(name);
+            if (child == null) continue;
+            try {
+                attrs.put(name, new VfsFile(this, dir.resolve(name), child).getAttributes());
+            } catch (IOException e) {
+                // Left out, see FuseboxFS.getAttributesBatch
+            }
+        }
+        return attrs;
+    }
+
     public Set<Operation> supportedOperations() {
         return VfsFile.IMPLEMENTED_OPERATIONS.stream()
                 .filter(this::backingFsSupportsOperation)
@@ -44,10 +80,8 @@ public class VfsFS implements FuseboxFS {
             // RANDOM_ACCESS_READ over READ_CONTENT since this implementation uses RandomAccessContent.
             case OPEN, READ, RELEASE -> fs.hasCapability(Capability.RANDOM_ACCESS_READ);
 
-            // Ambiguity: WRITE could map to WRITE_CONTENT or RANDOM_ACCESS_WRITE.
-            // We choose RANDOM_ACCESS_WRITE due to offset-based writes in FUSE.
-            case Operation.WRITE -> fs.hasCapability(Capability.RANDOM_ACCESS_WRITE);
-            case Operation.TRUNCATE -> fs.hasCapability(Capability.RANDOM_ACCESS_SET_LENGTH);
+            // Offset-based writes are staged locally and uploaded whole, see vfs2.driving.StagedWrites
+            case Operation.WRITE, Operation.TRUNCATE -> fs.hasCapability(Capability.WRITE_CONTENT);
 
             case Operation.UNLINK, Operation.RMDIR -> fs.hasCapability(Capability.DELETE);
             case Operation.RENAME -> fs.hasCapability(Capability.RENAME);
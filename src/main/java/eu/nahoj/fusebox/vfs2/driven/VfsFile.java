@@ -3,8 +3,11 @@ package eu.nahoj.fusebox.vfs2.driven;
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
 import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.api.IsDirectoryException;
 import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadable;
+import eu.nahoj.fusebox.vfs2.util.RandomAccessContentPool;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.experimental.Accessors;
@@ -15,7 +18,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.Arrays;
 import java.util.EnumSet;
@@ -35,7 +44,8 @@ public class VfsFile implements FuseboxFile {
     private static final Logger LOG = LoggerFactory.getLogger(VfsFile.class);
 
     public static final Set<Operation> IMPLEMENTED_OPERATIONS =
-            EnumSet.of(GET_ATTR, CHMOD, MKDIR, OPEN_DIR, READ_DIR, RELEASE_DIR, RMDIR, OPEN, READ, RELEASE, UNLINK);
+            EnumSet.of(GET_ATTR, CHMOD, MKDIR, OPEN_DIR, READ_DIR, RELEASE_DIR, RMDIR, CREATE, OPEN, READ, WRITE, TRUNCATE,
+                    FLUSH, FSYNC, RELEASE, UNLINK, RENAME);
 
     @Getter
     private final VfsFS fs;
@@ -123,19 +133,75 @@ public class VfsFile implements FuseboxFile {
     // Files
 
     @Override
-    public FuseboxContent openReadable() throws FileSystemException {
+    public FuseboxContent openReadable() throws IOException {
         LOG.trace("openReadable({})", fo.getName());
         if (!fo.getType().hasContent()) {
             throw new FileTypeHasNoContentException("Not a regular file: " + fo.getName());
         }
-        RandomAccessContent rac = requireNonNull(fo.getContent().getRandomAccessContent(RandomAccessMode.READ));
-        FuseboxContent readable = new RacContent(rac);
+        FileContent content = fo.getContent();
+        RandomAccessContent rac = requireNonNull(content.getRandomAccessContent(RandomAccessMode.READ));
+        PositionalReadable remote = new RandomAccessContentPool(
+                rac,
+                () -> requireNonNull(fo.getContent().getRandomAccessContent(RandomAccessMode.READ)),
+                RandomAccessContentPool.DEFAULT_MAX_INSTANCES);
+        if (fs.diskCache != null) {
+            remote = fs.diskCache.open(fo.getName().getFriendlyURI(), content.getSize(), lastModified(content), remote);
+        }
+        FuseboxContent readable = new PositionalContent(remote);
         LOG.trace("openReadable({}) -> success", fo.getName());
         return readable;
     }
 
+    @Override
+    public void createFile(Set<PosixFilePermission> permissions) throws IOException {
+        fo.createFile();
+        setPermissions(permissions);
+    }
+
+    @Override
+    public void writeContent(Path source) throws IOException {
+        LOG.trace("writeContent({})", fo.getName());
+        try (OutputStream out = fo.getContent().getOutputStream()) {
+            Files.copy(source, out);
+        }
+    }
+
+    /// 0 if the provider does not know
+    private static long lastModified(FileContent content) {
+        try {
+            return content.getLastModifiedTime();
+        } catch (FileSystemException e) {
+            return 0;
+        }
+    }
+
     @Override
     public void delete() throws IOException {
         if (!fo.delete()) throw new IOException("delete failed");
     }
+
+    /// With the checks of `rename(2)`, as commons-vfs deletes an existing target recursively. Providers that cannot
+    /// rename fall back to a copy and delete, which is not atomic.
+    @Override
+    public void moveTo(FuseboxFile target) throws IOException {
+        fo.moveTo(checkMove(target).fo);
+    }
+
+    /// The target, once checked that `rename(2)` would replace it: it must not be a non-empty directory, nor a
+    /// directory replacing a file or the reverse
+    protected VfsFile checkMove(FuseboxFile target) throws IOException {
+        if (!(target instanceof VfsFile t)) {
+            throw new ProviderMismatchException("Not a VFS file: " + target.path());
+        }
+        if (!fo.exists()) throw new NoSuchFileException(path.toString());
+        if (!t.fo.exists()) return t;
+        boolean directory = fo.isFolder();
+        if (t.fo.isFolder()) {
+            if (!directory) throw new IsDirectoryException();
+            if (t.fo.getChildren().length > 0) throw new DirectoryNotEmptyException(t.path.toString());
+        } else if (directory) {
+            throw new NotDirectoryException(t.path.toString());
+        }
+        return t;
+    }
 }
@@ -3,23 +3,29 @@ package eu.nahoj.fusebox.vfs2.driving;
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
 import eu.nahoj.fusebox.common.api.StatvfsData;
+import eu.nahoj.fusebox.common.util.HandleTable;
 import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
+import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.lang3.function.Consumers;
 import org.cryptomator.jfuse.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.lang.Nullable;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 
 import static eu.nahoj.fusebox.common.ExceptionHandler.catchErrno;
 
@@ -33,8 +39,15 @@ public class FuseboxOperations implements FuseOperations {
     private final Errno errno;
 
     // Manage open readable handles per file handle ID
-    private final Map<Long, FuseboxContent> handles = new ConcurrentHashMap<>();
-    private final AtomicLong nextFh = new AtomicLong(1);
+    private final HandleTable<FuseboxContent> handles = new HandleTable<>();
+
+    private final StagedWrites staged = new StagedWrites();
+
+    private static final Set<StandardOpenOption> WRITE_INTENT = EnumSet.of(
+            StandardOpenOption.APPEND,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+    );
 
     @Override
     public Errno errno() { return errno; }
@@ -77,16 +90,8 @@ public class FuseboxOperations implements FuseOperations {
         LOG.trace("getattr(path={}, fh={})", path, fi != null ? fi.getFh() : null);
         return catchErrno(errno, () -> {
             FuseboxFile f = delegate.resolveFile(normalizePath(path));
-            FileAttributes attr = f.getAttributes();
-            stat.setMode(attr.mode());
-            stat.setUid(attr.uid());
-            stat.setGid(attr.gid());
-            stat.aTime().set(attr.lastAccessTime());
-            stat.cTime().set(attr.lastChangeTime());
-            stat.mTime().set(attr.lastModifiedTime());
-            if (attr.creationTime() != null) stat.birthTime().set(attr.creationTime());
-            stat.setNLink((short) (attr.isDirectory() ? 2 : 1));
-            stat.setSize(attr.size());
+            FileAttributes attr = withStagedSize(normalizePath(path), f.getAttributes());
+            copyStat(attr, stat);
             LOG.trace("getattr(path={}) -> mode={}, size={}, dir={}",
                     path, Integer.toOctalString(attr.mode()), attr.size(), attr.isDirectory());
             return 0;
@@ -114,7 +119,12 @@ public class FuseboxOperations implements FuseOperations {
         });
     }
 
-    public int symlink(String target, String linkname) { return -errno.erofs(); }
+    public int symlink(String target, String linkname) {
+        return catchErrno(errno, () -> {
+            delegate.resolveFile(normalizePath(linkname)).createSymbolicLink(target);
+            return 0;
+        });
+    }
 
     // Directories
     public int mkdir(String path, int mode) {
@@ -134,6 +144,8 @@ public class FuseboxOperations implements FuseOperations {
         });
     }
 
+    /// With [FuseOperations#FUSE_READDIR_PLUS], entries come with their attributes, from one
+    /// [FuseboxFS#getAttributesBatch] for the directory; those it leaves out are looked up by the kernel as usual.
     public int readdir(String path, DirFiller filler, long offset, FileInfo fi, int flags) {
         LOG.trace("readdir(path={}, offset={}, flags={})", path, offset, flags);
         return catchErrno(errno, () -> {
@@ -142,14 +154,48 @@ public class FuseboxOperations implements FuseOperations {
             rc = filler.fill("..", Consumers.nop(), 0, 0);
             if (rc != 0) return -errno.eio();
 
-            for (DirEntry child : delegate.resolveFile(normalizePath(path)).getEntries()) {
-                rc = filler.fill(child.name(), Consumers.nop(), 0, 0);
+            String dir = normalizePath(path);
+            List<DirEntry> children = delegate.resolveFile(dir).getEntries();
+            Map<String, FileAttributes> attrs = (flags & FUSE_READDIR_PLUS) != 0
+                    ? attributesOrNone(dir, children)
+                    : Map.of();
+            for (DirEntry child : children) {
+                FileAttributes attr = attrs.get(child.name());
+                rc = attr != null
+                        ? filler.fill(child.name(), stat -> copyStat(attr, stat), 0, DirFiller.FUSE_FILL_DIR_PLUS)
+                        : filler.fill(child.name(), Consumers.nop(), 0, 0);
                 if (rc != 0) return -errno.eio();
             }
             return 0;
         });
     }
 
+    private Map<String, FileAttributes> attributesOrNone(String dir, List<DirEntry> children) {
+        try {
+            Map<String, FileAttributes> attrs = new LinkedHashMap<>(
+                    delegate.getAttributesBatch(dir, children.stream().map(DirEntry::name).toList()));
+            for (Map.Entry<String, FileAttributes> e : attrs.entrySet()) {
+                e.setValue(withStagedSize(FuseboxFS.childPath(dir, e.getKey()), e.getValue()));
+            }
+            return attrs;
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("getAttributesBatch({}) failed, listing without attributes", dir, e);
+            return Map.of();
+        }
+    }
+
+    /// The FS only sees staged content once uploaded
+    private FileAttributes withStagedSize(String path, FileAttributes attr) throws IOException {
+        Long stagedSize = staged.stagedSize(path);
+        return stagedSize != null ? attr.withSize(stagedSize) : attr;
+    }
+
+    private static void copyStat(FileAttributes attr, Stat stat) {
+        attr.copyTo(stat);
+        // Should be 2 + subdir count for dirs, but it is probably not worth computing
+        stat.setNLink((short) (attr.isDirectory() ? 2 : 1));
+    }
+
     public int releasedir(@Nullable String path, FileInfo fi) {
         LOG.trace("releasedir(path={}, fh={})", path, fi.getFh());
         return 0; // no-op
@@ -166,10 +212,19 @@ public class FuseboxOperations implements FuseOperations {
     public int open(String path, FileInfo fi) {
         LOG.trace("open(path={}, flags={})", path, fi.getFlags());
         return catchErrno(errno, () -> {
-            FuseboxFile f = delegate.resolveFile(normalizePath(path));
-            FuseboxContent r = f.openReadable();
-            long fh = nextFh.getAndIncrement();
-            handles.put(fh, r);
+            String p = normalizePath(path);
+            FuseboxFile f = delegate.resolveFile(p);
+            Set<StandardOpenOption> flags = fi.getOpenFlags();
+            FuseboxContent r;
+            if (!SetUtils.intersection(flags, WRITE_INTENT).isEmpty()) {
+                if (!supportedOperations().contains(Operation.WRITE)) return -errno.erofs();
+                checkWritable(f);
+                r = staged.open(p, f, flags.contains(StandardOpenOption.TRUNCATE_EXISTING), true);
+            } else {
+                r = staged.openIfStaged(p);
+                if (r == null) r = f.openReadable();
+            }
+            long fh = handles.add(r);
             fi.setFh(fh);
             LOG.trace("open(path={}) -> fh={}", path, fh);
             return 0;
@@ -190,19 +245,59 @@ public class FuseboxOperations implements FuseOperations {
                 dst.limit(dst.position() + cap);
             }
             // Read
-            int n = r.withByteChannelUncheckedIO(channel -> channel.readAt(dst, offset));
-            if (dst != buf) buf.position(buf.position() + Math.max(0, n));
+            int n = Math.max(0, r.readAt(dst, offset));
+            if (dst != buf) buf.position(buf.position() + n);
             LOG.trace("read(path={}, fh={}) -> {} bytes (requested {})",
                     path, fi.getFh(), n, Math.min(count, buf.remaining()));
             return n;
         });
     }
 
+    public int create(String path, int mode, FileInfo fi) {
+        LOG.trace("create(path={}, mode={})", path, Integer.toOctalString(mode));
+        return catchErrno(errno, () -> {
+            String p = normalizePath(path);
+            FuseboxFile f = delegate.resolveFile(p);
+            f.createFile(FileModes.toPermissions(mode));
+            fi.setFh(handles.add(staged.open(p, f, true, true)));
+            return 0;
+        });
+    }
+
     public int write(String path, ByteBuffer buf, long count, long offset, FileInfo fi) {
-        return -errno.erofs();
+        LOG.trace("write(path={}, fh={}, count={}, offset={})", path, fi.getFh(), count, offset);
+        return catchErrno(errno, () -> {
+            if (!(handles.get(fi.getFh()) instanceof StagedWrites.StagedContent h) || !h.isWriter()) {
+                return -errno.ebadf();
+            }
+            ByteBuffer src = buf.remaining() > count ? buf.slice(buf.position(), (int) count) : buf;
+            int n = h.write(src, offset);
+            if (src != buf) buf.position(buf.position() + n);
+            return n;
+        });
+    }
+
+    public int truncate(String path, long size, @Nullable FileInfo fi) {
+        LOG.trace("truncate(path={}, size={})", path, size);
+        return catchErrno(errno, () -> {
+            if (fi != null && handles.get(fi.getFh()) instanceof StagedWrites.StagedContent h && h.isWriter()) {
+                h.truncate(size);
+                return 0;
+            }
+            String p = normalizePath(path);
+            FuseboxFile f = delegate.resolveFile(p);
+            checkWritable(f);
+            try (var h = staged.open(p, f, size == 0, true)) {
+                h.truncate(size);
+            }
+            return 0;
+        });
     }
 
-    public int truncate(String path, long size, @Nullable FileInfo fi) { return -errno.erofs(); }
+    /// Layers such as mapped contents report no write bits, and would otherwise only refuse the upload on release
+    private static void checkWritable(FuseboxFile f) throws IOException {
+        if (!f.getAttributes().writable()) throw new AccessDeniedException(f.path().toString());
+    }
 
     public int release(String path, FileInfo fi) {
         LOG.trace("release(path={}, fh={})", path, fi.getFh());
@@ -216,25 +311,63 @@ public class FuseboxOperations implements FuseOperations {
 
     public int unlink(String path) {
         return catchErrno(errno, () -> {
-            delegate.resolveFile(normalizePath(path)).delete();
+            String p = normalizePath(path);
+            staged.deleting(p);
+            try {
+                delegate.resolveFile(p).delete();
+            } catch (IOException | RuntimeException e) {
+                staged.notDeleted(p);
+                throw e;
+            }
+            staged.deleted(p);
             return 0;
         });
     }
 
-    public int rename(String oldpath, String newpath, int flags) { return -errno.erofs(); }
-
+    public int rename(String oldpath, String newpath, int flags) {
+        LOG.trace("rename(oldpath={}, newpath={}, flags={})", oldpath, newpath, flags);
+        // RENAME_NOREPLACE and RENAME_EXCHANGE cannot be honored atomically through the FS
+        if (flags != 0) return -errno.einval();
+        return catchErrno(errno, () -> {
+            String oldP = normalizePath(oldpath);
+            String newP = normalizePath(newpath);
+            staged.syncPath(oldP);
+            FuseboxFile target = delegate.resolveFile(newP);
+            delegate.resolveFile(oldP).moveTo(target);
+            staged.renamed(oldP, newP, target, delegate::resolveFile);
+            return 0;
+        });
+    }
 
     // Finish
     public void destroy() {
         LOG.trace("destroy() - closing {} leaked handles if any", handles.size());
         // close any leaked handles just in case
-        handles.values().forEach(h -> {
+        handles.clear().forEach(h -> {
             try { h.close(); } catch (Exception ignore) {}
         });
-        handles.clear();
+        staged.close();
+    }
+
+    /// Reports a failed upload of the handle's file; the upload itself happens on release
+    public int flush(String path, FileInfo fi) {
+        return catchErrno(errno, () -> {
+            if (handles.get(fi.getFh()) instanceof StagedWrites.StagedContent h) {
+                IOException failure = h.failure();
+                if (failure != null) throw failure;
+            }
+            return 0;
+        });
+    }
+
+    public int fsync(String path, int datasync, FileInfo fi) {
+        return catchErrno(errno, () -> {
+            if (handles.get(fi.getFh()) instanceof StagedWrites.StagedContent h) {
+                h.sync();
+            }
+            return 0;
+        });
     }
 
-    public int flush(String path, FileInfo fi) { return 0; }
-    public int fsync(String path, int datasync, FileInfo fi) { return 0; }
     public int fsyncdir(@Nullable String path, int datasync, FileInfo fi) { return 0; }
 }
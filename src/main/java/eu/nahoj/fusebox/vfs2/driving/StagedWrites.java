@@ -0,0 +1,563 @@
+package eu.nahoj.fusebox.vfs2.driving;
+
+import eu.nahoj.fusebox.common.util.ExceptionUtils.ThrowingFunction;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadChannel;
+import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/// Local staging of the files written through [FuseboxOperations]
+///
+/// - A file opened for writing is copied to a local staging file, unless it is truncated on open. All the handles
+///   opened on the path while it is staged share that file, readers included, so they see the writes at once and
+///   writes go at local disk speed.
+/// - When the last writer releases it, or on `fsync`, the staging file is uploaded with [FuseboxFile#writeContent],
+///   on a bounded pool of threads. Writes during an upload make another upload follow it. The staging file is dropped
+///   once uploaded and no longer open.
+/// - A failed upload is retried with backoff. If every attempt fails, the staging file is kept, the error is reported
+///   by the next `flush` or `fsync` of a handle on the path, and the upload is attempted again on the next release.
+final class StagedWrites implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StagedWrites.class);
+
+    static final int DEFAULT_UPLOAD_THREADS = 4;
+    static final int MAX_ATTEMPTS = 3;
+    static final Duration DEFAULT_RETRY_DELAY = Duration.ofMillis(500);
+    static final Duration CLOSE_TIMEOUT = Duration.ofMinutes(5);
+
+    private final Duration retryDelay;
+    private final ExecutorService uploader;
+
+    // Guarded by this
+    private final Map<String, CompletableFuture<StagedFile>> files = new HashMap<>();
+    private @Nullable Path dir;
+
+    StagedWrites() {
+        this(DEFAULT_UPLOAD_THREADS, DEFAULT_RETRY_DELAY);
+    }
+
+    StagedWrites(int uploadThreads, Duration retryDelay) {
+        this.retryDelay = retryDelay;
+        this.uploader = Executors.newFixedThreadPool(uploadThreads, Thread.ofPlatform()
+                .name("fusebox-upload-", 0)
+                .daemon()
+                .factory());
+    }
+
+    final class StagedFile {
+        private final Path local;
+        private final FileChannel channel;
+
+        // Guarded by StagedWrites.this
+        private String path;
+        private FuseboxFile file;
+        private int refs;
+        private int writers;
+        private long version;
+        private long uploadedVersion;
+        private @Nullable CompletableFuture<Void> upload;
+        private @Nullable IOException failure;
+        /// Set while the file is being deleted, to hold back uploads that would recreate it
+        private boolean deleting;
+        private boolean deleted;
+
+        private StagedFile(String path, FuseboxFile file, Path local) throws IOException {
+            this.path = path;
+            this.file = file;
+            this.local = local;
+            this.channel = FileChannel.open(local, READ, WRITE);
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+    }
+
+    /// A handle on a staged file
+    final class StagedContent implements FuseboxContent {
+
+        private final StagedFile staged;
+        private final boolean writer;
+        private boolean closed;
+
+        private StagedContent(StagedFile staged, boolean writer) {
+            this.staged = staged;
+            this.writer = writer;
+        }
+
+        boolean isWriter() {
+            return writer;
+        }
+
+        @Override
+        public int readAt(ByteBuffer dst, long offset) throws IOException {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = staged.channel.read(dst, offset + total);
+                if (n < 0) return total == 0 ? -1 : total;
+                total += n;
+            }
+            return total;
+        }
+
+        int write(ByteBuffer src, long offset) throws IOException {
+            int total = 0;
+            while (src.hasRemaining()) {
+                total += staged.channel.write(src, offset + total);
+            }
+            modified(staged);
+            return total;
+        }
+
+        void truncate(long size) throws IOException {
+            StagedWrites.this.truncate(staged, size);
+        }
+
+        /// Waits for the content written so far to be uploaded
+        void sync() throws IOException {
+            StagedWrites.this.sync(staged);
+        }
+
+        /// @return the error of the last upload, if it failed
+        @Nullable
+        IOException failure() {
+            synchronized (StagedWrites.this) {
+                return staged.failure;
+            }
+        }
+
+        @Override
+        public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) throws IOException {
+            try (var channel = new ThreadSafeSeekableByteChannel(new PositionalReadChannel(this::readAt, this::size))) {
+                return function.apply(channel);
+            }
+        }
+
+        @Override
+        public long size() {
+            try {
+                return staged.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (StagedWrites.this) {
+                if (closed) return;
+                closed = true;
+            }
+            release(staged, writer);
+        }
+    }
+
+    /// Stages `file` if it is not already, and opens a handle on it
+    ///
+    /// @param truncate whether to empty the file rather than copy its current content
+    StagedContent open(String path, FuseboxFile file, boolean truncate, boolean writer) throws IOException {
+        CompletableFuture<StagedFile> mine = new CompletableFuture<>();
+        CompletableFuture<StagedFile> existing;
+        Path stagingDir;
+        synchronized (this) {
+            stagingDir = stagingDir();
+            existing = files.putIfAbsent(path, mine);
+        }
+        if (existing != null) {
+            StagedFile staged = join(existing);
+            synchronized (this) {
+                if (files.get(path) == existing) {
+                    staged.refs++;
+                    if (writer) staged.writers++;
+                    if (truncate) {
+                        staged.channel.truncate(0);
+                        staged.version++;
+                    }
+                    return new StagedContent(staged, writer);
+                }
+            }
+            // Dropped meanwhile
+            return open(path, file, truncate, writer);
+        }
+
+        StagedFile staged;
+        try {
+            staged = new StagedFile(path, file, Files.createTempFile(stagingDir, "staged", null));
+            if (!truncate) {
+                download(file, staged.channel);
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                files.remove(path, mine);
+            }
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            staged.refs++;
+            if (writer) staged.writers++;
+            // A file truncated on open has changed even if it is not written
+            if (truncate) staged.version++;
+        }
+        mine.complete(staged);
+        return new StagedContent(staged, writer);
+    }
+
+    /// Opens a reader on the staged file at `path`, if any
+    @Nullable
+    StagedContent openIfStaged(String path) throws IOException {
+        CompletableFuture<StagedFile> f;
+        synchronized (this) {
+            f = files.get(path);
+        }
+        if (f == null) return null;
+        StagedFile staged;
+        try {
+            staged = join(f);
+        } catch (IOException e) {
+            return null;
+        }
+        synchronized (this) {
+            if (files.get(path) != f) return null;
+            staged.refs++;
+        }
+        return new StagedContent(staged, false);
+    }
+
+    /// Size of the staged file at `path`, if any and if ready
+    @Nullable
+    Long stagedSize(String path) throws IOException {
+        CompletableFuture<StagedFile> f;
+        synchronized (this) {
+            f = files.get(path);
+        }
+        return f != null && f.isDone() && !f.isCompletedExceptionally() ? f.join().size() : null;
+    }
+
+    private Path stagingDir() throws IOException {
+        if (dir == null) {
+            dir = Files.createTempDirectory("fusebox-staging");
+        }
+        return dir;
+    }
+
+    private static void download(FuseboxFile file, FileChannel channel) throws IOException {
+        try (FuseboxContent content = file.openReadable()) {
+            ByteBuffer buf = ByteBuffer.allocate(128 * 1024);
+            long offset = 0;
+            while (content.readAt(buf.clear(), offset) > 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    offset += channel.write(buf, offset);
+                }
+            }
+        }
+    }
+
+    private static StagedFile join(CompletableFuture<StagedFile> f) throws IOException {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw e;
+        }
+    }
+
+    private synchronized void modified(StagedFile staged) {
+        staged.version++;
+    }
+
+    private void truncate(StagedFile staged, long size) throws IOException {
+        synchronized (this) {
+            long current = staged.channel.size();
+            if (size < current) {
+                staged.channel.truncate(size);
+            } else if (size > current) {
+                staged.channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            staged.version++;
+        }
+    }
+
+    private void release(StagedFile staged, boolean writer) {
+        synchronized (this) {
+            staged.refs--;
+            if (writer) staged.writers--;
+            scheduleUploadIfPendingLocked(staged);
+            dropIfIdleLocked(staged);
+        }
+    }
+
+    private void scheduleUploadIfPendingLocked(StagedFile staged) {
+        if (staged.writers == 0 && staged.version != staged.uploadedVersion && !staged.deleted && !staged.deleting) {
+            scheduleUploadLocked(staged);
+        }
+    }
+
+    private void sync(StagedFile staged) throws IOException {
+        CompletableFuture<Void> upload;
+        synchronized (this) {
+            if (staged.version == staged.uploadedVersion) return;
+            upload = scheduleUploadLocked(staged);
+        }
+        try {
+            upload.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> scheduleUploadLocked(StagedFile staged) {
+        if (staged.upload != null) return staged.upload;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        staged.upload = done;
+        uploader.execute(() -> upload(staged, done));
+        return done;
+    }
+
+    /// Uploads until the uploaded version is the latest
+    private void upload(StagedFile staged, CompletableFuture<Void> done) {
+        IOException failure = null;
+        while (true) {
+            long version;
+            FuseboxFile file;
+            synchronized (this) {
+                if (staged.deleted || staged.deleting || staged.version == staged.uploadedVersion) break;
+                version = staged.version;
+                file = staged.file;
+            }
+            try {
+                uploadWithRetries(staged, file);
+            } catch (IOException e) {
+                failure = e;
+                break;
+            }
+            synchronized (this) {
+                staged.uploadedVersion = version;
+            }
+        }
+        synchronized (this) {
+            staged.upload = null;
+            staged.failure = failure;
+            dropIfIdleLocked(staged);
+        }
+        if (failure == null) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(failure);
+        }
+    }
+
+    private void uploadWithRetries(StagedFile staged, FuseboxFile file) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                file.writeContent(staged.local);
+                return;
+            } catch (IOException | RuntimeException e) {
+                String path;
+                synchronized (this) {
+                    path = staged.path;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    LOG.error("Upload of {} failed after {} attempts", path, attempt, e);
+                    throw e instanceof IOException ioe ? ioe : new IOException(e);
+                }
+                LOG.warn("Upload of {} failed (attempt {}/{}), retrying", path, attempt, MAX_ATTEMPTS, e);
+                try {
+                    Thread.sleep(retryDelay.multipliedBy(1L << (attempt - 1)));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Upload of " + path + " interrupted");
+                }
+            }
+        }
+    }
+
+    private void dropIfIdleLocked(StagedFile staged) {
+        boolean uploaded = staged.deleted || staged.version == staged.uploadedVersion;
+        if (staged.refs > 0 || staged.upload != null || !uploaded) return;
+        CompletableFuture<StagedFile> f = files.get(staged.path);
+        if (f != null && f.isDone() && !f.isCompletedExceptionally() && f.join() == staged) {
+            files.remove(staged.path);
+        }
+        try {
+            staged.channel.close();
+            Files.deleteIfExists(staged.local);
+        } catch (IOException e) {
+            LOG.warn("Error deleting staging file {}", staged.local, e);
+        }
+    }
+
+    /// Waits for pending uploads of the file at `path` and of the files under it, so that the FS sees their latest
+    /// content
+    void syncPath(String path) throws IOException {
+        List<CompletableFuture<StagedFile>> under;
+        synchronized (this) {
+            under = new ArrayList<>();
+            files.forEach((p, f) -> {
+                if (isUnder(p, path)) under.add(f);
+            });
+        }
+        for (CompletableFuture<StagedFile> f : under) {
+            sync(join(f));
+        }
+    }
+
+    private static boolean isUnder(String path, String dir) {
+        return path.equals(dir) || path.startsWith(dir) && path.charAt(dir.length()) == '/';
+    }
+
+    /// The file at `path` is about to be deleted: waits for its upload in flight, if any, and holds back new ones
+    /// until [#deleted] or [#notDeleted]
+    void deleting(String path) {
+        CompletableFuture<Void> upload;
+        synchronized (this) {
+            StagedFile staged = stagedLocked(path);
+            if (staged == null) return;
+            staged.deleting = true;
+            upload = staged.upload;
+        }
+        if (upload != null) {
+            try {
+                upload.join();
+            } catch (CompletionException e) {
+                // Reported to the handles, and moot once the file is deleted
+            }
+        }
+    }
+
+    /// The deletion announced by [#deleting] failed: the staged content is uploaded again
+    void notDeleted(String path) {
+        synchronized (this) {
+            StagedFile staged = stagedLocked(path);
+            if (staged == null) return;
+            staged.deleting = false;
+            scheduleUploadIfPendingLocked(staged);
+        }
+    }
+
+    /// The file at `path` was deleted: its staged content is no longer uploaded
+    void deleted(String path) {
+        synchronized (this) {
+            deletedLocked(path);
+        }
+    }
+
+    @Nullable
+    private StagedFile stagedLocked(String path) {
+        CompletableFuture<StagedFile> f = files.get(path);
+        return f == null || !f.isDone() || f.isCompletedExceptionally() ? null : f.join();
+    }
+
+    private void deletedLocked(String path) {
+        CompletableFuture<StagedFile> f = files.remove(path);
+        if (f == null || !f.isDone() || f.isCompletedExceptionally()) return;
+        StagedFile staged = f.join();
+        staged.deleted = true;
+        dropIfIdleLocked(staged);
+    }
+
+    /// The file at `oldPath` was moved to `newFile` at `newPath`: its staged content follows it, and that of the file
+    /// it replaced is no longer uploaded, since it would overwrite the moved file. If it is a directory, the staged
+    /// files under it follow it too, to the files that `resolve` gives at their new paths.
+    ///
+    /// @throws IOException if a file under `newPath` cannot be resolved; nothing is moved then
+    void renamed(String oldPath, String newPath, FuseboxFile newFile,
+                 ThrowingFunction<String, FuseboxFile> resolve) throws IOException {
+        List<String> children = new ArrayList<>();
+        synchronized (this) {
+            for (String p : files.keySet()) {
+                if (!p.equals(oldPath) && isUnder(p, oldPath)) children.add(p);
+            }
+        }
+        Map<String, FuseboxFile> targets = new HashMap<>();
+        for (String child : children) {
+            String target = newPath + child.substring(oldPath.length());
+            targets.put(target, resolve.apply(target));
+        }
+        synchronized (this) {
+            deletedLocked(newPath);
+            moveLocked(oldPath, newPath, newFile);
+            for (String child : children) {
+                String target = newPath + child.substring(oldPath.length());
+                moveLocked(child, target, targets.get(target));
+            }
+        }
+    }
+
+    private void moveLocked(String oldPath, String newPath, FuseboxFile newFile) {
+        CompletableFuture<StagedFile> f = files.remove(oldPath);
+        if (f == null) return;
+        files.put(newPath, f);
+        if (f.isDone() && !f.isCompletedExceptionally()) {
+            StagedFile staged = f.join();
+            staged.path = newPath;
+            staged.file = newFile;
+        }
+    }
+
+    /// Uploads what is pending, waiting at most [#CLOSE_TIMEOUT], then drops the staging files
+    @Override
+    public void close() {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        synchronized (this) {
+            for (CompletableFuture<StagedFile> f : files.values()) {
+                if (!f.isDone() || f.isCompletedExceptionally()) continue;
+                StagedFile staged = f.join();
+                if (staged.version != staged.uploadedVersion && !staged.deleted) {
+                    pending.add(scheduleUploadLocked(staged));
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new))
+                    .get(CLOSE_TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+        } catch (Exception e) {
+            LOG.error("Some staged files could not be uploaded; they are kept in {}", dir, e);
+            uploader.shutdownNow();
+            return;
+        }
+        uploader.shutdown();
+        synchronized (this) {
+            for (CompletableFuture<StagedFile> f : List.copyOf(files.values())) {
+                if (!f.isDone() || f.isCompletedExceptionally()) continue;
+                StagedFile staged = f.join();
+                staged.refs = 0;
+                dropIfIdleLocked(staged);
+            }
+            if (files.isEmpty() && dir != null) {
+                try {
+                    Files.deleteIfExists(dir);
+                } catch (IOException e) {
+                    LOG.warn("Error deleting staging directory {}", dir, e);
+                }
+            }
+        }
+    }
+}
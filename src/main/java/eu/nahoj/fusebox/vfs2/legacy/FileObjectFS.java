@@ -3,7 +3,7 @@ package eu.nahoj.fusebox.vfs2.legacy;
 import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
-import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.util.HandleTable;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,7 +11,6 @@ import lombok.val;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.vfs2.FileObject;
 import org.cryptomator.jfuse.api.FileInfo;
-import org.cryptomator.jfuse.api.FileModes;
 import org.cryptomator.jfuse.api.FuseConfig;
 import org.cryptomator.jfuse.api.FuseConnInfo;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
@@ -26,19 +25,15 @@ import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicLong;
 
+import static eu.nahoj.fusebox.common.api.FileAttributes.UNIX_ATTRIBUTE_KEYS;
 import static eu.nahoj.fusebox.common.util.ExceptionUtils.uncheckedIO;
-import static eu.nahoj.fusebox.common.util.NullUtils.mapOrNull;
 import static eu.nahoj.fusebox.common.util.SetUtils.enumSetCopy;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static org.cryptomator.jfuse.api.FuseOperations.Operation.DESTROY;
@@ -60,8 +55,7 @@ public class FileObjectFS implements FuseboxFS {
     private record OpenHandle(FileObject fo, FileChannel fc) {
     }
 
-    private final ConcurrentMap<Long, OpenHandle> openFiles = new ConcurrentHashMap<>();
-    private final AtomicLong fileHandleGen = new AtomicLong(1L);
+    private final HandleTable<OpenHandle> openFiles = new HandleTable<>();
 
     @Override
     public Set<Operation> supportedOperations() {
@@ -74,7 +68,8 @@ public class FileObjectFS implements FuseboxFS {
 
     private FileObject resolve(String fusePath, @Nullable FileInfo fi) {
         return Optional.ofNullable(fi)
-                .map(fi_ -> openFiles.get(fi_.getFh()).fo())
+                .map(fi_ -> openFiles.get(fi_.getFh()))
+                .map(OpenHandle::fo)
                 .orElseGet(uncheckedIO(() ->
                         root.resolveFile(StringUtils.stripStart(fusePath, "/"))));
     }
@@ -88,27 +83,11 @@ public class FileObjectFS implements FuseboxFS {
     }
 
     // Attributes
-    private static final String ATTRIBUTE_KEYS = "unix:mode,uid,gid,size," +
-            "creationTime,lastAccessTime,lastModifiedTime,ctime";
     public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
         LOG.trace("getattr {}", path);
         Path p = resolve(path, fi).getPath();
-        Map<String, Object> attrs = Files.readAttributes(p, ATTRIBUTE_KEYS, NOFOLLOW_LINKS); // Throws enotsup
-        int mode = (Integer) attrs.get("mode");
-        return FileAttributes.builder()
-                .type(FileType.fromMode(mode))
-                .suid((mode & 04000) != 0)
-                .sgid((mode & 02000) != 0)
-                .sticky((mode & 01000) != 0)
-                .permissions(FileModes.toPermissions(mode))
-                .uid((Integer) attrs.get("uid"))
-                .gid((Integer) attrs.get("gid"))
-                .size((Long) attrs.get("size"))
-                .creationTime(mapOrNull((FileTime) attrs.get("creationTime"), FileTime::toInstant))
-                .lastAccessTime(((FileTime) attrs.get("lastAccessTime")).toInstant())
-                .lastModifiedTime(((FileTime) attrs.get("lastModifiedTime")).toInstant())
-                .lastChangeTime(((FileTime) attrs.get("ctime")).toInstant())
-                .build();
+        Map<String, Object> attrs = Files.readAttributes(p, UNIX_ATTRIBUTE_KEYS, NOFOLLOW_LINKS); // Throws enotsup
+        return FileAttributes.ofUnixAttributes(attrs);
     }
 
     // Directories
@@ -160,9 +139,8 @@ public class FileObjectFS implements FuseboxFS {
             }
             // Open native FileChannel on the underlying POSIX path to avoid VFS content closing our stream.
             fc = FileChannel.open(fo.getPath(), flags);
-            long fh = fileHandleGen.incrementAndGet();
+            long fh = openFiles.add(new OpenHandle(fo, fc));
             fi.setFh(fh);
-            openFiles.put(fh, new OpenHandle(fo, fc));
             LOG.trace("open ok {} fh={}", path, fh);
             success = true;
         } catch (IOException e) {
@@ -215,7 +193,7 @@ public class FileObjectFS implements FuseboxFS {
         if (!openFiles.isEmpty()) {
             LOG.warn("Found unclosed files when unmounting...");
         }
-        openFiles.forEach((_, h) -> {
+        openFiles.clear().forEach(h -> {
             try { h.fc.close(); } catch (IOException ignore) {}
         });
     }
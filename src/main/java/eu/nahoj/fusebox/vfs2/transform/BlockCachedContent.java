@@ -0,0 +1,60 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import eu.nahoj.fusebox.common.cache.BlockCache.FileVersion;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadChannel;
+import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Read-only content whose reads go through a shared {@link BlockCache}.
+ */
+public final class BlockCachedContent implements FuseboxContent {
+
+    private final FuseboxContent delegate;
+    private final BlockCache cache;
+    private final FileVersion version;
+    private final ThreadSafeSeekableByteChannel channel;
+
+    public BlockCachedContent(FuseboxContent delegate, BlockCache cache, FileVersion version) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.version = version;
+        this.channel = new ThreadSafeSeekableByteChannel(new PositionalReadChannel(this::readCached, version::size));
+    }
+
+    private int readCached(ByteBuffer dst, long offset) throws IOException {
+        return cache.read(version, delegate::readAt, dst, offset);
+    }
+
+    /** Straight to the cache, which serves concurrent hits in parallel. */
+    @Override
+    public int readAt(ByteBuffer dst, long offset) throws IOException {
+        if (!dst.hasRemaining()) return 0;
+        int n = readCached(dst, offset);
+        return n > 0 ? n : -1;
+    }
+
+    @Override
+    public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) {
+        return function.apply(channel);
+    }
+
+    @Override
+    public long size() {
+        return version.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            delegate.close();
+        }
+    }
+}
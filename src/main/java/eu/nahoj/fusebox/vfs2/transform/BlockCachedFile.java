@@ -0,0 +1,68 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import eu.nahoj.fusebox.common.cache.BlockCache.FileVersion;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * File wrapper whose readable handles go through a shared {@link BlockCache}, keyed by size and modification time, and
+ * by the file's {@link FileKey} where the delegate exposes one, or else by FS and path.
+ * <p>
+ * Blocks keyed by path are dropped when the file is deleted, moved or replaced through this wrapper; those of files
+ * under a moved directory age out.
+ */
+@RequiredArgsConstructor
+public class BlockCachedFile implements DecoratedFile {
+
+    private final FuseboxFile delegate;
+    private final BlockCache cache;
+
+    @Override
+    public FuseboxFS fs() {
+        return delegate().fs();
+    }
+
+    @Override
+    public FuseboxFile delegate() {
+        return delegate;
+    }
+
+    @Override
+    public FuseboxContent openReadable() throws IOException {
+        FileAttributes attrs = delegate.getAttributes();
+        FileKey key = delegate.fileKey();
+        FileVersion version = key != null
+                ? new FileVersion(key, "", attrs.size(), attrs.lastModifiedNanos())
+                : new FileVersion(fs(), path().toString(), attrs.size(), attrs.lastModifiedNanos());
+        return new BlockCachedContent(delegate.openReadable(), cache, version);
+    }
+
+    @Override
+    public void delete() throws IOException {
+        DecoratedFile.super.delete();
+        cache.invalidate(fs(), path().toString());
+    }
+
+    @Override
+    public void moveTo(FuseboxFile target) throws IOException {
+        DecoratedFile.super.moveTo(target);
+        cache.invalidate(fs(), path().toString());
+        cache.invalidate(fs(), target.path().toString());
+    }
+
+    @Override
+    public void writeContent(Path source) throws IOException {
+        FileKey key = delegate.fileKey();
+        DecoratedFile.super.writeContent(source);
+        if (key != null) cache.invalidate(key, "");
+        cache.invalidate(fs(), path().toString());
+    }
+}
@@ -0,0 +1,71 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadChannel;
+import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * In-memory content. {@link #readAt} copies from the shared buffer with absolute gets, so concurrent reads neither
+ * lock nor allocate a channel.
+ */
+public final class BytesContent implements FuseboxContent {
+
+    private final ByteBuffer data;
+
+    public BytesContent(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /** Keeps a read-only view of the remaining bytes of {@code data}, which must not be modified afterwards. */
+    public BytesContent(ByteBuffer data) {
+        this.data = data.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readAt(ByteBuffer dst, long offset) {
+        if (offset >= data.limit()) return -1;
+        int n = (int) Math.min(dst.remaining(), data.limit() - offset);
+        dst.put(dst.position(), data, (int) offset, n);
+        dst.position(dst.position() + n);
+        return n;
+    }
+
+    @Override
+    public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) throws IOException {
+        try (var channel = new ThreadSafeSeekableByteChannel(new PositionalReadChannel(this::readAt, this::size))) {
+            return function.apply(channel);
+        }
+    }
+
+    @Override
+    public long size() {
+        return data.limit();
+    }
+
+    /** Read-only view of the content */
+    public ByteBuffer asBuffer() {
+        return data.duplicate();
+    }
+
+    @Override
+    public byte[] asBytes() {
+        byte[] bytes = new byte[data.limit()];
+        data.get(0, bytes);
+        return bytes;
+    }
+
+    @Override
+    public String asString() {
+        return UTF_8.decode(data.duplicate()).toString();
+    }
+
+    @Override
+    public void close() {
+    }
+}
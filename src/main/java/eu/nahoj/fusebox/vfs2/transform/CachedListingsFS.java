@@ -0,0 +1,145 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.cache.ListingCache;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.cryptomator.jfuse.api.Statvfs;
+
+import java.io.IOException;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static eu.nahoj.fusebox.vfs2.api.FuseboxFS.parentPath;
+
+/**
+ * Memoizes {@link FuseboxFile#getEntries} results as the layers below produce them, so that name mappings run once
+ * per directory rather than once per listing.
+ * <p>
+ * Creating, linking, deleting or moving a file through a resolved file drops the listing of its directory, and that
+ * of the directories it removes or moves; so do changes reported by the delegate. Changes made behind the mount and
+ * not reported are seen once the listing expires.
+ */
+public class CachedListingsFS implements FuseboxFS {
+
+    private final FuseboxFS delegate;
+    private final ListingCache listings;
+
+    public static CachedListingsFS create(FuseboxFS delegate, int maxEntries, Duration ttl) {
+        CachedListingsFS fs = new CachedListingsFS(delegate, maxEntries, ttl);
+        delegate.addInvalidationListener(InvalidationListener.of(fs::changed, fs.listings::invalidateAll));
+        return fs;
+    }
+
+    private CachedListingsFS(FuseboxFS delegate, int maxEntries, Duration ttl) {
+        this.delegate = delegate;
+        this.listings = new ListingCache(maxEntries, ttl);
+    }
+
+    private void changed(String path) {
+        listings.invalidate(parentPath(path));
+        listings.invalidateTree(path);
+    }
+
+    @Override
+    public Set<Operation> supportedOperations() {
+        return delegate.supportedOperations();
+    }
+
+    @Override
+    public Statvfs getStats(String path) throws IOException {
+        return delegate.getStats(path);
+    }
+
+    @Override
+    public FuseboxFile resolveFile(String path) throws IOException {
+        return new CachedListingsFile(this, delegate.resolveFile(path), path);
+    }
+
+    @Override
+    public Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) throws IOException {
+        return delegate.getAttributesBatch(dirPath, names);
+    }
+
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate.addInvalidationListener(listener);
+    }
+
+    public long hits() {
+        return listings.hits();
+    }
+
+    public long misses() {
+        return listings.misses();
+    }
+
+    @Accessors(fluent = true)
+    @RequiredArgsConstructor
+    private static class CachedListingsFile implements DecoratedFile {
+
+        @Getter private final CachedListingsFS fs;
+        @Getter private final FuseboxFile delegate;
+        private final String cacheKey;
+
+        @Override
+        public List<DirEntry> getEntries() throws IOException {
+            return fs.listings.get(cacheKey, delegate::getEntries);
+        }
+
+        @Override
+        public void createSymbolicLink(String target) throws IOException {
+            try {
+                delegate.createSymbolicLink(target);
+            } finally {
+                fs.listings.invalidate(parentPath(cacheKey));
+            }
+        }
+
+        @Override
+        public void createDirectory(Set<PosixFilePermission> permissions) throws IOException {
+            try {
+                delegate.createDirectory(permissions);
+            } finally {
+                fs.listings.invalidate(parentPath(cacheKey));
+            }
+        }
+
+        @Override
+        public void createFile(Set<PosixFilePermission> permissions) throws IOException {
+            try {
+                delegate.createFile(permissions);
+            } finally {
+                fs.listings.invalidate(parentPath(cacheKey));
+            }
+        }
+
+        @Override
+        public void delete() throws IOException {
+            try {
+                delegate.delete();
+            } finally {
+                fs.changed(cacheKey);
+            }
+        }
+
+        @Override
+        public void moveTo(FuseboxFile target) throws IOException {
+            try {
+                DecoratedFile.super.moveTo(target);
+            } finally {
+                fs.changed(cacheKey);
+                if (target instanceof CachedListingsFile t) fs.changed(t.cacheKey);
+            }
+        }
+    }
+}
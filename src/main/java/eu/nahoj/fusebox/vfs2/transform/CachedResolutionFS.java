@@ -0,0 +1,204 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.cryptomator.jfuse.api.Statvfs;
+
+import java.io.IOException;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches resolved files by path, so that repeated operations on a path reuse the same chain of wrappers instead of
+ * resolving it again through every layer.
+ * <p>
+ * Entries expire after a TTL, which bounds how long state kept by the resolved wrappers (commons-vfs file objects,
+ * mapped contents) can be stale. At most {@code maxEntries} are kept, least recently used first out. Deleting,
+ * creating or moving a file through a cached file drops its path and everything below it, as do changes reported by
+ * the delegate, which also drop the parent directory.
+ */
+public class CachedResolutionFS implements FuseboxFS {
+
+    private final FuseboxFS delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private record Entry(FuseboxFile file, long expiresAt) {
+    }
+
+    // Guarded by itself
+    private final LinkedHashMap<String, Entry> entries;
+    /** Incremented by each invalidation, so that a resolution that raced with one is not kept; guarded by entries */
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public static CachedResolutionFS create(FuseboxFS delegate, int maxEntries, Duration ttl) {
+        CachedResolutionFS fs = new CachedResolutionFS(delegate, maxEntries, ttl);
+        delegate.addInvalidationListener(InvalidationListener.of(fs::invalidateChange, fs::invalidateAll));
+        return fs;
+    }
+
+    private CachedResolutionFS(FuseboxFS delegate, int maxEntries, Duration ttl) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean evict = size() > CachedResolutionFS.this.maxEntries;
+                if (evict) evictions.increment();
+                return evict;
+            }
+        };
+    }
+
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate.addInvalidationListener(listener);
+    }
+
+    @Override
+    public Set<Operation> supportedOperations() {
+        return delegate.supportedOperations();
+    }
+
+    @Override
+    public Statvfs getStats(String path) throws IOException {
+        return delegate.getStats(path);
+    }
+
+    @Override
+    public FuseboxFile resolveFile(String path) throws IOException {
+        long now = System.nanoTime();
+        long startGeneration;
+        synchronized (entries) {
+            Entry e = entries.get(path);
+            if (e != null && now - e.expiresAt < 0) {
+                hits.increment();
+                return e.file;
+            }
+            startGeneration = generation;
+        }
+        misses.increment();
+        FuseboxFile file = new CachedFile(this, delegate.resolveFile(path), path);
+        synchronized (entries) {
+            if (generation == startGeneration) entries.put(path, new Entry(file, now + ttlNanos));
+        }
+        return file;
+    }
+
+    /** Drops {@code path} and everything below it */
+    public void invalidate(String path) {
+        String prefix = path.isEmpty() ? "" : path + "/";
+        synchronized (entries) {
+            generation++;
+            entries.keySet().removeIf(p -> p.equals(path) || p.startsWith(prefix));
+        }
+    }
+
+    private void invalidateChange(String path) {
+        invalidate(path);
+        synchronized (entries) {
+            entries.remove(FuseboxFS.parentPath(path));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Fraction of resolutions served from the cache, 0 before the first one */
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Accessors(fluent = true)
+    @RequiredArgsConstructor
+    private static class CachedFile implements DecoratedFile {
+
+        @Getter private final CachedResolutionFS fs;
+        @Getter private final FuseboxFile delegate;
+        private final String cacheKey;
+
+        @Override
+        public void createDirectory(Set<PosixFilePermission> permissions) throws IOException {
+            try {
+                delegate.createDirectory(permissions);
+            } finally {
+                fs.invalidate(cacheKey);
+            }
+        }
+
+        @Override
+        public void delete() throws IOException {
+            try {
+                delegate.delete();
+            } finally {
+                fs.invalidate(cacheKey);
+            }
+        }
+
+        @Override
+        public void createFile(Set<PosixFilePermission> permissions) throws IOException {
+            try {
+                delegate.createFile(permissions);
+            } finally {
+                fs.invalidate(cacheKey);
+            }
+        }
+
+        @Override
+        public void createSymbolicLink(String target) throws IOException {
+            try {
+                delegate.createSymbolicLink(target);
+            } finally {
+                fs.invalidate(cacheKey);
+            }
+        }
+
+        @Override
+        public void moveTo(FuseboxFile target) throws IOException {
+            try {
+                DecoratedFile.super.moveTo(target);
+            } finally {
+                fs.invalidate(cacheKey);
+                if (target instanceof CachedFile t) fs.invalidate(t.cacheKey);
+            }
+        }
+    }
+}
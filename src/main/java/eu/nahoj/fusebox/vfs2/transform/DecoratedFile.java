@@ -2,9 +2,11 @@ package eu.nahoj.fusebox.vfs2.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
 import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -39,6 +41,13 @@ public interface DecoratedFile extends FuseboxFile {
         delegate().setPermissions(permissions);
     }
 
+    /** Wrappers that change the content must override this. */
+    @Override
+    @Nullable
+    default FileKey fileKey() throws IOException {
+        return delegate().fileKey();
+    }
+
     // Links
 
     @Override
@@ -46,6 +55,11 @@ public interface DecoratedFile extends FuseboxFile {
         return delegate().getTargetPath();
     }
 
+    @Override
+    default void createSymbolicLink(String target) throws IOException {
+        delegate().createSymbolicLink(target);
+    }
+
     // Directories
 
     @Override
@@ -68,10 +82,26 @@ public interface DecoratedFile extends FuseboxFile {
         delegate().delete();
     }
 
+    /** Moves the delegate to the delegate of {@code target}, which is expected to be decorated the same way. */
+    @Override
+    default void moveTo(FuseboxFile target) throws IOException {
+        delegate().moveTo(target instanceof DecoratedFile d ? d.delegate() : target);
+    }
+
     // Files
 
     @Override
     default FuseboxContent openReadable() throws IOException {
         return delegate().openReadable();
     }
+
+    @Override
+    default void createFile(Set<PosixFilePermission> permissions) throws IOException {
+        delegate().createFile(permissions);
+    }
+
+    @Override
+    default void writeContent(Path source) throws IOException {
+        delegate().writeContent(source);
+    }
 }
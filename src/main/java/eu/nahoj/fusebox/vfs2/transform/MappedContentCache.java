@@ -0,0 +1,223 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.common.util.ExceptionUtils.ThrowingSupplier;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Mapped contents shared by all the files resolved through a {@link MappedFilesFS}.
+ * <p>
+ * Entries are keyed by path and by the size and modification time of the source, so a source changed behind the mount
+ * is mapped again. The total weight of the mapped contents is bounded, least recently used first out; a content
+ * heavier than the whole budget is returned but not kept. Concurrent computations of the same key share one result.
+ * <p>
+ * A {@link StreamedContent} weighs what it has spilled to disk plus the source it holds open, which grow as it is
+ * read, so streamed entries are weighed again on each access. The cache holds a reference to each streamed content
+ * and closes it on eviction; {@link #get} returns a reference of the caller's own, which it must close.
+ */
+class MappedContentCache {
+
+    record Key(String path, long sourceSize, long sourceLastModifiedNanos) {
+    }
+
+    private final long maxBytes;
+
+    /** {@code weight} is only used for contents that are not streamed, whose size does not change */
+    private record Entry(FuseboxContent content, long weight) {
+    }
+
+    // Guarded by itself
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long fixedBytes;
+    private final Set<StreamedContent> streamed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final ConcurrentMap<Key, CompletableFuture<FuseboxContent>> computing = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    MappedContentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    FuseboxContent get(Key key, ThrowingSupplier<FuseboxContent> compute) throws IOException {
+        while (true) {
+            FuseboxContent cached = null;
+            List<FuseboxContent> evicted = List.of();
+            synchronized (entries) {
+                Entry e = entries.get(key);
+                if (e != null) {
+                    // The cache's own reference keeps it from being released meanwhile
+                    retain(e.content);
+                    cached = e.content;
+                    evicted = trim();
+                }
+            }
+            if (cached != null) {
+                hits.increment();
+                closeAll(evicted);
+                return cached;
+            }
+            CompletableFuture<FuseboxContent> mine = new CompletableFuture<>();
+            CompletableFuture<FuseboxContent> theirs = computing.putIfAbsent(key, mine);
+            if (theirs != null) {
+                FuseboxContent c;
+                try {
+                    c = theirs.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof IOException ioe) throw ioe;
+                    if (e.getCause() instanceof UncheckedIOException uioe) throw uioe.getCause();
+                    throw e;
+                }
+                // Unless it was evicted and closed by everyone since
+                if (retain(c)) {
+                    hits.increment();
+                    return c;
+                }
+                continue;
+            }
+            misses.increment();
+            try {
+                FuseboxContent c = compute.get();
+                put(key, c);
+                mine.complete(c);
+                return c;
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                computing.remove(key, mine);
+            }
+        }
+    }
+
+    private static boolean retain(FuseboxContent content) {
+        return !(content instanceof StreamedContent s) || s.retain();
+    }
+
+    private static long weight(FuseboxContent content) {
+        return content instanceof StreamedContent s ? s.footprint() : Math.max(0, content.size());
+    }
+
+    /** Keeps {@code content} in addition to returning it, with a reference of its own if it is streamed */
+    private void put(Key key, FuseboxContent content) {
+        if (weight(content) > maxBytes || !retain(content)) return;
+        List<FuseboxContent> evicted;
+        synchronized (entries) {
+            // Older versions of the same path will not be asked for again
+            evicted = removeIf(key.path()::equals);
+            if (content instanceof StreamedContent s) {
+                streamed.add(s);
+                entries.put(key, new Entry(content, 0));
+            } else {
+                long weight = weight(content);
+                fixedBytes += weight;
+                entries.put(key, new Entry(content, weight));
+            }
+            evicted.addAll(trim());
+        }
+        closeAll(evicted);
+    }
+
+    /** Evicts least recently used entries until within budget */
+    private List<FuseboxContent> trim() {
+        List<FuseboxContent> evicted = new ArrayList<>();
+        long bytes = bytesLocked();
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry e = it.next().getValue();
+            bytes -= remove(e);
+            it.remove();
+            evicted.add(e.content);
+        }
+        return evicted;
+    }
+
+    /** Accounts for the removal of {@code e} from the entries, and returns its weight */
+    private long remove(Entry e) {
+        if (e.content instanceof StreamedContent s) {
+            streamed.remove(s);
+            return s.footprint();
+        }
+        fixedBytes -= e.weight;
+        return e.weight;
+    }
+
+    /** Closes the cache's references, outside the lock since releasing a content takes its own */
+    private static void closeAll(List<FuseboxContent> contents) {
+        for (FuseboxContent c : contents) {
+            if (c instanceof StreamedContent s) s.close();
+        }
+    }
+
+    void invalidate(String path) {
+        List<FuseboxContent> evicted;
+        synchronized (entries) {
+            evicted = removeIf(path::equals);
+        }
+        closeAll(evicted);
+    }
+
+    /** Drops {@code path} and everything below it */
+    void invalidateTree(String path) {
+        String prefix = path.isEmpty() ? "" : path + "/";
+        List<FuseboxContent> evicted;
+        synchronized (entries) {
+            evicted = removeIf(p -> p.equals(path) || p.startsWith(prefix));
+        }
+        closeAll(evicted);
+    }
+
+    void invalidateAll() {
+        invalidateTree("");
+    }
+
+    private List<FuseboxContent> removeIf(Predicate<String> pathFilter) {
+        List<FuseboxContent> removed = new ArrayList<>();
+        entries.entrySet().removeIf(e -> {
+            if (!pathFilter.test(e.getKey().path())) return false;
+            remove(e.getValue());
+            removed.add(e.getValue().content);
+            return true;
+        });
+        return removed;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long bytes() {
+        synchronized (entries) {
+            return bytesLocked();
+        }
+    }
+
+    private long bytesLocked() {
+        long bytes = fixedBytes;
+        for (StreamedContent s : streamed) {
+            bytes += s.footprint();
+        }
+        return bytes;
+    }
+}
@@ -1,28 +1,44 @@
 package eu.nahoj.fusebox.vfs2.transform;
 
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
 import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.UnaryOperator;
 
 /**
  * File wrapper that maps its contents. This file is read-only.
- * For simplicity, mapped contents are computed lazily and cached in-memory per wrapper instance.
+ * <p>
+ * Mapped contents are computed lazily. When the file is resolved through a {@link MappedFilesFS}, they are kept in the
+ * FS's {@link MappedContentCache} and shared across resolutions; otherwise they are cached in-memory per wrapper
+ * instance.
  */
-@RequiredArgsConstructor
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class MappedContentFile implements DecoratedFile {
 
     private final FuseboxFile delegate;
     private final UnaryOperator<FuseboxContent> mapper;
+    private final @Nullable MappedContentCache cache;
 
-    // TODO add TTL / use readymade impl
     private final AtomicReference<FuseboxContent> cachedMapped = new AtomicReference<>();
 
+    public MappedContentFile(FuseboxFile delegate, UnaryOperator<FuseboxContent> mapper) {
+        this(delegate, mapper, null);
+    }
+
+    MappedContentFile withCache(MappedContentCache cache) {
+        return new MappedContentFile(delegate, mapper, cache);
+    }
+
     @Override
     public FuseboxFS fs() {
         return delegate().fs();
@@ -33,29 +49,65 @@ public class MappedContentFile implements DecoratedFile {
         return delegate;
     }
 
+    /** The mapped content is not the file on the disk. */
+    @Override
+    @Nullable
+    public FileKey fileKey() {
+        return null;
+    }
+
     @Override
     public FileAttributes getAttributes() throws IOException {
-        return delegate.getAttributes()
-                .readOnly()
-                .withSize(getOrComputeMappedContent().size());
+        FileAttributes source = delegate.getAttributes();
+        try (FuseboxContent mapped = getOrComputeMappedContent(source)) {
+            return source
+                    .readOnly()
+                    .withSize(mapped.size());
+        }
     }
 
     @Override
     public FuseboxContent openReadable() throws IOException {
-        return getOrComputeMappedContent();
+        return getOrComputeMappedContent(cache != null ? delegate.getAttributes() : null);
     }
 
-    private FuseboxContent getOrComputeMappedContent() throws IOException {
+    @Override
+    public void writeContent(Path source) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    /** A reference to the shared mapped content, which the caller must close */
+    private FuseboxContent getOrComputeMappedContent(@Nullable FileAttributes source) throws IOException {
+        if (cache != null && source != null) {
+            var key = new MappedContentCache.Key(path().toString(), source.size(), source.lastModifiedNanos());
+            return cache.get(key, this::computeMappedContent);
+        }
         FuseboxContent c = cachedMapped.get();
-        if (c != null) return c;
-        synchronized (cachedMapped) {
-            c = cachedMapped.get();
-            if (c != null) return c;
-            try (FuseboxContent src = delegate.openReadable()) {
-                FuseboxContent mapped = mapper.apply(src);
-                cachedMapped.set(mapped);
-                return mapped;
+        if (c == null) {
+            synchronized (cachedMapped) {
+                c = cachedMapped.get();
+                if (c == null) {
+                    c = computeMappedContent();
+                    cachedMapped.set(c);
+                }
             }
         }
+        // This wrapper keeps the first reference
+        if (c instanceof StreamedContent s) s.retain();
+        return c;
+    }
+
+    private FuseboxContent computeMappedContent() throws IOException {
+        FuseboxContent src = delegate.openReadable();
+        FuseboxContent mapped;
+        try {
+            mapped = mapper.apply(src);
+        } catch (RuntimeException e) {
+            src.close();
+            throw e;
+        }
+        // A streamed content keeps reading its source
+        if (!(mapped instanceof StreamedContent)) src.close();
+        return mapped;
     }
 }
@@ -1,22 +1,57 @@
 package eu.nahoj.fusebox.vfs2.transform;
 
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
 import org.cryptomator.jfuse.api.Statvfs;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
-@RequiredArgsConstructor
+/**
+ * Applies {@code mapper} to the files whose path matches {@code pathSelector}.
+ * <p>
+ * Files mapped with {@link FuseboxFile#mapContent} share a mapped-content cache bounded by {@code maxCachedBytes}, so
+ * that the successive {@code getattr} and {@code open} of a file, which each resolve it anew, map its content once.
+ * Changes reported by the delegate drop the mapped contents of the files concerned.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class MappedFilesFS implements FuseboxFS {
 
+    public static final long DEFAULT_MAX_CACHED_BYTES = 64L * 1024 * 1024;
+
     private final FuseboxFS delegate;
     private final Predicate<String> pathSelector;
     private final UnaryOperator<FuseboxFile> mapper;
+    private final MappedContentCache contentCache;
+
+    public static MappedFilesFS create(FuseboxFS delegate, Predicate<String> pathSelector,
+                                       UnaryOperator<FuseboxFile> mapper) {
+        return create(delegate, pathSelector, mapper, DEFAULT_MAX_CACHED_BYTES);
+    }
+
+    public static MappedFilesFS create(FuseboxFS delegate, Predicate<String> pathSelector,
+                                       UnaryOperator<FuseboxFile> mapper, long maxCachedBytes) {
+        MappedContentCache contentCache = new MappedContentCache(maxCachedBytes);
+        MappedFilesFS fs = new MappedFilesFS(delegate, pathSelector, mapper, contentCache);
+        delegate.addInvalidationListener(
+                InvalidationListener.of(contentCache::invalidateTree, contentCache::invalidateAll));
+        return fs;
+    }
+
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate.addInvalidationListener(listener);
+    }
 
     @Override
     public Set<Operation> supportedOperations() {
@@ -31,6 +66,44 @@ public class MappedFilesFS implements FuseboxFS {
     @Override
     public FuseboxFile resolveFile(String path) throws IOException {
         FuseboxFile file = delegate.resolveFile(path);
-        return pathSelector.test(path) ? mapper.apply(file) : file;
+        if (!pathSelector.test(path)) return file;
+        FuseboxFile mapped = mapper.apply(file);
+        return mapped instanceof MappedContentFile m ? m.withCache(contentCache) : mapped;
+    }
+
+    /**
+     * Batches the names of unmapped files to the delegate; mapped files are resolved one by one, since the mapper
+     * may change their attributes.
+     */
+    @Override
+    public Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) throws IOException {
+        List<String> unmapped = names.stream()
+                .filter(name -> !pathSelector.test(FuseboxFS.childPath(dirPath, name)))
+                .toList();
+        Map<String, FileAttributes> unmappedAttrs = delegate.getAttributesBatch(dirPath, unmapped);
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            String path = FuseboxFS.childPath(dirPath, name);
+            if (!pathSelector.test(path)) {
+                FileAttributes a = unmappedAttrs.get(name);
+                if (a != null) attrs.put(name, a);
+                continue;
+            }
+            try {
+                attrs.put(name, resolveFile(path).getAttributes());
+            } catch (IOException e) {
+                // Left out, see FuseboxFS.getAttributesBatch
+            }
+        }
+        return attrs;
+    }
+
+    /** Number of mapped contents served from the cache or from a concurrent computation */
+    public long contentCacheHits() {
+        return contentCache.hits();
+    }
+
+    public long contentCacheMisses() {
+        return contentCache.misses();
     }
 }
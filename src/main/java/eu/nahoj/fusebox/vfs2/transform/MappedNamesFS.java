@@ -1,5 +1,7 @@
 package eu.nahoj.fusebox.vfs2.transform;
 
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
 import lombok.RequiredArgsConstructor;
@@ -9,6 +11,9 @@ import org.cryptomator.jfuse.api.Statvfs;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
@@ -64,11 +69,37 @@ public class MappedNamesFS implements FuseboxFS {
         return delegate.supportedOperations();
     }
 
+    private String origPathToMount(String origPath) {
+        return origPath.isEmpty() ? origPath
+                : translatePath(Path.of(origPath), origPathSelector, origNameToMount).toString();
+    }
+
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        delegate.addInvalidationListener(listener.mapPaths(this::origPathToMount));
+    }
+
     @Override
     public Statvfs getStats(String path) throws IOException {
         return delegate.getStats(mountPathToOrig(Path.of(path)).toString());
     }
 
+    @Override
+    public Map<String, FileAttributes> getAttributesBatch(String dirPath, List<String> names) throws IOException {
+        Path mountDir = Path.of(dirPath);
+        // Orig name -> mount name, translated once for the directory
+        Map<String, String> mountNames = LinkedHashMap.newLinkedHashMap(names.size());
+        for (String name : names) {
+            boolean selected = mountPathSelector.test(mountDir.resolve(name).toString());
+            mountNames.put(selected ? mountNameToOrig.apply(name) : name, name);
+        }
+        Map<String, FileAttributes> origAttrs = delegate.getAttributesBatch(
+                mountPathToOrig(mountDir).toString(), List.copyOf(mountNames.keySet()));
+        Map<String, FileAttributes> attrs = LinkedHashMap.newLinkedHashMap(origAttrs.size());
+        origAttrs.forEach((origName, a) -> attrs.put(mountNames.get(origName), a));
+        return attrs;
+    }
+
     @Override
     public FuseboxFile resolveFile(String path) throws IOException {
         Path mountPath = Path.of(path);
@@ -0,0 +1,58 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.common.util.ReadAhead;
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadChannel;
+import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Read-only content that prefetches ahead of sequential reads of its delegate. See {@link ReadAhead}.
+ */
+public final class ReadAheadContent implements FuseboxContent {
+
+    private final FuseboxContent delegate;
+    private final ReadAhead readAhead;
+    private final ThreadSafeSeekableByteChannel channel;
+
+    public ReadAheadContent(FuseboxContent delegate, int minWindow, int maxWindow) {
+        this.delegate = delegate;
+        this.readAhead = new ReadAhead(this::readDelegate, minWindow, maxWindow);
+        this.channel = new ThreadSafeSeekableByteChannel(new PositionalReadChannel(readAhead::read, delegate::size));
+    }
+
+    private int readDelegate(ByteBuffer dst, long offset) throws IOException {
+        return delegate.readAt(dst, offset);
+    }
+
+    /** Straight to the read-ahead, without the channel's lock. */
+    @Override
+    public int readAt(ByteBuffer dst, long offset) throws IOException {
+        if (!dst.hasRemaining()) return 0;
+        int n = readAhead.read(dst, offset);
+        return n > 0 ? n : -1;
+    }
+
+    @Override
+    public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) {
+        return function.apply(channel);
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            readAhead.close();
+            delegate.close();
+        }
+    }
+}
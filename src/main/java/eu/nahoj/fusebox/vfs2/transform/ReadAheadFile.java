@@ -0,0 +1,34 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+
+/**
+ * File wrapper whose readable handles prefetch ahead of sequential reads. See {@link ReadAheadContent}.
+ */
+@RequiredArgsConstructor
+public class ReadAheadFile implements DecoratedFile {
+
+    private final FuseboxFile delegate;
+    private final int minWindow;
+    private final int maxWindow;
+
+    @Override
+    public FuseboxFS fs() {
+        return delegate().fs();
+    }
+
+    @Override
+    public FuseboxFile delegate() {
+        return delegate;
+    }
+
+    @Override
+    public FuseboxContent openReadable() throws IOException {
+        return new ReadAheadContent(delegate.openReadable(), minWindow, maxWindow);
+    }
+}
@@ -0,0 +1,196 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadChannel;
+import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Content produced lazily by a stream transform of a source content.
+ * <p>
+ * The mapped stream is consumed only as far as reads need, in chunks, and its output is spilled to a temporary file,
+ * so a read at offset N costs the production of N bytes once and memory use does not depend on the file size.
+ * {@link #size()} has to produce the whole content. As FUSE gets a file's attributes before opening it, this only
+ * saves work for callers of the API, not for reads through a mount.
+ * <p>
+ * Mapped contents are shared by the handles opened on a file (see {@link MappedContentFile}), so the content is
+ * reference-counted: each holder takes a reference with {@link #retain()} and closes it once. The source and the
+ * mapped stream are released as soon as the whole content is produced, and the spill file when the last reference is
+ * closed, or failing that when this content becomes unreachable.
+ */
+public final class StreamedContent implements FuseboxContent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamedContent.class);
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Weight of the source, mapped stream and chunk buffer held while the content is not fully produced */
+    static final long OPEN_STREAM_WEIGHT = 1024 * 1024;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Producer producer;
+    private final Cleaner.Cleanable cleanable;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    public StreamedContent(FuseboxContent source, Function<InputStream, InputStream> mapper) {
+        this.producer = new Producer(source, mapper);
+        this.cleanable = CLEANER.register(this, producer::release);
+    }
+
+    /** Must not refer to the content, which the cleaner watches */
+    private static final class Producer {
+
+        private final FuseboxContent source;
+        private final Function<InputStream, InputStream> mapper;
+
+        // Guarded by this
+        private @Nullable InputStream stream;
+        private @Nullable FileChannel spill;
+        private @Nullable byte[] chunk;
+        private boolean sourceClosed;
+        private boolean released;
+
+        private volatile long produced;
+        private volatile boolean done;
+
+        Producer(FuseboxContent source, Function<InputStream, InputStream> mapper) {
+            this.source = source;
+            this.mapper = mapper;
+        }
+
+        /** Produces at least up to `end`, or to the end of the content */
+        synchronized void produceTo(long end) throws IOException {
+            if (released) throw new IOException("Streamed content released");
+            if (done) return;
+            if (stream == null) {
+                var sourceChannel = new PositionalReadChannel(source::readAt, source::size);
+                stream = mapper.apply(Channels.newInputStream(sourceChannel));
+                chunk = new byte[CHUNK_SIZE];
+                Path file = Files.createTempFile("fusebox-stream", ".spill");
+                spill = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+            }
+            while (!done && produced < end) {
+                int n = stream.readNBytes(chunk, 0, CHUNK_SIZE);
+                ByteBuffer buf = ByteBuffer.wrap(chunk, 0, n);
+                while (buf.hasRemaining()) {
+                    spill.write(buf, produced + buf.position());
+                }
+                produced += n;
+                if (n < CHUNK_SIZE) done = true;
+            }
+            if (done) closeSource();
+        }
+
+        /** Spilled bytes, plus {@link #OPEN_STREAM_WEIGHT} until the source is closed */
+        long footprint() {
+            return produced + (done ? 0 : OPEN_STREAM_WEIGHT);
+        }
+
+        int readAt(ByteBuffer dst, long offset) throws IOException {
+            long end = offset + dst.remaining();
+            if (!done && produced < end) produceTo(end);
+            long available = produced - offset;
+            if (available <= 0) return done ? -1 : 0;
+            ByteBuffer slice = dst.remaining() > available
+                    ? dst.slice(dst.position(), (int) available)
+                    : dst.slice();
+            int n = 0;
+            while (slice.hasRemaining()) {
+                // Positional reads of the produced part need no lock
+                int r = spill.read(slice, offset + n);
+                if (r < 0) break;
+                n += r;
+            }
+            dst.position(dst.position() + n);
+            return n;
+        }
+
+        long size() throws IOException {
+            if (!done) produceTo(Long.MAX_VALUE);
+            return produced;
+        }
+
+        private void closeSource() {
+            if (sourceClosed) return;
+            sourceClosed = true;
+            closeQuietly(stream);
+            closeQuietly(source);
+            stream = null;
+            chunk = null;
+        }
+
+        synchronized void release() {
+            released = true;
+            closeSource();
+            closeQuietly(spill);
+        }
+
+        private static void closeQuietly(@Nullable AutoCloseable c) {
+            if (c == null) return;
+            try {
+                c.close();
+            } catch (Exception e) {
+                LOG.warn("Error releasing streamed content", e);
+            }
+        }
+    }
+
+    /** Takes another reference, to be closed separately; false if the content was already released */
+    boolean retain() {
+        for (int n = refs.get(); n > 0; n = refs.get()) {
+            if (refs.compareAndSet(n, n + 1)) return true;
+        }
+        return false;
+    }
+
+    /** Bytes held on disk plus the weight of the open source, as it currently stands */
+    long footprint() {
+        return producer.footprint();
+    }
+
+    @Override
+    public int readAt(ByteBuffer dst, long offset) throws IOException {
+        return producer.readAt(dst, offset);
+    }
+
+    @Override
+    public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) throws IOException {
+        try (var channel = new ThreadSafeSeekableByteChannel(new PositionalReadChannel(this::readAt, this::size))) {
+            return function.apply(channel);
+        }
+    }
+
+    @Override
+    public long size() {
+        try {
+            return producer.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Closes one reference, releasing everything with the last one */
+    @Override
+    public void close() {
+        if (refs.getAndUpdate(n -> Math.max(0, n - 1)) == 1) cleanable.clean();
+    }
+}
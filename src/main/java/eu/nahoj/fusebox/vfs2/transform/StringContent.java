@@ -2,36 +2,51 @@ package eu.nahoj.fusebox.vfs2.transform;
 
 import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
 import eu.nahoj.fusebox.vfs2.util.ThreadSafeSeekableByteChannel;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 import lombok.experimental.Accessors;
-import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.function.Function;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+/**
+ * String content, encoded to UTF-8 once at construction.
+ */
 @Value
 @Accessors(fluent = true)
 public class StringContent implements FuseboxContent {
 
     String content;
-    long size;
-    
+    @Getter(AccessLevel.NONE)
+    BytesContent bytes;
+
     public StringContent(String content) {
         this.content = content;
-        this.size = content.getBytes(UTF_8).length;
+        this.bytes = new BytesContent(content.getBytes(UTF_8));
+    }
+
+    public long size() {
+        return bytes.size();
     }
 
     public String asString() {
         return content;
     }
 
+    public byte[] asBytes() {
+        return bytes.asBytes();
+    }
+
+    public int readAt(ByteBuffer dst, long offset) {
+        return bytes.readAt(dst, offset);
+    }
+
     public <T> T withByteChannel(Function<? super ThreadSafeSeekableByteChannel, T> function) throws IOException {
-        byte[] bytes = content.getBytes(UTF_8);
-        try (var channel = new ThreadSafeSeekableByteChannel(new SeekableInMemoryByteChannel(bytes))) {
-            return function.apply(channel);
-        }
+        return bytes.withByteChannel(function);
     }
 
     public void close() {
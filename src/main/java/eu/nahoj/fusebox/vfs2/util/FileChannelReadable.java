@@ -0,0 +1,38 @@
+package eu.nahoj.fusebox.vfs2.util;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Positional reads with pread(2): {@link FileChannel#read(ByteBuffer, long)} does not touch the channel's position,
+ * so concurrent reads take no lock.
+ */
+@RequiredArgsConstructor
+public final class FileChannelReadable implements PositionalReadable {
+
+    private final FileChannel channel;
+
+    @Override
+    public int readAt(ByteBuffer dst, long offset) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, offset + total);
+            if (n < 0) return total == 0 ? -1 : total;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,70 @@
+package eu.nahoj.fusebox.vfs2.util;
+
+import eu.nahoj.fusebox.common.util.ReadAhead.PositionalReader;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-only SeekableByteChannel over a positional reader. Not thread-safe: wrap it in a
+ * {@link ThreadSafeSeekableByteChannel}.
+ */
+@RequiredArgsConstructor
+public final class PositionalReadChannel implements SeekableByteChannel {
+
+    private final PositionalReader reader;
+    private final LongSupplier size;
+
+    private boolean open = true;
+    private long position = 0L;
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) return 0;
+        int n = reader.read(dst, position);
+        if (n <= 0) return -1;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) { throw new NonWritableChannelException(); }
+
+    @Override
+    public long position() { return position; }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size.getAsLong();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) { throw new NonWritableChannelException(); }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
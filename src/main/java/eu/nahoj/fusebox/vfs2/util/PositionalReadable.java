@@ -0,0 +1,21 @@
+package eu.nahoj.fusebox.vfs2.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Thread-safe source of positional reads: concurrent reads at independent offsets need no coordination by callers,
+ * and implementations serve them in parallel when the backend can.
+ */
+public interface PositionalReadable extends Closeable {
+
+    /**
+     * Reads into {@code dst} from the absolute {@code offset}.
+     *
+     * @return number of bytes read, or -1 at end of content
+     */
+    int readAt(ByteBuffer dst, long offset) throws IOException;
+
+    long size() throws IOException;
+}
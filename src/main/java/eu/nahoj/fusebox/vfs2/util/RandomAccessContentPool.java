@@ -0,0 +1,102 @@
+package eu.nahoj.fusebox.vfs2.util;
+
+import eu.nahoj.fusebox.common.util.ExceptionUtils.ThrowingSupplier;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Positional reads for backends without pread: a small pool of independently positioned
+ * {@link RandomAccessContent} instances on the same file, opened on demand up to {@code maxInstances}. Each read
+ * borrows an instance, so up to {@code maxInstances} reads run in parallel.
+ * <p>
+ * The most recently returned instance is lent first, which keeps a sequential reader on a warm instance.
+ */
+public final class RandomAccessContentPool implements PositionalReadable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RandomAccessContentPool.class);
+
+    public static final int DEFAULT_MAX_INSTANCES = 4;
+
+    private final ThrowingSupplier<RandomAccessContent> opener;
+    private final Semaphore permits;
+    private final Deque<RandomAccessContentSeekableByteChannel> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed = false;
+
+    /** @param first an instance opened by the caller, which also checks that the file can be opened */
+    public RandomAccessContentPool(RandomAccessContent first, ThrowingSupplier<RandomAccessContent> opener,
+                                   int maxInstances) {
+        this.opener = opener;
+        this.permits = new Semaphore(maxInstances);
+        idle.push(new RandomAccessContentSeekableByteChannel(first));
+    }
+
+    @FunctionalInterface
+    private interface ChannelCall<T> {
+        T apply(RandomAccessContentSeekableByteChannel channel) throws IOException;
+    }
+
+    private <T> T withInstance(ChannelCall<T> call) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        try {
+            RandomAccessContentSeekableByteChannel channel = idle.pollFirst();
+            if (channel == null) {
+                LOG.trace("Opening a new instance");
+                channel = new RandomAccessContentSeekableByteChannel(opener.get());
+            }
+            try {
+                return call.apply(channel);
+            } finally {
+                idle.offerFirst(channel);
+                if (closed) closeIdle();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public int readAt(ByteBuffer dst, long offset) throws IOException {
+        return withInstance(channel -> {
+            channel.position(offset);
+            return channel.read(dst);
+        });
+    }
+
+    @Override
+    public long size() throws IOException {
+        return withInstance(RandomAccessContentSeekableByteChannel::size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        closeIdle();
+    }
+
+    /** Instances in use are closed when returned */
+    private void closeIdle() {
+        RandomAccessContentSeekableByteChannel channel;
+        while ((channel = idle.pollFirst()) != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing random access content", e);
+            }
+        }
+    }
+}
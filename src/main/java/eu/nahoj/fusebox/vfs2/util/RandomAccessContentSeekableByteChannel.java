@@ -20,6 +20,8 @@ public final class RandomAccessContentSeekableByteChannel implements SeekableByt
 
     private static final Logger LOG = LoggerFactory.getLogger(RandomAccessContentSeekableByteChannel.class);
 
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
     private final RandomAccessContent rac;
     // Keep a single stream open for the channel's lifetime to avoid closing the underlying RAC
     private final InputStream in;
@@ -43,27 +45,40 @@ public final class RandomAccessContentSeekableByteChannel implements SeekableByt
     public int read(ByteBuffer dst) throws IOException {
         ensureOpen();
         if (!dst.hasRemaining()) return 0;
-        rac.seek(position); // Affects the InputStream
+        // Sequential reads leave the RAC where the next one starts; seeking can be costly (e.g. reopening a stream)
+        if (rac.getFilePointer() != position) {
+            rac.seek(position); // Affects the InputStream
+        }
         int total = 0;
-        final int chunk = Math.min(dst.remaining(), 64 * 1024);
-        byte[] buf = new byte[chunk];
         while (dst.hasRemaining()) {
-            int toRead = Math.min(dst.remaining(), buf.length);
-            int r = in.read(buf, 0, toRead);
+            int r = dst.hasArray() ? readIntoArray(dst) : readThroughBuffer(dst);
             if (r == -1) {
                 // EOF: if nothing was read, signal EOF; otherwise return bytes read
                 LOG.trace("read() EOF after {} bytes at pos {}", total, position);
                 return (total == 0) ? -1 : total;
             }
-            dst.put(buf, 0, r);
             total += r;
             position += r;
-            if (r < toRead) break;
+            if (r == 0) break;
         }
         LOG.trace("read() -> {} bytes, newPos={}", total, position);
         return total;
     }
 
+    private int readIntoArray(ByteBuffer dst) throws IOException {
+        int r = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+        if (r > 0) dst.position(dst.position() + r);
+        return r;
+    }
+
+    /** Direct buffers, such as FUSE's, are filled through a per-thread buffer rather than one per read */
+    private int readThroughBuffer(ByteBuffer dst) throws IOException {
+        byte[] buf = COPY_BUFFER.get();
+        int r = in.read(buf, 0, Math.min(dst.remaining(), buf.length));
+        if (r > 0) dst.put(buf, 0, r);
+        return r;
+    }
+
     @Override
     public int write(ByteBuffer src) throws IOException { throw new NonWritableChannelException(); }
 
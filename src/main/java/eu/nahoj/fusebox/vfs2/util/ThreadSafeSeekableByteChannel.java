@@ -50,6 +50,14 @@ public final class ThreadSafeSeekableByteChannel implements SeekableByteChannel
      * without altering the channel's final position.
      */
     public String contentAsString() throws IOException {
+        return new String(contentAsBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the entire content of a SeekableByteChannel
+     * without altering the channel's final position.
+     */
+    public byte[] contentAsBytes() throws IOException {
         lock.lock();
         try {
             long originalPosition = delegate.position();
@@ -57,8 +65,8 @@ public final class ThreadSafeSeekableByteChannel implements SeekableByteChannel
                 delegate.position(0);
                 InputStream inputStream = Channels.newInputStream(delegate);
                 byte[] bytes = inputStream.readAllBytes();
-                LOG.trace("contentAsString() -> {} bytes", bytes.length);
-                return new String(bytes, StandardCharsets.UTF_8);
+                LOG.trace("contentAsBytes() -> {} bytes", bytes.length);
+                return bytes;
             } finally {
                 delegate.position(originalPosition);
             }
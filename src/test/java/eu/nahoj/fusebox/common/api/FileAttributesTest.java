@@ -0,0 +1,49 @@
+package eu.nahoj.fusebox.common.api;
+
+import org.cryptomator.jfuse.api.FileModes;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileAttributesTest {
+
+    @Test
+    void builder_setters_compose_into_mode() {
+        Instant t = Instant.parse("2024-05-06T07:08:09.123456789Z");
+        FileAttributes attrs = FileAttributes.builder()
+                .type(FileType.REGULAR_FILE)
+                .sgid(true)
+                .permissions(FileModes.toPermissions(0640))
+                .lastAccessTime(t)
+                .lastModifiedTime(t)
+                .lastChangeTime(t)
+                .build();
+
+        assertThat(attrs.mode()).isEqualTo(0102640);
+        assertThat(attrs.type()).isEqualTo(FileType.REGULAR_FILE);
+        assertThat(attrs.sgid()).isTrue();
+        assertThat(attrs.suid()).isFalse();
+        assertThat(attrs.lastModifiedTime()).isEqualTo(t);
+        assertThat(attrs.creationTime()).isNull();
+    }
+
+    @Test
+    void read_only_clears_write_bits_only() {
+        FileAttributes attrs = FileAttributes.minimal(FileType.DIRECTORY, 0).withMode(041777);
+
+        FileAttributes ro = attrs.readOnly();
+
+        assertThat(ro.mode()).isEqualTo(041555);
+        assertThat(ro.readOnly()).isSameAs(ro);
+    }
+
+    @Test
+    void times_before_epoch_round_trip() {
+        Instant t = Instant.parse("1960-01-01T00:00:00.5Z");
+        FileAttributes attrs = FileAttributes.builder().lastAccessTime(t).build();
+
+        assertThat(attrs.lastAccessTime()).isEqualTo(t);
+    }
+}
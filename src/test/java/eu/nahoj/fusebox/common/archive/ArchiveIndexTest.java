@@ -0,0 +1,257 @@
+package eu.nahoj.fusebox.common.archive;
+
+import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex.Format;
+import eu.nahoj.fusebox.common.archive.ArchiveIndex.Node;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
+import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArchiveIndexTest {
+
+    // Small blocks so that entries span several of them
+    private final BlockCache cache = new BlockCache(4096, 1 << 20);
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void zip_tree_and_stored_and_deflated_reads() throws Exception {
+        byte[] big = text(50_000);
+        byte[] small = "stored as is".getBytes(UTF_8);
+        Path zip = dir.resolve("a.zip");
+        try (var out = new ZipArchiveOutputStream(zip)) {
+            out.putArchiveEntry(new ZipArchiveEntry("d/"));
+            out.closeArchiveEntry();
+            ZipArchiveEntry stored = new ZipArchiveEntry("d/stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setUnixMode(0100644);
+            put(out, stored, small);
+            put(out, new ZipArchiveEntry("e/big.txt"), big);
+            ZipArchiveEntry link = new ZipArchiveEntry("link");
+            link.setUnixMode(0120777);
+            put(out, link, "d/stored.txt".getBytes(UTF_8));
+        }
+
+        try (ArchiveIndex index = ArchiveIndex.open(zip, cache)) {
+            assertThat(index.format()).isEqualTo(Format.ZIP);
+            assertThat(index.lookup("/").childNames()).containsExactly("d", "e", "link");
+            assertThat(index.lookup("e").isDirectory()).isTrue();
+            Node stored = index.lookup("/d/stored.txt");
+            assertThat(index.attributes(stored).mode()).isEqualTo(0100444);
+            assertThat(index.lookup("link").linkTarget()).isEqualTo("d/stored.txt");
+            assertThat(index.lookup("d/missing")).isNull();
+
+            try (EntryReader reader = index.openReader(stored)) {
+                assertThat(read(reader, 7, 100)).isEqualTo(Arrays.copyOfRange(small, 7, small.length));
+            }
+            try (EntryReader reader = index.openReader(index.lookup("e/big.txt"))) {
+                assertThat(read(reader, 45_000, 10_000)).isEqualTo(Arrays.copyOfRange(big, 45_000, 50_000));
+                // Blocks decompressed on the way to the end were kept
+                long hits = cache.hits();
+                assertThat(read(reader, 100, 5000)).isEqualTo(Arrays.copyOfRange(big, 100, 5100));
+                assertThat(cache.hits()).isGreaterThan(hits);
+                assertThat(read(reader, 50_000, 10)).isNull();
+            }
+        }
+    }
+
+    @Test
+    void tar_links_and_implicit_directories() throws Exception {
+        byte[] data = text(10_000);
+        Path tar = dir.resolve("a.tar");
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(tar))) {
+            TarArchiveEntry file = new TarArchiveEntry("x/y/f.txt");
+            file.setMode(0755);
+            file.setSize(data.length);
+            put(out, file, data);
+            TarArchiveEntry symlink = new TarArchiveEntry("x/s", TarConstants.LF_SYMLINK);
+            symlink.setLinkName("y/f.txt");
+            put(out, symlink, new byte[0]);
+            TarArchiveEntry hardLink = new TarArchiveEntry("h", TarConstants.LF_LINK);
+            hardLink.setLinkName("x/y/f.txt");
+            put(out, hardLink, new byte[0]);
+        }
+
+        try (ArchiveIndex index = ArchiveIndex.open(tar, cache)) {
+            assertThat(index.lookup("x").childNames()).containsExactly("s", "y");
+            assertThat(index.lookup("x/y/f.txt").mode()).isEqualTo(0100555);
+            assertThat(index.lookup("x/s").type()).isEqualTo(FileType.SYMBOLIC_LINK);
+            assertThat(index.lookup("x/s").linkTarget()).isEqualTo("y/f.txt");
+            Node hardLink = index.lookup("h");
+            assertThat(hardLink.size()).isEqualTo(data.length);
+            try (EntryReader reader = index.openReader(hardLink)) {
+                assertThat(read(reader, 9_000, 2_000)).isEqualTo(Arrays.copyOfRange(data, 9_000, 10_000));
+            }
+        }
+    }
+
+    @Test
+    void seven_z_entries_are_streamed() throws Exception {
+        byte[] a = text(20_000);
+        byte[] b = "second".getBytes(UTF_8);
+        Path sevenZ = dir.resolve("a.7z");
+        try (var out = new SevenZOutputFile(sevenZ.toFile())) {
+            out.setContentCompression(SevenZMethod.DEFLATE);
+            for (var entry : new Object[][]{{"a.txt", a}, {"sub/b.txt", b}}) {
+                SevenZArchiveEntry e = new SevenZArchiveEntry();
+                e.setName((String) entry[0]);
+                out.putArchiveEntry(e);
+                out.write((byte[]) entry[1]);
+                out.closeArchiveEntry();
+            }
+        }
+
+        try (ArchiveIndex index = ArchiveIndex.open(sevenZ, cache)) {
+            assertThat(index.format()).isEqualTo(Format.SEVEN_Z);
+            assertThat(index.lookup("sub/b.txt").size()).isEqualTo(b.length);
+            try (EntryReader reader = index.openReader(index.lookup("sub/b.txt"))) {
+                assertThat(read(reader, 0, 100)).isEqualTo(b);
+            }
+            try (EntryReader reader = index.openReader(index.lookup("a.txt"))) {
+                assertThat(read(reader, 15_000, 100)).isEqualTo(Arrays.copyOfRange(a, 15_000, 15_100));
+                assertThat(read(reader, 10, 100)).isEqualTo(Arrays.copyOfRange(a, 10, 110));
+            }
+        }
+    }
+
+    @Test
+    void tar_gz_resumes_from_checkpoints_and_persists_its_index() throws Exception {
+        byte[] a = text(300_000);
+        byte[] b = new byte[100_000];
+        new Random(1).nextBytes(b); // stored deflate blocks
+        byte[] tar = tar(a, b);
+        // Two gzip members, split inside the content of a
+        Path tarGz = dir.resolve("a.tar.gz");
+        try (OutputStream out = Files.newOutputStream(tarGz)) {
+            for (int[] range : new int[][]{{0, 100_000}, {100_000, tar.length}}) {
+                var gz = new GZIPOutputStream(out);
+                gz.write(tar, range[0], range[1] - range[0]);
+                gz.finish();
+            }
+        }
+
+        Path indexFile = dir.resolve("a.tar.gz.fbidx");
+        try (ArchiveIndex index = ArchiveIndex.open(tarGz, cache, null, 16 * 1024)) {
+            assertThat(index.format()).isEqualTo(Format.TAR_GZIP);
+            assertReads(index, a, b);
+        }
+        assertThat(indexFile).exists();
+        FileTime built = Files.getLastModifiedTime(indexFile);
+
+        try (BlockCache fresh = new BlockCache(4096, 1 << 20);
+             ArchiveIndex index = ArchiveIndex.open(tarGz, fresh, null, 16 * 1024)) {
+            assertThat(index.lookup("d").childNames()).containsExactly("a.txt", "b.bin");
+            assertReads(index, a, b);
+        }
+        assertThat(Files.getLastModifiedTime(indexFile)).isEqualTo(built);
+    }
+
+    @Test
+    void tar_xz_seeks_to_blocks() throws Exception {
+        byte[] a = text(300_000);
+        byte[] b = new byte[100_000];
+        new Random(2).nextBytes(b);
+        byte[] tar = tar(a, b);
+        Path tarXz = dir.resolve("a.tar.xz");
+        try (var out = new XZOutputStream(Files.newOutputStream(tarXz), new LZMA2Options())) {
+            for (int off = 0; off < tar.length; off += 32 * 1024) {
+                out.write(tar, off, Math.min(32 * 1024, tar.length - off));
+                out.endBlock();
+            }
+        }
+
+        Path indexDir = dir.resolve("index");
+        try (ArchiveIndex index = ArchiveIndex.open(tarXz, cache, indexDir)) {
+            assertThat(index.format()).isEqualTo(Format.TAR_XZ);
+            assertReads(index, a, b);
+        }
+        try (var files = Files.list(indexDir)) {
+            assertThat(files.toList()).hasSize(1);
+        }
+    }
+
+    // ---- helpers ----
+
+    /// A TAR with d/a.txt and d/b.bin
+    private static byte[] tar(byte[] a, byte[] b) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new TarArchiveOutputStream(bytes)) {
+            for (var entry : new Object[][]{{"d/a.txt", a}, {"d/b.bin", b}}) {
+                byte[] data = (byte[]) entry[1];
+                TarArchiveEntry e = new TarArchiveEntry((String) entry[0]);
+                e.setSize(data.length);
+                put(out, e, data);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /// Reads back and forth across the checkpoints of a 300 kB a and a 100 kB b
+    private void assertReads(ArchiveIndex index, byte[] a, byte[] b) throws IOException {
+        try (EntryReader reader = index.openReader(index.lookup("d/a.txt"))) {
+            assertThat(read(reader, 250_000, 8_000)).isEqualTo(Arrays.copyOfRange(a, 250_000, 258_000));
+            assertThat(read(reader, 95_000, 10_000)).isEqualTo(Arrays.copyOfRange(a, 95_000, 105_000));
+            assertThat(read(reader, 0, 100)).isEqualTo(Arrays.copyOfRange(a, 0, 100));
+        }
+        try (EntryReader reader = index.openReader(index.lookup("d/b.bin"))) {
+            assertThat(read(reader, 40_000, 4_000)).isEqualTo(Arrays.copyOfRange(b, 40_000, 44_000));
+            assertThat(read(reader, b.length - 10, 100)).isEqualTo(Arrays.copyOfRange(b, b.length - 10, b.length));
+        }
+    }
+
+    private static <E extends ArchiveEntry> void put(ArchiveOutputStream<E> out, E entry, byte[] data)
+            throws IOException {
+        out.putArchiveEntry(entry);
+        out.write(data);
+        out.closeArchiveEntry();
+    }
+
+    /// Compressible but not uniform
+    private static byte[] text(int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        for (int i = 0; sb.length() < length; i++) sb.append("line ").append(i).append('\n');
+        return sb.substring(0, length).getBytes(UTF_8);
+    }
+
+    /// @return null at end of entry
+    private static byte[] read(EntryReader reader, long offset, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(count);
+        int n = reader.read(buf, offset);
+        if (n < 0) return null;
+        return Arrays.copyOf(buf.array(), n);
+    }
+}
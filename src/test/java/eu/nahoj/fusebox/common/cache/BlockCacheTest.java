@@ -0,0 +1,120 @@
+package eu.nahoj.fusebox.common.cache;
+
+import eu.nahoj.fusebox.common.cache.BlockCache.FileVersion;
+import eu.nahoj.fusebox.common.util.ReadAhead.PositionalReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockCacheTest {
+
+    private final BlockCache cache = new BlockCache(16, 64);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void blocks_are_shared_between_readers_of_the_same_version() throws Exception {
+        byte[] data = bytes(40, 0);
+        FileVersion v = new FileVersion("fs", "/f", data.length, 1);
+
+        assertThat(read(v, data, 0, 40)).isEqualTo(data);
+        assertThat(loads.get()).isEqualTo(3);
+
+        assertThat(read(v, data, 10, 20)).isEqualTo(slice(data, 10, 20));
+        assertThat(read(v, data, 35, 20)).isEqualTo(slice(data, 35, 5));
+        assertThat(loads.get()).isEqualTo(3);
+        assertThat(cache.hits()).isGreaterThanOrEqualTo(3);
+
+        byte[] changed = bytes(40, 7);
+        FileVersion v2 = new FileVersion("fs", "/f", changed.length, 2);
+        assertThat(read(v2, changed, 0, 16)).isEqualTo(slice(changed, 0, 16));
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    @Test
+    void budget_is_respected_and_hot_blocks_stay() throws Exception {
+        byte[] hot = bytes(16, 1);
+        FileVersion hotV = new FileVersion("fs", "/hot", 16, 0);
+        for (int i = 0; i < 5; i++) read(hotV, hot, 0, 16);
+
+        for (int f = 0; f < 20; f++) {
+            byte[] cold = bytes(16, f);
+            read(new FileVersion("fs", "/cold" + f, 16, 0), cold, 0, 16);
+        }
+        int before = loads.get();
+        assertThat(read(hotV, hot, 0, 16)).isEqualTo(hot);
+        assertThat(loads.get()).isEqualTo(before);
+    }
+
+    @Test
+    void invalidate_drops_all_versions_of_a_path() throws Exception {
+        byte[] data = bytes(16, 3);
+        FileVersion v = new FileVersion("fs", "/f", 16, 0);
+        read(v, data, 0, 16);
+        cache.invalidate("fs", "/f");
+        read(v, data, 0, 16);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void concurrent_hits_and_evictions_return_the_right_bytes() throws Exception {
+        int files = 8;
+        List<Thread> readers = new ArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        int f = ThreadLocalRandom.current().nextInt(files);
+                        byte[] data = bytes(48, f);
+                        int offset = ThreadLocalRandom.current().nextInt(48);
+                        FileVersion v = new FileVersion("fs", "/f" + f, data.length, 0);
+                        assertThat(read(v, data, offset, 8)).isEqualTo(slice(data, offset, Math.min(8, 48 - offset)));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread r : readers) r.join();
+        assertThat(errors).isEmpty();
+        assertThat(cache.hits()).isPositive();
+    }
+
+    private byte[] read(FileVersion v, byte[] data, long offset, int size) throws Exception {
+        PositionalReader loader = (dst, off) -> {
+            loads.incrementAndGet();
+            int n = (int) Math.min(dst.remaining(), data.length - off);
+            if (n <= 0) return -1;
+            dst.put(data, (int) off, n);
+            return n;
+        };
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = cache.read(v, loader, buf, offset);
+        return slice(buf.array(), 0, n);
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) b[i] = (byte) (i * 31 + seed);
+        return b;
+    }
+
+    private static byte[] slice(byte[] b, int offset, int length) {
+        byte[] out = new byte[length];
+        System.arraycopy(b, offset, out, 0, length);
+        return out;
+    }
+}
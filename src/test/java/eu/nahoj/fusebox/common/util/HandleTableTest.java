@@ -0,0 +1,69 @@
+package eu.nahoj.fusebox.common.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HandleTableTest {
+
+    @Test
+    void add_get_remove() {
+        HandleTable<String> table = new HandleTable<>(1);
+        long a = table.add("a");
+        long b = table.add("b"); // grows
+
+        assertThat(a).isNotZero().isNotEqualTo(b);
+        assertThat(table.get(a)).isEqualTo("a");
+        assertThat(table.get(b)).isEqualTo("b");
+        assertThat(table.size()).isEqualTo(2);
+
+        assertThat(table.remove(a)).isEqualTo("a");
+        assertThat(table.remove(a)).isNull();
+        assertThat(table.get(a)).isNull();
+        assertThat(table.values()).containsExactly("b");
+    }
+
+    @Test
+    void reused_slot_does_not_resolve_stale_handle() {
+        HandleTable<String> table = new HandleTable<>();
+        long stale = table.add("old");
+        table.remove(stale);
+        long fresh = table.add("new");
+
+        assertThat(fresh).isNotEqualTo(stale);
+        assertThat(table.get(stale)).isNull();
+        assertThat(table.get(fresh)).isEqualTo("new");
+    }
+
+    @Test
+    void handles_of_another_table_are_not_resolved() {
+        HandleTable<String> mine = new HandleTable<>();
+        HandleTable<String> other = new HandleTable<>();
+        long fh = other.add("x");
+        mine.add("y");
+
+        assertThat(mine.get(fh)).isNull();
+        assertThat(mine.get(0L)).isNull();
+        assertThat(mine.get(-1L)).isNull();
+    }
+
+    @Test
+    void concurrent_add_and_remove() throws Exception {
+        HandleTable<Integer> table = new HandleTable<>(2);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    long fh = table.add(i);
+                    assertThat(table.get(fh)).isEqualTo(i);
+                    assertThat(table.remove(fh)).isEqualTo(i);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+        assertThat(table.isEmpty()).isTrue();
+    }
+}
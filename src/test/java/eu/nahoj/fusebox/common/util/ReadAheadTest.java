@@ -0,0 +1,95 @@
+package eu.nahoj.fusebox.common.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReadAheadTest {
+
+    private final byte[] data = new byte[1000];
+    {
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+    }
+
+    private final AtomicInteger callerReads = new AtomicInteger();
+    private final AtomicInteger prefetchReads = new AtomicInteger();
+
+    private final ReadAhead readAhead = new ReadAhead((dst, offset) -> {
+        (Thread.currentThread().isVirtual() ? prefetchReads : callerReads).incrementAndGet();
+        if (offset >= data.length) return -1;
+        int n = (int) Math.min(dst.remaining(), data.length - offset);
+        dst.put(data, (int) offset, n);
+        return n;
+    }, 16, 128);
+
+    @Test
+    void sequential_reads_are_served_from_prefetched_chunks() throws Exception {
+        for (int offset = 0; offset < data.length; offset += 10) {
+            assertThat(read(offset, 10)).isEqualTo(slice(offset, 10));
+        }
+        assertThat(read(1000, 10)).isEmpty();
+        readAhead.close();
+
+        assertThat(callerReads.get()).isLessThan(5);
+        assertThat(prefetchReads.get()).isLessThan(20);
+    }
+
+    @Test
+    void random_reads_reset_the_window_and_stay_correct() throws Exception {
+        assertThat(read(0, 10)).isEqualTo(slice(0, 10));
+        assertThat(read(500, 20)).isEqualTo(slice(500, 20));
+        assertThat(read(995, 20)).isEqualTo(slice(995, 5));
+        assertThat(read(100, 10)).isEqualTo(slice(100, 10));
+        assertThat(read(110, 10)).isEqualTo(slice(110, 10));
+        readAhead.invalidate();
+        assertThat(read(120, 10)).isEqualTo(slice(120, 10));
+        readAhead.close();
+    }
+
+    @Test
+    void a_read_waiting_for_the_reader_does_not_block_other_reads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ReadAhead blocking = new ReadAhead((dst, offset) -> {
+            if (offset == 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            int n = (int) Math.min(dst.remaining(), data.length - offset);
+            dst.put(data, (int) offset, n);
+            return n;
+        }, 16, 128);
+        try (ExecutorService pool = Executors.newSingleThreadExecutor()) {
+            Future<Integer> stuck = pool.submit(() -> blocking.read(ByteBuffer.allocate(10), 0));
+            assertThat(blocking.read(ByteBuffer.allocate(10), 500)).isEqualTo(10);
+            assertThat(stuck.isDone()).isFalse();
+            release.countDown();
+            assertThat(stuck.get()).isEqualTo(10);
+        }
+        blocking.close();
+    }
+
+    private byte[] read(long offset, int size) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = readAhead.read(buf, offset);
+        byte[] out = new byte[n];
+        buf.flip().get(out);
+        return out;
+    }
+
+    private byte[] slice(int offset, int size) {
+        byte[] out = new byte[size];
+        System.arraycopy(data, offset, out, 0, size);
+        return out;
+    }
+}
@@ -0,0 +1,55 @@
+package eu.nahoj.fusebox.common.watch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TreeWatcherTest {
+
+    @TempDir
+    Path root;
+
+    private final BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+
+    private final InvalidationListener listener = new InvalidationListener() {
+        @Override
+        public void invalidate(String path) {
+            changes.add(path);
+        }
+
+        @Override
+        public void invalidateAll() {
+            changes.add("<all>");
+        }
+    };
+
+    @Test
+    void reports_changes_in_existing_and_new_directories() throws Exception {
+        Files.createDirectories(root.resolve("a/b"));
+        try (TreeWatcher ignored = TreeWatcher.start(root, listener)) {
+            Files.writeString(root.resolve("a/b/f"), "x");
+            assertThat(awaitChange("a/b/f")).isTrue();
+
+            Files.createDirectory(root.resolve("new"));
+            assertThat(awaitChange("new")).isTrue();
+            Files.writeString(root.resolve("new/g"), "y");
+            assertThat(awaitChange("new/g")).isTrue();
+        }
+    }
+
+    private boolean awaitChange(String path) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            String change = changes.poll(100, TimeUnit.MILLISECONDS);
+            if (path.equals(change)) return true;
+        }
+        return false;
+    }
+}
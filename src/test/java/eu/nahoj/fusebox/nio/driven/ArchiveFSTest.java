@@ -0,0 +1,71 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileType;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveFSTest {
+
+    @TempDir
+    Path dir;
+
+    private ArchiveFS fs;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path zip = dir.resolve("a.zip");
+        try (var out = new ZipArchiveOutputStream(zip)) {
+            out.putArchiveEntry(new ZipArchiveEntry("docs/readme.txt"));
+            out.write("Hello from a zip".getBytes(UTF_8));
+            out.closeArchiveEntry();
+        }
+        fs = ArchiveFS.open(zip);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fs.destroy();
+    }
+
+    @Test
+    void metadata_comes_from_the_index() throws Exception {
+        assertThat(fs.getattr("/", null).type()).isEqualTo(FileType.DIRECTORY);
+        assertThat(fs.getattr("/docs/readme.txt", null).size()).isEqualTo(16);
+        assertThat(fs.readdir("/docs")).containsExactly(new DirEntry("readme.txt"));
+        assertThatThrownBy(() -> fs.getattr("/nope", null)).isInstanceOf(NoSuchFileException.class);
+        assertThatThrownBy(() -> fs.readdir("/docs/readme.txt")).isInstanceOf(NotDirectoryException.class);
+    }
+
+    @Test
+    void files_open_read_only() throws Exception {
+        FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.READ), 0L);
+        fs.open("/docs/readme.txt", fi);
+        ByteBuffer buf = ByteBuffer.allocate(100);
+        int n = fs.read("/docs/readme.txt", buf, 4, 6, fi);
+        assertThat(new String(buf.array(), 0, n, UTF_8)).isEqualTo("from");
+        fs.release("/docs/readme.txt", fi);
+
+        FileInfo writer = new TestFileInfo(0, 0, Set.of(StandardOpenOption.WRITE), 0L);
+        assertThatThrownBy(() -> fs.open("/docs/readme.txt", writer))
+                .isInstanceOf(ReadOnlyFileSystemException.class);
+    }
+}
@@ -0,0 +1,58 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirFdCacheTest {
+
+    private final AtomicInteger nextFd = new AtomicInteger(10);
+    private final List<Integer> closed = new ArrayList<>();
+    private final DirFdCache cache = new DirFdCache(2, path -> nextFd.getAndIncrement(), closed::add);
+
+    @Test
+    void hits_reuse_descriptor_and_lru_is_evicted() throws Exception {
+        int a = fd("/a");
+        assertThat(fd("/a")).isEqualTo(a);
+        int b = fd("/b");
+        fd("/a");
+        fd("/c"); // evicts /b, the least recently used
+
+        assertThat(closed).containsExactly(b);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.hits()).isEqualTo(2);
+        assertThat(cache.misses()).isEqualTo(3);
+    }
+
+    @Test
+    void invalidate_drops_subtree_only() throws Exception {
+        int a = fd("/a");
+        int ab = fd("/a/b");
+        cache.invalidate("/a");
+        int ab2 = fd("/ab");
+
+        assertThat(closed).containsExactlyInAnyOrder(a, ab);
+        assertThat(fd("/ab")).isEqualTo(ab2);
+    }
+
+    @Test
+    void leased_descriptor_is_closed_on_release() throws Exception {
+        DirFdCache.Ref ref = cache.acquire("/a");
+        cache.invalidate("/a");
+        assertThat(closed).isEmpty();
+
+        ref.close();
+        assertThat(closed).containsExactly(ref.fd());
+        assertThat(fd("/a")).isNotEqualTo(ref.fd());
+    }
+
+    private int fd(String path) throws Exception {
+        try (DirFdCache.Ref ref = cache.acquire(path)) {
+            return ref.fd();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GroupCommitSyncerTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void concurrent_callers_are_batched_into_fewer_forces() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountingChannel a = new CountingChannel();
+        CountingChannel b = new CountingChannel();
+        int callers = 64;
+        try (GroupCommitSyncer<FileChannel> syncer = GroupCommitSyncer.ofChannels(Duration.ofMillis(1))) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                FileChannel fc = i % 2 == 0 ? a : b;
+                boolean metaData = i % 3 == 0;
+                futures.add(pool.submit(() -> {
+                    syncer.sync(fc, metaData);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        // While a batch is forced, the other callers queue up for the next one
+        assertThat(a.forces.get()).isPositive();
+        assertThat(b.forces.get()).isPositive();
+        assertThat(a.forces.get() + b.forces.get()).isLessThan(callers / 2);
+    }
+
+    @Test
+    void errors_reach_the_caller_and_close_falls_back_to_direct_force() throws Exception {
+        GroupCommitSyncer<FileChannel> syncer = GroupCommitSyncer.ofChannels(Duration.ZERO);
+        FileChannel closed = FileChannel.open(tmp.resolve("c"), CREATE, WRITE);
+        closed.close();
+        assertThatThrownBy(() -> syncer.sync(closed, false)).isInstanceOf(ClosedChannelException.class);
+
+        syncer.close();
+        try (FileChannel fc = FileChannel.open(tmp.resolve("d"), CREATE, WRITE)) {
+            syncer.sync(fc, true);
+        }
+    }
+
+    /// Counts [#force] calls, each of which takes a few milliseconds like a real fsync
+    private static class CountingChannel extends FileChannel {
+        final AtomicInteger forces = new AtomicInteger();
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            forces.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long size() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+}
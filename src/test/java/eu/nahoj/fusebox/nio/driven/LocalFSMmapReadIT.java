@@ -0,0 +1,68 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocalFSMmapReadIT {
+
+    @TempDir
+    Path tmp;
+
+    private LocalFS fs;
+
+    @BeforeEach
+    void setUp() {
+        fs = new LocalFS(tmp, LocalFSOptions.builder().mmapReads(true).mmapMinSize(0).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        fs.destroy();
+    }
+
+    @Test
+    void reads_see_growth_and_truncation() throws Exception {
+        Files.writeString(tmp.resolve("f"), "0123456789");
+        FileInfo r1 = readOnly();
+        FileInfo r2 = readOnly();
+        fs.open("/f", r1);
+        fs.open("/f", r2);
+
+        assertThat(read(r1, 4, 3)).isEqualTo("3456");
+        assertThat(read(r2, 10, 8)).isEqualTo("89");
+
+        Files.writeString(tmp.resolve("f"), "abc", APPEND);
+        assertThat(read(r1, 10, 8)).isEqualTo("89abc");
+
+        fs.truncate("/f", 4, null);
+        assertThat(read(r2, 10, 2)).isEqualTo("23");
+        assertThat(read(r2, 10, 4)).isEmpty();
+
+        fs.release("/f", r1);
+        fs.release("/f", r2);
+    }
+
+    private static FileInfo readOnly() {
+        return new TestFileInfo(0, 0, Set.of(StandardOpenOption.READ), 0);
+    }
+
+    private String read(FileInfo fi, int size, long offset) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = fs.read("/f", buf, size, offset, fi);
+        return new String(buf.array(), 0, n, UTF_8);
+    }
+}
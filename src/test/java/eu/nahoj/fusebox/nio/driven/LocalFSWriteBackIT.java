@@ -0,0 +1,101 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocalFSWriteBackIT {
+
+    @TempDir
+    Path tmp;
+
+    private LocalFS fs;
+
+    @BeforeEach
+    void setUp() {
+        fs = new LocalFS(tmp, LocalFSOptions.builder().writeBackExtentSize(8).maxDirtyBytes(12).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        fs.destroy();
+    }
+
+    @Test
+    void sequential_writes_are_merged_until_flush() throws Exception {
+        FileInfo fi = readWrite();
+        fs.create("/f", 0644, fi);
+        write(fi, "abc", 0);
+        write(fi, "def", 3);
+        write(fi, "D", 3); // rewrite inside the extent
+        assertThat(Files.size(tmp.resolve("f"))).isZero();
+
+        assertThat(read(fi, 2, 4)).isEqualTo("ef");
+        assertThat(Files.readString(tmp.resolve("f"))).isEqualTo("abcDef");
+
+        write(fi, "gh", 6);
+        assertThat(fs.getattr("/f", null).size()).isEqualTo(8);
+
+        write(fi, "XY", 0);
+        fs.flush("/f", fi);
+        assertThat(Files.readString(tmp.resolve("f"))).isEqualTo("XYcDefgh");
+        fs.release("/f", fi);
+    }
+
+    @Test
+    void budget_is_shared_by_handles() throws Exception {
+        FileInfo a = readWrite();
+        FileInfo b = readWrite();
+        fs.create("/a", 0644, a);
+        fs.create("/b", 0644, b);
+        write(a, "12345678", 0);
+        write(b, "12345", 0); // over budget: written through
+        assertThat(Files.readString(tmp.resolve("b"))).isEqualTo("12345");
+        assertThat(Files.size(tmp.resolve("a"))).isZero();
+
+        fs.release("/a", a);
+        fs.release("/b", b);
+        assertThat(Files.readString(tmp.resolve("a"))).isEqualTo("12345678");
+    }
+
+    @Test
+    void a_write_flushes_older_extents_of_other_handles_first() throws Exception {
+        FileInfo a = readWrite();
+        FileInfo b = readWrite();
+        fs.create("/f", 0644, a);
+        fs.open("/f", b);
+        write(a, "old", 0);
+        write(b, "new", 0);
+
+        fs.release("/f", b);
+        fs.release("/f", a);
+        assertThat(Files.readString(tmp.resolve("f"))).isEqualTo("new");
+    }
+
+    private static FileInfo readWrite() {
+        return new TestFileInfo(0, 2, Set.of(StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+    }
+
+    private void write(FileInfo fi, String s, long offset) throws Exception {
+        byte[] bytes = s.getBytes(UTF_8);
+        assertThat(fs.write("/f", ByteBuffer.wrap(bytes), bytes.length, offset, fi)).isEqualTo(bytes.length);
+    }
+
+    private String read(FileInfo fi, int size, long offset) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = fs.read("/f", buf, size, offset, fi);
+        return new String(buf.array(), 0, n, UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileType;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryFSTest {
+
+    // Small blocks so that tests cross block boundaries
+    private final MemoryFS fs = new MemoryFS(16, 1 << 20);
+
+    @AfterEach
+    void tearDown() {
+        fs.destroy();
+    }
+
+    @Test
+    void write_then_read_across_blocks() throws Exception {
+        FileInfo fi = create("/a.txt");
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes(UTF_8);
+        assertThat(fs.write("/a.txt", ByteBuffer.wrap(data), data.length, 0, fi)).isEqualTo(data.length);
+
+        assertThat(fs.getattr("/a.txt", null).size()).isEqualTo(data.length);
+        assertThat(read("/a.txt", fi, 100, 0)).isEqualTo(data);
+        assertThat(new String(read("/a.txt", fi, 9, 10), UTF_8)).isEqualTo("brown fox");
+        fs.release("/a.txt", fi);
+    }
+
+    @Test
+    void sparse_regions_and_truncate_read_as_zeros() throws Exception {
+        FileInfo fi = create("/sparse");
+        fs.write("/sparse", ByteBuffer.wrap(new byte[]{1, 2, 3}), 3, 40, fi);
+        assertThat(fs.getattr("/sparse", null).size()).isEqualTo(43);
+
+        byte[] all = read("/sparse", fi, 43, 0);
+        assertThat(all).startsWith(new byte[40]).endsWith(1, 2, 3);
+
+        // Shrink into the middle of a block, then grow again: the cut-off tail must not reappear
+        fs.truncate("/sparse", 41, null);
+        fs.truncate("/sparse", 43, null);
+        assertThat(read("/sparse", fi, 3, 40)).containsExactly(1, 0, 0);
+        fs.release("/sparse", fi);
+    }
+
+    @Test
+    void directories_and_readdir() throws Exception {
+        fs.mkdir("/d", 0755);
+        fs.mkdir("/d/sub", 0700);
+        fs.release("/d/f", create("/d/f"));
+
+        assertThat(fs.readdir("/d")).extracting(DirEntry::name).containsExactly("f", "sub");
+        assertThat(fs.getattr("/d/sub", null).type()).isEqualTo(FileType.DIRECTORY);
+        assertThatThrownBy(() -> fs.mkdir("/d", 0755)).isInstanceOf(FileAlreadyExistsException.class);
+        assertThatThrownBy(() -> fs.rmdir("/d")).isInstanceOf(DirectoryNotEmptyException.class);
+        assertThatThrownBy(() -> fs.getattr("/d/missing", null)).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void rename_flags() throws Exception {
+        fs.release("/a", create("/a"));
+        fs.release("/b", create("/b"));
+        fs.mkdir("/d", 0755);
+
+        assertThatThrownBy(() -> fs.rename("/a", "/b", 1)).isInstanceOf(FileAlreadyExistsException.class);
+        assertThatThrownBy(() -> fs.rename("/d", "/d/inner", 0)).isInstanceOf(FileSystemException.class);
+
+        fs.mkdir("/e", 0700);
+        fs.rename("/d", "/e", 2); // exchange
+        assertThat(fs.getattr("/d", null).permissions()).hasSize(3);
+
+        fs.rename("/a", "/d/a", 0);
+        assertThat(fs.readdir("/")).extracting(DirEntry::name).containsExactly("b", "d", "e");
+        assertThat(fs.readdir("/d")).extracting(DirEntry::name).containsExactly("a");
+    }
+
+    @Test
+    void unlinked_file_stays_readable_through_open_handle() throws Exception {
+        FileInfo fi = create("/tmp");
+        fs.write("/tmp", ByteBuffer.wrap("data".getBytes(UTF_8)), 4, 0, fi);
+        fs.unlink("/tmp");
+
+        assertThatThrownBy(() -> fs.getattr("/tmp", null)).isInstanceOf(NoSuchFileException.class);
+        assertThat(read("/tmp", fi, 4, 0)).isEqualTo("data".getBytes(UTF_8));
+        fs.release("/tmp", fi);
+    }
+
+    @Test
+    void xattrs_symlinks_and_modes() throws Exception {
+        fs.release("/f", create("/f"));
+        fs.setxattr("/f", "user.k", ByteBuffer.wrap("v".getBytes(UTF_8)));
+        assertThat(fs.getxattr("/f", "user.k")).isEqualTo("v");
+        assertThat(fs.listxattr("/f")).containsExactly("user.k");
+        fs.removexattr("/f", "user.k");
+        assertThatThrownBy(() -> fs.getxattr("/f", "user.k")).isInstanceOf(FileSystemException.class);
+
+        fs.symlink("f", "/link");
+        assertThat(fs.readlink("/link")).isEqualTo("f");
+        assertThat(fs.getattr("/link", null).type()).isEqualTo(FileType.SYMBOLIC_LINK);
+
+        fs.chmod("/f", 04600, null);
+        assertThat(fs.getattr("/f", null).suid()).isTrue();
+        assertThat(fs.getattr("/f", null).type()).isEqualTo(FileType.REGULAR_FILE);
+    }
+
+    @Test
+    void concurrent_appends_do_not_overwrite_each_other() throws Exception {
+        fs.release("/log", create("/log"));
+        int threads = 4, appendsPerThread = 200;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.WRITE, StandardOpenOption.APPEND), 0L);
+            fs.open("/log", fi);
+            writers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; i < appendsPerThread; i++) {
+                        fs.write("/log", ByteBuffer.wrap(new byte[]{1, 2, 3}), 3, 0, fi);
+                    }
+                    fs.release("/log", fi);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        for (Thread w : writers) w.join();
+
+        assertThat(fs.getattr("/log", null).size()).isEqualTo(3L * threads * appendsPerThread);
+    }
+
+    // ---- helpers ----
+
+    private FileInfo create(String path) throws IOException {
+        FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.READ, StandardOpenOption.WRITE), 0L);
+        fs.create(path, 0644, fi);
+        return fi;
+    }
+
+    private byte[] read(String path, FileInfo fi, int count, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(count);
+        int n = fs.read(path, buf, count, offset, fi);
+        byte[] out = new byte[n];
+        buf.flip().get(out);
+        return out;
+    }
+}
@@ -0,0 +1,183 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import eu.nahoj.fusebox.common.api.BadFileDescriptorException;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileType;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NativeLocalFSIT {
+
+    private static final int O_RDWR = 2;
+
+    @TempDir
+    Path tmp;
+
+    private NativeLocalFS fs;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fs = new NativeLocalFS(tmp);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fs.destroy();
+    }
+
+    @Test
+    void getattr_matches_nio() throws Exception {
+        Path real = tmp.resolve("real.txt");
+        Files.writeString(real, "hello world");
+
+        FileAttributes attrs = fs.getattr("/real.txt", null);
+        FileAttributes nio = new LocalFS(tmp).getattr("/real.txt", null);
+
+        assertThat(attrs.type()).isEqualTo(FileType.REGULAR_FILE);
+        assertThat(attrs.mode()).isEqualTo(nio.mode());
+        assertThat(attrs.size()).isEqualTo(11);
+        assertThat(attrs.lastModifiedNanos()).isEqualTo(nio.lastModifiedNanos());
+        assertThat(fs.getattr("/", null).isDirectory()).isTrue();
+        assertThatThrownBy(() -> fs.getattr("/missing", null)).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void file_keys_match_nio_and_follow_renames() throws Exception {
+        Files.writeString(tmp.resolve("a.txt"), "a");
+
+        var key = fs.fileKey("/a.txt", null);
+        assertThat(key).isEqualTo(new LocalFS(tmp).fileKey("/a.txt", null));
+        fs.rename("/a.txt", "/b.txt", 0);
+        assertThat(fs.fileKey("/b.txt", null)).isEqualTo(key);
+    }
+
+    @Test
+    void getattrBatch_stats_children_and_leaves_out_missing_ones() throws Exception {
+        Files.createDirectories(tmp.resolve("d/sub"));
+        Files.writeString(tmp.resolve("d/f.txt"), "12345");
+
+        var attrs = fs.getattrBatch("/d", List.of("f.txt", "missing", "sub"));
+
+        assertThat(attrs.keySet()).containsExactly("f.txt", "sub");
+        assertThat(attrs.get("f.txt").size()).isEqualTo(5);
+        assertThat(attrs.get("sub").isDirectory()).isTrue();
+        assertThat(fs.getattrBatch("/", List.of("d")).get("d").isDirectory()).isTrue();
+    }
+
+    @Test
+    void create_write_read_truncate() throws Exception {
+        FileInfo fi = new TestFileInfo(0, O_RDWR, Set.of(StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+        fs.create("/f.txt", 0640, fi);
+        byte[] data = "native bytes".getBytes(UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        assertThat(fs.write("/f.txt", direct, data.length, 0, fi)).isEqualTo(data.length);
+
+        ByteBuffer heap = ByteBuffer.allocate(64);
+        int n = fs.read("/f.txt", heap, 64, 7, fi);
+        assertThat(new String(heap.array(), 0, n, UTF_8)).isEqualTo("bytes");
+
+        fs.truncate("/f.txt", 6, fi);
+        assertThat(fs.getattr("/other-path-ignored", fi).size()).isEqualTo(6);
+        fs.release("/f.txt", fi);
+
+        assertThat(Files.readString(tmp.resolve("f.txt"))).isEqualTo("native");
+        fs.chmod("/f.txt", 0600, null);
+        assertThat(fs.getattr("/f.txt", null).permissionBits()).isEqualTo(0600);
+    }
+
+    @Test
+    void fsync_and_fsyncdir_reach_the_file_or_report_a_bad_handle() throws Exception {
+        for (FsyncMode mode : FsyncMode.values()) {
+            NativeLocalFS syncing = new NativeLocalFS(tmp, 0, mode, Duration.ZERO);
+            try {
+                String name = "f-" + mode + ".txt";
+                FileInfo fi = new TestFileInfo(0, O_RDWR, Set.of(StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+                syncing.create("/" + name, 0640, fi);
+                syncing.write("/" + name, ByteBuffer.wrap("synced".getBytes(UTF_8)), 6, 0, fi);
+                syncing.fsync("/" + name, 0, fi);
+                syncing.fsync("/" + name, 1, fi);
+                syncing.fsyncdir("/", 0, fi);
+                syncing.release("/" + name, fi);
+
+                assertThat(Files.readString(tmp.resolve(name))).isEqualTo("synced");
+                assertThatThrownBy(() -> syncing.fsync("/" + name, 0, fi))
+                        .isInstanceOf(BadFileDescriptorException.class);
+            } finally {
+                syncing.destroy();
+            }
+        }
+    }
+
+    @Test
+    void directories_links_and_rename_exchange() throws Exception {
+        fs.mkdir("/d", 0755);
+        Files.writeString(tmp.resolve("d/a"), "A");
+        Files.writeString(tmp.resolve("b"), "B");
+        fs.symlink("d/a", "/link");
+
+        assertThat(fs.readdir("/")).extracting(DirEntry::name).containsExactlyInAnyOrder("d", "b", "link");
+        assertThat(fs.readlink("/link")).isEqualTo("d/a");
+        assertThat(fs.getattr("/link", null).type()).isEqualTo(FileType.SYMBOLIC_LINK);
+        assertThatThrownBy(() -> fs.rmdir("/d")).isInstanceOf(DirectoryNotEmptyException.class);
+        assertThatThrownBy(() -> fs.rename("/b", "/d/a", 1)).isInstanceOf(FileAlreadyExistsException.class);
+
+        fs.rename("/b", "/d/a", 2); // RENAME_EXCHANGE
+        assertThat(Files.readString(tmp.resolve("b"))).isEqualTo("A");
+        assertThat(Files.readString(tmp.resolve("d/a"))).isEqualTo("B");
+
+        fs.unlink("/d/a");
+        fs.rmdir("/d");
+        assertThat(Files.exists(tmp.resolve("d"))).isFalse();
+    }
+
+    @Test
+    void cached_parent_descriptors_follow_renames() throws Exception {
+        Files.createDirectories(tmp.resolve("a/b/c"));
+        Files.writeString(tmp.resolve("a/b/c/f"), "1");
+        assertThat(fs.getattr("/a/b/c/f", null).size()).isEqualTo(1);
+
+        fs.rename("/a", "/z", 0);
+        Files.createDirectories(tmp.resolve("a/b/c"));
+        Files.writeString(tmp.resolve("a/b/c/f"), "22");
+        assertThat(fs.getattr("/a/b/c/f", null).size()).isEqualTo(2);
+        assertThat(fs.getattr("/z/b/c/f", null).size()).isEqualTo(1);
+
+        fs.unlink("/z/b/c/f");
+        fs.rmdir("/z/b/c");
+        assertThatThrownBy(() -> fs.getattr("/z/b/c/f", null)).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void xattrs() throws Exception {
+        Files.writeString(tmp.resolve("x"), "");
+        try {
+            fs.setxattr("/x", "user.k", ByteBuffer.wrap("v".getBytes(UTF_8)));
+        } catch (Exception e) {
+            return; // tmpfs without user xattrs
+        }
+        assertThat(fs.getxattr("/x", "user.k")).isEqualTo("v");
+        assertThat(fs.listxattr("/x")).contains("user.k");
+        fs.removexattr("/x", "user.k");
+        assertThat(fs.listxattr("/x")).doesNotContain("user.k");
+    }
+}
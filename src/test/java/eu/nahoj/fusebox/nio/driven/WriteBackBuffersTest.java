@@ -0,0 +1,169 @@
+package eu.nahoj.fusebox.nio.driven;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WriteBackBuffersTest {
+
+    @TempDir
+    Path tmp;
+
+    private final WriteBackBuffers buffers = new WriteBackBuffers(8, 64);
+
+    @Test
+    void a_failed_write_out_keeps_the_extent_and_is_reported_to_its_handle_only() throws Exception {
+        Path f = tmp.resolve("f");
+        try (FlakyChannel fc = new FlakyChannel(FileChannel.open(f, CREATE, WRITE))) {
+            WriteBackBuffers.Buffer owner = buffers.newBuffer(f, fc);
+            owner.write(ByteBuffer.wrap("abc".getBytes(UTF_8)), 0, 3);
+
+            // Triggered by another handle: the error is kept for the owner
+            fc.failures = 1;
+            buffers.writeOut(f, null);
+            assertThat(buffers.dirtyBytes()).isEqualTo(3);
+
+            // The retry succeeds, but the owner still learns that a write-out failed, once
+            assertThatThrownBy(owner::flush).isInstanceOf(IOException.class).hasMessage("EIO");
+            assertThat(Files.readString(f)).isEqualTo("abc");
+            assertThat(buffers.dirtyBytes()).isZero();
+            owner.flush();
+        }
+    }
+
+    @Test
+    void other_handles_only_write_out_buffers_of_the_same_path() throws Exception {
+        Path f = tmp.resolve("f");
+        Path g = tmp.resolve("g");
+        try (FileChannel fcF = FileChannel.open(f, CREATE, WRITE);
+             FileChannel fcG = FileChannel.open(g, CREATE, WRITE)) {
+            WriteBackBuffers.Buffer a = buffers.newBuffer(f, fcF);
+            WriteBackBuffers.Buffer b = buffers.newBuffer(g, fcG);
+            a.write(ByteBuffer.wrap("abc".getBytes(UTF_8)), 0, 3);
+            b.write(ByteBuffer.wrap("de".getBytes(UTF_8)), 0, 2);
+
+            buffers.writeOut(f, b);
+            assertThat(Files.readString(f)).isEqualTo("abc");
+            assertThat(Files.size(g)).isZero();
+
+            buffers.writeOut(g, b);
+            assertThat(Files.size(g)).isZero();
+            b.close();
+            assertThat(Files.readString(g)).isEqualTo("de");
+        }
+    }
+
+    /// Delegates positional writes to a real channel, failing the next `failures` of them
+    private static class FlakyChannel extends FileChannel {
+        private final FileChannel delegate;
+        volatile int failures;
+
+        FlakyChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (failures > 0) {
+                failures--;
+                throw new IOException("EIO");
+            }
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long size() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileKey;
+import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.cache.BlockCache;
+import eu.nahoj.fusebox.nio.api.FuseboxFS;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockCacheFSTest {
+
+    private final BlockCache cache = new BlockCache(16, 16 * 64);
+
+    @AfterEach
+    void closeCache() {
+        cache.close();
+    }
+
+    @Test
+    void blocks_are_shared_by_the_mounts_of_a_file() throws Exception {
+        Inode file = new Inode(1, "shared");
+        InodeFS a = new InodeFS(true);
+        InodeFS b = new InodeFS(true);
+        a.files.put("/f", file);
+        b.files.put("/link", file);
+        BlockCacheFS fsA = BlockCacheFS.create(a, cache);
+        BlockCacheFS fsB = BlockCacheFS.create(b, cache);
+
+        assertThat(readAll(fsA, "/f")).isEqualTo("shared");
+        assertThat(readAll(fsB, "/link")).isEqualTo("shared");
+        assertThat(a.reads).isEqualTo(1);
+        assertThat(b.reads).isZero();
+        // Cached handles are this layer's, the delegate gets its own back
+        assertThat(a.released).containsExactlyElementsOf(a.opened);
+        assertThat(b.released).containsExactlyElementsOf(b.opened);
+    }
+
+    @Test
+    void blocks_keyed_by_path_are_dropped_when_another_file_is_renamed_over_it() throws Exception {
+        InodeFS delegate = new InodeFS(false);
+        delegate.files.put("/f", new Inode(1, "old"));
+        delegate.files.put("/tmp", new Inode(2, "new"));
+        BlockCacheFS fs = BlockCacheFS.create(delegate, cache);
+
+        assertThat(readAll(fs, "/f")).isEqualTo("old");
+        // Same size and modification time: only the rename tells them apart
+        fs.rename("/tmp", "/f", 0);
+        assertThat(readAll(fs, "/f")).isEqualTo("new");
+    }
+
+    @Test
+    void blocks_keyed_by_file_follow_it_when_renamed() throws Exception {
+        InodeFS delegate = new InodeFS(true);
+        delegate.files.put("/f", new Inode(1, "content"));
+        BlockCacheFS fs = BlockCacheFS.create(delegate, cache);
+
+        assertThat(readAll(fs, "/f")).isEqualTo("content");
+        fs.rename("/f", "/g", 0);
+        assertThat(readAll(fs, "/g")).isEqualTo("content");
+        assertThat(delegate.reads).isEqualTo(1);
+    }
+
+    private static String readAll(FuseboxFS fs, String path) throws IOException {
+        FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.READ), 0);
+        fs.open(path, fi);
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(64);
+            fs.read(path, buf, buf.remaining(), 0, fi);
+            return new String(buf.array(), 0, buf.position(), UTF_8);
+        } finally {
+            fs.release(path, fi);
+        }
+    }
+
+    private record Inode(long ino, String content) {
+    }
+
+    /// Files with an inode, all with the same modification time; counts reads
+    private static class InodeFS implements FuseboxFS {
+
+        private final boolean exposesKeys;
+        final Map<String, Inode> files = new HashMap<>();
+        final List<Long> opened = new ArrayList<>();
+        final List<Long> released = new ArrayList<>();
+        int reads;
+        private long nextFh = 100;
+
+        InodeFS(boolean exposesKeys) {
+            this.exposesKeys = exposesKeys;
+        }
+
+        @Override
+        public Set<Operation> supportedOperations() {
+            return EnumSet.of(Operation.GET_ATTR, Operation.OPEN, Operation.READ, Operation.RELEASE,
+                    Operation.RENAME);
+        }
+
+        private Inode file(String path) throws NoSuchFileException {
+            Inode file = files.get(path);
+            if (file == null) throw new NoSuchFileException(path);
+            return file;
+        }
+
+        @Override
+        public FileAttributes getattr(String path, @Nullable FileInfo fi) throws IOException {
+            return FileAttributes.builder()
+                    .type(FileType.REGULAR_FILE)
+                    .size(file(path).content.length())
+                    .lastModifiedNanos(1)
+                    .build();
+        }
+
+        @Override
+        @Nullable
+        public FileKey fileKey(String path, @Nullable FileInfo fi) throws IOException {
+            return exposesKeys ? new FileKey(1, file(path).ino) : null;
+        }
+
+        @Override
+        public void open(String path, FileInfo fi) throws IOException {
+            file(path);
+            fi.setFh(nextFh++);
+            opened.add(fi.getFh());
+        }
+
+        @Override
+        public int read(String path, ByteBuffer buf, long count, long offset, FileInfo fi) throws IOException {
+            assertThat(opened).contains(fi.getFh());
+            reads++;
+            byte[] content = file(path).content.getBytes(UTF_8);
+            int n = (int) Math.max(0, Math.min(count, content.length - offset));
+            buf.put(content, (int) offset, n);
+            return n;
+        }
+
+        @Override
+        public void release(String path, FileInfo fi) {
+            released.add(fi.getFh());
+        }
+
+        @Override
+        public void rename(String oldPath, String newPath, int flags) throws IOException {
+            files.put(newPath, file(oldPath));
+            files.remove(oldPath);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachedListingsFSTest {
+
+    private final TestDelegateFS delegate = new TestDelegateFS();
+    private final CachedListingsFS fs = CachedListingsFS.create(delegate, 16, Duration.ofMinutes(1));
+
+    @BeforeEach
+    void setUp() {
+        delegate.setDirEntries("/", "d");
+        delegate.setDirEntries("/d", "a", "sub");
+        delegate.setDirEntries("/d/sub", "c");
+    }
+
+    @Test
+    void repeated_listings_reach_the_delegate_once() throws Exception {
+        assertThat(names(fs.readdir("/d"))).containsExactly("a", "sub");
+        assertThat(names(fs.readdir("/d"))).containsExactly("a", "sub");
+
+        assertThat(readdirCalls()).containsExactly("readdir:/d");
+        assertThat(fs.hits()).isEqualTo(1);
+        assertThat(fs.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void changes_through_the_fs_drop_the_listings_they_affect() throws Exception {
+        fs.readdir("/");
+        fs.readdir("/d");
+        fs.readdir("/d/sub");
+
+        delegate.setDirEntries("/d", "a", "b", "sub");
+        fs.create("/d/b", 0644, new TestFileInfo(0, 0, Set.of(), 0L));
+        assertThat(names(fs.readdir("/d"))).containsExactly("a", "b", "sub");
+
+        fs.rename("/d/sub", "/sub", 0);
+        fs.readdir("/");
+        fs.readdir("/d");
+        fs.readdir("/d/sub");
+
+        assertThat(readdirCalls()).containsExactly(
+                "readdir:/", "readdir:/d", "readdir:/d/sub",
+                "readdir:/d",
+                "readdir:/", "readdir:/d", "readdir:/d/sub");
+    }
+
+    @Test
+    void changes_reported_by_the_delegate_drop_the_listings_they_affect() throws Exception {
+        fs.readdir("/");
+        fs.readdir("/d");
+        fs.readdir("/d/sub");
+
+        delegate.invalidationListeners.forEach(l -> l.invalidate("/d/sub/c"));
+        fs.readdir("/");
+        fs.readdir("/d");
+        fs.readdir("/d/sub");
+
+        delegate.invalidationListeners.forEach(l -> l.invalidateAll());
+        fs.readdir("/");
+
+        assertThat(readdirCalls()).containsExactly(
+                "readdir:/", "readdir:/d", "readdir:/d/sub",
+                "readdir:/d/sub",
+                "readdir:/");
+    }
+
+    private List<String> readdirCalls() {
+        return delegate.calls.stream().filter(c -> c.startsWith("readdir:")).toList();
+    }
+
+    private static List<String> names(List<DirEntry> entries) {
+        return entries.stream().map(DirEntry::name).toList();
+    }
+}
@@ -35,7 +35,7 @@ class ContentViewFSTest {
                 ("<html><body><pre>" + new String(src, UTF_8) + "</pre></body></html>")
                         .getBytes(UTF_8);
 
-        ContentViewFS fs = new ContentViewFS(delegate, README::equals, gen);
+        ContentViewFS fs = ContentViewFS.create(delegate, README::equals, gen);
 
         // Before open: size is not smaller than transformed size (prevents truncation)
         FileAttributes before = fs.getattr(README, null);
@@ -65,7 +65,7 @@ class ContentViewFSTest {
     @Test
     void non_matching_paths_are_passthrough() throws Exception {
         HelloHiddenFS delegate = new HelloHiddenFS();
-        ContentViewFS fs = new ContentViewFS(delegate, README::equals, (p, s) -> s);
+        ContentViewFS fs = ContentViewFS.create(delegate, README::equals, (p, s) -> s);
 
         FileAttributes attr = fs.getattr(HELLO, null);
         byte[] fromFs = readAll(fs, HELLO);
@@ -2,10 +2,12 @@ package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -47,4 +49,25 @@ class FilteredFSTest {
         List<DirEntry> a = fs.readdir("/a");
         assertThat(a).extracting(DirEntry::name).containsExactlyInAnyOrder("x.txt", "y.txt");
     }
+
+    @Test
+    void getattrBatch_leaves_out_hidden_names() throws Exception {
+        FilteredFS fs = new FilteredFS(delegate, s -> !s.equals("a/y.txt"));
+
+        assertThat(fs.getattrBatch("/a", List.of("x.txt", "y.txt")).keySet()).containsExactly("x.txt");
+        assertThat(delegate.calls).containsExactly("getattrBatch:/a:[x.txt]");
+    }
+
+    @Test
+    void invalidations_reach_layers_above_except_for_hidden_paths() {
+        ChainingFS fs = new ReadOnlyDirsFS(new FilteredFS(delegate, s -> s.startsWith("a")), "a"::equals);
+        List<String> invalidated = new ArrayList<>();
+        fs.addInvalidationListener(InvalidationListener.of(invalidated::add, () -> invalidated.add("*")));
+
+        delegate.invalidationListeners.forEach(l -> l.invalidate("/a/x.txt"));
+        delegate.invalidationListeners.forEach(l -> l.invalidate("/b"));
+        delegate.invalidationListeners.forEach(InvalidationListener::invalidateAll);
+
+        assertThat(invalidated).containsExactly("/a/x.txt", "*");
+    }
 }
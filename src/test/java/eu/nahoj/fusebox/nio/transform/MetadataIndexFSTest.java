@@ -0,0 +1,153 @@
+package eu.nahoj.fusebox.nio.transform;
+
+import eu.nahoj.fusebox.TestFileInfo;
+import eu.nahoj.fusebox.common.api.DirEntry;
+import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.nio.api.FuseboxFS;
+import eu.nahoj.fusebox.nio.driven.MemoryFS;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetadataIndexFSTest {
+
+    private final MemoryFS source = new MemoryFS();
+    private final MetadataIndexFS fs = MetadataIndexFS.create(source, Duration.ZERO);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        source.mkdir("/d", 0755);
+        source.mkdir("/d/sub", 0755);
+        create(source, "/d/b");
+        create(source, "/d/a");
+        create(source, "/d/sub/c");
+        fs.refresh(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fs.destroy();
+    }
+
+    @Test
+    void answers_from_the_index_without_seeing_changes_behind_it() throws Exception {
+        create(source, "/d/new");
+        source.unlink("/d/a");
+
+        assertThat(names(fs.readdir("/d"))).containsExactly("a", "b", "sub");
+        assertThat(fs.getattr("/d/a", null).type()).isEqualTo(FileType.REGULAR_FILE);
+        assertThat(fs.getattr("/d/sub", null).isDirectory()).isTrue();
+        assertThatThrownBy(() -> fs.getattr("/d/new", null)).isInstanceOf(NoSuchFileException.class);
+        assertThatThrownBy(() -> fs.getattr("/d/a/x", null)).isInstanceOf(NotDirectoryException.class);
+        assertThatThrownBy(() -> fs.access("/d/new", 0)).isInstanceOf(NoSuchFileException.class);
+        assertThat(fs.getattrBatch("/d", List.of("a", "new", "sub"))).containsOnlyKeys("a", "sub");
+
+        fs.refresh(true);
+        assertThat(names(fs.readdir("/d"))).containsExactly("b", "new", "sub");
+    }
+
+    @Test
+    void changes_through_the_fs_pass_through_until_the_directory_is_relisted() throws Exception {
+        fs.unlink("/d/a");
+        assertThat(names(fs.readdir("/d"))).containsExactlyInAnyOrder("b", "sub");
+        assertThatThrownBy(() -> fs.getattr("/d/a", null)).isInstanceOf(NoSuchFileException.class);
+
+        // Only /d is listed again: the unchanged subdirectory comes from the previous index
+        write(source, "/d/sub/c", "abc");
+        fs.refresh(false);
+        assertThat(names(fs.readdir("/d"))).containsExactly("b", "sub");
+        assertThat(names(fs.readdir("/d/sub"))).containsExactly("c");
+        assertThat(fs.getattr("/d/sub/c", null).size()).isZero();
+
+        // Unless it changed
+        source.unlink("/d/sub/c");
+        fs.unlink("/d/b");
+        fs.refresh(false);
+        assertThat(names(fs.readdir("/d/sub"))).isEmpty();
+    }
+
+    @Test
+    void new_directories_are_walked_on_refresh() throws Exception {
+        fs.mkdir("/d/sub/deep", 0755);
+        create(source, "/d/sub/deep/f");
+        fs.refresh(false);
+
+        source.unlink("/d/sub/deep/f");
+        assertThat(names(fs.readdir("/d/sub/deep"))).containsExactly("f");
+    }
+
+    @Test
+    void a_directory_replaced_within_one_refresh_is_walked_again() throws Exception {
+        source.mkdir("/f", 0755);
+        source.mkdir("/f/sub", 0755);
+        create(source, "/f/sub/z");
+        fs.refresh(true);
+
+        fs.rename("/d", "/e", 0);
+        fs.rename("/f", "/d", 0);
+        fs.refresh(false);
+
+        assertThat(names(fs.readdir("/d/sub"))).containsExactly("z");
+        assertThat(names(fs.readdir("/e/sub"))).containsExactly("c");
+    }
+
+    @Test
+    void opening_with_truncate_updates_the_file_attributes() throws Exception {
+        write(source, "/d/a", "abc");
+        fs.refresh(true);
+        assertThat(fs.getattr("/d/a", null).size()).isEqualTo(3);
+
+        FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 0L);
+        fs.open("/d/a", fi);
+        fs.release("/d/a", fi);
+        assertThat(fs.getattr("/d/a", null).size()).isZero();
+    }
+
+    @Test
+    void writes_restat_the_file_without_relisting_its_directory() throws Exception {
+        write(fs, "/d/a", "abc");
+        create(source, "/d/new");
+
+        assertThat(fs.getattr("/d/a", null).size()).isEqualTo(3);
+        assertThat(fs.getattrBatch("/d", List.of("a")).get("a").size()).isEqualTo(3);
+        assertThat(names(fs.readdir("/d"))).containsExactly("a", "b", "sub");
+
+        // The new size is indexed, but not the new file
+        fs.refresh(false);
+        source.truncate("/d/a", 0, null);
+        assertThat(fs.getattr("/d/a", null).size()).isEqualTo(3);
+        assertThat(names(fs.readdir("/d"))).containsExactly("a", "b", "sub");
+    }
+
+    private static void write(FuseboxFS target, String path, String content) throws IOException {
+        FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.WRITE), 0L);
+        target.open(path, fi);
+        byte[] bytes = content.getBytes(UTF_8);
+        target.write(path, ByteBuffer.wrap(bytes), bytes.length, 0, fi);
+        target.release(path, fi);
+    }
+
+    private static void create(FuseboxFS target, String path) throws IOException {
+        FileInfo fi = new TestFileInfo(0, 0, Set.of(StandardOpenOption.WRITE), 0L);
+        target.create(path, 0644, fi);
+        target.release(path, fi);
+    }
+
+    private static List<String> names(List<DirEntry> entries) {
+        return entries.stream().map(DirEntry::name).toList();
+    }
+}
@@ -2,9 +2,11 @@ package eu.nahoj.fusebox.nio.transform;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
@@ -48,6 +50,33 @@ class RenamedFSTest {
         assertThat(entries).extracting(DirEntry::name).containsExactlyInAnyOrder("a.txt", "b.txt");
     }
 
+    @Test
+    void getattrBatch_translates_names_once_for_the_directory() throws Exception {
+        RenamedFS fs = renamedFS(name -> name.replace(".txt", ".md"),
+                name -> name.replace(".md", ".txt"),
+                p -> !p.equals("orig"));
+
+        var attrs = fs.getattrBatch("/orig", List.of("a.md", "b.md", "c.md"));
+
+        assertThat(delegate.calls).containsExactly("getattrBatch:/orig:[a.txt, b.txt, c.txt]");
+        assertThat(attrs.keySet()).containsExactly("a.md", "b.md");
+    }
+
+    @Test
+    void invalidations_are_translated_to_mount_paths() {
+        RenamedFS fs = renamedFS(name -> name.replace(".txt", ".md"),
+                name -> name.replace(".md", ".txt"),
+                p -> !p.equals("orig"));
+        List<String> invalidated = new ArrayList<>();
+        fs.addInvalidationListener(InvalidationListener.of(invalidated::add, () -> invalidated.add("*")));
+
+        delegate.invalidationListeners.forEach(l -> l.invalidate("/orig/a.txt"));
+        delegate.invalidationListeners.forEach(l -> l.invalidate("/orig"));
+        delegate.invalidationListeners.forEach(InvalidationListener::invalidateAll);
+
+        assertThat(invalidated).containsExactly("/orig/a.md", "/orig", "*");
+    }
+
     @Test
     void readdir_throws_on_duplicate_mapped_names() {
         // Mapping that renames every child to the same name
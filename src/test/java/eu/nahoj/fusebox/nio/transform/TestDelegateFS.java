@@ -4,6 +4,7 @@ import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
 import eu.nahoj.fusebox.common.api.FileType;
 import eu.nahoj.fusebox.common.api.StatvfsData;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.nio.api.FuseboxFS;
 import org.cryptomator.jfuse.api.FileInfo;
 import org.cryptomator.jfuse.api.FuseOperations.Operation;
@@ -17,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +37,8 @@ class TestDelegateFS implements FuseboxFS {
 
     final Map<String, String> xattrs = new HashMap<>();
 
+    final List<InvalidationListener> invalidationListeners = new ArrayList<>();
+
     Set<Operation> supported = EnumSet.noneOf(Operation.class);
     Statvfs statvfs = StatvfsData.builder().build(); // not needed for current tests
 
@@ -60,6 +64,11 @@ class TestDelegateFS implements FuseboxFS {
         dirEntries.put(path, Arrays.stream(names).map(DirEntry::new).toList());
     }
 
+    @Override
+    public void addInvalidationListener(InvalidationListener listener) {
+        invalidationListeners.add(listener);
+    }
+
     @Override
     public Statvfs statfs(String path) {
         calls.add("statfs:" + path);
@@ -74,6 +83,17 @@ class TestDelegateFS implements FuseboxFS {
         return fa;
     }
 
+    @Override
+    public Map<String, FileAttributes> getattrBatch(String dir, List<String> names) {
+        calls.add("getattrBatch:" + dir + ":" + names);
+        Map<String, FileAttributes> result = new LinkedHashMap<>();
+        for (String name : names) {
+            FileAttributes fa = attrs.get(FuseboxFS.childPath(dir, name));
+            if (fa != null) result.put(name, fa);
+        }
+        return result;
+    }
+
     @Override
     public String getxattr(String path, String name) {
         calls.add("getxattr:" + path + ":" + name);
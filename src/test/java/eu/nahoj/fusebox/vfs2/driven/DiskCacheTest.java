@@ -0,0 +1,202 @@
+package eu.nahoj.fusebox.vfs2.driven;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.util.PositionalReadable;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.VFS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiskCacheTest {
+
+    private static final int CHUNK = 1024;
+
+    @TempDir
+    Path tmp;
+
+    private final byte[] data = new byte[10 * CHUNK + 100];
+    {
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 13 + i / CHUNK);
+    }
+
+    private final AtomicInteger remoteReads = new AtomicInteger();
+
+    private PositionalReadable remote() {
+        return new PositionalReadable() {
+            @Override
+            public int readAt(ByteBuffer dst, long offset) {
+                remoteReads.incrementAndGet();
+                if (offset >= data.length) return -1;
+                int n = (int) Math.min(dst.remaining(), data.length - offset);
+                dst.put(data, (int) offset, n);
+                return n;
+            }
+
+            @Override
+            public long size() {
+                return data.length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    void chunks_are_fetched_once_and_survive_a_restart() throws Exception {
+        Path dir = tmp.resolve("cache");
+        try (var cache = new DiskCache(dir, 1 << 20, CHUNK, false)) {
+            try (var r = cache.open("sftp://host/f", data.length, 42, remote())) {
+                assertThat(read(r, 500, 3 * CHUNK)).isEqualTo(slice(500, 3 * CHUNK));
+                assertThat(remoteReads.get()).isEqualTo(4);
+                assertThat(read(r, CHUNK, 10)).isEqualTo(slice(CHUNK, 10));
+                assertThat(read(r, data.length - 50, 100)).isEqualTo(slice(data.length - 50, 50));
+                assertThat(remoteReads.get()).isEqualTo(5);
+            }
+        }
+
+        try (var cache = new DiskCache(dir, 1 << 20, CHUNK, false)) {
+            assertThat(cache.usedBytes()).isEqualTo(4 * CHUNK + 100);
+            try (var r = cache.open("sftp://host/f", data.length, 42, remote())) {
+                assertThat(read(r, 0, 4 * CHUNK)).isEqualTo(slice(0, 4 * CHUNK));
+                assertThat(remoteReads.get()).isEqualTo(5);
+            }
+            // Changed remotely
+            try (var r = cache.open("sftp://host/f", data.length, 43, remote())) {
+                assertThat(read(r, 0, 10)).isEqualTo(slice(0, 10));
+                assertThat(remoteReads.get()).isEqualTo(6);
+            }
+        }
+    }
+
+    @Test
+    void files_with_an_unknown_modification_time_are_not_cached() throws Exception {
+        try (var cache = new DiskCache(tmp.resolve("cache"), 1 << 20, CHUNK, true)) {
+            PositionalReadable remote = remote();
+            try (var r = cache.open("a", data.length, 0, remote)) {
+                assertThat(r).isSameAs(remote);
+            }
+            assertThat(cache.usedBytes()).isZero();
+        }
+    }
+
+    @Test
+    void concurrent_handles_opened_and_closed_while_prefetching_read_the_right_bytes() throws Exception {
+        try (var cache = new DiskCache(tmp.resolve("cache"), data.length, CHUNK, true)) {
+            List<Future<?>> readers = new ArrayList<>();
+            try (ExecutorService pool = Executors.newFixedThreadPool(8)) {
+                for (int i = 0; i < 64; i++) {
+                    int version = 1 + i / 16;
+                    int offset = (i * 997) % data.length;
+                    readers.add(pool.submit(() -> {
+                        try (var r = cache.open("a", data.length, version, remote())) {
+                            int size = Math.min(3 * CHUNK, data.length - offset);
+                            assertThat(read(r, offset, size)).isEqualTo(slice(offset, size));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : readers) f.get();
+            }
+        }
+    }
+
+    @Test
+    void prefetch_fetches_the_whole_file_and_budget_evicts_closed_files() throws Exception {
+        try (var cache = new DiskCache(tmp.resolve("cache"), data.length + CHUNK, CHUNK, true)) {
+            try (var r = cache.open("a", data.length, 1, remote())) {
+                assertThat(read(r, data.length - 1, 1)).isEqualTo(slice(data.length - 1, 1));
+                while (cache.usedBytes() < data.length) Thread.sleep(1);
+                assertThat(read(r, 0, data.length)).isEqualTo(data);
+            }
+            try (var r = cache.open("b", data.length, 1, remote())) {
+                assertThat(read(r, 0, data.length)).isEqualTo(data);
+                assertThat(cache.usedBytes()).isEqualTo(data.length);
+            }
+        }
+        try (var files = Files.list(tmp.resolve("cache"))) {
+            assertThat(files.count()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void prefetch_bounds_the_fetches_in_flight() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        PositionalReadable fast = remote();
+        PositionalReadable slow = new PositionalReadable() {
+            @Override
+            public int readAt(ByteBuffer dst, long offset) throws IOException {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                    return fast.readAt(dst, offset);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+
+            @Override
+            public long size() {
+                return data.length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (var cache = new DiskCache(tmp.resolve("cache"), 1 << 20, CHUNK, true);
+             var r = cache.open("a", data.length, 1, slow)) {
+            while (cache.usedBytes() < data.length) Thread.sleep(1);
+            assertThat(read(r, 0, data.length)).isEqualTo(data);
+        }
+        assertThat(maxInFlight.get()).isBetween(1, DiskCache.MAX_CONCURRENT_FETCHES);
+    }
+
+    @Test
+    void vfs_fs_reads_through_the_cache() throws Exception {
+        Path root = Files.createDirectory(tmp.resolve("remote"));
+        Files.write(root.resolve("f.bin"), data);
+        try (FileObject rootFo = VFS.getManager().resolveFile(root.toUri());
+             var cache = new DiskCache(tmp.resolve("cache"), 1 << 20, CHUNK, false)) {
+            VfsFS fs = new VfsFS(rootFo, cache);
+            try (FuseboxContent content = fs.resolveFile("f.bin").openReadable()) {
+                ByteBuffer buf = ByteBuffer.allocate(data.length);
+                assertThat(content.readAt(buf, 0)).isEqualTo(data.length);
+                assertThat(buf.array()).isEqualTo(data);
+            }
+            assertThat(cache.usedBytes()).isEqualTo(data.length);
+        }
+    }
+
+    private static byte[] read(PositionalReadable r, long offset, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = r.readAt(buf, offset);
+        byte[] out = new byte[n];
+        buf.flip().get(out);
+        return out;
+    }
+
+    private byte[] slice(int offset, int size) {
+        byte[] out = new byte[size];
+        System.arraycopy(data, offset, out, 0, size);
+        return out;
+    }
+}
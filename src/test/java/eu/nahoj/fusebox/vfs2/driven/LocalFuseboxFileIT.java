@@ -2,7 +2,10 @@ package eu.nahoj.fusebox.vfs2.driven;
 
 import eu.nahoj.fusebox.common.api.DirEntry;
 import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.IsDirectoryException;
+import eu.nahoj.fusebox.common.watch.InvalidationListener;
 import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
 import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemManager;
@@ -13,10 +16,18 @@ import org.springframework.lang.Nullable;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class LocalFuseboxFileIT {
 
@@ -62,4 +73,90 @@ class LocalFuseboxFileIT {
                 .extracting(DirEntry::name)
                 .contains("hello.txt");
     }
+
+    @Test
+    void at_uses_a_manager_with_only_the_local_provider() throws Exception {
+        Path tmp = Files.createTempDirectory("vfs2test");
+        Files.writeString(tmp.resolve("hello.txt"), "hello world", StandardCharsets.UTF_8);
+
+        LocalFS fs = LocalFS.at(tmp.toString());
+
+        assertThat(LocalFS.manager().getSchemes()).containsExactly("file");
+        assertThat(fs.resolveFile("hello.txt").getAttributes().size()).isEqualTo(11L);
+    }
+
+    @Test
+    void create_write_move_and_link_files() throws Exception {
+        Path tmp = Files.createTempDirectory("vfs2test");
+        Path source = Files.writeString(tmp.resolve("staged.tmp"), "new content", StandardCharsets.UTF_8);
+        rootFo = VFS.getManager().resolveFile(tmp.toUri().toString());
+        LocalFS fs = new LocalFS(rootFo);
+
+        FuseboxFile f = fs.resolveFile("a.txt");
+        f.createFile(PosixFilePermissions.fromString("rw-r--r--"));
+        assertThat(f.getAttributes().size()).isZero();
+        f.writeContent(source);
+        assertThat(Files.readString(tmp.resolve("a.txt"))).isEqualTo("new content");
+
+        f.moveTo(fs.resolveFile("b.txt"));
+        assertThat(tmp.resolve("a.txt")).doesNotExist();
+        assertThat(Files.readString(tmp.resolve("b.txt"))).isEqualTo("new content");
+
+        fs.resolveFile("link").createSymbolicLink("b.txt");
+        assertThat(fs.resolveFile("link").getTargetPath()).isEqualTo("b.txt");
+    }
+
+    @Test
+    void rename_onto_a_non_empty_directory_fails_and_keeps_it() throws Exception {
+        Path tmp = Files.createTempDirectory("vfs2test");
+        Files.createDirectories(tmp.resolve("src"));
+        Files.createDirectories(tmp.resolve("dst"));
+        Files.writeString(tmp.resolve("dst/keep.txt"), "keep", StandardCharsets.UTF_8);
+        Files.writeString(tmp.resolve("file.txt"), "file", StandardCharsets.UTF_8);
+        rootFo = VFS.getManager().resolveFile(tmp.toUri().toString());
+
+        // Generic commons-vfs moves, which would delete the target recursively
+        VfsFS vfs = new VfsFS(rootFo);
+        assertThatThrownBy(() -> vfs.resolveFile("src").moveTo(vfs.resolveFile("dst")))
+                .isInstanceOf(DirectoryNotEmptyException.class);
+        assertThatThrownBy(() -> vfs.resolveFile("file.txt").moveTo(vfs.resolveFile("dst")))
+                .isInstanceOf(IsDirectoryException.class);
+        assertThatThrownBy(() -> vfs.resolveFile("src").moveTo(vfs.resolveFile("file.txt")))
+                .isInstanceOf(NotDirectoryException.class);
+
+        // rename(2)
+        LocalFS fs = new LocalFS(rootFo);
+        assertThatThrownBy(() -> fs.resolveFile("src").moveTo(fs.resolveFile("dst")))
+                .isInstanceOf(FileSystemException.class)
+                .hasMessageContaining("not empty");
+
+        assertThat(Files.readString(tmp.resolve("dst/keep.txt"))).isEqualTo("keep");
+        assertThat(tmp.resolve("src")).isDirectory();
+
+        Files.delete(tmp.resolve("dst/keep.txt"));
+        fs.resolveFile("src").moveTo(fs.resolveFile("dst"));
+        assertThat(tmp.resolve("src")).doesNotExist();
+        assertThat(fs.resolveFile("").getEntries()).extracting(DirEntry::name).containsExactlyInAnyOrder("dst", "file.txt");
+    }
+
+    @Test
+    void watched_changes_refresh_listings_and_reach_layers_under_mount_names() throws Exception {
+        Path tmp = Files.createTempDirectory("vfs2test");
+        Files.createDirectory(tmp.resolve("docs"));
+        LocalFS local = LocalFS.at(tmp.toString()).watchChanges();
+        try {
+            FuseboxFS fs = local.mapNames(p -> p.endsWith(".md"), p -> p.endsWith(".html"),
+                    name -> name.replace(".md", ".html"), name -> name.replace(".html", ".md"));
+            BlockingQueue<String> invalidated = new LinkedBlockingQueue<>();
+            fs.addInvalidationListener(InvalidationListener.of(invalidated::add, () -> {}));
+            assertThat(local.resolveFile("docs").getEntries()).isEmpty();
+
+            Files.writeString(tmp.resolve("docs/a.md"), "# A", StandardCharsets.UTF_8);
+
+            assertThat(invalidated.poll(10, SECONDS)).isEqualTo("docs/a.html");
+            assertThat(local.resolveFile("docs").getEntries()).extracting(DirEntry::name).containsExactly("a.md");
+        } finally {
+            local.stopWatching();
+        }
+    }
 }
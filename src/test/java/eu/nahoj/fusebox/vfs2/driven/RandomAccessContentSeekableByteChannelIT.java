@@ -11,11 +11,14 @@ import org.junit.jupiter.api.Test;
 import org.springframework.lang.Nullable;
 
 import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -138,6 +141,47 @@ class RandomAccessContentSeekableByteChannelIT {
         }
     }
 
+    @Test
+    void sequential_reads_into_direct_buffers_do_not_seek() throws Exception {
+        byte[] data = new byte[200_000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i % 251);
+        Path tmp = Files.createTempDirectory("rac-it-sequential");
+        Files.write(tmp.resolve("seq.bin"), data);
+        rootFo = VFS.getManager().resolveFile(tmp.toUri().toString());
+
+        FileObject fo = rootFo.resolveFile("seq.bin");
+        AtomicInteger seeks = new AtomicInteger();
+        RandomAccessContent rac = fo.getContent().getRandomAccessContent(RandomAccessMode.READ);
+        RandomAccessContent counting = (RandomAccessContent) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{RandomAccessContent.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("seek")) seeks.incrementAndGet();
+                    try {
+                        return method.invoke(rac, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        try (var channel = new RandomAccessContentSeekableByteChannel(counting)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(128 * 1024);
+            byte[] read = new byte[data.length];
+            int total = 0;
+            int n;
+            while ((n = channel.read(buf.clear())) > 0) {
+                buf.flip().get(read, total, n);
+                total += n;
+            }
+            assertThat(read).isEqualTo(data);
+            assertThat(seeks.get()).isZero();
+
+            channel.position(10);
+            ByteBuffer heap = ByteBuffer.allocate(5);
+            assertThat(channel.read(heap)).isEqualTo(5);
+            assertThat(heap.array()).containsExactly(10, 11, 12, 13, 14);
+            assertThat(seeks.get()).isEqualTo(1);
+        }
+    }
+
     private static String contentAsString(SeekableByteChannel ch) throws Exception {
         long original = ch.position();
         try {
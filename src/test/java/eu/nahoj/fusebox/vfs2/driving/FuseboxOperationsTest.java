@@ -0,0 +1,81 @@
+package eu.nahoj.fusebox.vfs2.driving;
+
+import eu.nahoj.fusebox.common.api.FileAttributes;
+import eu.nahoj.fusebox.common.api.FileType;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import org.cryptomator.jfuse.api.Errno;
+import org.cryptomator.jfuse.api.FileInfo;
+import org.cryptomator.jfuse.api.FuseOperations.Operation;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FuseboxOperationsTest {
+
+    private static final int EACCES = 13;
+
+    /// Read-only file on a writable FS
+    private static final class ReadOnlyFile implements FuseboxFile {
+
+        @Override
+        public FuseboxFS fs() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path path() {
+            return Path.of("f");
+        }
+
+        @Override
+        public FileAttributes getAttributes() {
+            return FileAttributes.minimal(FileType.REGULAR_FILE, 3);
+        }
+    }
+
+    private final ReadOnlyFile file = new ReadOnlyFile();
+
+    private final FuseboxOperations ops = new FuseboxOperations(new FuseboxFS() {
+        @Override
+        public Set<Operation> supportedOperations() {
+            return EnumSet.of(Operation.OPEN, Operation.WRITE, Operation.TRUNCATE);
+        }
+
+        @Override
+        public FuseboxFile resolveFile(String path) {
+            return file;
+        }
+    }, errno());
+
+    private static Errno errno() {
+        Errno errno = mock(Errno.class);
+        when(errno.eacces()).thenReturn(EACCES);
+        return errno;
+    }
+
+    private static FileInfo openedWith(StandardOpenOption... flags) {
+        FileInfo fi = mock(FileInfo.class);
+        when(fi.getOpenFlags()).thenReturn(Set.of(flags));
+        return fi;
+    }
+
+    @Test
+    void opening_a_read_only_file_for_writing_is_refused() {
+        assertThat(ops.open("/f", openedWith(StandardOpenOption.WRITE))).isEqualTo(-EACCES);
+        assertThat(ops.open("/f", openedWith(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)))
+                .isEqualTo(-EACCES);
+    }
+
+    @Test
+    void truncating_a_read_only_file_is_refused() {
+        assertThat(ops.truncate("/f", 0, null)).isEqualTo(-EACCES);
+    }
+}
@@ -0,0 +1,162 @@
+package eu.nahoj.fusebox.vfs2.driving;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import eu.nahoj.fusebox.vfs2.transform.StringContent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StagedWritesTest {
+
+    private final StagedWrites staged = new StagedWrites(2, Duration.ofMillis(1));
+
+    @AfterEach
+    void tearDown() {
+        staged.close();
+    }
+
+    /// Remote file whose first `failures` uploads fail
+    private static final class RemoteFile implements FuseboxFile {
+        volatile String content;
+        final AtomicInteger uploads = new AtomicInteger();
+        final int failures;
+
+        RemoteFile(String content, int failures) {
+            this.content = content;
+            this.failures = failures;
+        }
+
+        @Override
+        public FuseboxFS fs() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Path path() {
+            return Path.of("f");
+        }
+
+        @Override
+        public FuseboxContent openReadable() {
+            return new StringContent(content);
+        }
+
+        @Override
+        public void writeContent(Path source) throws IOException {
+            if (uploads.incrementAndGet() <= failures) throw new IOException("Connection reset");
+            content = Files.readString(source, UTF_8);
+        }
+    }
+
+    @Test
+    void writes_are_staged_shared_with_readers_and_uploaded_on_release() throws Exception {
+        RemoteFile remote = new RemoteFile("hello world", 0);
+
+        var writer = staged.open("f", remote, false, true);
+        writer.write(ByteBuffer.wrap("HELLO".getBytes(UTF_8)), 0);
+        try (var reader = staged.openIfStaged("f")) {
+            assertThat(reader).isNotNull();
+            assertThat(reader.asString()).isEqualTo("HELLO world");
+        }
+        writer.truncate(8);
+        assertThat(staged.stagedSize("f")).isEqualTo(8);
+        assertThat(remote.uploads.get()).isZero();
+
+        writer.close();
+        staged.syncPath("f");
+        assertThat(remote.content).isEqualTo("HELLO wo");
+        while (staged.stagedSize("f") != null) Thread.sleep(1);
+        assertThat(staged.openIfStaged("f")).isNull();
+    }
+
+    @Test
+    void a_file_renamed_over_an_open_one_is_not_overwritten_on_its_release() throws Exception {
+        // The editor pattern: write a temporary file, then rename it over the file still open
+        RemoteFile target = new RemoteFile("old", 0);
+        var open = staged.open("f", target, false, true);
+        open.write(ByteBuffer.wrap("OLD".getBytes(UTF_8)), 0);
+
+        RemoteFile temp = new RemoteFile("", 0);
+        try (var h = staged.open("f.tmp", temp, true, true)) {
+            h.write(ByteBuffer.wrap("new".getBytes(UTF_8)), 0);
+        }
+        staged.syncPath("f.tmp");
+        staged.renamed("f.tmp", "f", temp, p -> {
+            throw new AssertionError("nothing under a file");
+        });
+
+        open.close();
+        staged.close();
+        assertThat(target.uploads.get()).isZero();
+        assertThat(temp.content).isEqualTo("new");
+    }
+
+    @Test
+    void files_staged_under_a_renamed_directory_follow_it() throws Exception {
+        RemoteFile before = new RemoteFile("", 0);
+        RemoteFile after = new RemoteFile("", 0);
+        var h = staged.open("d/f", before, true, true);
+        h.write(ByteBuffer.wrap("data".getBytes(UTF_8)), 0);
+
+        staged.renamed("d", "e", new RemoteFile("", 0), p -> {
+            assertThat(p).isEqualTo("e/f");
+            return after;
+        });
+        assertThat(staged.stagedSize("d/f")).isNull();
+        assertThat(staged.stagedSize("e/f")).isEqualTo(4);
+
+        h.close();
+        staged.syncPath("e");
+        assertThat(after.content).isEqualTo("data");
+        assertThat(before.uploads.get()).isZero();
+    }
+
+    @Test
+    void uploads_are_held_back_while_a_file_is_deleted_and_resume_if_that_fails() throws Exception {
+        RemoteFile remote = new RemoteFile("", 0);
+        var h = staged.open("f", remote, true, true);
+        h.write(ByteBuffer.wrap("data".getBytes(UTF_8)), 0);
+
+        staged.deleting("f");
+        h.close();
+        Thread.sleep(20);
+        assertThat(remote.uploads.get()).isZero();
+
+        staged.notDeleted("f");
+        staged.syncPath("f");
+        assertThat(remote.content).isEqualTo("data");
+    }
+
+    @Test
+    void failed_uploads_are_retried_then_reported() throws Exception {
+        RemoteFile flaky = new RemoteFile("", StagedWrites.MAX_ATTEMPTS - 1);
+        try (var h = staged.open("flaky", flaky, true, true)) {
+            h.write(ByteBuffer.wrap("data".getBytes(UTF_8)), 0);
+            h.sync();
+            assertThat(h.failure()).isNull();
+        }
+        assertThat(flaky.content).isEqualTo("data");
+
+        RemoteFile down = new RemoteFile("", Integer.MAX_VALUE);
+        var h = staged.open("down", down, true, true);
+        h.write(ByteBuffer.wrap("data".getBytes(UTF_8)), 0);
+        assertThatThrownBy(h::sync).hasMessage("Connection reset");
+        assertThat(h.failure()).isNotNull();
+        assertThat(down.uploads.get()).isEqualTo(StagedWrites.MAX_ATTEMPTS);
+        h.close();
+        // Kept for the next attempt
+        assertThat(staged.stagedSize("down")).isEqualTo(4);
+    }
+}
@@ -0,0 +1,45 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BytesContentTest {
+
+    @Test
+    void concurrent_reads_return_their_own_slices() {
+        byte[] data = new byte[4096];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        BytesContent content = new BytesContent(data);
+
+        IntStream.range(0, 1000).parallel().forEach(i -> {
+            int offset = (i * 37) % data.length;
+            ByteBuffer buf = ByteBuffer.allocate(100);
+            int n = content.readAt(buf, offset);
+            assertThat(n).isEqualTo(Math.min(100, data.length - offset));
+            for (int j = 0; j < n; j++) assertThat(buf.get(j)).isEqualTo(data[offset + j]);
+        });
+        assertThat(content.readAt(ByteBuffer.allocate(10), data.length)).isEqualTo(-1);
+    }
+
+    @Test
+    void mappers_work_on_bytes_and_strings_are_encoded_once() throws Exception {
+        FuseboxContent src = new StringContent("héllo");
+        assertThat(src.size()).isEqualTo(6);
+
+        FuseboxContent upper = src.mapAsBytes(b -> new String(b, UTF_8).toUpperCase().getBytes(UTF_8));
+        assertThat(upper.asString()).isEqualTo("HÉLLO");
+
+        FuseboxContent tail = src.mapAsBuffer(b -> b.position(1).slice());
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        assertThat(tail.readAt(buf, 2)).isEqualTo(3);
+        assertThat(new String(buf.array(), 0, 3, UTF_8)).isEqualTo("llo");
+        long channelSize = tail.withByteChannelUncheckedIO(ch -> ch.size());
+        assertThat(channelSize).isEqualTo(5);
+    }
+}
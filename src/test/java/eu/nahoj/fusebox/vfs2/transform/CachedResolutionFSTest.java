@@ -0,0 +1,92 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxFS;
+import eu.nahoj.fusebox.vfs2.api.FuseboxFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachedResolutionFSTest {
+
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    private final FuseboxFS base = new FuseboxFS() {
+        @Override
+        public FuseboxFile resolveFile(String path) {
+            resolutions.incrementAndGet();
+            FuseboxFS fs = this;
+            return new FuseboxFile() {
+                @Override public FuseboxFS fs() { return fs; }
+                @Override public Path path() { return Path.of(path); }
+                @Override public void delete() {}
+            };
+        }
+    };
+
+    @Test
+    void stat_storm_through_mapped_names_resolves_each_path_once() throws Exception {
+        CachedResolutionFS fs = base
+                .mapNames(_ -> true, _ -> true, name -> name + "1", name -> name.replaceFirst("1$", ""))
+                .withCachedResolution(100, Duration.ofMinutes(1));
+
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++) {
+                assertThat(fs.resolveFile("a1/b1/f" + i + "1").path()).isEqualTo(Path.of("a1/b1/f" + i + "1"));
+            }
+        }
+
+        assertThat(resolutions.get()).isEqualTo(10);
+        assertThat(fs.hitRate()).isEqualTo(0.98);
+    }
+
+    @Test
+    void delete_invalidates_subtree_and_lru_is_bounded() throws Exception {
+        CachedResolutionFS fs = base.withCachedResolution(3, Duration.ofMinutes(1));
+        fs.resolveFile("d");
+        fs.resolveFile("d/x");
+        fs.resolveFile("dx");
+        fs.resolveFile("d").delete();
+
+        assertThat(fs.size()).isEqualTo(1);
+        fs.resolveFile("dx");
+        assertThat(fs.hits()).isEqualTo(2);
+
+        fs.resolveFile("p");
+        fs.resolveFile("q");
+        fs.resolveFile("r");
+        assertThat(fs.size()).isEqualTo(3);
+        assertThat(fs.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void resolution_racing_with_an_invalidation_is_not_kept() throws Exception {
+        CachedResolutionFS[] cached = new CachedResolutionFS[1];
+        FuseboxFS invalidatingBase = new FuseboxFS() {
+            @Override
+            public FuseboxFile resolveFile(String path) throws IOException {
+                FuseboxFile file = base.resolveFile(path);
+                if (resolutions.get() == 1) cached[0].invalidate(path); // Arrives while resolving
+                return file;
+            }
+        };
+        CachedResolutionFS fs = cached[0] = invalidatingBase.withCachedResolution(10, Duration.ofMinutes(1));
+
+        fs.resolveFile("f");
+        fs.resolveFile("f");
+        fs.resolveFile("f");
+        assertThat(resolutions.get()).isEqualTo(2);
+    }
+
+    @Test
+    void expired_entries_are_resolved_again() throws Exception {
+        CachedResolutionFS fs = base.withCachedResolution(10, Duration.ZERO);
+        fs.resolveFile("f");
+        fs.resolveFile("f");
+        assertThat(resolutions.get()).isEqualTo(2);
+    }
+}
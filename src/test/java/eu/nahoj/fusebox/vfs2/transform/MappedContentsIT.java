@@ -14,7 +14,9 @@ import org.springframework.lang.Nullable;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static eu.nahoj.fusebox.common.util.Functions.glob;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -72,4 +74,35 @@ class MappedContentsIT {
             assertThat(readable.asString()).isEqualTo("abc");
         }
     }
+
+    @Test
+    void mapped_content_is_shared_across_resolutions_until_the_source_changes() throws Exception {
+        Path tmp = Files.createTempDirectory("vfs2mappedtest");
+        Path md = tmp.resolve("readme.md");
+        Files.writeString(md, "# One\n", UTF_8);
+        rootFo = VFS.getManager().resolveFile(tmp.toUri().toString());
+
+        AtomicInteger renders = new AtomicInteger();
+        MarkdownToHtmlMapper mapper = new MarkdownToHtmlMapper();
+        FuseboxFS fs = new LocalFS(rootFo).mapFiles(glob("**.md"), file -> file.mapContent(c -> c.mapAsString(s -> {
+            renders.incrementAndGet();
+            return mapper.apply(s);
+        })));
+
+        // getattr, open, getattr: each resolves the file anew
+        long size = fs.resolveFile("readme.md").getAttributes().size();
+        try (FuseboxContent readable = fs.resolveFile("readme.md").openReadable()) {
+            assertThat(readable.asString()).contains("<h1>One</h1>");
+        }
+        assertThat(fs.resolveFile("readme.md").getAttributes().size()).isEqualTo(size);
+        assertThat(renders.get()).isEqualTo(1);
+
+        Files.writeString(md, "# Two, longer\n", UTF_8);
+        Files.setLastModifiedTime(md, FileTime.fromMillis(Files.getLastModifiedTime(md).toMillis() + 2000));
+        rootFo.refresh();
+        try (FuseboxContent readable = fs.resolveFile("readme.md").openReadable()) {
+            assertThat(readable.asString()).contains("<h1>Two, longer</h1>");
+        }
+        assertThat(renders.get()).isEqualTo(2);
+    }
 }
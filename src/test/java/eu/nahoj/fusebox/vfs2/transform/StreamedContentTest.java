@@ -0,0 +1,105 @@
+package eu.nahoj.fusebox.vfs2.transform;
+
+import eu.nahoj.fusebox.vfs2.api.FuseboxContent;
+import org.junit.jupiter.api.Test;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamedContentTest {
+
+    private final byte[] data = new byte[1024 * 1024];
+    {
+        for (int i = 0; i < data.length; i++) data[i] = (byte) ('a' + i % 26);
+    }
+
+    private final AtomicLong pulled = new AtomicLong();
+
+    /** Upper-cases and counts the bytes pulled from the source */
+    private InputStream upperCase(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                for (int i = off; i < off + n; i++) b[i] = (byte) Character.toUpperCase(b[i]);
+                if (n > 0) pulled.addAndGet(n);
+                return n;
+            }
+        };
+    }
+
+    @Test
+    void reads_produce_only_what_they_need_and_once() throws Exception {
+        FuseboxContent content = new BytesContent(data).mapAsStream(this::upperCase);
+
+        assertThat(read(content, 100, 10)).isEqualTo("WXYZABCDEF");
+        long afterFirstRead = pulled.get();
+        assertThat(afterFirstRead).isLessThanOrEqualTo(2L * StreamedContent.CHUNK_SIZE);
+
+        assertThat(read(content, 0, 4)).isEqualTo("ABCD");
+        assertThat(pulled.get()).isEqualTo(afterFirstRead);
+
+        assertThat(content.size()).isEqualTo(data.length);
+        assertThat(pulled.get()).isEqualTo(data.length);
+        assertThat(read(content, data.length - 2, 10)).isEqualTo("UV");
+        assertThat(content.readAt(ByteBuffer.allocate(1), data.length)).isEqualTo(-1);
+    }
+
+    @Test
+    void the_last_reference_releases_the_stream() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        StreamedContent content = (StreamedContent) new BytesContent(data).mapAsStream(in -> closeCounting(in, closed));
+        assertThat(read(content, 0, 4)).isEqualTo("abcd");
+
+        assertThat(content.retain()).isTrue();
+        content.close();
+        assertThat(closed.get()).isZero();
+        assertThat(read(content, 4, 4)).isEqualTo("efgh");
+
+        content.close();
+        assertThat(closed.get()).isEqualTo(1);
+        assertThat(content.retain()).isFalse();
+    }
+
+    @Test
+    void cache_weighs_streamed_contents_and_releases_them_on_eviction() throws Exception {
+        var cache = new MappedContentCache(3 * StreamedContent.OPEN_STREAM_WEIGHT);
+        AtomicInteger closed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            var key = new MappedContentCache.Key("f" + i, data.length, 0);
+            try (FuseboxContent content = cache.get(key,
+                    () -> new BytesContent(data).mapAsStream(in -> closeCounting(in, closed)))) {
+                read(content, 0, 4);
+            }
+        }
+        // Each has spilled a chunk on top of its open stream, so the third one did not fit with the first
+        assertThat(closed.get()).isEqualTo(1);
+        assertThat(cache.bytes()).isLessThanOrEqualTo(3 * StreamedContent.OPEN_STREAM_WEIGHT);
+
+        cache.invalidateAll();
+        assertThat(closed.get()).isEqualTo(3);
+        assertThat(cache.bytes()).isZero();
+    }
+
+    private static InputStream closeCounting(InputStream in, AtomicInteger closed) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                closed.incrementAndGet();
+                super.close();
+            }
+        };
+    }
+
+    private static String read(FuseboxContent content, long offset, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = content.readAt(buf, offset);
+        return new String(buf.array(), 0, n);
+    }
+}
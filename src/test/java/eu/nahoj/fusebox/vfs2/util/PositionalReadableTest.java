@@ -0,0 +1,85 @@
+package eu.nahoj.fusebox.vfs2.util;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.VFS;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PositionalReadableTest {
+
+    private static final int READERS = 16;
+
+    @TempDir
+    Path tmp;
+
+    private final byte[] data = new byte[1024 * 1024];
+    {
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 7 + i / 4096);
+    }
+
+    @Test
+    void file_channel_serves_concurrent_readers() throws Exception {
+        Path file = Files.write(tmp.resolve("f"), data);
+        try (var readable = new FileChannelReadable(FileChannel.open(file, READ))) {
+            assertThat(readable.size()).isEqualTo(data.length);
+            readConcurrently(readable);
+        }
+    }
+
+    @Test
+    void pool_serves_concurrent_readers_with_a_bounded_number_of_instances() throws Exception {
+        Path file = Files.write(tmp.resolve("f"), data);
+        try (FileObject fo = VFS.getManager().resolveFile(file.toUri())) {
+            AtomicInteger opened = new AtomicInteger(1);
+            RandomAccessContent first = fo.getContent().getRandomAccessContent(RandomAccessMode.READ);
+            try (var pool = new RandomAccessContentPool(first, () -> {
+                opened.incrementAndGet();
+                return fo.getContent().getRandomAccessContent(RandomAccessMode.READ);
+            }, 4)) {
+                assertThat(pool.size()).isEqualTo(data.length);
+                readConcurrently(pool);
+            }
+            assertThat(opened.get()).isBetween(1, 4);
+        }
+    }
+
+    /** Each reader reads its own stripe of the file in 4 KiB reads, interleaved with the others */
+    private void readConcurrently(PositionalReadable readable) throws Exception {
+        int stripe = data.length / READERS;
+        List<Callable<Void>> jobs = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            int start = r * stripe;
+            jobs.add(() -> {
+                ByteBuffer buf = ByteBuffer.allocate(4096);
+                for (int off = start; off < start + stripe; off += buf.capacity()) {
+                    buf.clear();
+                    int n = readable.readAt(buf, off);
+                    assertThat(n).isEqualTo(buf.capacity());
+                    for (int i = 0; i < n; i++) assertThat(buf.get(i)).isEqualTo(data[off + i]);
+                }
+                return null;
+            });
+        }
+        try (ExecutorService pool = Executors.newFixedThreadPool(READERS)) {
+            for (Future<Void> f : pool.invokeAll(jobs)) f.get();
+        }
+        assertThat(readable.readAt(ByteBuffer.allocate(1), data.length)).isEqualTo(-1);
+    }
+}